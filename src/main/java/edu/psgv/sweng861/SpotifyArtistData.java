@@ -1,17 +1,20 @@
 package edu.psgv.sweng861;
 
+import com.neovisionaries.i18n.CountryCode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import se.michaelthelin.spotify.model_objects.special.SearchResult;
 import se.michaelthelin.spotify.model_objects.specification.Artist;
 import se.michaelthelin.spotify.model_objects.specification.Track;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.net.URL;
-
-import javax.imageio.IIOException;
-import javax.imageio.ImageIO;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.ImageIcon;
 
 /**
  * SpotifyArtistData stores the data from the API requests
@@ -19,13 +22,20 @@ import java.util.List;
  * in the GUI. It stores each artist's name, genres they play
  * in, number of followers, popularity rating, names of the
  * artists related to them, their top tracks, and the first
- * image of them that is in the search result.
+ * image of them that is in the search result. The related
+ * artists, top tracks and images may still be pending when
+ * the object is handed to the GUI, in which case listeners
+ * are told as each of them arrives. The values of an artist are
+ * the ones held by the shared SpotifyEntityStore, so an artist
+ * kept by several results is only stored once.
  * @author Matthew Bollinger
  */
 public class SpotifyArtistData {
-	
+
+	private static final Logger logger = LogManager.getLogger(SpotifyArtistData.class);
+
 	// Max number to be inserted into array list
-	private int maxInserts; 
+	private int maxInserts;
 
 	// Contains the name of each artist
 	private final ArrayList<String> artistNames = new ArrayList<>();
@@ -33,30 +43,92 @@ public class SpotifyArtistData {
 	private final ArrayList<ArrayList<String>> artistGenres = new ArrayList<>();
 	// Contains the number of followers that each artist has
 	private final ArrayList<Integer> artistFollowers = new ArrayList<>();
-	// Contains the image of each artist in the form of a BufferedImage object
-	private final ArrayList<BufferedImage> artistImages = new ArrayList<>();
+	// Contains the compressed bytes of the image of each artist, decoded through the shared image store
+	private final ArrayList<byte[]> artistImageBytes = new ArrayList<>();
 	// Contains the simplified popularity of each artist
 	private final ArrayList<String> artistPopularities = new ArrayList<>();
+	// Contains the popularity number (0..100) of each artist
+	private final ArrayList<Integer> artistPopularityScores = new ArrayList<>();
 	// Contains the names of the related artists of each artist
 	private final ArrayList<ArrayList<String>> artistRelatedArtists = new ArrayList<>();
 	// Contains the top track of each artist
 	private final ArrayList<String> artistTopTracks = new ArrayList<>();
+	// Contains the URL of the first image of each artist
+	private final ArrayList<String> artistImageUrls = new ArrayList<>();
+	// Contains the Spotify ID of each artist
+	private final ArrayList<String> artistIds = new ArrayList<>();
+	// Contains the one copy of each artist, shared with every other result holding it
+	private final ArrayList<SpotifyEntityStore.ArtistEntity> artistEntities = new ArrayList<>();
+
+	// Whether the related artists, top track and image of each artist are still pending
+	private final BitSet relatedArtistsPending = new BitSet();
+	private final BitSet topTrackPending = new BitSet();
+	private final BitSet imagePending = new BitSet();
+
+	// Whether the related artists, top track and image of each artist have been requested
+	private final BitSet detailsRequested = new BitSet();
+	// Total number of results of the search, of which these are one page
+	private int total;
+	// When the result was fetched from Spotify, used to tell how stale a cached copy is
+	private volatile long fetchedAtMs = System.currentTimeMillis();
+	// Market the top tracks of the artists are requested for
+	private volatile CountryCode market = SpotifyRestRequester.DEFAULT_MARKET;
+
+	// Listeners told when a pending field of an artist arrives
+	private final List<SpotifyDataListener> listeners = new CopyOnWriteArrayList<>();
 
 	/**
 	 * SpotifyArtistData() constructor takes three arguments and
-	 * sets the number of maximum number of artists to get 
+	 * downloads the artist images through the default shared transport.
+	 * @param data is a SearchResult and is obtained from SpotifyRestRequester
+	 * @param relatedArtists is a double ArrayList that holds the related
+	 * artists of each artist
+	 * @param topTracks is a double ArrayList that holds the top tracks
+	 * of each artist
+	 */
+	public SpotifyArtistData(SearchResult data, ArrayList<ArrayList<Artist>> relatedArtists, ArrayList<ArrayList<Track>> topTracks) {
+		this(data, relatedArtists, topTracks, SpotifyHttpTransport.getDefault());
+	}
+
+	/**
+	 * SpotifyArtistData() constructor takes four arguments and
+	 * sets the number of maximum number of artists to get
 	 * information about. Afterwards, it sets the various values
 	 * of each artist in different ArrayLists.
 	 * @param data is a SearchResult and is obtained from SpotifyRestRequester
 	 * in order to get the data to be put into the ArrayLists.
-	 * @param relatedArtists is a double ArrayList that holds the related 
+	 * @param relatedArtists is a double ArrayList that holds the related
 	 * artists of each artist in order to obtain the names of said artists.
 	 * @param topTracks is a double ArrayList that holds the top tracks
 	 * of each artist. However, only one track will be obtained and used.
+	 * @param transport is the pooled transport used to download the images
 	 */
-	public SpotifyArtistData(SearchResult data, ArrayList<ArrayList<Artist>> relatedArtists, ArrayList<ArrayList<Track>> topTracks) {
+	public SpotifyArtistData(SearchResult data, ArrayList<ArrayList<Artist>> relatedArtists, ArrayList<ArrayList<Track>> topTracks, SpotifyHttpTransport transport) {
 		setMaxInserts(data);
-		setArtistValues(data, relatedArtists, topTracks);
+		setArtistValues(data.getArtists().getItems());
+		setArtistRelatedArtists(relatedArtists);
+		setArtistTopTracks(topTracks);
+		setArtistImages(transport);
+	}
+
+	/**
+	 * SpotifyArtistData() constructor takes the artists themselves
+	 * and sets the values that come with them. The related artists,
+	 * top tracks and images are left pending until they are set.
+	 * @param artists are the artists to store
+	 */
+	public SpotifyArtistData(Artist[] artists) {
+		maxInserts = artists.length;
+		setArtistValues(artists);
+	}
+
+	/**
+	 * SpotifyArtistData() constructor creates an empty object that
+	 * artists are added to one at a time, such as by the streaming
+	 * JSON parser.
+	 */
+	SpotifyArtistData() {
+		maxInserts = 0;
 	}
 
 	/**
@@ -69,57 +141,82 @@ public class SpotifyArtistData {
 		int size = data.getArtists().getTotal();
 		// Max number of artists that will be used is five
 		maxInserts = Math.min(size, 5);
+		total = size;
 	}
 
 	/**
-	 * setArtistValues() sets the various values of each artist
-	 * into multiple ArrayLists as well as double ArrayLists.
-	 * @param data
-	 * @param relatedArtists
-	 * @param topTracks
-	 */
-	private void setArtistValues(SearchResult data, ArrayList<ArrayList<Artist>> relatedArtists, ArrayList<ArrayList<Track>> topTracks) {
-		setArtistNames(data);
-		setArtistGenres(data);
-		setArtistFollowers(data);
-		setArtistPopularities(data);
-		setArtistRelatedArtists(relatedArtists);
-		setArtistTopTracks(topTracks);
-		setArtistImages(data);
+	 * setArtistValues() sets the values of each artist that
+	 * come with the artist itself into multiple ArrayLists and
+	 * marks the related artists, top tracks and images as pending.
+	 * @param artists
+	 */
+	private void setArtistValues(Artist[] artists) {
+		for (int i = 0; i < maxInserts; i++) {
+			Artist artist = artists[i];
+			// The image that best fits the picture is used, if there is one
+			String imageUrl = SpotifyImageStore.urlOf(artist.getImages());
+			addArtist(artist.getId(), artist.getName(), new ArrayList<>(List.of(artist.getGenres())),
+					artist.getFollowers().getTotal(), artist.getPopularity(), imageUrl);
+		}
 	}
 
 	/**
-	 * setArtistNames() sets the names of the artists
-	 * using the getName() method in the Artist class.
-	 * @param data
+	 * addArtist() adds the values of one artist to the end of
+	 * each ArrayList and marks its related artists, top track
+	 * and image as pending. The values kept are the ones of the
+	 * one copy of the artist in the entity store.
+	 * @param id is the Spotify ID of the artist
+	 * @param name is the name of the artist
+	 * @param genres are the genres the artist plays in
+	 * @param followers is the number of followers of the artist
+	 * @param popularity is the popularity number (0..100) of the artist
+	 * @param imageUrl is the URL of the first image of the artist, or null
 	 */
-	private void setArtistNames(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			artistNames.add(data.getArtists().getItems()[i].getName());
-		}
+	synchronized void addArtist(String id, String name, ArrayList<String> genres, int followers, int popularity, String imageUrl) {
+		int index = artistNames.size();
+		final SpotifyEntityStore.ArtistEntity artist = SpotifyEntityStore.getDefault().artist(id, name, genres, imageUrl);
+		artistEntities.add(artist);
+		artistIds.add(artist.getId());
+		artistNames.add(artist.getName());
+		artistGenres.add(artist.getGenres());
+		artistFollowers.add(followers);
+		artistPopularities.add(simplifyPopularity(popularity));
+		artistPopularityScores.add(popularity);
+		artistImageUrls.add(artist.getImageUrl());
+		artistRelatedArtists.add(new ArrayList<>());
+		artistTopTracks.add(null);
+		artistImageBytes.add(null);
+		relatedArtistsPending.set(index);
+		topTrackPending.set(index);
+		imagePending.set(index);
+		maxInserts = Math.max(maxInserts, artistNames.size());
 	}
 
 	/**
-	 * getArtistNames() returns the names of the artists.
-	 * @return an ArrayList of the names of the artists
+	 * addArtistFrom() adds the values that came with one artist of
+	 * another result, leaving its details pending.
+	 * @param source is the result holding the artist
+	 * @param index is the index of the artist in the source
 	 */
-	public ArrayList<String> getArtistNames() {
-		return artistNames;
+	void addArtistFrom(SpotifyArtistData source, int index) {
+		addArtist(source.artistIds.get(index), source.artistNames.get(index), source.artistGenres.get(index),
+				source.artistFollowers.get(index), source.artistPopularityScores.get(index), source.artistImageUrls.get(index));
 	}
 
 	/**
-	 * setArtistGenres() sets the various genres that
-	 * each artist plays in using the getGenres() method
-	 * from the Artist class.
-	 * @param data
+	 * getArtistIds() returns the Spotify IDs of the artists.
+	 * @return an ArrayList of the IDs of the artists
 	 */
-	private void setArtistGenres(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			// Get an array of the genres an artist plays in
-			String[] genres = data.getArtists().getItems()[i].getGenres();
-			ArrayList<String> singleArtistGenre = new ArrayList<>(List.of(genres));
-			artistGenres.add(singleArtistGenre);
-		}
+	public ArrayList<String> getArtistIds() {
+		return artistIds;
+	}
+
+	/**
+	 * getArtistNames() returns the names of the artists.
+	 * @return an ArrayList of the names of the artists
+	 */
+	public ArrayList<String> getArtistNames() {
+		return artistNames;
 	}
 
 	/**
@@ -131,18 +228,6 @@ public class SpotifyArtistData {
 		return artistGenres;
 	}
 
-	/**
-	 * setArtistFollowers() sets the number of followers
-	 * that each artist has using the getFollowers().getTotal()
-	 * methods from the Artist class.
-	 * @param data
-	 */
-	private void setArtistFollowers(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			artistFollowers.add(data.getArtists().getItems()[i].getFollowers().getTotal());
-		}
-	}
-
 	/**
 	 * getArtistFollowers() gets the number of followers of each artist.
 	 * @return an ArrayList of integers that stores the number of followers
@@ -151,34 +236,29 @@ public class SpotifyArtistData {
 	public ArrayList<Integer> getArtistFollowers() {
 		return artistFollowers;
 	}
-	
+
 	/**
-	 * setArtistPopularities() sets the popularity of each artist
-	 * based on the number obtained from the getPopularity() method
-	 * from the Artist class. The popularity number is used to
-	 * specify one of five different strings that simplifies
-	 * the number to something more readable by a user.
-	 * @param data
+	 * simplifyPopularity() turns the popularity number obtained
+	 * from the getPopularity() method of the Artist class into
+	 * one of five different strings that is more readable by a user.
+	 * @param pop is the popularity number (0..100)
+	 * @return the simplified popularity
 	 */
-	private void setArtistPopularities(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			// Obtains the popularity number (0..100)
-			int pop = data.getArtists().getItems()[i].getPopularity();
-			// Uses popularity number to split into five different
-			// Possible popularity ratings
-			if (pop <= 20)
-				artistPopularities.add("Not popular");
-			else if (pop <= 40)
-				artistPopularities.add("Not very popular");
-			else if (pop <= 60)
-				artistPopularities.add("Somewhat popular");
-			else if (pop <= 80)
-				artistPopularities.add("Popular");
-			else
-				artistPopularities.add("Very popular");
-		}
+	static String simplifyPopularity(int pop) {
+		// Uses popularity number to split into five different
+		// Possible popularity ratings
+		if (pop <= 20)
+			return "Not popular";
+		else if (pop <= 40)
+			return "Not very popular";
+		else if (pop <= 60)
+			return "Somewhat popular";
+		else if (pop <= 80)
+			return "Popular";
+		else
+			return "Very popular";
 	}
-	
+
 	/**
 	 * getArtistPopularities() gets the popularity of each artist.
 	 * @return an ArrayList of the popularity of each artist
@@ -186,25 +266,75 @@ public class SpotifyArtistData {
 	public ArrayList<String> getArtistPopularities() {
 		return artistPopularities;
 	}
-	
+
+	/**
+	 * getArtistPopularityScores() gets the popularity number of each artist.
+	 * @return an ArrayList of the popularity numbers (0..100)
+	 */
+	public ArrayList<Integer> getArtistPopularityScores() {
+		return artistPopularityScores;
+	}
+
 	/**
 	 * setArtistRelatedArtists() sets the names of the related artists
-	 * of each artist in a double ArrayList. This is done through the
-	 * getName() method of the Artist class.
+	 * of each artist in a double ArrayList.
 	 * @param relatedArtists is a double ArrayList of Artist objects
 	 */
 	private void setArtistRelatedArtists(ArrayList<ArrayList<Artist>> relatedArtists) {
 		for (int i = 0; i < maxInserts; i++) {
-			// Obtain an ArrayList of the names of the related artists of one artist
-			// Before adding that into a double ArrayList
-			ArrayList<String> relatedArtistNames = new ArrayList<>();
-			for (int j = 0; j < relatedArtists.get(i).size(); j++) {
-				relatedArtistNames.add(relatedArtists.get(i).get(j).getName());
+			ArrayList<Artist> artists = relatedArtists.get(i);
+			setArtistRelatedArtists(i, (artists != null) ? artists.toArray(new Artist[0]) : null);
+		}
+	}
+
+	/**
+	 * setArtistRelatedArtists() sets the names of the related artists
+	 * of one artist through the getName() method of the Artist class.
+	 * An artist whose related artists request failed is given an
+	 * empty list. Listeners are told that the artist has changed.
+	 * @param index is the index of the artist
+	 * @param relatedArtists are the related artists, or null if the request failed
+	 */
+	void setArtistRelatedArtists(int index, Artist[] relatedArtists) {
+		// Obtain an ArrayList of the names of the related artists of one artist
+		// Before adding that into a double ArrayList
+		ArrayList<String> relatedArtistNames = new ArrayList<>();
+		if (relatedArtists != null) {
+			for (Artist relatedArtist : relatedArtists) {
+				relatedArtistNames.add(relatedArtist.getName());
 			}
-			artistRelatedArtists.add(relatedArtistNames);
 		}
+		setArtistRelatedArtistNames(index, relatedArtistNames);
+	}
+
+	/**
+	 * setArtistRelatedArtistNames() sets the names of the related
+	 * artists of one artist, which the artist's one copy learns so
+	 * that other results can take them over. Listeners are told
+	 * that the artist has changed.
+	 * @param index is the index of the artist
+	 * @param relatedArtistNames are the names of the related artists
+	 */
+	void setArtistRelatedArtistNames(int index, ArrayList<String> relatedArtistNames) {
+		final ArrayList<String> names = SpotifyEntityStore.getDefault().internAll(relatedArtistNames);
+		// An empty list may stand for a failed request, so it isn't learned
+		if (!names.isEmpty())
+			getArtistEntity(index).learnRelatedArtists(names, fetchedAtMs);
+		putArtistRelatedArtistNames(index, names);
+	}
+
+	/**
+	 * putArtistRelatedArtistNames() stores the names of the related
+	 * artists of one artist and tells the listeners.
+	 */
+	private void putArtistRelatedArtistNames(int index, ArrayList<String> relatedArtistNames) {
+		synchronized (this) {
+			artistRelatedArtists.set(index, relatedArtistNames);
+			relatedArtistsPending.clear(index);
+		}
+		notifyListeners(index);
 	}
-	
+
 	/**
 	 * getArtistRelatedArtists() gets the related artists' names
 	 * of each artist.
@@ -213,7 +343,17 @@ public class SpotifyArtistData {
 	public ArrayList<ArrayList<String>> getArtistRelatedArtists() {
 		return artistRelatedArtists;
 	}
-	
+
+	/**
+	 * isRelatedArtistsPending() gets whether the related artists
+	 * of an artist haven't arrived yet.
+	 * @param index is the index of the artist
+	 * @return true if the related artists are still pending
+	 */
+	public synchronized boolean isRelatedArtistsPending(int index) {
+		return relatedArtistsPending.get(index);
+	}
+
 	/**
 	 * setArtistTopTracks() sets the top track of each artist into an
 	 * ArrayList that contains just the name of each track.
@@ -221,15 +361,54 @@ public class SpotifyArtistData {
 	 */
 	private void setArtistTopTracks(ArrayList<ArrayList<Track>> topTracks) {
 		for (int i = 0; i < maxInserts; i++) {
-			// If there is no top tracks of an artist, add null to the ArrayList
-			// Otherwise, add only the first top track
-			if (!topTracks.get(i).isEmpty())
-				artistTopTracks.add(topTracks.get(i).getFirst().getName());
-			else
-				artistTopTracks.add(null);
+			ArrayList<Track> tracks = topTracks.get(i);
+			setArtistTopTracks(i, (tracks != null) ? tracks.toArray(new Track[0]) : null);
+		}
+	}
+
+	/**
+	 * setArtistTopTracks() sets the top track of one artist.
+	 * Listeners are told that the artist has changed.
+	 * @param index is the index of the artist
+	 * @param topTracks are the top tracks, or null if the request failed
+	 */
+	void setArtistTopTracks(int index, Track[] topTracks) {
+		// If there is no top tracks of an artist (or the request failed), store null
+		// Otherwise, store only the first top track
+		if (topTracks != null && topTracks.length != 0)
+			setArtistTopTrack(index, topTracks[0].getName());
+		else
+			setArtistTopTrack(index, null);
+	}
+
+	/**
+	 * setArtistTopTrack() sets the name of the top track of one
+	 * artist, which the artist's one copy learns in the market of the
+	 * result so that other results in that market can take it over.
+	 * Listeners are told that the artist has changed.
+	 * @param index is the index of the artist
+	 * @param topTrack is the name of the top track, or null if there is none
+	 */
+	void setArtistTopTrack(int index, String topTrack) {
+		final String track = SpotifyEntityStore.getDefault().intern(topTrack);
+		// No track may stand for a failed request, so it isn't learned
+		if (track != null)
+			getArtistEntity(index).learnTopTrack(track, market, fetchedAtMs);
+		putArtistTopTrack(index, track);
+	}
+
+	/**
+	 * putArtistTopTrack() stores the name of the top track of one
+	 * artist and tells the listeners.
+	 */
+	private void putArtistTopTrack(int index, String topTrack) {
+		synchronized (this) {
+			artistTopTracks.set(index, topTrack);
+			topTrackPending.clear(index);
 		}
+		notifyListeners(index);
 	}
-	
+
 	/**
 	 * getArtistTopTracks() gets the top track of each artist.
 	 * @return an ArrayList of the names of the top track of each artist.
@@ -239,35 +418,308 @@ public class SpotifyArtistData {
 	}
 
 	/**
-	 * setArtistImages() sets the first image of each artist that is
-	 * obtained from the SearchResult object into an ArrayList
-	 * of BufferedImage objects.
-	 * @param data
+	 * isTopTrackPending() gets whether the top track of an
+	 * artist hasn't arrived yet.
+	 * @param index is the index of the artist
+	 * @return true if the top track is still pending
 	 */
-	private void setArtistImages(SearchResult data) {
+	public synchronized boolean isTopTrackPending(int index) {
+		return topTrackPending.get(index);
+	}
+
+	/**
+	 * getArtistImageUrls() gets the URL of the first image of each artist.
+	 * @return an ArrayList of URLs, with null for an artist without an image
+	 */
+	public ArrayList<String> getArtistImageUrls() {
+		return artistImageUrls;
+	}
+
+	/**
+	 * setArtistImages() downloads the first image of each artist
+	 * through the pooled connections of the shared transport.
+	 * @param transport
+	 */
+	private void setArtistImages(SpotifyHttpTransport transport) {
 		for (int i = 0; i < maxInserts; i++) {
-			try {
-				if (data.getArtists().getItems()[i].getImages().length != 0) {
-					// Convert the URL into a BufferedImage using the ImageIO read method
-					URL imageUrl = new URL(data.getArtists().getItems()[i].getImages()[0].getUrl());
-					BufferedImage image = ImageIO.read(imageUrl);
-					artistImages.add(image);
-				} else
-					artistImages.add(null);	// Adds null to the ArrayList if there is no image of the artist
-			} catch (IIOException e) {  // Caught if the image is of an unsupported format
-				artistImages.add(null);
-			} catch (IOException e) { // Caught if the image URL is an invalid one
-				e.printStackTrace();
+			loadArtistImage(i, transport);
+		}
+	}
+
+	/**
+	 * loadArtistImage() downloads the first image of one artist
+	 * and keeps its compressed bytes, unless another result holds
+	 * the image already. The image is decoded for the picture before
+	 * listeners are told that the artist has changed, so the GUI can
+	 * show it right away.
+	 * @param index is the index of the artist
+	 * @param downloader fetches the image, through the pooled transport or a shared cache
+	 */
+	void loadArtistImage(int index, SpotifyDownloader downloader) {
+		final long start = System.nanoTime();
+		final SpotifyEntityStore entities = SpotifyEntityStore.getDefault();
+		final String url = artistImageUrls.get(index);
+		final byte[] held = entities.getImage(url);
+		if (held != null) {
+			SpotifyImageStore.getDefault().icon(held);
+			setArtistImageBytes(index, held);
+			return;
+		}
+		byte[] bytes = null;
+		try {
+			if (url != null) {
+				bytes = downloader.download(url);
+				if (logger.isDebugEnabled())
+					logger.debug(SpotifyLog.event("image").with("index", index).with("bytes", bytes.length)
+							.with("status", "ok").with("latencyMs", SpotifyLog.elapsedMs(start)));
 			}
+			// An image of an unsupported format is treated as no image
+			if (!SpotifyImageStore.isSupported(bytes))
+				bytes = null;
+			// The one copy of the image is kept, shared with the other results holding it
+			bytes = entities.image(url, bytes);
+		} catch (IOException e) { // Caught if the image URL is an invalid one
+			logger.warn(SpotifyLog.event("image").with("index", index).with("url", url)
+					.with("status", "error").with("latencyMs", SpotifyLog.elapsedMs(start)).with("error", e.getMessage()));
 		}
+		SpotifyImageStore.getDefault().icon(bytes);
+		// Null is stored if there is no image of the artist
+		setArtistImageBytes(index, bytes);
+	}
+
+	/**
+	 * setArtistImageBytes() sets the compressed image of one artist.
+	 * Listeners are told that the artist has changed.
+	 * @param index is the index of the artist
+	 * @param bytes are the JPEG or PNG bytes, or null if the artist has none
+	 */
+	void setArtistImageBytes(int index, byte[] bytes) {
+		synchronized (this) {
+			artistImageBytes.set(index, bytes);
+			imagePending.clear(index);
+		}
+		notifyListeners(index);
+	}
+
+	/**
+	 * getArtistImageBytes() gets the compressed image of each artist.
+	 * @return an ArrayList of JPEG or PNG bytes, with null for an
+	 * artist without an image
+	 */
+	public ArrayList<byte[]> getArtistImageBytes() {
+		return artistImageBytes;
+	}
+
+	/**
+	 * getArtistImage() gets the decoded image of one artist through
+	 * the shared image store, which decodes it if it isn't cached.
+	 * @param index is the index of the artist
+	 * @return the image, or null if the artist has none
+	 */
+	public BufferedImage getArtistImage(int index) {
+		return SpotifyImageStore.getDefault().decode(artistImageBytes.get(index));
 	}
 
 	/**
-	 * getArtistImages() gets the image of each artist.
+	 * getArtistIcon() gets the image of one artist scaled to the
+	 * picture, if the shared image store has decoded it already. It
+	 * never decodes, so it can be called on the event dispatch thread.
+	 * @param index is the index of the artist
+	 * @return the icon, or null if the artist has no image or it
+	 * isn't decoded
+	 */
+	public ImageIcon getArtistIcon(int index) {
+		return SpotifyImageStore.getDefault().getIcon(getArtistImageBytes(index));
+	}
+
+	/**
+	 * isArtistImageDecoded() gets whether the image of an artist can
+	 * be shown without decoding it first.
+	 * @param index is the index of the artist
+	 * @return true if the artist has no image or its icon is decoded
+	 */
+	public boolean isArtistImageDecoded(int index) {
+		final byte[] bytes = getArtistImageBytes(index);
+		return bytes == null || SpotifyImageStore.getDefault().getIcon(bytes) != null;
+	}
+
+	/**
+	 * decodeArtistImage() decodes the image of one artist into the
+	 * shared image store, such as after it was evicted from there.
+	 * Listeners are told that the artist has changed once it can be shown.
+	 * @param index is the index of the artist
+	 */
+	void decodeArtistImage(int index) {
+		if (SpotifyImageStore.getDefault().icon(getArtistImageBytes(index)) != null)
+			notifyListeners(index);
+	}
+
+	/**
+	 * getArtistImageBytes() gets the compressed image of one artist.
+	 */
+	private synchronized byte[] getArtistImageBytes(int index) {
+		return artistImageBytes.get(index);
+	}
+
+	/**
+	 * getArtistImages() gets the decoded image of each artist. The
+	 * images are decoded through the shared image store when this is
+	 * called, so the list shouldn't be kept.
 	 * @return an ArrayList of BufferedImage objects
 	 */
 	public ArrayList<BufferedImage> getArtistImages() {
-		return artistImages;
+		ArrayList<BufferedImage> images = new ArrayList<>();
+		for (int i = 0; i < artistImageBytes.size(); i++)
+			images.add(getArtistImage(i));
+		return images;
+	}
+
+	/**
+	 * isImagePending() gets whether the image of an artist
+	 * hasn't arrived yet.
+	 * @param index is the index of the artist
+	 * @return true if the image is still pending
+	 */
+	public synchronized boolean isImagePending(int index) {
+		return imagePending.get(index);
 	}
-	
+
+	/**
+	 * isComplete() gets whether no field of any artist is pending.
+	 * @return true if every related artist, top track and image has arrived
+	 */
+	public synchronized boolean isComplete() {
+		return relatedArtistsPending.isEmpty() && topTrackPending.isEmpty() && imagePending.isEmpty();
+	}
+
+	/**
+	 * takeKnownDetails() sets the related artists and top track of
+	 * an artist that are still pending from what its one copy
+	 * learned recently through another result in the same market,
+	 * and its image if another result holds it, so that they
+	 * needn't be requested.
+	 * @param index is the index of the artist
+	 */
+	void takeKnownDetails(int index) {
+		final SpotifyEntityStore.ArtistEntity artist = getArtistEntity(index);
+		final long now = System.currentTimeMillis();
+		final ArrayList<String> relatedArtistNames = artist.getRelatedArtistNames(now);
+		if (relatedArtistNames != null && isRelatedArtistsPending(index))
+			putArtistRelatedArtistNames(index, relatedArtistNames);
+		final String topTrack = artist.getTopTrack(now, market);
+		if (topTrack != null && isTopTrackPending(index))
+			putArtistTopTrack(index, topTrack);
+		final byte[] image = SpotifyEntityStore.getDefault().getImage(artistImageUrls.get(index));
+		if (image != null && isImagePending(index))
+			setArtistImageBytes(index, image);
+	}
+
+	/**
+	 * getArtistEntity() gets the one copy of an artist.
+	 */
+	private synchronized SpotifyEntityStore.ArtistEntity getArtistEntity(int index) {
+		return artistEntities.get(index);
+	}
+
+	/**
+	 * requestDetails() marks the related artists, top track and
+	 * image of an artist as requested, so that they are only
+	 * requested once.
+	 * @param index is the index of the artist
+	 * @return true if they hadn't been requested before
+	 */
+	synchronized boolean requestDetails(int index) {
+		if (detailsRequested.get(index))
+			return false;
+		detailsRequested.set(index);
+		return true;
+	}
+
+	/**
+	 * getTotal() gets the total number of results of the search,
+	 * which may be more than the artists held by this object.
+	 * @return the total number of results
+	 */
+	public synchronized int getTotal() {
+		return Math.max(total, artistNames.size());
+	}
+
+	/**
+	 * setTotal() sets the total number of results of the search.
+	 * @param total is the total number of results
+	 */
+	synchronized void setTotal(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * getFetchedAtMs() gets when the artists were fetched from Spotify.
+	 * @return the time in milliseconds since the epoch
+	 */
+	public long getFetchedAtMs() {
+		return fetchedAtMs;
+	}
+
+	/**
+	 * setFetchedAtMs() sets when the artists were fetched from Spotify,
+	 * such as when they are read back from a snapshot.
+	 * @param fetchedAtMs is the time in milliseconds since the epoch
+	 */
+	void setFetchedAtMs(long fetchedAtMs) {
+		this.fetchedAtMs = fetchedAtMs;
+	}
+
+	/**
+	 * getMarket() gets the market the top tracks of the artists are
+	 * requested for.
+	 * @return the market
+	 */
+	public CountryCode getMarket() {
+		return market;
+	}
+
+	/**
+	 * setMarket() sets the market the top tracks of the artists are
+	 * requested for, before any of them is set.
+	 * @param market is the market
+	 */
+	void setMarket(CountryCode market) {
+		this.market = market;
+	}
+
+	/**
+	 * addListener() adds a listener that is told each time a
+	 * pending field of an artist arrives.
+	 * @param listener is the listener to add
+	 */
+	public void addListener(SpotifyDataListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * removeListener() removes a listener added before.
+	 * @param listener is the listener to remove
+	 */
+	public void removeListener(SpotifyDataListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * getListenerCount() gets the number of listeners added and
+	 * not removed yet.
+	 * @return the number of listeners
+	 */
+	int getListenerCount() {
+		return listeners.size();
+	}
+
+	/**
+	 * notifyListeners() tells every listener that an artist changed.
+	 * @param index is the index of the artist
+	 */
+	private void notifyListeners(int index) {
+		for (SpotifyDataListener listener : listeners)
+			listener.dataChanged(index);
+	}
+
 }
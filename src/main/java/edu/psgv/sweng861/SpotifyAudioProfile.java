@@ -0,0 +1,273 @@
+package edu.psgv.sweng861;
+
+import se.michaelthelin.spotify.model_objects.specification.AudioFeatures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * SpotifyAudioProfile stores the audio features of groups of
+ * tracks, such as the top tracks of each artist of a search or
+ * every track matching a query, and works out their tempo,
+ * energy and key distributions. The features of each group are
+ * kept in primitive arrays, one value per track, and the
+ * aggregates are computed over them with parallel streams so
+ * that profiles of thousands of tracks stay cheap.
+ * @author Matthew Bollinger
+ */
+public class SpotifyAudioProfile {
+
+	// Number of keys in the pitch class notation Spotify uses
+	public static final int KEY_COUNT = 12;
+	// Names of the keys, where 0 is C, 1 is C sharp and so on
+	static final String[] KEY_NAMES = { "C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B" };
+	// Energy is split into ten buckets of 0.1 each
+	public static final int ENERGY_BUCKETS = 10;
+	// Tempo is split into buckets of 20 BPM, the last one holding everything from 220 BPM up
+	public static final int TEMPO_BUCKET_BPM = 20;
+	public static final int TEMPO_BUCKETS = 12;
+
+	// Contains the label of each group, such as the name of an artist or a query
+	private final ArrayList<String> labels = new ArrayList<>();
+	// Contains the tempo (BPM), energy (0..1) and key (0..11, or -1 if unknown) of each track of each group
+	private final ArrayList<double[]> tempos = new ArrayList<>();
+	private final ArrayList<double[]> energies = new ArrayList<>();
+	private final ArrayList<int[]> keys = new ArrayList<>();
+	// Number of tracks of the groups that had no audio features
+	private int missingTracks;
+
+	/**
+	 * addGroup() adds a group of tracks. Tracks without audio
+	 * features are left out of the group and counted as missing.
+	 * @param label is the name of the group, which no other group has
+	 * @param trackIds are the Spotify IDs of the tracks of the group
+	 * @param features are the audio features of the tracks by ID
+	 * @throws IllegalArgumentException if a group already has the label
+	 */
+	synchronized void addGroup(String label, List<String> trackIds, Map<String, AudioFeatures> features) {
+		requireNewLabel(label);
+		double[] tempo = new double[trackIds.size()];
+		double[] energy = new double[trackIds.size()];
+		int[] key = new int[trackIds.size()];
+		int count = 0;
+		for (String id : trackIds) {
+			AudioFeatures feature = features.get(id);
+			if (feature == null || feature.getTempo() == null || feature.getEnergy() == null) {
+				missingTracks++;
+				continue;
+			}
+			tempo[count] = feature.getTempo();
+			energy[count] = feature.getEnergy();
+			key[count] = (feature.getKey() != null) ? feature.getKey() : -1;
+			count++;
+		}
+		addGroup(label, Arrays.copyOf(tempo, count), Arrays.copyOf(energy, count), Arrays.copyOf(key, count));
+	}
+
+	/**
+	 * addGroup() adds a group of tracks from their features.
+	 * @param label is the name of the group, which no other group has
+	 * @param tempo is the tempo of each track in BPM
+	 * @param energy is the energy of each track, from 0 to 1
+	 * @param key is the key of each track, or -1 if it is unknown
+	 * @throws IllegalArgumentException if a group already has the label
+	 */
+	synchronized void addGroup(String label, double[] tempo, double[] energy, int[] key) {
+		requireNewLabel(label);
+		labels.add(label);
+		tempos.add(tempo);
+		energies.add(energy);
+		keys.add(key);
+	}
+
+	/**
+	 * getLabels() gets the label of each group in the order they were added.
+	 * @return an ArrayList of the labels, which is a copy
+	 */
+	public synchronized ArrayList<String> getLabels() {
+		return new ArrayList<>(labels);
+	}
+
+	/**
+	 * getTrackCount() gets the number of tracks of a group that
+	 * have audio features.
+	 * @param label is the label of the group, or null for every group
+	 * @return the number of tracks
+	 */
+	public int getTrackCount(String label) {
+		return tempoOf(label).length;
+	}
+
+	/**
+	 * getMissingTracks() gets the number of tracks that had no
+	 * audio features and were left out.
+	 * @return the number of tracks left out
+	 */
+	public synchronized int getMissingTracks() {
+		return missingTracks;
+	}
+
+	/**
+	 * getTempoStatistics() gets the count, minimum, maximum and
+	 * average tempo of a group.
+	 * @param label is the label of the group, or null for every group
+	 * @return the statistics of the tempo in BPM
+	 */
+	public DoubleSummaryStatistics getTempoStatistics(String label) {
+		return Arrays.stream(tempoOf(label)).parallel().summaryStatistics();
+	}
+
+	/**
+	 * getEnergyStatistics() gets the count, minimum, maximum and
+	 * average energy of a group.
+	 * @param label is the label of the group, or null for every group
+	 * @return the statistics of the energy
+	 */
+	public DoubleSummaryStatistics getEnergyStatistics(String label) {
+		return Arrays.stream(energyOf(label)).parallel().summaryStatistics();
+	}
+
+	/**
+	 * getTempoDistribution() gets the number of tracks of a group in
+	 * each 20 BPM bucket of tempo.
+	 * @param label is the label of the group, or null for every group
+	 * @return an array where index i counts the tracks from 20*i BPM
+	 * up to 20*(i+1) BPM, the last one counting everything faster
+	 */
+	public int[] getTempoDistribution(String label) {
+		final double[] tempo = tempoOf(label);
+		return histogram(tempo.length, TEMPO_BUCKETS, i -> (int) (tempo[i] / TEMPO_BUCKET_BPM));
+	}
+
+	/**
+	 * getEnergyDistribution() gets the number of tracks of a group in
+	 * each tenth of energy.
+	 * @param label is the label of the group, or null for every group
+	 * @return an array where index i counts the tracks with an energy
+	 * from i/10 up to (i+1)/10
+	 */
+	public int[] getEnergyDistribution(String label) {
+		final double[] energy = energyOf(label);
+		return histogram(energy.length, ENERGY_BUCKETS, i -> (int) (energy[i] * ENERGY_BUCKETS));
+	}
+
+	/**
+	 * getKeyDistribution() gets the number of tracks of a group in
+	 * each key. Tracks whose key is unknown aren't counted.
+	 * @param label is the label of the group, or null for every group
+	 * @return an array of twelve counts, where index 0 is C
+	 */
+	public int[] getKeyDistribution(String label) {
+		final int[] key = keyOf(label);
+		return histogram(key.length, KEY_COUNT, i -> key[i]);
+	}
+
+	/**
+	 * getMostCommonKey() gets the name of the key most tracks of a group are in.
+	 * @param label is the label of the group, or null for every group
+	 * @return the name of the key, or null if no key is known
+	 */
+	public String getMostCommonKey(String label) {
+		final int[] distribution = getKeyDistribution(label);
+		int best = -1;
+		for (int i = 0; i < distribution.length; i++) {
+			if (distribution[i] > 0 && (best == -1 || distribution[i] > distribution[best]))
+				best = i;
+		}
+		return (best != -1) ? KEY_NAMES[best] : null;
+	}
+
+	/**
+	 * Bucket gets the bucket of the value at an index, which may be
+	 * outside the buckets.
+	 */
+	private interface Bucket {
+		int of(int index);
+	}
+
+	/**
+	 * histogram() counts the values in each bucket in parallel. Each
+	 * worker fills its own array of counts and the arrays are then
+	 * added together. Values below the first bucket aren't counted and
+	 * values past the last one are counted in the last one.
+	 */
+	private static int[] histogram(int size, int buckets, Bucket bucket) {
+		return IntStream.range(0, size).parallel().collect(() -> new int[buckets], (counts, i) -> {
+			final int b = bucket.of(i);
+			if (b >= 0)
+				counts[Math.min(b, buckets - 1)]++;
+		}, (counts, other) -> {
+			for (int b = 0; b < buckets; b++)
+				counts[b] += other[b];
+		});
+	}
+
+	/**
+	 * tempoOf() gets the tempo of every track of a group, or of
+	 * every group joined together.
+	 */
+	private synchronized double[] tempoOf(String label) {
+		return (label != null) ? tempos.get(indexOf(label)) : joinDoubles(tempos);
+	}
+
+	/**
+	 * energyOf() gets the energy of every track of a group, or of
+	 * every group joined together.
+	 */
+	private synchronized double[] energyOf(String label) {
+		return (label != null) ? energies.get(indexOf(label)) : joinDoubles(energies);
+	}
+
+	/**
+	 * keyOf() gets the key of every track of a group, or of every
+	 * group joined together.
+	 */
+	private synchronized int[] keyOf(String label) {
+		if (label != null)
+			return keys.get(indexOf(label));
+		final int[] joined = new int[keys.stream().mapToInt(group -> group.length).sum()];
+		int offset = 0;
+		for (int[] group : keys) {
+			System.arraycopy(group, 0, joined, offset, group.length);
+			offset += group.length;
+		}
+		return joined;
+	}
+
+	/**
+	 * joinDoubles() joins the arrays of every group into one.
+	 */
+	private static double[] joinDoubles(List<double[]> groups) {
+		final double[] joined = new double[groups.stream().mapToInt(group -> group.length).sum()];
+		int offset = 0;
+		for (double[] group : groups) {
+			System.arraycopy(group, 0, joined, offset, group.length);
+			offset += group.length;
+		}
+		return joined;
+	}
+
+	/**
+	 * requireNewLabel() rejects the label of a group that is already
+	 * added, since its tracks would be taken for the other group's.
+	 */
+	private void requireNewLabel(String label) {
+		if (labels.contains(label))
+			throw new IllegalArgumentException("Duplicate group " + label);
+	}
+
+	/**
+	 * indexOf() gets the index of a group by its label.
+	 */
+	private int indexOf(String label) {
+		final int index = labels.indexOf(label);
+		if (index == -1)
+			throw new IllegalArgumentException("No group " + label);
+		return index;
+	}
+
+}
@@ -0,0 +1,166 @@
+package edu.psgv.sweng861;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * SpotifyCacheClient is the SpotifyRemoteCache that reaches a
+ * SpotifyCacheNode over a socket. Connections are kept open
+ * between requests and reused, and every request has a short
+ * timeout so that a slow or missing node costs a search little
+ * more than a cache miss.
+ * @author Matthew Bollinger
+ */
+public class SpotifyCacheClient implements SpotifyRemoteCache {
+
+	// Default time allowed to connect and to get each response
+	public static final int DEFAULT_TIMEOUT_MS = 200;
+	// Number of idle connections kept open
+	private static final int MAX_IDLE_CONNECTIONS = 8;
+
+	/**
+	 * Connection is an open socket to the node with its streams.
+	 */
+	private static class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) { // Nothing more to do with a broken connection
+			}
+		}
+	}
+
+	private final InetSocketAddress address;
+	private final int timeoutMs;
+	private final ConcurrentLinkedQueue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed;
+
+	/**
+	 * SpotifyCacheClient constructor sets the node to reach with the
+	 * default timeout. No connection is made until the first request.
+	 * @param host is the host name of the node
+	 * @param port is the port of the node
+	 */
+	public SpotifyCacheClient(String host, int port) {
+		this(host, port, DEFAULT_TIMEOUT_MS);
+	}
+
+	/**
+	 * SpotifyCacheClient constructor sets the node to reach and the
+	 * timeout of its requests.
+	 * @param host is the host name of the node
+	 * @param port is the port of the node
+	 * @param timeoutMs is the time allowed to connect and to get each response
+	 */
+	public SpotifyCacheClient(String host, int port, int timeoutMs) {
+		this.address = InetSocketAddress.createUnresolved(host, port);
+		this.timeoutMs = timeoutMs;
+	}
+
+	@Override
+	public byte[] get(String key) throws IOException {
+		final Connection connection = borrow();
+		try {
+			connection.out.writeByte(SpotifyCacheNode.OP_GET);
+			connection.out.writeUTF(key);
+			connection.out.flush();
+			final int status = connection.in.readUnsignedByte();
+			byte[] value = null;
+			if (status == SpotifyCacheNode.STATUS_HIT) {
+				final int length = connection.in.readInt();
+				if (length < 0 || length > SpotifyCacheNode.MAX_VALUE_BYTES)
+					throw new IOException("Bad value length " + length);
+				value = new byte[length];
+				connection.in.readFully(value);
+			} else if (status != SpotifyCacheNode.STATUS_MISS) {
+				throw new IOException("Cache node answered " + status);
+			}
+			release(connection);
+			return value;
+		} catch (IOException e) {
+			connection.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void put(String key, byte[] value, long ttlMs) throws IOException {
+		final Connection connection = borrow();
+		try {
+			connection.out.writeByte(SpotifyCacheNode.OP_PUT);
+			connection.out.writeUTF(key);
+			connection.out.writeLong(ttlMs);
+			connection.out.writeInt(value.length);
+			connection.out.write(value);
+			connection.out.flush();
+			final int status = connection.in.readUnsignedByte();
+			if (status != SpotifyCacheNode.STATUS_OK)
+				throw new IOException("Cache node answered " + status);
+			release(connection);
+		} catch (IOException e) {
+			connection.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * borrow() takes an idle connection, or opens a new one if there is none.
+	 */
+	private Connection borrow() throws IOException {
+		if (closed)
+			throw new IOException("Cache client is closed");
+		final Connection idle = idleConnections.poll();
+		if (idle != null)
+			return idle;
+		final Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeoutMs);
+			socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), timeoutMs);
+			return new Connection(socket);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * release() puts a connection back once its request is done,
+	 * closing it if enough connections are idle already.
+	 */
+	private void release(Connection connection) {
+		if (closed || idleConnections.size() >= MAX_IDLE_CONNECTIONS)
+			connection.close();
+		else
+			idleConnections.add(connection);
+	}
+
+	/**
+	 * close() closes every idle connection. Connections in use are
+	 * closed once their request is done.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Connection connection;
+		while ((connection = idleConnections.poll()) != null)
+			connection.close();
+	}
+
+}
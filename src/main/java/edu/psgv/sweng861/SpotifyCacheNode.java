@@ -0,0 +1,276 @@
+package edu.psgv.sweng861;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * SpotifyCacheNode is a small standalone cache server that the
+ * instances of the client share as the remote tier of their
+ * caches, through SpotifyCacheClient. It keeps the values in a
+ * least recently used map bounded by the number of bytes of the
+ * values, drops values once their time to live has passed, and
+ * serves each connection on its own virtual thread.
+ * <p>
+ * The protocol is binary over TCP, and a connection may carry
+ * any number of requests one after another:
+ * <ul>
+ * <li>GET: the byte 1 and the key, answered by the byte 1, the
+ * length of the value and the value, or by the byte 0 on a miss.</li>
+ * <li>PUT: the byte 2, the key, the time to live in milliseconds as
+ * a long, the length of the value and the value, answered by the
+ * byte 2.</li>
+ * </ul>
+ * Keys are written with DataOutput.writeUTF() and lengths as ints.
+ * A request the node doesn't understand is answered by the byte 3
+ * and the connection is closed.
+ * @author Matthew Bollinger
+ */
+public final class SpotifyCacheNode implements Closeable {
+
+	private static final Logger logger = LogManager.getLogger(SpotifyCacheNode.class);
+
+	// Request types
+	static final int OP_GET = 1;
+	static final int OP_PUT = 2;
+	// Response statuses
+	static final int STATUS_MISS = 0;
+	static final int STATUS_HIT = 1;
+	static final int STATUS_OK = 2;
+	static final int STATUS_ERROR = 3;
+	// Largest value a node accepts
+	static final int MAX_VALUE_BYTES = 16 * 1024 * 1024;
+
+	// Port and budget used when none are given on the command line
+	public static final int DEFAULT_PORT = 7461;
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * Entry holds a value and when it expires.
+	 */
+	private static class Entry {
+		final byte[] value;
+		final long expiresAtMs;
+
+		Entry(byte[] value, long expiresAtMs) {
+			this.value = value;
+			this.expiresAtMs = expiresAtMs;
+		}
+	}
+
+	private final ServerSocket serverSocket;
+	// Accepts connections, and serves each one on its own virtual thread
+	private final Thread acceptThread;
+	private final ExecutorService connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+	// Connections that are open, closed along with the node
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+	// Maximum and current number of bytes of the values kept
+	private final long maxBytes;
+	private long bytes;
+	// Values by key, in least to most recently used order
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * SpotifyCacheNode constructor starts listening on a port.
+	 * @param port is the port to listen on, or 0 for any free port
+	 * @param maxBytes is the maximum number of bytes of values kept
+	 * @throws IOException if the port can't be listened on
+	 */
+	public SpotifyCacheNode(int port, long maxBytes) throws IOException {
+		this.maxBytes = maxBytes;
+		serverSocket = new ServerSocket(port);
+		acceptThread = new Thread(this::acceptConnections, "spotify-cache-node");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * main() runs a cache node until the process is stopped.
+	 * @param args are the port and the maximum size in megabytes, both optional
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		final long maxBytes = (args.length > 1) ? Long.parseLong(args[1]) * 1024 * 1024 : DEFAULT_MAX_BYTES;
+		final SpotifyCacheNode node = new SpotifyCacheNode(port, maxBytes);
+		logger.info(SpotifyLog.event("cache-node").with("status", "listening").with("port", node.getPort())
+				.with("maxBytes", maxBytes));
+		node.acceptThread.join();
+	}
+
+	/**
+	 * getPort() gets the port the node listens on.
+	 * @return the port
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * getAddress() gets the address the node listens on.
+	 * @return the address
+	 */
+	public InetAddress getAddress() {
+		return serverSocket.getInetAddress();
+	}
+
+	/**
+	 * acceptConnections() hands each new connection to its own
+	 * virtual thread until the node is closed.
+	 */
+	private void acceptConnections() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				connections.add(socket);
+				try {
+					connectionExecutor.execute(() -> serve(socket));
+				} catch (RejectedExecutionException e) { // The node was closed after the connection was accepted
+					connections.remove(socket);
+					socket.close();
+				}
+			} catch (IOException e) { // Caught when the node is closed
+				if (!serverSocket.isClosed())
+					logger.warn(SpotifyLog.event("cache-node").with("status", "error").with("error", e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * serve() answers the requests of one connection until the
+	 * client closes it.
+	 */
+	private void serve(Socket socket) {
+		try (Socket connection = socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+			connection.setTcpNoDelay(true);
+			while (true) {
+				final int op = in.read();
+				if (op == -1)
+					return;
+				if (op == OP_GET) {
+					final byte[] value = get(in.readUTF());
+					if (value == null) {
+						out.writeByte(STATUS_MISS);
+					} else {
+						out.writeByte(STATUS_HIT);
+						out.writeInt(value.length);
+						out.write(value);
+					}
+				} else if (op == OP_PUT) {
+					final String key = in.readUTF();
+					final long ttlMs = in.readLong();
+					final int length = in.readInt();
+					if (length < 0 || length > MAX_VALUE_BYTES) {
+						out.writeByte(STATUS_ERROR);
+						out.flush();
+						return;
+					}
+					final byte[] value = new byte[length];
+					in.readFully(value);
+					put(key, value, ttlMs);
+					out.writeByte(STATUS_OK);
+				} else {
+					out.writeByte(STATUS_ERROR);
+					out.flush();
+					return;
+				}
+				out.flush();
+			}
+		} catch (EOFException | SocketException e) { // The client went away in the middle of a request
+		} catch (IOException e) {
+			logger.warn(SpotifyLog.event("cache-node").with("status", "error").with("error", e.getMessage()));
+		} finally {
+			connections.remove(socket);
+		}
+	}
+
+	/**
+	 * get() gets the value of a key, dropping it if it has expired.
+	 * @param key is the key of the value
+	 * @return the value, or null if there is none
+	 */
+	synchronized byte[] get(String key) {
+		final Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (entry.expiresAtMs <= System.currentTimeMillis()) {
+			entries.remove(key);
+			bytes -= entry.value.length;
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * put() sets the value of a key and evicts the least recently
+	 * used values until the node is within its budget. A value
+	 * larger than the whole budget isn't kept.
+	 * @param key is the key of the value
+	 * @param value is the value
+	 * @param ttlMs is how long the value is kept, in milliseconds
+	 */
+	synchronized void put(String key, byte[] value, long ttlMs) {
+		final Entry previous = entries.remove(key);
+		if (previous != null)
+			bytes -= previous.value.length;
+		if (value.length > maxBytes || ttlMs <= 0)
+			return;
+		entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMs));
+		bytes += value.length;
+		final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= iterator.next().getValue().value.length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * getEntryCount() gets the number of values kept.
+	 * @return the number of values
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * getBytes() gets the number of bytes of the values kept.
+	 * @return the number of bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * close() stops listening and closes every connection.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		connectionExecutor.shutdownNow();
+		// A connection that already has its next request waiting would still answer it after being interrupted
+		for (Socket connection : connections)
+			connection.close();
+	}
+
+}
@@ -0,0 +1,121 @@
+package edu.psgv.sweng861;
+
+import java.io.IOException;
+
+/**
+ * SpotifyCircuitBreaker guards a single Spotify endpoint.
+ * After a number of consecutive failures the circuit opens
+ * and calls to that endpoint fail fast instead of waiting on
+ * a degraded server. Once the open period has passed, one
+ * trial call is let through and its outcome decides whether
+ * the circuit closes again or stays open.
+ * @author Matthew Bollinger
+ */
+public class SpotifyCircuitBreaker {
+
+	/**
+	 * State lists the three states that a circuit can be in.
+	 */
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	// Name of the endpoint guarded by this circuit
+	private final String endpoint;
+	// Number of consecutive failures that opens the circuit
+	private final int failureThreshold;
+	// How long the circuit stays open before a trial call is allowed
+	private final long openDurationMs;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAtMs;
+	private boolean trialInFlight;
+
+	/**
+	 * SpotifyCircuitBreaker constructor sets the endpoint name
+	 * as well as when the circuit opens and for how long.
+	 * @param endpoint is the name of the guarded endpoint
+	 * @param failureThreshold is the number of consecutive failures that opens the circuit
+	 * @param openDurationMs is how long calls fail fast once the circuit is open
+	 */
+	public SpotifyCircuitBreaker(String endpoint, int failureThreshold, long openDurationMs) {
+		this.endpoint = endpoint;
+		this.failureThreshold = failureThreshold;
+		this.openDurationMs = openDurationMs;
+	}
+
+	/**
+	 * acquire() checks whether a call may go through and
+	 * throws if the circuit is open.
+	 * @throws CircuitOpenException if calls to the endpoint must fail fast
+	 */
+	public synchronized void acquire() throws CircuitOpenException {
+		if (state == State.OPEN) {
+			// Let a single trial call through once the open period has passed
+			if (System.currentTimeMillis() - openedAtMs < openDurationMs)
+				throw new CircuitOpenException(endpoint);
+			state = State.HALF_OPEN;
+		}
+		if (state == State.HALF_OPEN) {
+			if (trialInFlight)
+				throw new CircuitOpenException(endpoint);
+			trialInFlight = true;
+		}
+	}
+
+	/**
+	 * recordSuccess() closes the circuit after a call succeeds.
+	 */
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		trialInFlight = false;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * recordFailure() counts a failed call and opens the circuit
+	 * if the threshold is reached or the trial call failed.
+	 */
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		trialInFlight = false;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			openedAtMs = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * getState() gets the current state of the circuit.
+	 * @return CLOSED, OPEN or HALF_OPEN
+	 */
+	public synchronized State getState() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAtMs >= openDurationMs)
+			return State.HALF_OPEN;
+		return state;
+	}
+
+	/**
+	 * getEndpoint() gets the name of the guarded endpoint.
+	 * @return the endpoint name
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * CircuitOpenException is thrown instead of making a call
+	 * while the circuit of its endpoint is open. It extends
+	 * IOException so callers handle it like any failed request.
+	 * @author Matthew Bollinger
+	 */
+	public static class CircuitOpenException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		public CircuitOpenException(String endpoint) {
+			super("Circuit open for endpoint " + endpoint);
+		}
+
+	}
+
+}
@@ -0,0 +1,195 @@
+package edu.psgv.sweng861;
+
+import java.io.InterruptedIOException;
+
+/**
+ * SpotifyConcurrencyLimiter caps how many requests to the
+ * Spotify API are in flight at once, and keeps moving the cap
+ * to wherever throughput is highest without latency rising.
+ * <p>
+ * It compares the latency of each request with a long-term
+ * average of past latencies. While requests take about as long
+ * as usual the limit grows by a share of its square root, and
+ * once they take more than one and a half times as long the
+ * limit shrinks in proportion, by up to half at a time. A request
+ * that fails because Spotify is overloaded, such as a 429 or a
+ * 5xx response or a timeout, cuts the limit at once. The limit
+ * only grows while the requests actually use most of it, so a
+ * quiet period doesn't leave it too high for the next burst.
+ * @author Matthew Bollinger
+ */
+public class SpotifyConcurrencyLimiter {
+
+	// Latencies up to this many times the long-term average still count as usual
+	private static final double TOLERANCE = 1.5;
+	// Share of each new limit that is taken, smoothing out single slow requests
+	private static final double SMOOTHING = 0.2;
+	// Number of requests the long-term average latency is spread over
+	private static final int LONG_WINDOW = 100;
+	// Share of the limit kept after a request fails from overload
+	private static final double BACKOFF = 0.75;
+
+	// Smallest and largest the limit can get
+	private final int minLimit;
+	private final int maxLimit;
+
+	// Number of requests allowed in flight, and in flight now
+	private double limit;
+	private int inFlight;
+	// Long-term average latency and the latency of the latest request, 0 until one is recorded
+	private double longLatencyNanos;
+	private double lastLatencyNanos;
+	// Number of requests that failed from overload, for monitoring
+	private long drops;
+
+	/**
+	 * SpotifyConcurrencyLimiter constructor sets the starting limit
+	 * and the range it can move in.
+	 * @param initialLimit is the number of requests allowed in flight at first
+	 * @param minLimit is the smallest the limit can get
+	 * @param maxLimit is the largest the limit can get
+	 */
+	public SpotifyConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || maxLimit < minLimit)
+			throw new IllegalArgumentException("Bad limits " + minLimit + ".." + maxLimit);
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	/**
+	 * acquire() waits until a request may be sent. Every call must
+	 * be followed by one of onSuccess(), onDropped() or onIgnored()
+	 * once the request is done.
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	public synchronized void acquire() throws InterruptedIOException {
+		while (inFlight >= (int) limit) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for a request slot");
+			}
+		}
+		inFlight++;
+	}
+
+	/**
+	 * tryAcquire() takes a slot for a request if one is free, without
+	 * waiting. A request that gets one must be finished like one that
+	 * called acquire().
+	 * @return true if the request may be sent now
+	 */
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= (int) limit)
+			return false;
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * onSuccess() records a request that succeeded and moves the
+	 * limit by how its latency compares with the long-term average.
+	 * @param latencyNanos is how long the request took
+	 */
+	public synchronized void onSuccess(long latencyNanos) {
+		final int active = inFlight;
+		release();
+		final double latency = Math.max(1, latencyNanos);
+		lastLatencyNanos = latency;
+		if (longLatencyNanos == 0) {
+			longLatencyNanos = latency;
+		} else {
+			longLatencyNanos += (latency - longLatencyNanos) / LONG_WINDOW;
+			// After a long slow period the average catches up quickly once requests are fast again
+			if (longLatencyNanos > 2 * latency)
+				longLatencyNanos *= 0.95;
+		}
+		// A limit the requests don't come close to using says nothing about whether it is right
+		if (active < limit / 2)
+			return;
+		final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatencyNanos / latency));
+		final double newLimit = limit * gradient + Math.sqrt(limit);
+		setLimit(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+	}
+
+	/**
+	 * onDropped() records a request that failed because Spotify is
+	 * overloaded or slow, and cuts the limit.
+	 */
+	public synchronized void onDropped() {
+		release();
+		drops++;
+		setLimit(limit * BACKOFF);
+	}
+
+	/**
+	 * onIgnored() records a request whose outcome says nothing
+	 * about the load on Spotify, such as one it rejected as invalid.
+	 */
+	public synchronized void onIgnored() {
+		release();
+	}
+
+	/**
+	 * getLimit() gets the number of requests allowed in flight.
+	 * @return the current limit
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * getInFlight() gets the number of requests in flight.
+	 * @return the number of requests
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * getLatencyMs() gets the long-term average latency the limit
+	 * is measured against.
+	 * @return the latency in milliseconds, or 0 before any request
+	 */
+	public synchronized double getLatencyMs() {
+		return longLatencyNanos / 1_000_000.0;
+	}
+
+	/**
+	 * getLastLatencyMs() gets the latency of the latest request
+	 * that succeeded.
+	 * @return the latency in milliseconds, or 0 before any request
+	 */
+	public synchronized double getLastLatencyMs() {
+		return lastLatencyNanos / 1_000_000.0;
+	}
+
+	/**
+	 * getDrops() gets the number of requests that failed from overload.
+	 * @return the number of requests
+	 */
+	public synchronized long getDrops() {
+		return drops;
+	}
+
+	/**
+	 * release() frees the slot of a finished request and wakes the
+	 * requests waiting for one.
+	 */
+	private void release() {
+		inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * setLimit() sets the limit within its range, waking waiting
+	 * requests in case it grew.
+	 */
+	private void setLimit(double newLimit) {
+		limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		notifyAll();
+	}
+
+}
@@ -0,0 +1,483 @@
+package edu.psgv.sweng861;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+import se.michaelthelin.spotify.model_objects.credentials.ClientCredentials;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SpotifyCredentialPool spreads the API requests over several
+ * Spotify apps, so that the requests of a busy process aren't all
+ * held to the rate limit of one app. Each app's client id and
+ * secret keep their own access token, and each request is sent
+ * with the token of the app with the fewest requests in flight.
+ * An app that Spotify answers with 429 Too Many Requests is left
+ * out until its Retry-After has passed and the request is sent
+ * again through another one. An app whose token can't be
+ * requested is only used for a while after that if no other app
+ * is left.
+ * <p>
+ * The pool plugs into the SpotifyApi object as its IHttpManager
+ * in front of the transport, and replaces the authorization
+ * header the library sets with the token of the app it picks.
+ * Tokens are requested through the transport directly.
+ * @author Matthew Bollinger
+ */
+public class SpotifyCredentialPool implements IHttpManager {
+
+	private static final Logger logger = LogManager.getLogger(SpotifyCredentialPool.class);
+
+	// How long an app is left out after a 429 that doesn't say how long to wait
+	static final long DEFAULT_RETRY_AFTER_MS = 1_000;
+	// How long an app is only a last resort after its token can't be requested, doubling with each failure in a row
+	static final long UNHEALTHY_BACKOFF_MS = 30_000;
+	private static final long MAX_UNHEALTHY_BACKOFF_MS = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Credential is the client id and secret of one app, along with
+	 * its access token, how many requests it has in flight, and
+	 * until when it is left out.
+	 */
+	public static class Credential {
+
+		private final String clientId;
+		private final String clientSecret;
+		// Requests the tokens of this app straight through the transport
+		private final SpotifyApi tokenApi;
+		// Saves the token of this app between runs, null if it isn't saved
+		private final SpotifyTokenStore tokenStore;
+
+		private volatile String accessToken;
+		private volatile long expiresAtMs;
+		// Until when the app is left out after a 429, or only used as a last resort after failing to get a token
+		private volatile long throttledUntilMs;
+		private volatile long unhealthyUntilMs;
+		private int tokenFailures;
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong throttles = new AtomicLong();
+
+		Credential(String clientId, String clientSecret, IHttpManager transport, SpotifyTokenStore tokenStore) {
+			this.clientId = clientId;
+			this.clientSecret = clientSecret;
+			this.tokenStore = tokenStore;
+			this.tokenApi = new SpotifyApi.Builder()
+					.setClientId(clientId).setClientSecret(clientSecret)
+					.setHttpManager(transport)
+					.build();
+		}
+
+		/**
+		 * authenticate() makes sure the app has a token that isn't
+		 * about to expire, using the saved token or requesting a new
+		 * one. Only one thread requests the token of an app at a time.
+		 * @return true if the app has a token
+		 */
+		synchronized boolean authenticate() {
+			final long now = System.currentTimeMillis();
+			if (isTokenValid(now))
+				return true;
+			final long start = System.nanoTime();
+			if (tokenStore != null) {
+				try {
+					final SpotifyTokenStore.Token saved = tokenStore.load(clientId, clientSecret);
+					if (saved != null && saved.isValid(now)) {
+						setToken(saved.getAccessToken(), saved.getExpiresAtMs());
+						logger.info(SpotifyLog.event("token").with("client", getName()).with("source", "store").with("status", "ok")
+								.with("latencyMs", SpotifyLog.elapsedMs(start)));
+						return true;
+					}
+				} catch (IOException e) { // Caught if the saved token can't be read, a new one is requested
+					logger.warn(SpotifyLog.event("token").with("client", getName()).with("source", "store").with("status", "error")
+							.with("error", e.getMessage()));
+				}
+			}
+			try {
+				final ClientCredentials clientCredentials = tokenApi.clientCredentials().build().execute();
+				setToken(clientCredentials.getAccessToken(), now + TimeUnit.SECONDS.toMillis(clientCredentials.getExpiresIn()));
+				if (tokenStore != null)
+					tokenStore.save(new SpotifyTokenStore.Token(accessToken, expiresAtMs), clientId, clientSecret);
+				logger.info(SpotifyLog.event("token").with("client", getName()).with("source", "client-credentials").with("status", "ok")
+						.with("latencyMs", SpotifyLog.elapsedMs(start)));
+				return true;
+			} catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) { // The app is only a last resort for a while
+				tokenFailures++;
+				final long backoffMs = Math.min(UNHEALTHY_BACKOFF_MS << Math.min(tokenFailures - 1, 10), MAX_UNHEALTHY_BACKOFF_MS);
+				unhealthyUntilMs = System.currentTimeMillis() + backoffMs;
+				logger.error(SpotifyLog.event("token").with("client", getName()).with("source", "client-credentials")
+						.with("status", e.getClass().getSimpleName()).with("latencyMs", SpotifyLog.elapsedMs(start))
+						.with("error", String.valueOf(e.getMessage())).with("backoffMs", backoffMs));
+				return false;
+			}
+		}
+
+		/**
+		 * setToken() sets the token of the app once it is requested or
+		 * read back, which makes the app healthy again.
+		 */
+		private void setToken(String accessToken, long expiresAtMs) {
+			this.accessToken = accessToken;
+			this.expiresAtMs = expiresAtMs;
+			tokenFailures = 0;
+			unhealthyUntilMs = 0;
+		}
+
+		/**
+		 * invalidate() drops the token of the app, along with the saved
+		 * one, after Spotify rejected it.
+		 */
+		synchronized void invalidate() {
+			expiresAtMs = 0;
+			if (tokenStore != null) {
+				try {
+					tokenStore.clear();
+				} catch (IOException e) { // Caught if the saved token can't be deleted
+					logger.warn(SpotifyLog.event("token").with("client", getName()).with("source", "store").with("status", "error")
+							.with("error", e.getMessage()));
+				}
+			}
+		}
+
+		/**
+		 * throttle() leaves the app out until Spotify said to try again.
+		 */
+		void throttle(long retryAfterMs) {
+			throttles.incrementAndGet();
+			throttledUntilMs = System.currentTimeMillis() + retryAfterMs;
+		}
+
+		/**
+		 * isAvailable() checks whether requests may be sent through the
+		 * app, and whether it is healthy if only healthy ones are wanted.
+		 */
+		boolean isAvailable(long nowMs, boolean healthyOnly) {
+			return nowMs >= throttledUntilMs && (!healthyOnly || nowMs >= unhealthyUntilMs);
+		}
+
+		/**
+		 * isTokenValid() checks whether the app has a token that isn't
+		 * about to expire.
+		 */
+		boolean isTokenValid(long nowMs) {
+			return expiresAtMs - nowMs > SpotifyTokenStore.EXPIRY_MARGIN_MS;
+		}
+
+		/**
+		 * getName() names the app in the log by the start of its client
+		 * id, so the log doesn't hold the full id.
+		 * @return the first characters of the client id
+		 */
+		public String getName() {
+			return (clientId == null) ? "none" : clientId.substring(0, Math.min(6, clientId.length()));
+		}
+
+		/**
+		 * getInFlight() gets the number of requests being sent through the app.
+		 * @return the number of requests
+		 */
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * getRequestCount() gets the number of requests sent through the app.
+		 * @return the number of requests
+		 */
+		public long getRequestCount() {
+			return requests.get();
+		}
+
+		/**
+		 * getThrottleCount() gets the number of times Spotify answered
+		 * the app with 429 Too Many Requests.
+		 * @return the number of 429 answers
+		 */
+		public long getThrottleCount() {
+			return throttles.get();
+		}
+
+		/**
+		 * isThrottled() checks whether the app is waiting out a 429.
+		 * @return true if the app is left out for now
+		 */
+		public boolean isThrottled() {
+			return System.currentTimeMillis() < throttledUntilMs;
+		}
+
+		/**
+		 * isHealthy() checks whether the app's token could be requested
+		 * the last time it was tried.
+		 * @return true unless the app recently failed to get a token
+		 */
+		public boolean isHealthy() {
+			return System.currentTimeMillis() >= unhealthyUntilMs;
+		}
+
+	}
+
+	/**
+	 * Send is one API request, sent with the headers given.
+	 */
+	private interface Send {
+		String send(Header[] headers) throws IOException, SpotifyWebApiException, ParseException;
+	}
+
+	// Sends the requests and the token requests
+	private final IHttpManager transport;
+	// Saves the tokens between runs, null if they aren't saved
+	private final SpotifyTokenStore tokenStore;
+	// The apps requests are spread over
+	private final List<Credential> credentials = new CopyOnWriteArrayList<>();
+	// Where the search for the least loaded app starts, so apps that are tied take turns
+	private final AtomicInteger nextStart = new AtomicInteger();
+
+	/**
+	 * SpotifyCredentialPool constructor sets the transport the
+	 * requests go through. addCredential() adds the apps.
+	 * @param transport is the transport that sends the requests
+	 * @param tokenStore saves the tokens so that a restart within the
+	 * hour can skip requesting them, may be null
+	 */
+	public SpotifyCredentialPool(IHttpManager transport, SpotifyTokenStore tokenStore) {
+		this.transport = transport;
+		this.tokenStore = tokenStore;
+	}
+
+	/**
+	 * fromEnvironment() creates a pool of the app in the SPOTIFY_ID
+	 * and SPOTIFY_PASS environment variables, along with any listed
+	 * in the SPOTIFY_CREDENTIALS environment variable as
+	 * id:secret pairs separated by commas.
+	 * @param transport is the transport that sends the requests
+	 * @param tokenStore saves the tokens between runs, may be null
+	 * @return the pool
+	 */
+	public static SpotifyCredentialPool fromEnvironment(IHttpManager transport, SpotifyTokenStore tokenStore) {
+		final SpotifyCredentialPool pool = new SpotifyCredentialPool(transport, tokenStore);
+		final String clientId = System.getenv("SPOTIFY_ID");
+		final String clientSecret = System.getenv("SPOTIFY_PASS");
+		final String more = System.getenv("SPOTIFY_CREDENTIALS");
+		if (clientId != null || more == null)
+			pool.addCredential(clientId, clientSecret);
+		if (more != null) {
+			for (String pair : more.split(",")) {
+				final int colon = pair.indexOf(':');
+				if (colon > 0)
+					pool.addCredential(pair.substring(0, colon).trim(), pair.substring(colon + 1).trim());
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * addCredential() adds an app to the pool. The token of each app
+	 * after the first is saved next to the token file.
+	 * @param clientId is the client id of the app
+	 * @param clientSecret is the client secret of the app
+	 */
+	public synchronized void addCredential(String clientId, String clientSecret) {
+		final int index = credentials.size();
+		final SpotifyTokenStore store = (tokenStore == null || index == 0) ? tokenStore : tokenStore.forClient(index);
+		credentials.add(new Credential(clientId, clientSecret, transport, store));
+	}
+
+	/**
+	 * getCredentials() gets the apps of the pool.
+	 * @return a list of the apps, in the order they were added
+	 */
+	public List<Credential> getCredentials() {
+		return new ArrayList<>(credentials);
+	}
+
+	/**
+	 * getClientId() gets the client id of the first app, which the
+	 * SpotifyApi object is built with.
+	 * @return the client id, or null if the pool is empty
+	 */
+	public String getClientId() {
+		return credentials.isEmpty() ? null : credentials.get(0).clientId;
+	}
+
+	/**
+	 * authenticate() makes sure every healthy app has a token,
+	 * requesting the ones that are missing or about to expire. The
+	 * apps that recently failed to get one are only tried again if
+	 * none of the others has a token.
+	 * @return a token of the pool, which the SpotifyApi object needs
+	 * to build requests, or null if no app has one
+	 */
+	public String authenticate() {
+		String token = null;
+		for (Credential credential : credentials) {
+			if (credential.isHealthy() && credential.authenticate() && token == null)
+				token = credential.accessToken;
+		}
+		for (Credential credential : credentials) {
+			if (token == null && !credential.isHealthy() && credential.authenticate())
+				token = credential.accessToken;
+		}
+		return token;
+	}
+
+	/**
+	 * getTokenExpiresAtMs() gets when the last of the tokens expires.
+	 * Tokens that expire before it are requested again as they are
+	 * needed.
+	 * @return the expiry in epoch milliseconds, or 0 if there is no token
+	 */
+	public long getTokenExpiresAtMs() {
+		long expiresAtMs = 0;
+		for (Credential credential : credentials)
+			expiresAtMs = Math.max(expiresAtMs, credential.expiresAtMs);
+		return expiresAtMs;
+	}
+
+	/**
+	 * get() sends a GET request to the Spotify API.
+	 */
+	@Override
+	public String get(URI uri, Header[] headers) throws IOException, SpotifyWebApiException, ParseException {
+		return send(headers, authorized -> transport.get(uri, authorized));
+	}
+
+	/**
+	 * post() sends a POST request to the Spotify API.
+	 */
+	@Override
+	public String post(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+		return send(headers, authorized -> transport.post(uri, authorized, body));
+	}
+
+	/**
+	 * put() sends a PUT request to the Spotify API.
+	 */
+	@Override
+	public String put(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+		return send(headers, authorized -> transport.put(uri, authorized, body));
+	}
+
+	/**
+	 * delete() sends a DELETE request to the Spotify API.
+	 */
+	@Override
+	public String delete(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+		return send(headers, authorized -> transport.delete(uri, authorized, body));
+	}
+
+	/**
+	 * send() sends a request through the least loaded app, and again
+	 * through the next one each time an app is rate limited or its
+	 * token is rejected, until every app was tried.
+	 * @param headers are the headers set by the library
+	 * @param send sends the request with the headers given
+	 * @return the body of the response
+	 */
+	private String send(Header[] headers, Send send) throws IOException, SpotifyWebApiException, ParseException {
+		final Set<Credential> tried = new HashSet<>();
+		SpotifyWebApiException lastError = null;
+		Credential credential;
+		while ((credential = choose(tried)) != null) {
+			tried.add(credential);
+			if (!credential.authenticate())
+				continue;
+			credential.inFlight.incrementAndGet();
+			credential.requests.incrementAndGet();
+			try {
+				return send.send(authorize(headers, credential.accessToken));
+			} catch (TooManyRequestsException e) {
+				final long retryAfterMs = (e.getRetryAfter() > 0) ? TimeUnit.SECONDS.toMillis(e.getRetryAfter()) : DEFAULT_RETRY_AFTER_MS;
+				credential.throttle(retryAfterMs);
+				logger.warn(SpotifyLog.event("credential").with("client", credential.getName()).with("status", "throttled")
+						.with("retryAfterMs", retryAfterMs).with("inFlight", credential.getInFlight()));
+				lastError = e;
+			} catch (UnauthorizedException e) {
+				credential.invalidate();
+				logger.warn(SpotifyLog.event("credential").with("client", credential.getName()).with("status", "unauthorized")
+						.with("error", String.valueOf(e.getMessage())));
+				lastError = e;
+			} finally {
+				credential.inFlight.decrementAndGet();
+			}
+		}
+		if (lastError != null)
+			throw lastError;
+		throw new TooManyRequestsException("Every Spotify app of the pool is rate limited",
+				(int) TimeUnit.MILLISECONDS.toSeconds(getWaitMs() + 999));
+	}
+
+	/**
+	 * choose() picks the app with the fewest requests in flight out
+	 * of the ones that aren't rate limited and haven't been tried yet,
+	 * preferring the healthy ones.
+	 * @param tried are the apps already tried for the request
+	 * @return the app, or null if there is none left to try
+	 */
+	private Credential choose(Set<Credential> tried) {
+		final long now = System.currentTimeMillis();
+		final int count = credentials.size();
+		if (count == 0)
+			return null;
+		final int start = Math.floorMod(nextStart.getAndIncrement(), count);
+		Credential best = null;
+		for (int pass = 0; pass < 2 && best == null; pass++) {
+			for (int i = 0; i < count; i++) {
+				final Credential credential = credentials.get((start + i) % count);
+				if (tried.contains(credential) || !credential.isAvailable(now, pass == 0))
+					continue;
+				if (best == null || credential.getInFlight() < best.getInFlight())
+					best = credential;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * getWaitMs() gets how long until the first app that is rate
+	 * limited can be used again.
+	 */
+	private long getWaitMs() {
+		final long now = System.currentTimeMillis();
+		long waitMs = Long.MAX_VALUE;
+		for (Credential credential : credentials)
+			waitMs = Math.min(waitMs, credential.throttledUntilMs - now);
+		return (waitMs == Long.MAX_VALUE) ? 0 : Math.max(0, waitMs);
+	}
+
+	/**
+	 * authorize() copies the headers of a request with the
+	 * authorization header replaced by the token of an app.
+	 */
+	private static Header[] authorize(Header[] headers, String accessToken) {
+		final List<Header> authorized = new ArrayList<>();
+		if (headers != null) {
+			for (Header header : headers) {
+				if (!header.getName().equalsIgnoreCase(HttpHeaders.AUTHORIZATION))
+					authorized.add(header);
+			}
+		}
+		authorized.add(new BasicHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken));
+		return authorized.toArray(new Header[0]);
+	}
+
+}
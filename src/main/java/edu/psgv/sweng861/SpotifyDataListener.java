@@ -0,0 +1,19 @@
+package edu.psgv.sweng861;
+
+/**
+ * SpotifyDataListener is told when a field of a result that
+ * was still pending, such as the top track of an artist or
+ * the image of an album, has arrived. It is used by the GUI
+ * to refresh the detail view of the selected result.
+ * @author Matthew Bollinger
+ */
+public interface SpotifyDataListener {
+
+	/**
+	 * dataChanged() is called once a pending field of a
+	 * result has been set. It may be called from any thread.
+	 * @param index is the index of the result that changed
+	 */
+	void dataChanged(int index);
+
+}
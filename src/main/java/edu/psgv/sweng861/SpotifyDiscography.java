@@ -0,0 +1,175 @@
+package edu.psgv.sweng861;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * SpotifyDiscography adds up the tracks of an artist's albums
+ * and singles as they arrive. Each track is handed to the
+ * listener and counted once, even if it was released on several
+ * albums; a track is a duplicate if its ISRC or its name was
+ * already seen. Only the keys used to find duplicates and the
+ * running statistics are kept, not the tracks themselves, so
+ * the memory used stays small however large the discography is.
+ * @author Matthew Bollinger
+ */
+public class SpotifyDiscography {
+
+	// Spotify ID of the artist
+	private final String artistId;
+	// Told about each distinct track, may be null
+	private final SpotifyDiscographyListener listener;
+	// ISRCs and names of the tracks seen so far
+	private final HashSet<String> seenKeys = new HashSet<>();
+
+	private int albumCount;
+	private int trackCount;
+	private int duplicateCount;
+	private long totalDurationMs;
+	// Number of distinct tracks released in each year
+	private final TreeMap<Integer, Integer> releaseTimeline = new TreeMap<>();
+	private String firstReleaseDate;
+	private String lastReleaseDate;
+	private volatile boolean complete;
+
+	/**
+	 * SpotifyDiscography constructor sets the artist and the
+	 * listener told about each track.
+	 * @param artistId is the Spotify ID of the artist
+	 * @param listener is told about each distinct track, may be null
+	 */
+	public SpotifyDiscography(String artistId, SpotifyDiscographyListener listener) {
+		this.artistId = artistId;
+		this.listener = listener;
+	}
+
+	/**
+	 * addAlbum() counts an album of the discography.
+	 */
+	synchronized void addAlbum() {
+		albumCount++;
+	}
+
+	/**
+	 * addTrack() adds a track unless it is a duplicate, and tells
+	 * the listener about it.
+	 * @param isrc is the ISRC of the track, may be null
+	 * @param name is the name of the track
+	 * @param album is the name of the album the track is on
+	 * @param releaseDate is the release date of the album, starting with the year
+	 * @param durationMs is the length of the track in milliseconds
+	 * @return true if the track was added, false if it is a duplicate
+	 */
+	boolean addTrack(String isrc, String name, String album, String releaseDate, int durationMs) {
+		final String nameKey = "name:" + ((name != null) ? name.trim().toLowerCase(Locale.ROOT) : "");
+		synchronized (this) {
+			final boolean newIsrc = isrc == null || seenKeys.add("isrc:" + isrc.toUpperCase(Locale.ROOT));
+			// Both keys are recorded so a later release matching either one is dropped
+			final boolean newName = seenKeys.add(nameKey);
+			if (!newIsrc || !newName) {
+				duplicateCount++;
+				return false;
+			}
+			trackCount++;
+			totalDurationMs += durationMs;
+			if (releaseDate != null && releaseDate.length() >= 4) {
+				try {
+					releaseTimeline.merge(Integer.parseInt(releaseDate.substring(0, 4)), 1, Integer::sum);
+				} catch (NumberFormatException e) { // Caught if the date has no year, it is left off the timeline
+				}
+				if (firstReleaseDate == null || releaseDate.compareTo(firstReleaseDate) < 0)
+					firstReleaseDate = releaseDate;
+				if (lastReleaseDate == null || releaseDate.compareTo(lastReleaseDate) > 0)
+					lastReleaseDate = releaseDate;
+			}
+		}
+		if (listener != null)
+			listener.trackFound(name, album, releaseDate, durationMs);
+		return true;
+	}
+
+	/**
+	 * getArtistId() gets the Spotify ID of the artist.
+	 * @return the ID of the artist
+	 */
+	public String getArtistId() {
+		return artistId;
+	}
+
+	/**
+	 * getAlbumCount() gets the number of albums and singles read.
+	 * @return the number of albums
+	 */
+	public synchronized int getAlbumCount() {
+		return albumCount;
+	}
+
+	/**
+	 * getTrackCount() gets the number of distinct tracks.
+	 * @return the number of tracks
+	 */
+	public synchronized int getTrackCount() {
+		return trackCount;
+	}
+
+	/**
+	 * getDuplicateCount() gets the number of tracks that were
+	 * dropped because they had already been seen.
+	 * @return the number of duplicates
+	 */
+	public synchronized int getDuplicateCount() {
+		return duplicateCount;
+	}
+
+	/**
+	 * getTotalDurationMs() gets the total length of the distinct tracks.
+	 * @return the total length in milliseconds
+	 */
+	public synchronized long getTotalDurationMs() {
+		return totalDurationMs;
+	}
+
+	/**
+	 * getReleaseTimeline() gets the number of distinct tracks
+	 * released in each year.
+	 * @return a copy of the timeline, sorted by year
+	 */
+	public synchronized SortedMap<Integer, Integer> getReleaseTimeline() {
+		return new TreeMap<>(releaseTimeline);
+	}
+
+	/**
+	 * getFirstReleaseDate() gets the earliest release date of the tracks.
+	 * @return the date, or null if no track had one
+	 */
+	public synchronized String getFirstReleaseDate() {
+		return firstReleaseDate;
+	}
+
+	/**
+	 * getLastReleaseDate() gets the latest release date of the tracks.
+	 * @return the date, or null if no track had one
+	 */
+	public synchronized String getLastReleaseDate() {
+		return lastReleaseDate;
+	}
+
+	/**
+	 * isComplete() checks whether every request of the discography
+	 * succeeded, so that no track is missing.
+	 * @return true if the discography is complete
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * setComplete() marks whether every request of the discography succeeded.
+	 */
+	void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+}
@@ -0,0 +1,22 @@
+package edu.psgv.sweng861;
+
+/**
+ * SpotifyDiscographyListener is told about each track of an
+ * artist's discography as soon as it arrives, so the caller
+ * can show the tracks while the rest are still being requested.
+ * @author Matthew Bollinger
+ */
+public interface SpotifyDiscographyListener {
+
+	/**
+	 * trackFound() is called once for each distinct track of the
+	 * discography, in the order they arrive. It may be called from
+	 * any thread.
+	 * @param name is the name of the track
+	 * @param album is the name of the album the track is on
+	 * @param releaseDate is the release date of the album
+	 * @param durationMs is the length of the track in milliseconds
+	 */
+	void trackFound(String name, String album, String releaseDate, int durationMs);
+
+}
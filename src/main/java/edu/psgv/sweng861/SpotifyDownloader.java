@@ -0,0 +1,22 @@
+package edu.psgv.sweng861;
+
+import java.io.IOException;
+
+/**
+ * SpotifyDownloader fetches the raw bytes found at a URL, such
+ * as the artwork of an artist or album. It is implemented by the
+ * HTTP transport, and by the requester when downloads are shared
+ * with other instances through a remote cache.
+ * @author Matthew Bollinger
+ */
+public interface SpotifyDownloader {
+
+	/**
+	 * download() fetches the raw bytes found at a URL.
+	 * @param url is the location of the file
+	 * @return the bytes of the file
+	 * @throws IOException if the file can't be fetched
+	 */
+	byte[] download(String url) throws IOException;
+
+}
@@ -0,0 +1,320 @@
+package edu.psgv.sweng861;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpotifyEdtWatchdog times every event the Swing event dispatch
+ * thread handles, so that work which blocks the GUI shows up in
+ * the log instead of only as a window that stops responding. It
+ * takes the place of the system event queue and records how long
+ * each event takes in a histogram with buckets that double in
+ * size. A monitor thread checks the event being handled a few
+ * times per threshold, and once one has run longer than the
+ * threshold it captures the stack of the event dispatch thread
+ * and logs it, showing the code the GUI is stuck in while it is
+ * still stuck there.
+ * <p>
+ * An event that opens a modal dialog handles the events of the
+ * dialog from within itself until it is closed. Only the events
+ * inside are timed then, and the one that opened the dialog is
+ * left out of the histogram, since it was waiting for the user.
+ * It isn't reported as stalled while the dialog waits for events
+ * either, only while it runs code of its own.
+ * @author Matthew Bollinger
+ */
+public class SpotifyEdtWatchdog extends EventQueue {
+
+	private static final Logger logger = LogManager.getLogger(SpotifyEdtWatchdog.class);
+
+	// How long an event may take before it is reported, when none is given
+	public static final long DEFAULT_THRESHOLD_MS = 100;
+	// Upper bound of the first bucket of the histogram; each bucket after it is twice as wide
+	private static final long FIRST_BUCKET_MS = 1;
+	// Number of buckets, the last one holding every event slower than the others
+	static final int BUCKETS = 14;
+	// Number of frames of the stack that are logged
+	private static final int MAX_STACK_FRAMES = 40;
+	// How often the histogram is summarized in the log
+	private static final long SUMMARY_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+	// How long an event may take before it is reported
+	private final long thresholdMs;
+	private final long thresholdNanos;
+	// Checks the event being handled, and logs the summary
+	private final ScheduledExecutorService monitor;
+
+	// When the innermost event being handled started, 0 while idle, and the event and thread
+	private volatile long dispatchStartNanos;
+	private volatile AWTEvent dispatchEvent;
+	private volatile Thread dispatchThread;
+	// Depth of nested event loops, and whether the event at each depth ran one, only used by the dispatch thread
+	private int depth;
+	private boolean ranNestedLoop;
+	// Start of the last event reported as stalled, so each one is only reported once
+	private long reportedStartNanos;
+
+	// Number of events by how long they took, and how many of them stalled
+	private final long[] histogram = new long[BUCKETS];
+	private long dispatched;
+	private long maxNanos;
+	private long stalls;
+	private long dispatchedAtLastSummary;
+	// Stack of the dispatch thread captured at the last stall
+	private StackTraceElement[] lastStallStack;
+
+	/**
+	 * SpotifyEdtWatchdog constructor sets the threshold and starts
+	 * the monitor thread. install() puts the watchdog in place.
+	 */
+	private SpotifyEdtWatchdog(long thresholdMs) {
+		this.thresholdMs = thresholdMs;
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+		this.monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "spotify-edt-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long checkMs = Math.max(5, thresholdMs / 4);
+		monitor.scheduleAtFixedRate(this::checkStall, checkMs, checkMs, TimeUnit.MILLISECONDS);
+		monitor.scheduleAtFixedRate(this::logSummary, SUMMARY_INTERVAL_MS, SUMMARY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * install() puts a watchdog in front of the system event queue,
+	 * so that every event handled from then on is timed.
+	 * @param thresholdMs is how long an event may take before it is reported
+	 * @return the watchdog
+	 */
+	public static SpotifyEdtWatchdog install(long thresholdMs) {
+		final SpotifyEdtWatchdog watchdog = new SpotifyEdtWatchdog(thresholdMs);
+		Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog);
+		return watchdog;
+	}
+
+	/**
+	 * uninstall() puts the system event queue back and stops the
+	 * monitor thread. Events still queued are handed back to it.
+	 */
+	public void uninstall() {
+		monitor.shutdownNow();
+		pop();
+	}
+
+	/**
+	 * getNextEvent() waits for the next event. A nested loop waiting
+	 * for one isn't running any code, so the event that runs the loop
+	 * isn't timed while it waits; it is timed again once an event
+	 * inside the loop has been handled.
+	 * @return the next event
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	@Override
+	public AWTEvent getNextEvent() throws InterruptedException {
+		if (depth > 0 && Thread.currentThread() == dispatchThread)
+			dispatchStartNanos = 0;
+		return super.getNextEvent();
+	}
+
+	/**
+	 * dispatchEvent() handles an event while timing it.
+	 * @param event is the event to handle
+	 */
+	@Override
+	protected void dispatchEvent(AWTEvent event) {
+		final long start = System.nanoTime();
+		// An event handled while another one is still being handled comes from a nested loop, such as a modal dialog's
+		final boolean nested = depth > 0;
+		final boolean outerRanNestedLoop = ranNestedLoop;
+		final AWTEvent outerEvent = dispatchEvent;
+		ranNestedLoop = false;
+		depth++;
+		dispatchThread = Thread.currentThread();
+		dispatchEvent = event;
+		dispatchStartNanos = start;
+		try {
+			super.dispatchEvent(event);
+		} finally {
+			final long nanos = System.nanoTime() - start;
+			depth--;
+			if (!ranNestedLoop)
+				record(event, nanos);
+			ranNestedLoop = outerRanNestedLoop || nested;
+			dispatchEvent = outerEvent;
+			// The event that ran the nested loop is timed again from now, so the loop doesn't count as a stall
+			dispatchStartNanos = nested ? System.nanoTime() : 0;
+		}
+	}
+
+	/**
+	 * record() adds the time an event took to the histogram, and
+	 * logs the event if it took longer than the threshold.
+	 */
+	private void record(AWTEvent event, long nanos) {
+		final boolean slow = nanos >= thresholdNanos;
+		synchronized (this) {
+			histogram[bucketOf(TimeUnit.NANOSECONDS.toMillis(nanos))]++;
+			dispatched++;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+		if (slow)
+			logger.info(SpotifyLog.event("edt-slow").with("awtEvent", describe(event))
+					.with("latencyMs", TimeUnit.NANOSECONDS.toMillis(nanos)).with("thresholdMs", thresholdMs));
+	}
+
+	/**
+	 * checkStall() captures and logs the stack of the event dispatch
+	 * thread if the event it is handling has run past the threshold.
+	 */
+	private void checkStall() {
+		final long start = dispatchStartNanos;
+		if (start == 0 || System.nanoTime() - start < thresholdNanos)
+			return;
+		final Thread thread = dispatchThread;
+		final AWTEvent event = dispatchEvent;
+		final StackTraceElement[] stack = thread.getStackTrace();
+		// The event may have finished while the stack was being captured
+		if (dispatchStartNanos != start)
+			return;
+		synchronized (this) {
+			if (reportedStartNanos == start)
+				return;
+			reportedStartNanos = start;
+			stalls++;
+			lastStallStack = stack;
+		}
+		logger.warn(SpotifyLog.event("edt-stall").with("awtEvent", describe(event))
+				.with("stalledMs", SpotifyLog.elapsedMs(start)).with("thresholdMs", thresholdMs)
+				.with("stack", formatStack(stack)));
+	}
+
+	/**
+	 * logSummary() logs the percentiles of the event latencies if any
+	 * events were handled since the last summary.
+	 */
+	private void logSummary() {
+		final long count;
+		synchronized (this) {
+			if (dispatched == dispatchedAtLastSummary)
+				return;
+			dispatchedAtLastSummary = dispatched;
+			count = dispatched;
+		}
+		logger.info(SpotifyLog.event("edt-latency").with("events", count).with("p50Ms", getPercentileMs(0.5))
+				.with("p99Ms", getPercentileMs(0.99)).with("maxMs", getMaxMs()).with("stalls", getStallCount()));
+	}
+
+	/**
+	 * bucketOf() gets the bucket of the histogram an event falls in.
+	 */
+	static int bucketOf(long ms) {
+		int bucket = 0;
+		long bound = FIRST_BUCKET_MS;
+		while (bucket < BUCKETS - 1 && ms >= bound) {
+			bucket++;
+			bound *= 2;
+		}
+		return bucket;
+	}
+
+	/**
+	 * getBucketBoundMs() gets the upper bound of a bucket of the histogram.
+	 * @param bucket is the index of the bucket
+	 * @return the bound in milliseconds, exclusive, or Long.MAX_VALUE for the last bucket
+	 */
+	public static long getBucketBoundMs(int bucket) {
+		return (bucket >= BUCKETS - 1) ? Long.MAX_VALUE : FIRST_BUCKET_MS << bucket;
+	}
+
+	/**
+	 * getHistogram() gets the number of events that fell in each
+	 * bucket of the histogram.
+	 * @return a copy of the counts
+	 */
+	public synchronized long[] getHistogram() {
+		return Arrays.copyOf(histogram, BUCKETS);
+	}
+
+	/**
+	 * getPercentileMs() estimates a percentile of the event latencies
+	 * by the upper bound of the bucket it falls in.
+	 * @param percentile is the percentile (0..1)
+	 * @return the latency in milliseconds, or 0 before any event
+	 */
+	public synchronized long getPercentileMs(double percentile) {
+		if (dispatched == 0)
+			return 0;
+		final long rank = (long) Math.ceil(percentile * dispatched);
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += histogram[bucket];
+			if (seen >= rank)
+				return Math.min(getBucketBoundMs(bucket), getMaxMs());
+		}
+		return getMaxMs();
+	}
+
+	/**
+	 * getMaxMs() gets the longest an event took.
+	 * @return the latency in milliseconds
+	 */
+	public synchronized long getMaxMs() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+	}
+
+	/**
+	 * getDispatchCount() gets the number of events timed.
+	 * @return the number of events
+	 */
+	public synchronized long getDispatchCount() {
+		return dispatched;
+	}
+
+	/**
+	 * getStallCount() gets the number of events reported as stalled.
+	 * @return the number of events
+	 */
+	public synchronized long getStallCount() {
+		return stalls;
+	}
+
+	/**
+	 * getLastStallStack() gets the stack of the event dispatch thread
+	 * captured at the last stall.
+	 * @return the stack, or null if nothing has stalled
+	 */
+	public synchronized StackTraceElement[] getLastStallStack() {
+		return lastStallStack;
+	}
+
+	/**
+	 * describe() names an event by its type and what it came from.
+	 */
+	private static String describe(AWTEvent event) {
+		if (event == null)
+			return "unknown";
+		final Object source = event.getSource();
+		return event.getClass().getSimpleName() + "@" + ((source != null) ? source.getClass().getSimpleName() : "null");
+	}
+
+	/**
+	 * formatStack() turns the top frames of a stack into one string.
+	 */
+	private static String formatStack(StackTraceElement[] stack) {
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < Math.min(stack.length, MAX_STACK_FRAMES); i++)
+			text.append("\n\tat ").append(stack[i]);
+		if (stack.length > MAX_STACK_FRAMES)
+			text.append("\n\t... ").append(stack.length - MAX_STACK_FRAMES).append(" more");
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,407 @@
+package edu.psgv.sweng861;
+
+import com.neovisionaries.i18n.CountryCode;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * SpotifyEntityStore keeps one copy of each artist and track that
+ * any result holds, by Spotify ID, so that an artist found by
+ * several searches, or a name that shows up both as a search hit
+ * and in the related artists or credits of others, is stored once
+ * and shared by every result instead of copied into each one. The
+ * strings the results hold, such as names, genres and album names,
+ * are shared the same way, and so are the downloaded images, by
+ * their URL, so the album image of every track of an album is kept
+ * once.
+ * <p>
+ * An artist learns its related artists and top track from the
+ * first result that requests them, and a later result with the
+ * same artist can take them from it instead of requesting them
+ * again, until they are too old. Everything is held weakly, so it
+ * is dropped once no result that is kept refers to it any more,
+ * and the store grows with the distinct artists and tracks kept
+ * instead of with the number of results.
+ * @author Matthew Bollinger
+ */
+public class SpotifyEntityStore {
+
+	// How long the related artists and top track an artist learned are taken over by other results
+	static final long DETAILS_TTL_MS = SpotifyRestRequester.RESULT_SOFT_TTL_MS;
+
+	// Store shared by every result in the process
+	private static final SpotifyEntityStore defaultStore = new SpotifyEntityStore();
+
+	/**
+	 * ArtistEntity is the one copy of an artist, along with the
+	 * details it has learned and when they were learned.
+	 */
+	public static class ArtistEntity {
+
+		private final String id;
+		private volatile String name;
+		private volatile ArrayList<String> genres;
+		private volatile String imageUrl;
+
+		// Details learned from a result, and when that result was fetched, 0 if not learned
+		private ArrayList<String> relatedArtistNames;
+		private long relatedArtistsAtMs;
+		private String topTrack;
+		private CountryCode topTrackMarket;
+		private long topTrackAtMs;
+
+		ArtistEntity(String id) {
+			this.id = id;
+		}
+
+		/**
+		 * getId() gets the Spotify ID of the artist.
+		 * @return the ID
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * getName() gets the name of the artist.
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * getGenres() gets the genres of the artist, a list shared by
+		 * every result that must not be changed.
+		 * @return the genres
+		 */
+		public ArrayList<String> getGenres() {
+			return genres;
+		}
+
+		/**
+		 * getImageUrl() gets the URL of the image of the artist.
+		 * @return the URL, or null if the artist has no image
+		 */
+		public String getImageUrl() {
+			return imageUrl;
+		}
+
+		/**
+		 * getRelatedArtistNames() gets the related artists the artist
+		 * learned, if they are recent enough to be taken over.
+		 * @param nowMs is the current time in epoch milliseconds
+		 * @return the names, or null if none were learned recently
+		 */
+		public synchronized ArrayList<String> getRelatedArtistNames(long nowMs) {
+			return (nowMs - relatedArtistsAtMs < DETAILS_TTL_MS) ? relatedArtistNames : null;
+		}
+
+		/**
+		 * getTopTrack() gets the top track the artist learned in a
+		 * market, if it is recent enough to be taken over.
+		 * @param nowMs is the current time in epoch milliseconds
+		 * @param market is the market the top track is wanted for
+		 * @return the name of the track, or null if none was learned recently in that market
+		 */
+		public synchronized String getTopTrack(long nowMs, CountryCode market) {
+			return (market == topTrackMarket && nowMs - topTrackAtMs < DETAILS_TTL_MS) ? topTrack : null;
+		}
+
+		/**
+		 * learnRelatedArtists() keeps the related artists of a result,
+		 * unless the artist already knows newer ones.
+		 */
+		synchronized void learnRelatedArtists(ArrayList<String> names, long fetchedAtMs) {
+			if (fetchedAtMs >= relatedArtistsAtMs) {
+				relatedArtistNames = names;
+				relatedArtistsAtMs = fetchedAtMs;
+			}
+		}
+
+		/**
+		 * learnTopTrack() keeps the top track of a result in its
+		 * market, unless the artist already knows a newer one.
+		 */
+		synchronized void learnTopTrack(String track, CountryCode market, long fetchedAtMs) {
+			if (fetchedAtMs >= topTrackAtMs) {
+				topTrack = track;
+				topTrackMarket = market;
+				topTrackAtMs = fetchedAtMs;
+			}
+		}
+
+	}
+
+	/**
+	 * TrackEntity is the one copy of a track.
+	 */
+	public static class TrackEntity {
+
+		private final String id;
+		private volatile String name;
+		private volatile String album;
+		private volatile String releaseDate;
+		private volatile ArrayList<String> artists;
+		private volatile String imageUrl;
+
+		TrackEntity(String id) {
+			this.id = id;
+		}
+
+		/**
+		 * getId() gets the Spotify ID of the track.
+		 * @return the ID
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * getName() gets the name of the track.
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * getAlbum() gets the name of the album of the track.
+		 * @return the name of the album
+		 */
+		public String getAlbum() {
+			return album;
+		}
+
+		/**
+		 * getReleaseDate() gets the release date of the album.
+		 * @return the release date
+		 */
+		public String getReleaseDate() {
+			return releaseDate;
+		}
+
+		/**
+		 * getArtists() gets the names of the artists of the track, a
+		 * list shared by every result that must not be changed.
+		 * @return the names
+		 */
+		public ArrayList<String> getArtists() {
+			return artists;
+		}
+
+		/**
+		 * getImageUrl() gets the URL of the album image of the track.
+		 * @return the URL, or null if the album has no image
+		 */
+		public String getImageUrl() {
+			return imageUrl;
+		}
+
+	}
+
+	/**
+	 * Canonical is a map of values held weakly by key. A value that
+	 * was dropped is removed from the map the next time it is used.
+	 */
+	private static class Canonical<V> {
+
+		/**
+		 * Entry is a weak reference to a value that remembers its key.
+		 */
+		private static class Entry<V> extends WeakReference<V> {
+			final String key;
+
+			Entry(String key, V value, ReferenceQueue<V> queue) {
+				super(value, queue);
+				this.key = key;
+			}
+		}
+
+		private final Map<String, Entry<V>> entries = new HashMap<>();
+		private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+
+		V get(String key) {
+			purge();
+			final Entry<V> entry = entries.get(key);
+			return (entry != null) ? entry.get() : null;
+		}
+
+		void put(String key, V value) {
+			purge();
+			entries.put(key, new Entry<>(key, value, queue));
+		}
+
+		int size() {
+			purge();
+			return entries.size();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void purge() {
+			Entry<V> entry;
+			while ((entry = (Entry<V>) queue.poll()) != null) {
+				// The key may already hold a newer value
+				if (entries.get(entry.key) == entry)
+					entries.remove(entry.key);
+			}
+		}
+
+	}
+
+	// The artists, tracks and images held by any result
+	private final Canonical<ArtistEntity> artists = new Canonical<>();
+	private final Canonical<TrackEntity> tracks = new Canonical<>();
+	private final Canonical<byte[]> images = new Canonical<>();
+	// The strings held by any result, keyed by themselves, so the key mustn't hold them strongly
+	private final Map<String, WeakReference<String>> strings = new WeakHashMap<>();
+
+	/**
+	 * getDefault() returns the store shared by every result.
+	 * @return the shared SpotifyEntityStore
+	 */
+	public static SpotifyEntityStore getDefault() {
+		return defaultStore;
+	}
+
+	/**
+	 * artist() gets the one copy of an artist, updated with the
+	 * values of the result being added. An artist without an ID
+	 * isn't shared.
+	 * @param id is the Spotify ID of the artist
+	 * @param name is the name of the artist
+	 * @param genres are the genres of the artist
+	 * @param imageUrl is the URL of the image of the artist, or null
+	 * @return the artist
+	 */
+	public synchronized ArtistEntity artist(String id, String name, List<String> genres, String imageUrl) {
+		ArtistEntity artist = (id != null) ? artists.get(id) : null;
+		if (artist == null) {
+			artist = new ArtistEntity(id);
+			if (id != null)
+				artists.put(id, artist);
+		}
+		artist.name = intern(name);
+		if (artist.genres == null || !artist.genres.equals(genres))
+			artist.genres = internAll(genres);
+		artist.imageUrl = intern(imageUrl);
+		return artist;
+	}
+
+	/**
+	 * track() gets the one copy of a track, updated with the values
+	 * of the result being added. A track without an ID isn't shared.
+	 * @param id is the Spotify ID of the track
+	 * @param name is the name of the track
+	 * @param album is the name of its album
+	 * @param releaseDate is the release date of its album
+	 * @param artistNames are the names of its artists
+	 * @param imageUrl is the URL of the album image, or null
+	 * @return the track
+	 */
+	public synchronized TrackEntity track(String id, String name, String album, String releaseDate,
+			List<String> artistNames, String imageUrl) {
+		TrackEntity track = (id != null) ? tracks.get(id) : null;
+		if (track == null) {
+			track = new TrackEntity(id);
+			if (id != null)
+				tracks.put(id, track);
+		}
+		track.name = intern(name);
+		track.album = intern(album);
+		track.releaseDate = intern(releaseDate);
+		if (track.artists == null || !track.artists.equals(artistNames))
+			track.artists = internAll(artistNames);
+		track.imageUrl = intern(imageUrl);
+		return track;
+	}
+
+	/**
+	 * intern() gets the one copy of a string.
+	 * @param value is the string
+	 * @return the copy held by the store, or null if the string is null
+	 */
+	public synchronized String intern(String value) {
+		if (value == null)
+			return null;
+		final WeakReference<String> existing = strings.get(value);
+		final String copy = (existing != null) ? existing.get() : null;
+		if (copy != null)
+			return copy;
+		strings.put(value, new WeakReference<>(value));
+		return value;
+	}
+
+	/**
+	 * internAll() copies a list of strings into a list of the copies
+	 * held by the store.
+	 * @param values are the strings, may be null
+	 * @return the new list
+	 */
+	public synchronized ArrayList<String> internAll(List<String> values) {
+		final ArrayList<String> interned = new ArrayList<>((values != null) ? values.size() : 0);
+		if (values != null) {
+			for (String value : values)
+				interned.add(intern(value));
+		}
+		return interned;
+	}
+
+	/**
+	 * getImage() gets the image downloaded from a URL, if a result
+	 * still holds it.
+	 * @param url is the location of the image
+	 * @return the bytes of the image, or null if it isn't held
+	 */
+	public synchronized byte[] getImage(String url) {
+		return (url != null) ? images.get(url) : null;
+	}
+
+	/**
+	 * image() gets the one copy of the image downloaded from a URL,
+	 * which is the given one unless a result already holds it.
+	 * @param url is the location of the image
+	 * @param bytes are the bytes that were downloaded
+	 * @return the bytes to keep
+	 */
+	public synchronized byte[] image(String url, byte[] bytes) {
+		if (url == null || bytes == null)
+			return bytes;
+		final byte[] existing = images.get(url);
+		if (existing != null && existing.length == bytes.length)
+			return existing;
+		images.put(url, bytes);
+		return bytes;
+	}
+
+	/**
+	 * getArtistCount() gets the number of artists held.
+	 * @return the number of artists
+	 */
+	public synchronized int getArtistCount() {
+		return artists.size();
+	}
+
+	/**
+	 * getTrackCount() gets the number of tracks held.
+	 * @return the number of tracks
+	 */
+	public synchronized int getTrackCount() {
+		return tracks.size();
+	}
+
+	/**
+	 * getImageCount() gets the number of images held.
+	 * @return the number of images
+	 */
+	public synchronized int getImageCount() {
+		return images.size();
+	}
+
+}
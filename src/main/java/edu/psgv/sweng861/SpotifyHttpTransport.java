@@ -0,0 +1,419 @@
+package edu.psgv.sweng861;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.json.JSONException;
+import org.json.JSONObject;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.BadGatewayException;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+import se.michaelthelin.spotify.exceptions.detailed.ForbiddenException;
+import se.michaelthelin.spotify.exceptions.detailed.InternalServerErrorException;
+import se.michaelthelin.spotify.exceptions.detailed.NotFoundException;
+import se.michaelthelin.spotify.exceptions.detailed.ServiceUnavailableException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * SpotifyHttpTransport is the single HTTP layer shared by
+ * the Spotify API calls and the image downloads. It keeps a
+ * pool of keep-alive connections (negotiating HTTP/2 when the
+ * server supports it) so that repeated searches reuse the
+ * same TCP and TLS sessions instead of opening new ones. It
+ * plugs into the SpotifyApi object as its IHttpManager and
+ * also downloads the artwork shown by the GUI.
+ * @author Matthew Bollinger
+ */
+public class SpotifyHttpTransport implements IHttpManager, Closeable, SpotifyDownloader {
+
+	// Shared transport used when no other transport is supplied
+	private static SpotifyHttpTransport defaultTransport;
+
+	// Tunable settings of the transport
+	private final int maxConnectionsTotal;
+	private final int maxConnectionsPerRoute;
+	private final long keepAliveMs;
+	private final long connectTimeoutMs;
+	private final long readTimeoutMs;
+	private final boolean http2Enabled;
+
+	// The pooled client that every request goes through
+	private final CloseableHttpAsyncClient httpClient;
+
+	/**
+	 * SpotifyHttpTransport constructor builds and starts the
+	 * pooled client from the settings held by the builder.
+	 * @param builder holds the pool sizes, keep-alive and timeouts
+	 */
+	private SpotifyHttpTransport(Builder builder) {
+		maxConnectionsTotal = builder.maxConnectionsTotal;
+		maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+		keepAliveMs = builder.keepAliveMs;
+		connectTimeoutMs = builder.connectTimeoutMs;
+		readTimeoutMs = builder.readTimeoutMs;
+		http2Enabled = builder.http2Enabled;
+
+		// Connections are pooled per host and negotiate HTTP/2 through ALPN where available
+		final PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+				.setMaxConnTotal(maxConnectionsTotal)
+				.setMaxConnPerRoute(maxConnectionsPerRoute)
+				.setDefaultConnectionConfig(ConnectionConfig.custom()
+						.setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+						.setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+						.build())
+				.setDefaultTlsConfig(TlsConfig.custom()
+						.setVersionPolicy(http2Enabled ? HttpVersionPolicy.NEGOTIATE : HttpVersionPolicy.FORCE_HTTP_1)
+						.build())
+				.build();
+
+		httpClient = HttpAsyncClients.custom()
+				.setConnectionManager(connectionManager)
+				.setIOReactorConfig(IOReactorConfig.custom()
+						.setSoKeepAlive(true)
+						.setSoTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+						.build())
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+						.setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+						.build())
+				// Idle connections are kept for the keep-alive period and then closed, while a connection
+				// That keeps being used stays open however long it has been, so it has no time to live
+				.setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(keepAliveMs))
+				.evictIdleConnections(TimeValue.ofMilliseconds(keepAliveMs))
+				// A rate limited request fails right away with its Retry-After, instead of the client waiting
+				// It out and sending it again, so the credential pool can send it through another app
+				.disableAutomaticRetries()
+				.build();
+		httpClient.start();
+	}
+
+	/**
+	 * getDefault() returns the transport shared by every
+	 * requester and image loader in the process, creating
+	 * it with the default settings on first use.
+	 * @return the shared SpotifyHttpTransport
+	 */
+	public static synchronized SpotifyHttpTransport getDefault() {
+		if (defaultTransport == null)
+			defaultTransport = new Builder().build();
+		return defaultTransport;
+	}
+
+	/**
+	 * setDefault() replaces the shared transport, which allows
+	 * the pool sizes and timeouts to be tuned before the first
+	 * requester is created.
+	 * @param transport is the transport to share from now on
+	 */
+	public static synchronized void setDefault(SpotifyHttpTransport transport) {
+		defaultTransport = transport;
+	}
+
+	/**
+	 * get() sends a GET request to the Spotify API.
+	 */
+	@Override
+	public String get(URI uri, Header[] headers) throws IOException, SpotifyWebApiException, ParseException {
+		return execute(SimpleRequestBuilder.get(uri).setHeaders(headers).build());
+	}
+
+	/**
+	 * post() sends a POST request to the Spotify API.
+	 */
+	@Override
+	public String post(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+		return execute(withBody(SimpleRequestBuilder.post(uri), headers, body));
+	}
+
+	/**
+	 * put() sends a PUT request to the Spotify API.
+	 */
+	@Override
+	public String put(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+		return execute(withBody(SimpleRequestBuilder.put(uri), headers, body));
+	}
+
+	/**
+	 * delete() sends a DELETE request to the Spotify API.
+	 */
+	@Override
+	public String delete(URI uri, Header[] headers, HttpEntity body) throws IOException, SpotifyWebApiException, ParseException {
+		return execute(withBody(SimpleRequestBuilder.delete(uri), headers, body));
+	}
+
+	/**
+	 * download() fetches the raw bytes found at a URL, such
+	 * as the artwork of an artist or album.
+	 * @param url is the location of the file
+	 * @return the bytes of the response body
+	 * @throws IOException if the request fails or does not succeed
+	 */
+	@Override
+	public byte[] download(String url) throws IOException {
+		final SimpleHttpResponse response = send(SimpleRequestBuilder.get(url).build());
+		if (response.getCode() < 200 || response.getCode() >= 300)
+			throw new IOException("HTTP " + response.getCode() + " while downloading " + url);
+		final byte[] body = response.getBodyBytes();
+		return (body != null) ? body : new byte[0];
+	}
+
+	/**
+	 * readImage() downloads an image and decodes it into a
+	 * BufferedImage using the pooled connections.
+	 * @param url is the location of the image
+	 * @return the decoded image, or null if no reader supports its format
+	 * @throws IOException if the download or decoding fails
+	 */
+	public BufferedImage readImage(String url) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(download(url)));
+	}
+
+	/**
+	 * close() shuts down the pooled client and its connections.
+	 */
+	@Override
+	public void close() {
+		httpClient.close(CloseMode.GRACEFUL);
+	}
+
+	/**
+	 * withBody() copies the headers and the body of a request
+	 * made by the Spotify library onto an async request.
+	 * @param builder is the request being built
+	 * @param headers are the headers set by the library
+	 * @param body is the entity set by the library, may be null
+	 * @return the built request
+	 * @throws IOException if the entity can't be read
+	 */
+	private SimpleHttpRequest withBody(SimpleRequestBuilder builder, Header[] headers, HttpEntity body) throws IOException {
+		builder.setHeaders(headers);
+		if (body != null) {
+			ContentType contentType = (body.getContentType() != null)
+					? ContentType.parse(body.getContentType())
+					: ContentType.APPLICATION_OCTET_STREAM;
+			builder.setBody(EntityUtils.toByteArray(body), contentType);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * execute() sends an API request and turns its response
+	 * into either the body or the matching Spotify exception.
+	 * @param request is the request to send
+	 * @return the body of the response
+	 */
+	private String execute(SimpleHttpRequest request) throws IOException, SpotifyWebApiException {
+		return getResponseBody(send(request));
+	}
+
+	/**
+	 * send() sends a request through the pooled client and
+	 * waits for its response.
+	 * @param request is the request to send
+	 * @return the response of the server
+	 * @throws IOException if the request fails or is interrupted
+	 */
+	private SimpleHttpResponse send(SimpleHttpRequest request) throws IOException {
+		final Future<SimpleHttpResponse> future = httpClient.execute(request, null);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Request to " + request.getRequestUri() + " was interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * getResponseBody() returns the body of a successful
+	 * response and throws the same exceptions as the default
+	 * Spotify library transport for an unsuccessful one.
+	 * @param response is the response of the server
+	 * @return the body of the response, or null if it is empty
+	 */
+	private String getResponseBody(SimpleHttpResponse response) throws SpotifyWebApiException {
+		final byte[] bytes = response.getBodyBytes();
+		final String body = (bytes != null) ? new String(bytes, StandardCharsets.UTF_8) : null;
+		String errorMessage = response.getReasonPhrase();
+
+		// Spotify reports errors either as {"error": {"message": ...}} or {"error_description": ...}
+		if (body != null && !body.isEmpty()) {
+			try {
+				JSONObject json = new JSONObject(body);
+				if (json.has("error")) {
+					if (json.has("error_description"))
+						errorMessage = json.getString("error_description");
+					else if (json.optJSONObject("error") != null && json.getJSONObject("error").has("message"))
+						errorMessage = json.getJSONObject("error").getString("message");
+				}
+			} catch (JSONException e) { // Body is not a JSON object, keep the reason phrase
+			}
+		}
+
+		switch (response.getCode()) {
+			case 400:
+				throw new BadRequestException(errorMessage);
+			case 401:
+				throw new UnauthorizedException(errorMessage);
+			case 403:
+				throw new ForbiddenException(errorMessage);
+			case 404:
+				throw new NotFoundException(errorMessage);
+			case 429:
+				Header retryAfter = response.getFirstHeader("Retry-After");
+				if (retryAfter != null) {
+					final int retryAfterSeconds;
+					try {
+						retryAfterSeconds = Integer.parseInt(retryAfter.getValue().trim());
+					} catch (NumberFormatException e) { // Not a number of seconds, such as a date, so it is left out
+						throw new TooManyRequestsException(errorMessage);
+					}
+					throw new TooManyRequestsException(errorMessage, retryAfterSeconds);
+				}
+				throw new TooManyRequestsException(errorMessage);
+			case 500:
+				throw new InternalServerErrorException(errorMessage);
+			case 502:
+				throw new BadGatewayException(errorMessage);
+			case 503:
+				throw new ServiceUnavailableException(errorMessage);
+			default:
+				return body;
+		}
+	}
+
+	/**
+	 * getMaxConnectionsTotal() gets the size of the connection pool.
+	 * @return the maximum number of pooled connections
+	 */
+	public int getMaxConnectionsTotal() {
+		return maxConnectionsTotal;
+	}
+
+	/**
+	 * getMaxConnectionsPerRoute() gets the number of connections
+	 * that may be open to a single host.
+	 * @return the maximum number of connections per host
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * getKeepAliveMs() gets how long idle connections are kept.
+	 * @return the keep-alive period in milliseconds
+	 */
+	public long getKeepAliveMs() {
+		return keepAliveMs;
+	}
+
+	/**
+	 * getConnectTimeoutMs() gets the connect timeout.
+	 * @return the connect timeout in milliseconds
+	 */
+	public long getConnectTimeoutMs() {
+		return connectTimeoutMs;
+	}
+
+	/**
+	 * getReadTimeoutMs() gets the read timeout.
+	 * @return the read timeout in milliseconds
+	 */
+	public long getReadTimeoutMs() {
+		return readTimeoutMs;
+	}
+
+	/**
+	 * isHttp2Enabled() gets whether HTTP/2 is negotiated.
+	 * @return true if HTTP/2 is used where the server supports it
+	 */
+	public boolean isHttp2Enabled() {
+		return http2Enabled;
+	}
+
+	/**
+	 * Builder sets up the tunable settings of a
+	 * SpotifyHttpTransport before it is created.
+	 * @author Matthew Bollinger
+	 */
+	public static class Builder {
+
+		private int maxConnectionsTotal = 32;
+		private int maxConnectionsPerRoute = 16;
+		private long keepAliveMs = 60_000;
+		private long connectTimeoutMs = 5_000;
+		private long readTimeoutMs = 10_000;
+		private boolean http2Enabled = true;
+
+		public Builder setMaxConnectionsTotal(int maxConnectionsTotal) {
+			this.maxConnectionsTotal = maxConnectionsTotal;
+			return this;
+		}
+
+		public Builder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+			this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+			return this;
+		}
+
+		public Builder setKeepAliveMs(long keepAliveMs) {
+			this.keepAliveMs = keepAliveMs;
+			return this;
+		}
+
+		public Builder setConnectTimeoutMs(long connectTimeoutMs) {
+			this.connectTimeoutMs = connectTimeoutMs;
+			return this;
+		}
+
+		public Builder setReadTimeoutMs(long readTimeoutMs) {
+			this.readTimeoutMs = readTimeoutMs;
+			return this;
+		}
+
+		public Builder setHttp2Enabled(boolean http2Enabled) {
+			this.http2Enabled = http2Enabled;
+			return this;
+		}
+
+		public SpotifyHttpTransport build() {
+			return new SpotifyHttpTransport(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,469 @@
+package edu.psgv.sweng861;
+
+import se.michaelthelin.spotify.model_objects.specification.Image;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.ImageIcon;
+
+/**
+ * SpotifyImageStore decodes the images of the results for the
+ * picture they are shown in. The results keep the compressed JPEG
+ * or PNG bytes they downloaded, which are a small fraction of the
+ * size of the decoded image, and ask the store for the decoded image.
+ * Decoded images are kept in a least recently used cache bounded
+ * by the number of bytes their pixels take, so the memory used by
+ * decoded images stays the same however many results are kept.
+ * <p>
+ * Images are downloaded and decoded no larger than they are shown.
+ * Of the renditions Spotify offers of each image, the smallest
+ * that still covers the 252x252 picture is downloaded, which is
+ * usually the 320x320 one rather than the 640x640 one. The reader
+ * also skips rows and columns of the source while decoding whenever
+ * an image is at least twice the size of the picture, so a 640x640
+ * artwork is decoded at 320x320 instead of being decoded in full
+ * and scaled afterwards. Pixels are decoded straight into an integer
+ * RGB or ARGB raster, which Swing draws without converting, and each
+ * thread keeps its image readers between images instead of creating
+ * new ones every time.
+ * <p>
+ * The shared store scales what is left to exactly the size of the
+ * picture once, and keeps it as an icon ready to be shown. Images
+ * are decoded on the threads that download them, so the GUI only
+ * takes icons that are already in the cache with getIcon() and
+ * never decodes on the event dispatch thread.
+ * @author Matthew Bollinger
+ */
+public class SpotifyImageStore {
+
+	// Default number of bytes of decoded pixels kept (about twenty 640x640 images)
+	static final long DEFAULT_MAX_DECODED_BYTES = 32L * 1024 * 1024;
+	// Width and height of the picture the images are shown in
+	static final int DISPLAY_SIZE = 252;
+
+	// Image readers of each thread by their provider, kept between images
+	private static final ThreadLocal<Map<ImageReaderSpi, ImageReader>> readers = ThreadLocal.withInitial(LinkedHashMap::new);
+
+	// Store used by the result data when none is given
+	private static volatile SpotifyImageStore defaultStore;
+
+	// Images are decoded no smaller than this on either side, or in full if 0
+	private final int targetSize;
+	// Whether images are then scaled to exactly the target size on both sides
+	private final boolean scaledToTarget;
+	// Maximum number of bytes of decoded pixels kept
+	private long maxDecodedBytes;
+	// Number of bytes of decoded pixels currently kept
+	private long decodedBytes;
+	// Icons of the decoded images by the array of compressed bytes they were decoded from,
+	// In least to most recently used order. Arrays are compared by identity.
+	private final LinkedHashMap<byte[], ImageIcon> decodedImages = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * SpotifyImageStore constructor sets the number of bytes of
+	 * decoded pixels that are kept, decoding images for the picture
+	 * the GUI shows them in.
+	 * @param maxDecodedBytes is the maximum number of bytes kept
+	 */
+	public SpotifyImageStore(long maxDecodedBytes) {
+		this(maxDecodedBytes, DISPLAY_SIZE);
+	}
+
+	/**
+	 * SpotifyImageStore constructor sets the number of bytes of
+	 * decoded pixels that are kept and the size images are decoded for.
+	 * @param maxDecodedBytes is the maximum number of bytes kept
+	 * @param targetSize is the smallest an image is decoded on either
+	 * side, or 0 to decode images in full
+	 */
+	public SpotifyImageStore(long maxDecodedBytes, int targetSize) {
+		this(maxDecodedBytes, targetSize, false);
+	}
+
+	/**
+	 * SpotifyImageStore constructor sets the number of bytes of
+	 * decoded pixels that are kept, the size images are decoded for
+	 * and whether they are then scaled to exactly that size.
+	 * @param maxDecodedBytes is the maximum number of bytes kept
+	 * @param targetSize is the smallest an image is decoded on either
+	 * side, or 0 to decode images in full
+	 * @param scaledToTarget is true to scale the decoded images to
+	 * exactly the target size on both sides
+	 */
+	public SpotifyImageStore(long maxDecodedBytes, int targetSize, boolean scaledToTarget) {
+		this.maxDecodedBytes = maxDecodedBytes;
+		this.targetSize = targetSize;
+		this.scaledToTarget = scaledToTarget && targetSize > 0;
+	}
+
+	/**
+	 * getDefault() gets the store shared by the result data,
+	 * creating it with the default budget on first use. Its images
+	 * are scaled to exactly the picture the GUI shows them in.
+	 * @return the shared store
+	 */
+	public static SpotifyImageStore getDefault() {
+		SpotifyImageStore store = defaultStore;
+		if (store == null) {
+			synchronized (SpotifyImageStore.class) {
+				store = defaultStore;
+				if (store == null)
+					defaultStore = store = new SpotifyImageStore(DEFAULT_MAX_DECODED_BYTES, DISPLAY_SIZE, true);
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * setDefault() replaces the store shared by the result data.
+	 * @param store is the new shared store
+	 */
+	public static void setDefault(SpotifyImageStore store) {
+		defaultStore = store;
+	}
+
+	/**
+	 * decode() gets the decoded image of some compressed bytes,
+	 * decoding them if they aren't in the cache. It may take a while,
+	 * so it isn't called on the event dispatch thread.
+	 * @param compressed are the JPEG or PNG bytes, may be null
+	 * @return the decoded image, or null if there are no bytes or
+	 * they can't be decoded
+	 */
+	public BufferedImage decode(byte[] compressed) {
+		final ImageIcon icon = icon(compressed);
+		return (icon != null) ? (BufferedImage) icon.getImage() : null;
+	}
+
+	/**
+	 * icon() gets the decoded image of some compressed bytes as an
+	 * icon Swing can show, decoding them if they aren't in the cache.
+	 * It may take a while, so it isn't called on the event dispatch thread.
+	 * @param compressed are the JPEG or PNG bytes, may be null
+	 * @return the icon, or null if there are no bytes or they can't
+	 * be decoded
+	 */
+	public ImageIcon icon(byte[] compressed) {
+		final ImageIcon cached = getIcon(compressed);
+		if (compressed == null || cached != null)
+			return cached;
+		// Decoding happens outside the lock so other images can be read meanwhile
+		BufferedImage image;
+		try {
+			image = read(compressed, targetSize);
+		} catch (IOException | RuntimeException e) { // Caught if the bytes are damaged
+			return null;
+		}
+		if (image == null)
+			return null;
+		if (scaledToTarget)
+			image = scale(image, targetSize);
+		final ImageIcon icon = new ImageIcon(image);
+		put(compressed, icon);
+		return icon;
+	}
+
+	/**
+	 * getIcon() gets the icon of some compressed bytes if they were
+	 * decoded already, without decoding them, so that it can be
+	 * called on the event dispatch thread.
+	 * @param compressed are the JPEG or PNG bytes, may be null
+	 * @return the icon, or null if there are no bytes or they aren't
+	 * in the cache
+	 */
+	public synchronized ImageIcon getIcon(byte[] compressed) {
+		return (compressed != null) ? decodedImages.get(compressed) : null;
+	}
+
+	/**
+	 * scale() draws an image onto one of exactly the given size on
+	 * both sides, with an integer raster Swing draws without converting.
+	 * An image that already has that size is returned as it is.
+	 */
+	private static BufferedImage scale(BufferedImage image, int size) {
+		final boolean exact = image.getWidth() == size && image.getHeight() == size;
+		if (exact && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB))
+			return image;
+		final BufferedImage scaled = new BufferedImage(size, size,
+				image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = scaled.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, size, size, null);
+		} finally {
+			graphics.dispose();
+		}
+		return scaled;
+	}
+
+	/**
+	 * read() decodes an image, skipping as many rows and columns as
+	 * it can while keeping both sides at least the target size, into
+	 * the raster displayTypeOf() picks.
+	 * @param compressed are the bytes of the image
+	 * @param targetSize is the smallest the image may get on either
+	 * side, or 0 to decode it in full
+	 * @return the decoded image, or null if no reader recognizes the bytes
+	 * @throws IOException if the bytes can't be decoded
+	 */
+	static BufferedImage read(byte[] compressed, int targetSize) throws IOException {
+		try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(compressed))) {
+			final ImageReader reader = readerFor(stream);
+			if (reader == null)
+				return null;
+			try {
+				reader.setInput(stream, true, true);
+				final ImageReadParam param = reader.getDefaultReadParam();
+				final int width = reader.getWidth(0);
+				final int height = reader.getHeight(0);
+				int step = 1;
+				if (targetSize > 0) {
+					// Keeps every n-th pixel of every n-th row, where n still leaves both sides at least the target
+					step = Math.max(1, Math.min(width, height) / targetSize);
+					param.setSourceSubsampling(step, step, 0, 0);
+				}
+				final int displayType = displayTypeOf(reader);
+				if (displayType != BufferedImage.TYPE_CUSTOM)
+					param.setDestination(new BufferedImage((width + step - 1) / step, (height + step - 1) / step, displayType));
+				final BufferedImage image = reader.read(0, param);
+				// The reader is kept for the next image, without holding on to this one
+				reader.setInput(null);
+				return image;
+			} catch (IOException | RuntimeException e) {
+				// A reader left in a bad state by damaged bytes isn't kept, and disposing of it
+				// Drops its input, which setInput() can't do anymore
+				readers.get().remove(reader.getOriginatingProvider());
+				reader.dispose();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * readSize() reads the width and height of an image from its
+	 * header, without decoding its pixels.
+	 * @param compressed are the bytes of the image
+	 * @return the size, or null if no reader recognizes the bytes
+	 * @throws IOException if the header can't be read
+	 */
+	static Dimension readSize(byte[] compressed) throws IOException {
+		try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(compressed))) {
+			final Iterator<ImageReader> found = ImageIO.getImageReaders(stream);
+			if (!found.hasNext())
+				return null;
+			final ImageReader reader = found.next();
+			try {
+				reader.setInput(stream, true, true);
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * readerFor() gets an image reader of the current thread that
+	 * can decode a stream, creating one if none of them can.
+	 */
+	private static ImageReader readerFor(ImageInputStream stream) throws IOException {
+		final Map<ImageReaderSpi, ImageReader> threadReaders = readers.get();
+		for (Map.Entry<ImageReaderSpi, ImageReader> entry : threadReaders.entrySet()) {
+			if (entry.getKey().canDecodeInput(stream))
+				return entry.getValue();
+		}
+		final Iterator<ImageReader> found = ImageIO.getImageReaders(stream);
+		if (!found.hasNext())
+			return null;
+		final ImageReader reader = found.next();
+		if (reader.getOriginatingProvider() != null)
+			threadReaders.put(reader.getOriginatingProvider(), reader);
+		return reader;
+	}
+
+	/**
+	 * displayTypeOf() gets the type of image Swing draws fastest that
+	 * a reader's image can be decoded straight into: integer RGB for
+	 * an RGB image and integer ARGB for one with transparency. Other
+	 * images, such as grayscale or indexed ones, are decoded into the
+	 * reader's own type.
+	 * @return the type, or TYPE_CUSTOM to use the reader's own type
+	 */
+	private static int displayTypeOf(ImageReader reader) throws IOException {
+		final ImageTypeSpecifier rawType = reader.getRawImageType(0);
+		if (rawType == null || rawType.getColorModel() instanceof IndexColorModel)
+			return BufferedImage.TYPE_CUSTOM;
+		final ColorModel colorModel = rawType.getColorModel();
+		if (colorModel.getNumColorComponents() != 3 || colorModel.getColorSpace().getType() != ColorSpace.TYPE_RGB)
+			return BufferedImage.TYPE_CUSTOM;
+		return colorModel.hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+	}
+
+	/**
+	 * put() adds a decoded image to the cache and evicts the least
+	 * recently used ones until the cache is within its budget. An
+	 * image larger than the whole budget isn't kept.
+	 */
+	private synchronized void put(byte[] compressed, ImageIcon icon) {
+		final long size = sizeOf(icon);
+		if (size > maxDecodedBytes)
+			return;
+		final ImageIcon previous = decodedImages.put(compressed, icon);
+		if (previous != null)
+			decodedBytes -= sizeOf(previous);
+		decodedBytes += size;
+		evict();
+	}
+
+	/**
+	 * evict() removes the least recently used images until the
+	 * cache is within its budget.
+	 */
+	private void evict() {
+		final Iterator<Map.Entry<byte[], ImageIcon>> entries = decodedImages.entrySet().iterator();
+		while (decodedBytes > maxDecodedBytes && entries.hasNext()) {
+			decodedBytes -= sizeOf(entries.next().getValue());
+			entries.remove();
+		}
+	}
+
+	/**
+	 * isSupported() checks whether some bytes are in an image format
+	 * that can be decoded, by reading only their header.
+	 * @param compressed are the bytes of the image
+	 * @return true if an image reader recognizes the bytes
+	 */
+	public static boolean isSupported(byte[] compressed) {
+		if (compressed == null || compressed.length == 0)
+			return false;
+		try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(compressed))) {
+			final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			return readers.hasNext();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * isBetterRendition() compares two renditions of the same image
+	 * that Spotify offers at different sizes. The smallest one that
+	 * still covers the picture on both sides is best, since a larger
+	 * one only costs more to download and decode, and if none covers
+	 * it the largest one is best.
+	 * @param width is the width of the rendition, or 0 if unknown
+	 * @param height is the height of the rendition, or 0 if unknown
+	 * @param bestWidth is the width of the best rendition so far
+	 * @param bestHeight is the height of the best rendition so far
+	 * @return true if the rendition is better than the best so far
+	 */
+	static boolean isBetterRendition(int width, int height, int bestWidth, int bestHeight) {
+		final int side = Math.min(width, height);
+		final int bestSide = Math.min(bestWidth, bestHeight);
+		final boolean covers = side >= DISPLAY_SIZE;
+		final boolean bestCovers = bestSide >= DISPLAY_SIZE;
+		if (covers != bestCovers)
+			return covers;
+		return covers ? side < bestSide : side > bestSide;
+	}
+
+	/**
+	 * urlOf() gets the URL of the rendition of an image that best fits
+	 * the picture it is shown in.
+	 * @param images are the renditions Spotify offers
+	 * @return the URL, or null if there are no renditions
+	 */
+	static String urlOf(Image[] images) {
+		Image best = null;
+		for (Image image : images) {
+			if (best == null || isBetterRendition(sideOf(image.getWidth()), sideOf(image.getHeight()),
+					sideOf(best.getWidth()), sideOf(best.getHeight())))
+				best = image;
+		}
+		return (best != null) ? best.getUrl() : null;
+	}
+
+	/**
+	 * sideOf() gets a width or height that Spotify may leave out.
+	 */
+	private static int sideOf(Integer side) {
+		return (side != null) ? side : 0;
+	}
+
+	/**
+	 * sizeOf() gets the number of bytes the pixels of an image take.
+	 * @param image is the decoded image
+	 * @return the size of its pixel data in bytes
+	 */
+	static long sizeOf(BufferedImage image) {
+		final DataBuffer buffer = image.getRaster().getDataBuffer();
+		return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+	}
+
+	/**
+	 * sizeOf() gets the number of bytes the pixels of an icon take.
+	 */
+	private static long sizeOf(ImageIcon icon) {
+		return sizeOf((BufferedImage) icon.getImage());
+	}
+
+	/**
+	 * getDecodedBytes() gets the number of bytes of decoded pixels kept.
+	 * @return the number of bytes kept
+	 */
+	public synchronized long getDecodedBytes() {
+		return decodedBytes;
+	}
+
+	/**
+	 * getDecodedCount() gets the number of decoded images kept.
+	 * @return the number of images kept
+	 */
+	public synchronized int getDecodedCount() {
+		return decodedImages.size();
+	}
+
+	/**
+	 * getMaxDecodedBytes() gets the number of bytes of decoded pixels
+	 * that are kept.
+	 * @return the maximum number of bytes kept
+	 */
+	public synchronized long getMaxDecodedBytes() {
+		return maxDecodedBytes;
+	}
+
+	/**
+	 * setMaxDecodedBytes() sets the number of bytes of decoded pixels
+	 * that are kept, evicting images if the cache is now over budget.
+	 * @param maxDecodedBytes is the maximum number of bytes kept
+	 */
+	public synchronized void setMaxDecodedBytes(long maxDecodedBytes) {
+		this.maxDecodedBytes = maxDecodedBytes;
+		evict();
+	}
+
+	/**
+	 * clear() removes every decoded image from the cache.
+	 */
+	public synchronized void clear() {
+		decodedImages.clear();
+		decodedBytes = 0;
+	}
+
+}
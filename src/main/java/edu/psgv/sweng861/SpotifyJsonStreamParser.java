@@ -0,0 +1,402 @@
+package edu.psgv.sweng861;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * SpotifyJsonStreamParser reads the raw JSON of the search,
+ * related artists and top tracks responses with a streaming
+ * parser. Only the fields used by SpotifyArtistData and
+ * SpotifyTrackData are kept and they are added straight to
+ * those objects; everything else is skipped without building
+ * the library's model objects.
+ * @author Matthew Bollinger
+ */
+public class SpotifyJsonStreamParser {
+
+	/**
+	 * SpotifyJsonStreamParser only has static methods.
+	 */
+	private SpotifyJsonStreamParser() {
+	}
+
+	/**
+	 * readArtistSearch() reads the response of an artist search.
+	 * The related artists, top tracks and images are left pending.
+	 * @param json is the body of the response
+	 * @param maxResults is the maximum number of artists to keep
+	 * @return a SpotifyArtistData object holding the artists
+	 * @throws IOException if the JSON is malformed
+	 */
+	public static SpotifyArtistData readArtistSearch(Reader json, int maxResults) throws IOException {
+		final SpotifyArtistData artistData = new SpotifyArtistData();
+		try (JsonReader reader = new JsonReader(json)) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("artists") && reader.peek() == JsonToken.BEGIN_OBJECT)
+					artistData.setTotal(readPagingItems(reader, maxResults, () -> readArtist(reader, artistData)));
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+		} catch (IllegalStateException | NumberFormatException e) { // JSON doesn't have the expected shape
+			throw new IOException("Unexpected artist search JSON", e);
+		}
+		return artistData;
+	}
+
+	/**
+	 * readTrackSearch() reads the response of a track search.
+	 * The album images are left pending.
+	 * @param json is the body of the response
+	 * @param maxResults is the maximum number of tracks to keep
+	 * @return a SpotifyTrackData object holding the tracks
+	 * @throws IOException if the JSON is malformed
+	 */
+	public static SpotifyTrackData readTrackSearch(Reader json, int maxResults) throws IOException {
+		final SpotifyTrackData trackData = new SpotifyTrackData();
+		try (JsonReader reader = new JsonReader(json)) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("tracks") && reader.peek() == JsonToken.BEGIN_OBJECT)
+					trackData.setTotal(readPagingItems(reader, maxResults, () -> readTrack(reader, trackData)));
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+		} catch (IllegalStateException | NumberFormatException e) { // JSON doesn't have the expected shape
+			throw new IOException("Unexpected track search JSON", e);
+		}
+		return trackData;
+	}
+
+	/**
+	 * readCombinedSearch() reads the response of a search for
+	 * several types at once, such as "artist,track,album". The
+	 * related artists, top tracks and images are left pending.
+	 * @param json is the body of the response
+	 * @param maxResults is the maximum number of results of each type to keep
+	 * @return a SpotifySearchResults object holding the results of each type
+	 * @throws IOException if the JSON is malformed
+	 */
+	public static SpotifySearchResults readCombinedSearch(Reader json, int maxResults) throws IOException {
+		final SpotifyArtistData artistData = new SpotifyArtistData();
+		final SpotifyTrackData trackData = new SpotifyTrackData();
+		final ArrayList<String> albumNames = new ArrayList<>();
+		int albumTotal = 0;
+		try (JsonReader reader = new JsonReader(json)) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				final String name = reader.nextName();
+				if (reader.peek() != JsonToken.BEGIN_OBJECT)
+					reader.skipValue();
+				else if (name.equals("artists"))
+					artistData.setTotal(readPagingItems(reader, maxResults, () -> readArtist(reader, artistData)));
+				else if (name.equals("tracks"))
+					trackData.setTotal(readPagingItems(reader, maxResults, () -> readTrack(reader, trackData)));
+				else if (name.equals("albums"))
+					albumTotal = readPagingItems(reader, maxResults, () -> albumNames.add(readNameOf(reader)));
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+		} catch (IllegalStateException | NumberFormatException e) { // JSON doesn't have the expected shape
+			throw new IOException("Unexpected search JSON", e);
+		}
+		return new SpotifySearchResults(artistData, trackData, albumNames, albumTotal);
+	}
+
+	/**
+	 * readRelatedArtistNames() reads the names of the artists in
+	 * a related artists response ({"artists": [...]}).
+	 * @param json is the body of the response
+	 * @return an ArrayList of the names of the related artists
+	 * @throws IOException if the JSON is malformed
+	 */
+	public static ArrayList<String> readRelatedArtistNames(Reader json) throws IOException {
+		final ArrayList<String> names = new ArrayList<>();
+		try (JsonReader reader = new JsonReader(json)) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("artists") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+					reader.beginArray();
+					while (reader.hasNext())
+						names.add(readNameOf(reader));
+					reader.endArray();
+				} else
+					reader.skipValue();
+			}
+			reader.endObject();
+		} catch (IllegalStateException | NumberFormatException e) { // JSON doesn't have the expected shape
+			throw new IOException("Unexpected related artists JSON", e);
+		}
+		return names;
+	}
+
+	/**
+	 * readTopTrackNames() reads the names of the tracks in a top
+	 * tracks response ({"tracks": [...]}), from the most to the
+	 * least popular.
+	 * @param json is the body of the response
+	 * @return an ArrayList of the names of the top tracks
+	 * @throws IOException if the JSON is malformed
+	 */
+	public static ArrayList<String> readTopTrackNames(Reader json) throws IOException {
+		final ArrayList<String> names = new ArrayList<>();
+		try (JsonReader reader = new JsonReader(json)) {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (reader.nextName().equals("tracks") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+					reader.beginArray();
+					while (reader.hasNext())
+						names.add(readNameOf(reader));
+					reader.endArray();
+				} else
+					reader.skipValue();
+			}
+			reader.endObject();
+		} catch (IllegalStateException | NumberFormatException e) { // JSON doesn't have the expected shape
+			throw new IOException("Unexpected top tracks JSON", e);
+		}
+		return names;
+	}
+
+	/**
+	 * ItemReader reads one item of a paging object.
+	 */
+	private interface ItemReader {
+		void read() throws IOException;
+	}
+
+	/**
+	 * readPagingItems() reads the "items" array of a paging object,
+	 * handing up to maxResults items to the item reader and skipping
+	 * the others, and returns the "total" number of results.
+	 */
+	private static int readPagingItems(JsonReader reader, int maxResults, ItemReader itemReader) throws IOException {
+		int total = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			final String name = reader.nextName();
+			if (name.equals("total")) {
+				total = nextIntOrZero(reader);
+			} else if (name.equals("items") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+				reader.beginArray();
+				int count = 0;
+				while (reader.hasNext()) {
+					if (count++ < maxResults)
+						itemReader.read();
+					else
+						reader.skipValue();
+				}
+				reader.endArray();
+			} else
+				reader.skipValue();
+		}
+		reader.endObject();
+		return total;
+	}
+
+	/**
+	 * readArtist() reads one artist object and adds it.
+	 */
+	private static void readArtist(JsonReader reader, SpotifyArtistData artistData) throws IOException {
+		String id = null, name = null, imageUrl = null;
+		ArrayList<String> genres = new ArrayList<>();
+		int followers = 0, popularity = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "id":
+					id = nextStringOrNull(reader);
+					break;
+				case "name":
+					name = nextStringOrNull(reader);
+					break;
+				case "genres":
+					reader.beginArray();
+					while (reader.hasNext())
+						genres.add(nextStringOrNull(reader));
+					reader.endArray();
+					break;
+				case "followers":
+					followers = readFollowerTotal(reader);
+					break;
+				case "popularity":
+					popularity = nextIntOrZero(reader);
+					break;
+				case "images":
+					imageUrl = readImageUrl(reader);
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		artistData.addArtist(id, name, genres, followers, popularity, imageUrl);
+	}
+
+	/**
+	 * readTrack() reads one track object and adds it.
+	 */
+	private static void readTrack(JsonReader reader, SpotifyTrackData trackData) throws IOException {
+		String id = null, name = null, albumName = null, releaseDate = null, imageUrl = null;
+		ArrayList<String> artists = new ArrayList<>();
+		int lengthMs = 0, discNumber = 0, trackNumber = 0, popularity = 0;
+		boolean isExplicit = false;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+				case "id":
+					id = nextStringOrNull(reader);
+					break;
+				case "name":
+					name = nextStringOrNull(reader);
+					break;
+				case "album":
+					// Only the name, release date and image of the album are kept
+					reader.beginObject();
+					while (reader.hasNext()) {
+						switch (reader.nextName()) {
+							case "name":
+								albumName = nextStringOrNull(reader);
+								break;
+							case "release_date":
+								releaseDate = nextStringOrNull(reader);
+								break;
+							case "images":
+								imageUrl = readImageUrl(reader);
+								break;
+							default:
+								reader.skipValue();
+						}
+					}
+					reader.endObject();
+					break;
+				case "artists":
+					reader.beginArray();
+					while (reader.hasNext())
+						artists.add(readNameOf(reader));
+					reader.endArray();
+					break;
+				case "duration_ms":
+					lengthMs = nextIntOrZero(reader);
+					break;
+				case "explicit":
+					isExplicit = reader.nextBoolean();
+					break;
+				case "disc_number":
+					discNumber = nextIntOrZero(reader);
+					break;
+				case "track_number":
+					trackNumber = nextIntOrZero(reader);
+					break;
+				case "popularity":
+					popularity = nextIntOrZero(reader);
+					break;
+				default:
+					reader.skipValue();
+			}
+		}
+		reader.endObject();
+		trackData.addTrack(id, name, albumName, releaseDate, artists, lengthMs, isExplicit,
+				discNumber, trackNumber, popularity, imageUrl);
+	}
+
+	/**
+	 * readNameOf() reads an object and keeps only its "name".
+	 */
+	private static String readNameOf(JsonReader reader) throws IOException {
+		String name = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("name"))
+				name = nextStringOrNull(reader);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		return name;
+	}
+
+	/**
+	 * readFollowerTotal() reads a followers object and keeps its "total".
+	 */
+	private static int readFollowerTotal(JsonReader reader) throws IOException {
+		int total = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (reader.nextName().equals("total"))
+				total = nextIntOrZero(reader);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		return total;
+	}
+
+	/**
+	 * readImageUrl() reads an images array and keeps the URL of the
+	 * rendition that best fits the picture it is shown in.
+	 */
+	private static String readImageUrl(JsonReader reader) throws IOException {
+		String bestUrl = null;
+		int bestWidth = 0, bestHeight = 0;
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String url = null;
+			int width = 0, height = 0;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+					case "url":
+						url = nextStringOrNull(reader);
+						break;
+					case "width":
+						width = nextIntOrZero(reader);
+						break;
+					case "height":
+						height = nextIntOrZero(reader);
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if (bestUrl == null || SpotifyImageStore.isBetterRendition(width, height, bestWidth, bestHeight)) {
+				bestUrl = url;
+				bestWidth = width;
+				bestHeight = height;
+			}
+		}
+		reader.endArray();
+		return bestUrl;
+	}
+
+	/**
+	 * nextStringOrNull() reads a string value that may be null.
+	 */
+	private static String nextStringOrNull(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		return reader.nextString();
+	}
+
+	/**
+	 * nextIntOrZero() reads an int value that may be null.
+	 */
+	private static int nextIntOrZero(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return 0;
+		}
+		return reader.nextInt();
+	}
+
+}
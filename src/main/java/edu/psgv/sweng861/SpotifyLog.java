@@ -0,0 +1,151 @@
+package edu.psgv.sweng861;
+
+import org.apache.logging.log4j.CloseableThreadContext;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.message.StringMapMessage;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * SpotifyLog holds what the classes of the client share to log
+ * structured events. Each search is given a correlation ID that
+ * is kept in the Log4j thread context, and the executors the
+ * search fans out to carry the ID over to their threads, so
+ * every event of the token, search, fan-out and image stages of
+ * one search can be found by its ID. Events are map messages
+ * with named fields such as the endpoint, latency, status and
+ * cache outcome. The priority class of a search's requests is
+ * carried over the same way.
+ * @author Matthew Bollinger
+ */
+public final class SpotifyLog {
+
+	// Key of the correlation ID in the thread context
+	public static final String CORRELATION_ID = "correlationId";
+	// Key of the priority class of the requests a thread makes, see SpotifyRequestScheduler
+	public static final String PRIORITY = "priority";
+
+	/**
+	 * SpotifyLog constructor is private as the class only has static methods.
+	 */
+	private SpotifyLog() {
+	}
+
+	/**
+	 * newCorrelationId() makes up a short random ID for a search.
+	 * @return eight hexadecimal digits
+	 */
+	public static String newCorrelationId() {
+		return String.format("%08x", ThreadLocalRandom.current().nextInt());
+	}
+
+	/**
+	 * getCorrelationId() gets the correlation ID of the current thread.
+	 * @return the ID, or null if the thread isn't working on a search
+	 */
+	public static String getCorrelationId() {
+		return ThreadContext.get(CORRELATION_ID);
+	}
+
+	/**
+	 * correlate() gives the current thread a new correlation ID for
+	 * the search it starts, unless it is already working on one, in
+	 * which case the search keeps that ID. The previous ID is put
+	 * back once the returned instance is closed.
+	 * @return the instance to close at the end of the search
+	 */
+	public static CloseableThreadContext.Instance correlate() {
+		final String correlationId = getCorrelationId();
+		return CloseableThreadContext.put(CORRELATION_ID, (correlationId != null) ? correlationId : newCorrelationId());
+	}
+
+	/**
+	 * event() starts a structured event.
+	 * @param name is the name of the event, such as "request" or "search"
+	 * @return a map message that fields can be added to with with()
+	 */
+	public static StringMapMessage event(String name) {
+		return new StringMapMessage().with("event", name);
+	}
+
+	/**
+	 * elapsedMs() gets the milliseconds since a start time.
+	 * @param startNanos is the start time from System.nanoTime()
+	 * @return the elapsed time in milliseconds
+	 */
+	public static long elapsedMs(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * wrap() makes a task run with the correlation ID and priority of
+	 * the thread that wraps it, then restores the ones the running
+	 * thread had.
+	 * @param task is the task to run
+	 * @return the task carrying the correlation ID
+	 */
+	public static Runnable wrap(Runnable task) {
+		final String correlationId = getCorrelationId();
+		final String priority = ThreadContext.get(PRIORITY);
+		return () -> {
+			final String previous = getCorrelationId();
+			final String previousPriority = ThreadContext.get(PRIORITY);
+			put(CORRELATION_ID, correlationId);
+			put(PRIORITY, priority);
+			try {
+				task.run();
+			} finally {
+				put(CORRELATION_ID, previous);
+				put(PRIORITY, previousPriority);
+			}
+		};
+	}
+
+	/**
+	 * wrap() makes a function run with the correlation ID and
+	 * priority of the thread that wraps it, such as a stage of a future that may
+	 * be completed by a thread working on another search.
+	 * @param function is the function to run
+	 * @return the function carrying the correlation ID
+	 */
+	public static <T, R> Function<T, R> wrap(Function<T, R> function) {
+		final String correlationId = getCorrelationId();
+		final String priority = ThreadContext.get(PRIORITY);
+		return value -> {
+			final String previous = getCorrelationId();
+			final String previousPriority = ThreadContext.get(PRIORITY);
+			put(CORRELATION_ID, correlationId);
+			put(PRIORITY, priority);
+			try {
+				return function.apply(value);
+			} finally {
+				put(CORRELATION_ID, previous);
+				put(PRIORITY, previousPriority);
+			}
+		};
+	}
+
+	/**
+	 * propagating() wraps an executor so that every task carries the
+	 * correlation ID and priority of the thread that submitted it.
+	 * @param executor runs the tasks
+	 * @return an executor that carries the correlation ID over
+	 */
+	public static Executor propagating(Executor executor) {
+		return task -> executor.execute(wrap(task));
+	}
+
+	/**
+	 * put() sets or removes a value of the thread context of the current thread.
+	 */
+	private static void put(String key, String value) {
+		if (value != null)
+			ThreadContext.put(key, value);
+		else
+			ThreadContext.remove(key);
+	}
+
+}
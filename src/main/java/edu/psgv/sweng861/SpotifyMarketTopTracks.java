@@ -0,0 +1,189 @@
+package edu.psgv.sweng861;
+
+import com.neovisionaries.i18n.CountryCode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SpotifyMarketTopTracks holds the top tracks of one artist in
+ * several markets, so that the markets can be compared. Each
+ * market is held as a MarketTracks, which is also what is cached
+ * for each artist and market, so a market that was requested
+ * recently is taken from the cache while the others are requested.
+ * Markets whose request failed are listed as missing.
+ * @author Matthew Bollinger
+ */
+public class SpotifyMarketTopTracks {
+
+	/**
+	 * MarketTracks is the top tracks of an artist in one market,
+	 * and when they were fetched from Spotify.
+	 */
+	public static class MarketTracks {
+
+		private final CountryCode market;
+		private final List<String> trackNames;
+		private final long fetchedAtMs;
+
+		/**
+		 * MarketTracks constructor sets the top tracks of a market.
+		 * @param market is the market
+		 * @param trackNames are the names of the top tracks, most popular first
+		 * @param fetchedAtMs is when they were fetched, in milliseconds since the epoch
+		 */
+		public MarketTracks(CountryCode market, List<String> trackNames, long fetchedAtMs) {
+			this.market = market;
+			this.trackNames = Collections.unmodifiableList(new ArrayList<>(trackNames));
+			this.fetchedAtMs = fetchedAtMs;
+		}
+
+		/**
+		 * getMarket() gets the market of the top tracks.
+		 * @return the market
+		 */
+		public CountryCode getMarket() {
+			return market;
+		}
+
+		/**
+		 * getTrackNames() gets the names of the top tracks.
+		 * @return the names, most popular first
+		 */
+		public List<String> getTrackNames() {
+			return trackNames;
+		}
+
+		/**
+		 * getFetchedAtMs() gets when the top tracks were fetched.
+		 * @return the time in milliseconds since the epoch
+		 */
+		public long getFetchedAtMs() {
+			return fetchedAtMs;
+		}
+
+	}
+
+	// Spotify ID of the artist
+	private final String artistId;
+	// Top tracks by market, in the order the markets were asked for
+	private final LinkedHashMap<CountryCode, MarketTracks> markets = new LinkedHashMap<>();
+	// Markets whose top tracks couldn't be requested
+	private final LinkedHashSet<CountryCode> missingMarkets = new LinkedHashSet<>();
+
+	/**
+	 * SpotifyMarketTopTracks constructor sets the artist.
+	 * @param artistId is the Spotify ID of the artist
+	 */
+	public SpotifyMarketTopTracks(String artistId) {
+		this.artistId = artistId;
+	}
+
+	/**
+	 * addMarket() adds the top tracks of a market.
+	 * @param tracks are the top tracks of the market
+	 */
+	synchronized void addMarket(MarketTracks tracks) {
+		markets.put(tracks.getMarket(), tracks);
+	}
+
+	/**
+	 * addMissingMarket() adds a market whose top tracks couldn't be
+	 * requested.
+	 * @param market is the market
+	 */
+	synchronized void addMissingMarket(CountryCode market) {
+		missingMarkets.add(market);
+	}
+
+	/**
+	 * getArtistId() gets the Spotify ID of the artist.
+	 * @return the ID
+	 */
+	public String getArtistId() {
+		return artistId;
+	}
+
+	/**
+	 * getMarkets() gets the markets whose top tracks arrived.
+	 * @return the markets, in the order they were asked for
+	 */
+	public synchronized List<CountryCode> getMarkets() {
+		return new ArrayList<>(markets.keySet());
+	}
+
+	/**
+	 * getMissingMarkets() gets the markets whose top tracks couldn't
+	 * be requested.
+	 * @return the markets
+	 */
+	public synchronized Set<CountryCode> getMissingMarkets() {
+		return new LinkedHashSet<>(missingMarkets);
+	}
+
+	/**
+	 * getMarketTracks() gets the top tracks of a market along with
+	 * when they were fetched.
+	 * @param market is the market
+	 * @return the top tracks, or null if they didn't arrive
+	 */
+	public synchronized MarketTracks getMarketTracks(CountryCode market) {
+		return markets.get(market);
+	}
+
+	/**
+	 * getTopTracks() gets the names of the top tracks of a market.
+	 * @param market is the market
+	 * @return the names, most popular first, empty if they didn't arrive
+	 */
+	public synchronized List<String> getTopTracks(CountryCode market) {
+		final MarketTracks tracks = markets.get(market);
+		return (tracks != null) ? tracks.getTrackNames() : List.of();
+	}
+
+	/**
+	 * getTopTrack() gets the name of the most popular track of a market.
+	 * @param market is the market
+	 * @return the name, or null if the market has no top track
+	 */
+	public synchronized String getTopTrack(CountryCode market) {
+		final List<String> names = getTopTracks(market);
+		return names.isEmpty() ? null : names.get(0);
+	}
+
+	/**
+	 * getSharedTracks() gets the tracks that are top tracks in every
+	 * market that arrived.
+	 * @return the names, in the order of the first market
+	 */
+	public synchronized List<String> getSharedTracks() {
+		List<String> shared = null;
+		for (MarketTracks tracks : markets.values()) {
+			if (shared == null)
+				shared = new ArrayList<>(tracks.getTrackNames());
+			else
+				shared.retainAll(tracks.getTrackNames());
+		}
+		return (shared != null) ? shared : new ArrayList<>();
+	}
+
+	/**
+	 * getMarketsOf() gets the markets a track is a top track in.
+	 * @param trackName is the name of the track
+	 * @return the markets, in the order they were asked for
+	 */
+	public synchronized List<CountryCode> getMarketsOf(String trackName) {
+		List<CountryCode> found = new ArrayList<>();
+		for (Map.Entry<CountryCode, MarketTracks> entry : markets.entrySet()) {
+			if (entry.getValue().getTrackNames().contains(trackName))
+				found.add(entry.getKey());
+		}
+		return found;
+	}
+
+}
@@ -0,0 +1,44 @@
+package edu.psgv.sweng861;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * SpotifyRemoteCache is the second tier of the result and image
+ * caches, shared by every instance of the client. A search or
+ * image that misses the cache of its own process is looked up
+ * here before going to Spotify, and whatever an instance fetches
+ * from Spotify is put here for the others. Values are opaque
+ * bytes; the requester encodes results the same way snapshots
+ * are written. SpotifyCacheClient reaches a SpotifyCacheNode over
+ * a socket.
+ * @author Matthew Bollinger
+ */
+public interface SpotifyRemoteCache extends Closeable {
+
+	/**
+	 * get() gets the value of a key.
+	 * @param key is the key of the value
+	 * @return the value, or null if there is none or it has expired
+	 * @throws IOException if the cache can't be reached
+	 */
+	byte[] get(String key) throws IOException;
+
+	/**
+	 * put() sets the value of a key for a while.
+	 * @param key is the key of the value
+	 * @param value is the value
+	 * @param ttlMs is how long the value is kept, in milliseconds
+	 * @throws IOException if the cache can't be reached
+	 */
+	void put(String key, byte[] value, long ttlMs) throws IOException;
+
+	/**
+	 * close() releases the connections of the cache, if it has any.
+	 * @throws IOException if a connection can't be closed
+	 */
+	@Override
+	default void close() throws IOException {
+	}
+
+}
@@ -0,0 +1,175 @@
+package edu.psgv.sweng861;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * SpotifyRequestHedger cuts the tail latency of a single
+ * endpoint. It records how long recent calls took and, when
+ * a call runs longer than the configured percentile of those
+ * latencies, fires a duplicate of it. Whichever response
+ * arrives first is used and the other one is ignored.
+ * @author Matthew Bollinger
+ */
+public class SpotifyRequestHedger {
+
+	// Number of recent latencies remembered
+	private static final int SAMPLE_SIZE = 128;
+	// Number of latencies needed before the percentile is trusted
+	private static final int MIN_SAMPLES = 20;
+
+	// Executor that runs the primary and hedged calls
+	private final Executor executor;
+	// Percentile (0..1) of recent latencies after which a hedge fires
+	private volatile double percentile;
+	// Delay used until enough latencies are recorded
+	private volatile long defaultDelayMs;
+
+	// Ring buffer of recent latencies in milliseconds
+	private final long[] latencies = new long[SAMPLE_SIZE];
+	private int sampleCount;
+	private int nextSample;
+
+	// Number of hedges fired, for monitoring
+	private long hedgesFired;
+
+	/**
+	 * SpotifyRequestHedger constructor sets the executor and the
+	 * percentile of recent latencies after which to hedge.
+	 * @param executor runs the calls
+	 * @param percentile is the latency percentile (0..1) that triggers a hedge
+	 * @param defaultDelayMs is the hedge delay used before enough calls are recorded
+	 */
+	public SpotifyRequestHedger(Executor executor, double percentile, long defaultDelayMs) {
+		this.executor = executor;
+		this.percentile = percentile;
+		this.defaultDelayMs = defaultDelayMs;
+	}
+
+	/**
+	 * call() runs a call and hedges it with a duplicate if it
+	 * hasn't finished within the hedge delay. The first of the
+	 * two calls to succeed wins; the call only fails if both do.
+	 * @param call is the idempotent call to run
+	 * @return the result of the first call to succeed
+	 * @throws Exception the failure of the call if both attempts fail
+	 */
+	public <T> T call(Callable<T> call) throws Exception {
+		final long start = System.nanoTime();
+		final CompletableFuture<T> primary = submit(call);
+		try {
+			T result = primary.get(getHedgeDelayMs(), TimeUnit.MILLISECONDS);
+			recordLatency(start);
+			return result;
+		} catch (TimeoutException e) {
+			// Primary is slow, so fire a duplicate and take whichever finishes first
+			synchronized (this) {
+				hedgesFired++;
+			}
+			final CompletableFuture<T> hedge = submit(call);
+			final CompletableFuture<T> winner = new CompletableFuture<>();
+			primary.whenComplete((result, error) -> complete(winner, result, error, hedge));
+			hedge.whenComplete((result, error) -> complete(winner, result, error, primary));
+			try {
+				T result = winner.get();
+				recordLatency(start);
+				return result;
+			} catch (ExecutionException ee) {
+				throw unwrap(ee.getCause());
+			}
+		} catch (ExecutionException e) {
+			throw unwrap(e.getCause());
+		}
+	}
+
+	/**
+	 * complete() hands the result of one attempt to the winner
+	 * future. A failure is only passed on once the other attempt
+	 * has failed as well.
+	 */
+	private <T> void complete(CompletableFuture<T> winner, T result, Throwable error, CompletableFuture<T> other) {
+		if (error == null)
+			winner.complete(result);
+		else if (other.isCompletedExceptionally())
+			winner.completeExceptionally(error);
+	}
+
+	/**
+	 * submit() runs the call on the executor.
+	 */
+	private <T> CompletableFuture<T> submit(Callable<T> call) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return call.call();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * unwrap() gets the original exception thrown by a call.
+	 */
+	private Exception unwrap(Throwable error) {
+		while (error instanceof CompletionException && error.getCause() != null)
+			error = error.getCause();
+		return (error instanceof Exception) ? (Exception) error : new Exception(error);
+	}
+
+	/**
+	 * recordLatency() remembers how long a successful call took.
+	 * @param startNanos is when the call started
+	 */
+	private synchronized void recordLatency(long startNanos) {
+		latencies[nextSample] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		nextSample = (nextSample + 1) % SAMPLE_SIZE;
+		sampleCount = Math.min(sampleCount + 1, SAMPLE_SIZE);
+	}
+
+	/**
+	 * getHedgeDelayMs() gets how long a call may run before a
+	 * duplicate is fired, which is the configured percentile of
+	 * the recent latencies.
+	 * @return the hedge delay in milliseconds
+	 */
+	public synchronized long getHedgeDelayMs() {
+		if (sampleCount < MIN_SAMPLES)
+			return defaultDelayMs;
+		long[] sorted = Arrays.copyOf(latencies, sampleCount);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile * sampleCount) - 1;
+		return Math.max(1, sorted[Math.max(0, Math.min(index, sampleCount - 1))]);
+	}
+
+	/**
+	 * getHedgesFired() gets how many duplicate calls were fired.
+	 * @return the number of hedges
+	 */
+	public synchronized long getHedgesFired() {
+		return hedgesFired;
+	}
+
+	/**
+	 * setPercentile() sets the latency percentile that triggers a hedge.
+	 * @param percentile is a value between 0 and 1, such as 0.95
+	 */
+	public void setPercentile(double percentile) {
+		this.percentile = percentile;
+	}
+
+	/**
+	 * setDefaultDelayMs() sets the hedge delay used before
+	 * enough latencies are recorded.
+	 * @param defaultDelayMs is the delay in milliseconds
+	 */
+	public void setDefaultDelayMs(long defaultDelayMs) {
+		this.defaultDelayMs = defaultDelayMs;
+	}
+
+}
@@ -0,0 +1,266 @@
+package edu.psgv.sweng861;
+
+import org.apache.logging.log4j.CloseableThreadContext;
+import org.apache.logging.log4j.ThreadContext;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * SpotifyRequestScheduler decides which request to Spotify gets
+ * the next free slot of the concurrency limit, so that background
+ * work never holds up a search the user is waiting on.
+ * <p>
+ * Each request belongs to a priority class, taken from the thread
+ * context of the thread making it. Interactive requests pre-empt
+ * every queued prefetch and batch request, and always find part of
+ * the limit kept free for them, since the background classes may
+ * only fill three quarters of it. Queued prefetch and batch requests
+ * share what is left by weighted fair queuing, three to one, so a
+ * long crawl can't starve the refreshes either.
+ * @author Matthew Bollinger
+ */
+public class SpotifyRequestScheduler {
+
+	/**
+	 * Priority lists the classes of requests, from the most to the
+	 * least urgent, with the share each background class gets.
+	 */
+	public enum Priority {
+		// Searches and details the user is waiting on
+		INTERACTIVE(0),
+		// Requests made ahead of being needed, such as refreshing stale results
+		PREFETCH(3),
+		// Long jobs, such as discographies and audio profiles
+		BATCH(1);
+
+		final int weight;
+
+		Priority(int weight) {
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Ticket is a queued request waiting for a slot.
+	 */
+	private static class Ticket {
+		final Priority priority;
+		final double finishTag;
+		boolean granted;
+
+		Ticket(Priority priority, double finishTag) {
+			this.priority = priority;
+			this.finishTag = finishTag;
+		}
+	}
+
+	// Share of the limit the background classes may fill
+	private static final double BACKGROUND_SHARE = 0.75;
+
+	// Sets how many requests may be in flight
+	private final SpotifyConcurrencyLimiter limiter;
+	// Queued requests of each class, oldest first
+	private final ArrayDeque<Ticket>[] queues;
+	// Requests of each class in flight
+	private final int[] inFlight = new int[Priority.values().length];
+	// Virtual time of the fair queuing, and the finish tag of the last request queued in each class
+	private double virtualTime;
+	private final double[] lastFinishTag = new double[Priority.values().length];
+
+	/**
+	 * SpotifyRequestScheduler constructor sets the limiter whose
+	 * slots are handed out.
+	 * @param limiter sets how many requests may be in flight
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SpotifyRequestScheduler(SpotifyConcurrencyLimiter limiter) {
+		this.limiter = limiter;
+		queues = new ArrayDeque[Priority.values().length];
+		for (int i = 0; i < queues.length; i++)
+			queues[i] = new ArrayDeque<>();
+	}
+
+	/**
+	 * prioritize() sets the priority of the requests the current
+	 * thread makes, and of the tasks it hands to executors wrapped by
+	 * SpotifyLog.propagating(). The previous priority is put back
+	 * once the returned instance is closed.
+	 * @param priority is the priority of the requests
+	 * @return the instance to close at the end of the work
+	 */
+	public static CloseableThreadContext.Instance prioritize(Priority priority) {
+		return CloseableThreadContext.put(SpotifyLog.PRIORITY, priority.name().toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * currentPriority() gets the priority of the requests the current
+	 * thread makes.
+	 * @return the priority, INTERACTIVE if none was set
+	 */
+	public static Priority currentPriority() {
+		final String priority = ThreadContext.get(SpotifyLog.PRIORITY);
+		if (priority == null)
+			return Priority.INTERACTIVE;
+		try {
+			return Priority.valueOf(priority.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) { // Unknown values are treated as the default
+			return Priority.INTERACTIVE;
+		}
+	}
+
+	/**
+	 * acquire() waits until a request of a class is given a slot.
+	 * Every call must be followed by one of onSuccess(), onDropped()
+	 * or onIgnored() once the request is done.
+	 * @param priority is the class of the request
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	public synchronized void acquire(Priority priority) throws InterruptedIOException {
+		if (!hasQueued(priority) && mayStart(priority) && limiter.tryAcquire()) {
+			inFlight[priority.ordinal()]++;
+			return;
+		}
+		final Ticket ticket = enqueue(priority);
+		while (!ticket.granted) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				if (ticket.granted) {
+					// The slot was given already, so the request goes ahead
+					Thread.currentThread().interrupt();
+					return;
+				}
+				queues[priority.ordinal()].remove(ticket);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for a request slot");
+			}
+		}
+	}
+
+	/**
+	 * onSuccess() finishes a request that succeeded and hands its
+	 * slot to the next queued request.
+	 * @param priority is the class of the request
+	 * @param latencyNanos is how long the request took
+	 */
+	public void onSuccess(Priority priority, long latencyNanos) {
+		limiter.onSuccess(latencyNanos);
+		finish(priority);
+	}
+
+	/**
+	 * onDropped() finishes a request that failed because Spotify is
+	 * overloaded, which also cuts the limit.
+	 * @param priority is the class of the request
+	 */
+	public void onDropped(Priority priority) {
+		limiter.onDropped();
+		finish(priority);
+	}
+
+	/**
+	 * onIgnored() finishes a request whose outcome says nothing about
+	 * the load on Spotify.
+	 * @param priority is the class of the request
+	 */
+	public void onIgnored(Priority priority) {
+		limiter.onIgnored();
+		finish(priority);
+	}
+
+	/**
+	 * getQueueLength() gets the number of requests of a class waiting
+	 * for a slot.
+	 * @param priority is the class of the requests
+	 * @return the number of requests
+	 */
+	public synchronized int getQueueLength(Priority priority) {
+		return queues[priority.ordinal()].size();
+	}
+
+	/**
+	 * getInFlight() gets the number of requests of a class in flight.
+	 * @param priority is the class of the requests
+	 * @return the number of requests
+	 */
+	public synchronized int getInFlight(Priority priority) {
+		return inFlight[priority.ordinal()];
+	}
+
+	/**
+	 * finish() frees the slot of a request of a class, then hands out
+	 * every slot that is free.
+	 */
+	private synchronized void finish(Priority priority) {
+		inFlight[priority.ordinal()]--;
+		dispatch();
+	}
+
+	/**
+	 * dispatch() gives free slots to the queued requests: interactive
+	 * ones first, then the background ones in order of their finish
+	 * tags while the background classes are within their share.
+	 */
+	private void dispatch() {
+		boolean granted = false;
+		while (true) {
+			Ticket next = queues[Priority.INTERACTIVE.ordinal()].peek();
+			if (next == null && mayStart(Priority.BATCH)) {
+				final Ticket prefetch = queues[Priority.PREFETCH.ordinal()].peek();
+				final Ticket batch = queues[Priority.BATCH.ordinal()].peek();
+				next = (batch == null || (prefetch != null && prefetch.finishTag <= batch.finishTag)) ? prefetch : batch;
+			}
+			if (next == null || !limiter.tryAcquire())
+				break;
+			queues[next.priority.ordinal()].poll();
+			inFlight[next.priority.ordinal()]++;
+			if (next.priority != Priority.INTERACTIVE)
+				virtualTime = next.finishTag;
+			next.granted = true;
+			granted = true;
+		}
+		if (granted)
+			notifyAll();
+	}
+
+	/**
+	 * enqueue() queues a request, giving a background one the finish
+	 * tag of weighted fair queuing: the later of now and the end of
+	 * its class's last request, plus its cost divided by its weight.
+	 */
+	private Ticket enqueue(Priority priority) {
+		double finishTag = 0;
+		if (priority != Priority.INTERACTIVE) {
+			finishTag = Math.max(virtualTime, lastFinishTag[priority.ordinal()]) + 1.0 / priority.weight;
+			lastFinishTag[priority.ordinal()] = finishTag;
+		}
+		final Ticket ticket = new Ticket(priority, finishTag);
+		queues[priority.ordinal()].add(ticket);
+		return ticket;
+	}
+
+	/**
+	 * hasQueued() checks whether a request of a class would have to
+	 * wait behind queued requests.
+	 */
+	private boolean hasQueued(Priority priority) {
+		if (!queues[Priority.INTERACTIVE.ordinal()].isEmpty())
+			return true;
+		return priority != Priority.INTERACTIVE
+				&& (!queues[Priority.PREFETCH.ordinal()].isEmpty() || !queues[Priority.BATCH.ordinal()].isEmpty());
+	}
+
+	/**
+	 * mayStart() checks whether a request of a class fits within the
+	 * share of the limit its class may fill.
+	 */
+	private boolean mayStart(Priority priority) {
+		if (priority == Priority.INTERACTIVE)
+			return true;
+		final int background = inFlight[Priority.PREFETCH.ordinal()] + inFlight[Priority.BATCH.ordinal()];
+		return background < Math.max(1, (int) (limiter.getLimit() * BACKGROUND_SHARE));
+	}
+
+}
@@ -1,19 +1,28 @@
 package edu.psgv.sweng861;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
 import javax.swing.*;
 import java.awt.EventQueue;
-import java.awt.Image;
 import java.awt.Font;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
-import java.awt.image.BufferedImage;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.event.ListSelectionEvent;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 /**
  * SpotifyRestApiProject is the interface that interacts
@@ -29,14 +38,17 @@ import java.util.concurrent.TimeUnit;
  */
 public class SpotifyRestApiProject {
 
+	private static final Logger logger = LogManager.getLogger(SpotifyRestApiProject.class);
+
 	// The frame that holds all elements of the GUI
 	private JFrame spotifyFrame;
 	// The button to click submit upon entering a search request
 	private JButton submitInputButton;
 	// The search request input in by a user
 	private JTextField userInputText;
-	// The list model and list containing the names of the artists/tracks
-	private DefaultListModel<String> listModel;
+	// The list models of the artist and track results, and the list showing one of them
+	private SpotifyResultListModel<SpotifyArtistData> artistListModel;
+	private SpotifyResultListModel<SpotifyTrackData> trackListModel;
 	private JList<String> listOfNames;
 	// The information obtained from clicking on one of the names in the list
 	private JTextArea resultInfo;
@@ -48,27 +60,74 @@ public class SpotifyRestApiProject {
 	private JRadioButton chooseTrack;
 	// The button group that combines the two radio buttons together
 	private final ButtonGroup chooseTypeOfInput = new ButtonGroup();
+	// The check box that searches for the most popular results instead of the most relevant ones
+	private JCheckBox chooseMostPopular;
 
-	// The SpotifyRestRequester object that handles API requests
-	private final SpotifyRestRequester apiDataHandler = new SpotifyRestRequester();
-	// Contains both the artist and track data information from the API requests
-	private SpotifyArtistData artistsInfo;
-	private SpotifyTrackData tracksInfo;
+	// Searches run one at a time in the background, so the window keeps taking input
+	private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "spotify-search");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Results requested at a time when scrolling past the first ones, and pages kept in memory
+	private static final int RESULT_PAGE_SIZE = 50;
+	private static final int MAX_CACHED_PAGES = 20;
+	// Number of results of each type kept by a most popular search
+	private static final int MOST_POPULAR_COUNT = 50;
+	// Sizes every row of the list so it doesn't have to measure each name
+	private static final String PROTOTYPE_NAME = "Some Fairly Long Artist Or Song Name";
+	// Where the results of earlier runs are saved, and how often they are saved
+	private static final String SNAPSHOT_FILE = System.getProperty("spotify.snapshot",
+			System.getProperty("user.home") + "/.spotify-rest-api/snapshot.bin");
+	// Where the access token is saved between runs
+	private static final String TOKEN_FILE = System.getProperty("spotify.token",
+			System.getProperty("user.home") + "/.spotify-rest-api/token.bin");
+	private static final long SNAPSHOT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+	// Cache node shared with other instances as host:port, none if it isn't set
+	private static final String CACHE_NODE = System.getProperty("spotify.cache.node");
+	// How long an event may hold up the GUI before the watchdog reports it with the stack it is stuck in
+	private static final long EDT_STALL_THRESHOLD_MS = Long.getLong("spotify.edt.threshold",
+			SpotifyEdtWatchdog.DEFAULT_THRESHOLD_MS);
+
+	// The SpotifyRestRequester object that handles API requests. Setting up its connections and
+	// Authenticating take longer than building the window, so it is created in the background
+	private final CompletableFuture<SpotifyRestRequester> apiDataHandler = CompletableFuture.supplyAsync(
+			() -> new SpotifyRestRequester(SpotifyHttpTransport.getDefault(), new SpotifyTokenStore(Paths.get(TOKEN_FILE))));
 	// Scroll panes used for the list and text area
 	private JScrollPane scrollPane;
 	private JScrollPane scrollPane_1;
+	// The listener of the list, also used to refresh the selected result
+	private ListAction listAction;
+	// Numbers the searches made, so one that was overtaken by a newer search is skipped or its results dropped
+	private final SpotifySearchGate searches = new SpotifySearchGate();
+	// The first pages of the results shown, and the listeners that redraw the selected result as its details
+	// Arrive. The pages may be the copies the requester caches, so the listeners are removed once replaced
+	private SpotifyArtistData shownArtists;
+	private SpotifyTrackData shownTracks;
+	private final SpotifyDataListener artistRefresher = index -> refreshResult(artistListModel, index);
+	private final SpotifyDataListener trackRefresher = index -> refreshResult(trackListModel, index);
 
 	/**
-	 * Launch the application.
+	 * Launch the application. The time from the start of the JVM
+	 * until the window can take input, and until the access token
+	 * is ready, is logged once each is reached. Every event the
+	 * GUI handles is timed by the watchdog.
 	 */
 	public static void main(String[] args) {
+		SpotifyEdtWatchdog.install(EDT_STALL_THRESHOLD_MS);
 		EventQueue.invokeLater(new Runnable() {
 			public void run() {
 				try {
 					SpotifyRestApiProject window = new SpotifyRestApiProject();
 					window.spotifyFrame.setVisible(true);
+					// Runs once the window has been shown and the EDT is free to handle input
+					EventQueue.invokeLater(() -> logger.info(SpotifyLog.event("startup").with("stage", "interactive")
+							.with("uptimeMs", ManagementFactory.getRuntimeMXBean().getUptime())));
+					window.apiDataHandler.thenCompose(SpotifyRestRequester::authenticateAsync).thenRun(() -> logger.info(
+							SpotifyLog.event("startup").with("stage", "authenticated")
+							.with("uptimeMs", ManagementFactory.getRuntimeMXBean().getUptime())));
 				} catch (Exception e) {
-					e.printStackTrace();
+					logger.error("Error: " + e.getMessage(), e);
 				}
 			}
 		});
@@ -79,6 +138,15 @@ public class SpotifyRestApiProject {
 	 */
 	public SpotifyRestApiProject() {
 		initialize();
+		// Results saved by the last run answer repeated searches right away
+		apiDataHandler.thenAccept(requester -> requester.enableSnapshots(Paths.get(SNAPSHOT_FILE), SNAPSHOT_INTERVAL_MS));
+		// Searches another instance already made are taken from the shared cache node
+		if (CACHE_NODE != null && CACHE_NODE.lastIndexOf(':') > 0) {
+			final int colon = CACHE_NODE.lastIndexOf(':');
+			final SpotifyCacheClient cacheClient = new SpotifyCacheClient(CACHE_NODE.substring(0, colon),
+					Integer.parseInt(CACHE_NODE.substring(colon + 1)));
+			apiDataHandler.thenAccept(requester -> requester.setRemoteCache(cacheClient));
+		}
 	}
 
 	/**
@@ -88,51 +156,104 @@ public class SpotifyRestApiProject {
 	 * by displaying a message dialog and exiting the method. It
 	 * also deals with if the input doesn't have any results
 	 * by asking the user to try another request. If no problems
-	 * arise, either the track names or artist names will be
-	 * displayed in the list for further action.
+	 * arise, both the artist and track names are kept and the ones
+	 * chosen with the radio buttons are displayed in the list for
+	 * further action.
 	 * @author Matthew Bollinger
 	 *
 	 */
 	class ButtonAction implements ActionListener {
 
-		// Type of input (artist/track) and text input into text field
-		String inputType, inputText;
+		// Text input into text field
+		String inputText;
 
 		/**
 		 * actionPerformed() is called upon when the button is pressed.
 		 */
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			inputType = chooseTypeOfInput.getSelection().getActionCommand();
 			inputText = userInputText.getText();
 			if (inputText.isEmpty()) {
 				// Asks user to enter some query
 				JOptionPane.showMessageDialog(spotifyFrame, "Please enter a name of a song/artist");
 				return;
 			}
-			// Clears the list in order to allow for new names to fill it
-			listModel.clear();
-			if (inputType.equals("Artist")) {
-				// Calls the searchArtist() method to make an API request about that specific artist
-				artistsInfo = apiDataHandler.searchArtist(inputText);
-				if (artistsInfo.getArtistNames().isEmpty()) {
-					// Asks user to enter another query as there were no results
-					JOptionPane.showMessageDialog(spotifyFrame, "Name yielded no results.\nPlease enter in another one.");
+			// Clears the lists in order to allow for new names to fill them
+			stopShowing();
+			artistListModel.clear();
+			trackListModel.clear();
+			final String query = inputText;
+			final boolean mostPopular = chooseMostPopular.isSelected();
+			final int search = searches.begin();
+			// Searches in the background so the window keeps taking input, waiting for the requester only
+			// If it is still being set up. The names are shown as soon as the search returns, and the top
+			// Tracks, related artists and images refresh the detail view one at a time as they arrive,
+			// Through the listeners showResults() adds since nothing can be selected before that
+			apiDataHandler.thenAcceptAsync(requester -> {
+				// Searches that were overtaken while waiting for the search thread aren't made at all
+				if (!searches.isCurrent(search))
 					return;
-				}
-				// Lists all names of the artists from the result
-				for (String artistNames : artistsInfo.getArtistNames())
-					listModel.addElement(artistNames);
-			} else {
-				tracksInfo = apiDataHandler.searchSong(inputText);
-				if (tracksInfo.getTrackNames().isEmpty()) {
-					// Asks user to enter another query as there were no results
-					JOptionPane.showMessageDialog(spotifyFrame, "Name yielded no results.\nPlease enter in another one.");
-					return;
-				}
-				// Lists all names of the tracks from the result
-				for (String trackNames : tracksInfo.getTrackNames())
-					listModel.addElement(trackNames);
+				// Calls the searchAll() method to request the artists and tracks in a single API request,
+				// So that switching between them afterwards doesn't search again
+				// The most popular results come from every page of the search, so they are all in the first page,
+				// And their details are only requested once they are selected
+				SpotifySearchResults results = mostPopular
+						? requester.searchMostPopular(query, MOST_POPULAR_COUNT)
+						: requester.searchAll(query, false, SpotifyRestRequester.NAMES_ONLY_BUDGET_MS, null, null);
+				searches.show(search, () -> showResults(requester, query, results));
+			}, searchExecutor).exceptionally(error -> {
+				logger.error("Error: " + error.getMessage(), error);
+				searches.show(search, this::showFailure);
+				return null;
+			});
+		}
+
+		/**
+		 * showFailure() tells the user that the current search failed.
+		 */
+		private void showFailure() {
+			// Asks user to try again as the search couldn't be made
+			JOptionPane.showMessageDialog(spotifyFrame, "Search failed.\nPlease try again.");
+		}
+
+		/**
+		 * showResults() lists the results of the current search.
+		 * @param requester is the requester that made the search
+		 * @param query is the name that was searched for
+		 * @param results are the results, or null if the search failed
+		 */
+		private void showResults(SpotifyRestRequester requester, String query, SpotifySearchResults results) {
+			if (results == null || (results.getArtistData().getArtistNames().isEmpty()
+					&& results.getTrackData().getTrackNames().isEmpty())) {
+				// Asks user to enter another query as there were no results
+				JOptionPane.showMessageDialog(spotifyFrame, "Name yielded no results.\nPlease enter in another one.");
+				return;
+			}
+			// Lists every matching artist and track, requesting the names past the first page as they are scrolled to
+			SpotifyArtistData artistsInfo = results.getArtistData();
+			SpotifyTrackData tracksInfo = results.getTrackData();
+			shownArtists = artistsInfo;
+			shownTracks = tracksInfo;
+			artistsInfo.addListener(artistRefresher);
+			tracksInfo.addListener(trackRefresher);
+			artistListModel.setResults(Math.min(artistsInfo.getTotal(), SpotifyRestRequester.MAX_SEARCH_RESULTS),
+					artistsInfo, artistsInfo.getArtistNames().size(), (offset, limit) -> {
+						SpotifyArtistData page = requester.searchArtistPage(query, offset, limit);
+						if (page != null)
+							page.addListener(index -> refreshResult(artistListModel, offset + index));
+						return page;
+					});
+			trackListModel.setResults(Math.min(tracksInfo.getTotal(), SpotifyRestRequester.MAX_SEARCH_RESULTS),
+					tracksInfo, tracksInfo.getTrackNames().size(), (offset, limit) -> {
+						SpotifyTrackData page = requester.searchSongPage(query, offset, limit);
+						if (page != null)
+							page.addListener(index -> refreshResult(trackListModel, offset + index));
+						return page;
+					});
+			showSelectedType();
+			if (listOfNames.getModel().getSize() == 0) {
+				// Only the other type had results, which the radio buttons can switch to
+				JOptionPane.showMessageDialog(spotifyFrame, "Name yielded no results of this type.\nTry the other one.");
 			}
 		}
 
@@ -147,6 +268,9 @@ public class SpotifyRestApiProject {
 	 *
 	 */
 	class ListAction implements ListSelectionListener {
+
+		// Shown in place of a field that hasn't arrived yet
+		private static final String PENDING_TEXT = "(loading...)";
 		
 		/**
 		 * convertFromMs() converts from milliseconds to
@@ -166,33 +290,26 @@ public class SpotifyRestApiProject {
 					TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(lengthMs)));   
 		}
 		
-		/**
-		 * setCorrectImageDimen() converts a BufferedImage object
-		 * into an ImageIcon with the dimensions of the label that
-		 * is holding the image.
-		 * @param img is the BufferedImage object
-		 * @return the ImageIcon with the proper size
-		 */
-		private ImageIcon setCorrectImageDimen(BufferedImage img) {
-			Image correctDimen = new ImageIcon(img).getImage().getScaledInstance(252, 252, Image.SCALE_DEFAULT);
-			return new ImageIcon(correctDimen);
-		}
-		
 		/**
 		 * insertArtistInfo() inserts all information about the artist
 		 * selected into the text area and label.
 		 * @param name is the name of the selection in the list by the user
-		 * @param index is the index of the selection in the list by the user
+		 * @param artistsInfo is the page of results holding the selection
+		 * @param index is the index of the selection within its page
 		 */
-		private void insertArtistInfo(String name, int index) {
+		private void insertArtistInfo(String name, SpotifyArtistData artistsInfo, int index) {
 			resultInfo.append("Artist Name: " + name + "\n");
 			if (!artistsInfo.getArtistGenres().get(index).isEmpty())
 				resultInfo.append("Genres: " + String.join(", ", artistsInfo.getArtistGenres().get(index)) + "\n");
 			String topTrack = artistsInfo.getArtistTopTracks().get(index);
-			if (topTrack != null)
+			if (artistsInfo.isTopTrackPending(index))
+				resultInfo.append("Top Song: " + PENDING_TEXT + "\n");
+			else if (topTrack != null)
 				resultInfo.append("Top Song: " + topTrack + "\n");
 			ArrayList<String> relatedArtists = artistsInfo.getArtistRelatedArtists().get(index);
-			if (!relatedArtists.isEmpty()) {
+			if (artistsInfo.isRelatedArtistsPending(index)) {
+				resultInfo.append("Related Artists: " + PENDING_TEXT + "\n");
+			} else if (!relatedArtists.isEmpty()) {
 				// Display the first three related artists to the selected artist
 				int maxArtists = Math.min(relatedArtists.size(), 3);
 				ArrayList<String> artistRelatedArtists = new ArrayList<>();
@@ -202,19 +319,20 @@ public class SpotifyRestApiProject {
 			}
 			resultInfo.append("Followers: " + artistsInfo.getArtistFollowers().get(index) + "\n");
 			resultInfo.append("Artist Popularity: " + artistsInfo.getArtistPopularities().get(index) + "\n");
-			// Display the ImageIcon in the label
-			BufferedImage artistImg = artistsInfo.getArtistImages().get(index);
-			if (artistImg != null)
-				resultPicture.setIcon(setCorrectImageDimen(artistImg));
+			// Display the ImageIcon in the label, which was decoded at the size of the label in the background
+			ImageIcon artistIcon = artistsInfo.getArtistIcon(index);
+			if (artistIcon != null)
+				resultPicture.setIcon(artistIcon);
 		}
 		
 		/**
 		 * insertTrackInfo() inserts all information about the track
 		 * selected into the text area and label.
 		 * @param name is the name of the selection in the list by the user
-		 * @param index is the index of the selection in the list by the user
+		 * @param tracksInfo is the page of results holding the selection
+		 * @param index is the index of the selection within its page
 		 */
-		private void insertTrackInfo(String name, int index) {
+		private void insertTrackInfo(String name, SpotifyTrackData tracksInfo, int index) {
 			resultInfo.append("Song Name: " + name + "\n");
 			resultInfo.append("Album Name: " + tracksInfo.getTrackAlbums().get(index) + "\n");
 			resultInfo.append("Album Release Date: " + tracksInfo.getTrackAlbumReleaseDates().get(index) + "\n");
@@ -226,9 +344,11 @@ public class SpotifyRestApiProject {
 			resultInfo.append("Disc Number: " + tracksInfo.getTrackDiscNumbers().get(index) + "\n");
 			resultInfo.append("Track Number: " + tracksInfo.getTrackTrkNumbers().get(index) + "\n");
 			resultInfo.append("Track Popularity: " + tracksInfo.getTrackPopularities().get(index) + "\n");
-			BufferedImage trackImg = tracksInfo.getTrackAlbumImages().get(index);
-			if (trackImg != null)
-				resultPicture.setIcon(setCorrectImageDimen(trackImg));
+			ImageIcon trackIcon = tracksInfo.getTrackAlbumIcon(index);
+			if (tracksInfo.isAlbumImagePending(index) || !tracksInfo.isAlbumImageDecoded(index))
+				resultInfo.append("Album Image: " + PENDING_TEXT + "\n");
+			else if (trackIcon != null)
+				resultPicture.setIcon(trackIcon);
 		}
 
 		/**
@@ -239,28 +359,108 @@ public class SpotifyRestApiProject {
 		 */
 		@Override
 		public void valueChanged(ListSelectionEvent e) {
+			// Gets the list in order to obtain the index of the selection
+			@SuppressWarnings("unchecked")
+			JList<String> sourceList = (JList<String>) e.getSource();
+			showResult(sourceList.getSelectedIndex());
+		}
+
+		/**
+		 * showResult() displays the information of a result in the
+		 * text area and label, replacing what was shown before. The
+		 * details of a result past the first page are only requested
+		 * once it is selected.
+		 * @param index is the index of the result, or -1 for none
+		 */
+		void showResult(int index) {
 			// Resets the text area and label for new information to be displayed
 			resultInfo.setText("");
 			resultPicture.setIcon(null);
-			// Gets the list in order to obtain the index and name of the selection
-			@SuppressWarnings("unchecked")
-			JList<String> sourceList = (JList<String>) e.getSource();
-			int index = sourceList.getSelectedIndex();
 			// If statement is ignored if no selection is made
 			if (index != -1) {
-				String selectedName = listModel.getElementAt(index);
-				String inputType = chooseTypeOfInput.getSelection().getActionCommand();
-				// Calls the right method depending on the selection of the radio buttons
-				if (inputType.equals("Artist")) {
-					insertArtistInfo(selectedName, index);
+				String selectedName = listOfNames.getModel().getElementAt(index);
+				SpotifyRestRequester requester = apiDataHandler.join();
+				// Calls the right method depending on the results shown in the list
+				if (listOfNames.getModel() == artistListModel) {
+					SpotifyArtistData page = artistListModel.getPage(index);
+					if (page == null) {
+						// The page is still being requested, it is shown once it arrives
+						resultInfo.append("Artist Name: " + PENDING_TEXT + "\n");
+						return;
+					}
+					int indexInPage = artistListModel.getIndexInPage(index);
+					requester.loadArtistDetails(page, indexInPage);
+					insertArtistInfo(selectedName, page, indexInPage);
 				} else {
-					insertTrackInfo(selectedName, index);
+					SpotifyTrackData page = trackListModel.getPage(index);
+					if (page == null) {
+						resultInfo.append("Song Name: " + PENDING_TEXT + "\n");
+						return;
+					}
+					int indexInPage = trackListModel.getIndexInPage(index);
+					requester.loadTrackDetails(page, indexInPage);
+					insertTrackInfo(selectedName, page, indexInPage);
 				}
 			}
 		}
 
 	}
 
+	/**
+	 * refreshResult() is called when a pending field of a result
+	 * arrives and redraws the detail view on the event dispatch
+	 * thread if that result is the one currently selected.
+	 * @param model is the list model the result belongs to
+	 * @param index is the index of the result that changed
+	 */
+	private void refreshResult(ListModel<String> model, int index) {
+		refreshResult(listOfNames, model, index, listAction::showResult);
+	}
+
+	/**
+	 * refreshResult() redraws a result on the event dispatch thread
+	 * if it is the one selected in a list showing the model it
+	 * belongs to. A result of the other type, or of the results a
+	 * new search replaced, isn't redrawn.
+	 * @param list is the list of results
+	 * @param model is the list model the result belongs to
+	 * @param index is the index of the result that changed
+	 * @param showResult redraws the detail view of the result
+	 */
+	static void refreshResult(JList<String> list, ListModel<String> model, int index, IntConsumer showResult) {
+		SwingUtilities.invokeLater(() -> {
+			if (list.getModel() == model && list.getSelectedIndex() == index)
+				showResult.accept(index);
+		});
+	}
+
+	/**
+	 * stopShowing() removes the listeners of the results shown, once
+	 * a new search replaces them.
+	 */
+	private void stopShowing() {
+		if (shownArtists != null)
+			shownArtists.removeListener(artistRefresher);
+		if (shownTracks != null)
+			shownTracks.removeListener(trackRefresher);
+		shownArtists = null;
+		shownTracks = null;
+	}
+
+	/**
+	 * showSelectedType() shows the results of the type chosen with
+	 * the radio buttons. The artists and tracks of the last search
+	 * are both kept, so switching between them redraws the list
+	 * from memory instead of searching again.
+	 */
+	private void showSelectedType() {
+		ListModel<String> model = chooseArtist.isSelected() ? artistListModel : trackListModel;
+		if (listOfNames.getModel() != model) {
+			listOfNames.setModel(model);
+			listAction.showResult(-1);
+		}
+	}
+
 	/**
 	 * Initialize the contents of the frame.
 	 */
@@ -298,6 +498,7 @@ public class SpotifyRestApiProject {
 		chooseArtist = new JRadioButton("Artist");
 		chooseArtist.setSelected(true);
 		chooseArtist.setActionCommand("Artist");
+		chooseArtist.addActionListener(e -> showSelectedType());
 		chooseTypeOfInput.add(chooseArtist);
 		chooseArtist.setHorizontalAlignment(SwingConstants.CENTER);
 		chooseArtist.setBounds(27, 77, 80, 23);
@@ -305,21 +506,51 @@ public class SpotifyRestApiProject {
 		// Initialize the track radio button
 		chooseTrack = new JRadioButton("Song");
 		chooseTrack.setActionCommand("Song");
+		chooseTrack.addActionListener(e -> showSelectedType());
 		chooseTypeOfInput.add(chooseTrack);
 		chooseTrack.setHorizontalAlignment(SwingConstants.CENTER);
 		chooseTrack.setBounds(109, 77, 80, 23);
 		spotifyFrame.getContentPane().add(chooseTrack);
+		// Initialize the check box that ranks the results by popularity
+		chooseMostPopular = new JCheckBox("Most popular");
+		chooseMostPopular.setToolTipText("Search every page and keep the " + MOST_POPULAR_COUNT + " most popular results");
+		chooseMostPopular.setBounds(27, 107, 160, 23);
+		spotifyFrame.getContentPane().add(chooseMostPopular);
 		// Initialize the list with a scroll bar if the text overflows
 		// Also uses the ListAction object from the class above
-		listModel = new DefaultListModel<>();
+		// The list models only request the pages of results that are scrolled to
+		artistListModel = new SpotifyResultListModel<>(RESULT_PAGE_SIZE, MAX_CACHED_PAGES, SpotifyArtistData::getArtistNames);
+		trackListModel = new SpotifyResultListModel<>(RESULT_PAGE_SIZE, MAX_CACHED_PAGES, SpotifyTrackData::getTrackNames);
+		ListDataListener pageListener = new ListDataListener() {
+			@Override
+			public void contentsChanged(ListDataEvent e) {
+				// Shows the selected result once its page arrives
+				int selected = listOfNames.getSelectedIndex();
+				if (selected >= e.getIndex0() && selected <= e.getIndex1())
+					listAction.showResult(selected);
+			}
+
+			@Override
+			public void intervalAdded(ListDataEvent e) {
+			}
+
+			@Override
+			public void intervalRemoved(ListDataEvent e) {
+			}
+		};
+		artistListModel.addListDataListener(pageListener);
+		trackListModel.addListDataListener(pageListener);
 		scrollPane_1 = new JScrollPane();
-		scrollPane_1.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_NEVER);
+		scrollPane_1.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
 		scrollPane_1.setBounds(338, 11, 336, 124);
 		spotifyFrame.getContentPane().add(scrollPane_1);
-		listOfNames = new JList<>(listModel);
+		listOfNames = new JList<>(artistListModel);
 		scrollPane_1.setViewportView(listOfNames);
 		listOfNames.setFont(new Font("Tahoma", Font.PLAIN, 12));
-		listOfNames.addListSelectionListener(new ListAction());
+		// A prototype gives every row the same size, so only the visible rows are ever read
+		listOfNames.setPrototypeCellValue(PROTOTYPE_NAME);
+		listAction = new ListAction();
+		listOfNames.addListSelectionListener(listAction);
         assert listOfNames != null;
         listOfNames.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		// Initializes the text area with a scroll bar if the text overflows underneath
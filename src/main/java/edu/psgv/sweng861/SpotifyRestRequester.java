@@ -3,21 +3,56 @@ package edu.psgv.sweng861;
 import com.neovisionaries.i18n.CountryCode;
 
 import org.apache.hc.core5.http.ParseException;
+import org.apache.logging.log4j.CloseableThreadContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.enums.ModelObjectType;
 import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
-import se.michaelthelin.spotify.model_objects.credentials.ClientCredentials;
+import se.michaelthelin.spotify.exceptions.detailed.BadGatewayException;
+import se.michaelthelin.spotify.exceptions.detailed.InternalServerErrorException;
+import se.michaelthelin.spotify.exceptions.detailed.ServiceUnavailableException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
 import se.michaelthelin.spotify.model_objects.special.SearchResult;
+import se.michaelthelin.spotify.model_objects.specification.Album;
+import se.michaelthelin.spotify.model_objects.specification.AlbumSimplified;
 import se.michaelthelin.spotify.model_objects.specification.Artist;
+import se.michaelthelin.spotify.model_objects.specification.AudioFeatures;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
 import se.michaelthelin.spotify.model_objects.specification.Track;
-import se.michaelthelin.spotify.requests.authorization.client_credentials.ClientCredentialsRequest;
+import se.michaelthelin.spotify.model_objects.specification.TrackSimplified;
+import se.michaelthelin.spotify.requests.data.albums.GetAlbumsTracksRequest;
+import se.michaelthelin.spotify.requests.data.albums.GetSeveralAlbumsRequest;
+import se.michaelthelin.spotify.requests.data.artists.GetArtistsAlbumsRequest;
 import se.michaelthelin.spotify.requests.data.artists.GetArtistsRelatedArtistsRequest;
 import se.michaelthelin.spotify.requests.data.artists.GetArtistsTopTracksRequest;
+import se.michaelthelin.spotify.requests.data.artists.GetSeveralArtistsRequest;
 import se.michaelthelin.spotify.requests.data.search.SearchItemRequest;
+import se.michaelthelin.spotify.requests.data.tracks.GetAudioFeaturesForSeveralTracksRequest;
+import se.michaelthelin.spotify.requests.data.tracks.GetSeveralTracksRequest;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * SpotifyRestRequester sets up a Spotify REST API object
@@ -26,110 +61,1920 @@ import java.util.Arrays;
  * the client id and client secret obtained from the spotify
  * developer website and then requests an access token that
  * is valid for one hour in order to make any API requests.
+ * The token is requested in the background, and a search
+ * only waits for it if it hasn't arrived yet. Several apps can
+ * be given, and the requests are then spread over them.
  * @author Matthew Bollinger
  */
 public class SpotifyRestRequester {
 
-	// Unique client id and secret obtained from the Spotify developer website
-	private static final String clientId = System.getenv("SPOTIFY_ID");
-	private static final String clientSecret = System.getenv("SPOTIFY_PASS");
+	// Names of the endpoints that are guarded by a circuit breaker and hedger
+	static final String SEARCH_ENDPOINT = "search";
+	static final String RELATED_ARTISTS_ENDPOINT = "related-artists";
+	static final String TOP_TRACKS_ENDPOINT = "top-tracks";
+	static final String AUDIO_FEATURES_ENDPOINT = "audio-features";
+	static final String ARTIST_ALBUMS_ENDPOINT = "artist-albums";
+	static final String ALBUMS_ENDPOINT = "albums";
+	static final String ALBUM_TRACKS_ENDPOINT = "album-tracks";
+	static final String TRACKS_ENDPOINT = "tracks";
+	static final String ARTISTS_ENDPOINT = "artists";
+	// Name the remote cache tier is tracked under by its circuit breaker
+	static final String REMOTE_CACHE_ENDPOINT = "remote-cache";
 
-	// Initial build of the SpotifyApi object using the id and secret
-	private final SpotifyApi spotifyApi = new SpotifyApi.Builder()
-			.setClientId(clientId).setClientSecret(clientSecret)
-			.build();
+	// Default hedging and circuit breaker settings
+	private static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+	private static final long DEFAULT_HEDGE_DELAY_MS = 500;
+	private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+	private static final long CIRCUIT_OPEN_MS = 30_000;
+	// Starting number of API requests in flight at once, and the range it adapts in
+	private static final int INITIAL_CONCURRENCY = 8;
+	private static final int MIN_CONCURRENCY = 2;
+	private static final int MAX_CONCURRENCY = 64;
+	// Number of recent artist and track results kept in memory
+	private static final int RESULT_CACHE_SIZE = 64;
+	// Cached results are refreshed in the background once stale, and dropped once expired
+	static final long RESULT_SOFT_TTL_MS = TimeUnit.MINUTES.toMillis(15);
+	static final long RESULT_HARD_TTL_MS = TimeUnit.HOURS.toMillis(24);
+	// Number of results of the first page of a search, which are requested in full
+	static final int SEARCH_LIMIT = 5;
+	// Spotify doesn't return search results past this offset
+	public static final int MAX_SEARCH_RESULTS = 1000;
+	// Budget of a search that returns as soon as the names arrive, every other field being streamed to the listeners
+	public static final long NAMES_ONLY_BUDGET_MS = -1;
+	// Largest page the search endpoint returns
+	static final int SEARCH_PAGE_LIMIT = 50;
+	// Largest number of tracks the audio features endpoint takes in one request
+	static final int AUDIO_FEATURES_BATCH_SIZE = 100;
+	// Largest number of albums and tracks the several albums and several tracks endpoints take
+	static final int ALBUMS_BATCH_SIZE = 20;
+	static final int TRACKS_BATCH_SIZE = 50;
+	// Largest number of artists the several artists endpoint takes in one request
+	static final int ARTISTS_BATCH_SIZE = 50;
+	// How long results and images shared through the remote cache are kept there
+	static final long REMOTE_RESULT_TTL_MS = TimeUnit.HOURS.toMillis(1);
+	static final long REMOTE_IMAGE_TTL_MS = TimeUnit.HOURS.toMillis(24);
+	// Album groups read for a discography, leaving out compilations and appearances on other artists' albums
+	private static final String DISCOGRAPHY_ALBUM_GROUPS = "album,single";
+	// Number of artist and market pairs whose top tracks are kept, and how long each pair is kept
+	private static final int TOP_TRACKS_CACHE_SIZE = 1024;
+	static final long TOP_TRACKS_TTL_MS = TimeUnit.HOURS.toMillis(1);
+
+	private static final Logger logger = LogManager.getLogger(SpotifyRestRequester.class);
+
+	// Market the top tracks are requested for unless a search gives another one, set by a system property
+	public static final CountryCode DEFAULT_MARKET = marketOf(System.getProperty("spotify.market"), CountryCode.SE);
+
+	// Runs the fan-out requests and their hedges concurrently, carrying
+	// The correlation ID of the search over to the request threads
+	private static final Executor requestExecutor = SpotifyLog.propagating(Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "spotify-request");
+		thread.setDaemon(true);
+		return thread;
+	}));
+
+	// One circuit breaker and one hedger for each endpoint
+	private final Map<String, SpotifyCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+	private final Map<String, SpotifyRequestHedger> hedgers = new ConcurrentHashMap<>();
+	private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+	// Adapts how many API requests are in flight at once to how fast Spotify answers
+	private final SpotifyConcurrencyLimiter concurrencyLimiter = new SpotifyConcurrencyLimiter(
+			INITIAL_CONCURRENCY, MIN_CONCURRENCY, MAX_CONCURRENCY);
+	// Hands the slots of the limit to interactive requests ahead of background ones
+	private final SpotifyRequestScheduler requestScheduler = new SpotifyRequestScheduler(concurrencyLimiter);
+	// Whether responses are read with the streaming JSON parser instead of the library's model objects
+	private volatile boolean streamingJson;
+
+	// Recent top tracks, keyed by artist and market, each pair expiring on its own
+	private final SpotifyResultCache<SpotifyMarketTopTracks.MarketTracks> topTracksCache = new SpotifyResultCache<>(
+			TOP_TRACKS_CACHE_SIZE, TOP_TRACKS_TTL_MS, TOP_TRACKS_TTL_MS, SpotifyMarketTopTracks.MarketTracks::getFetchedAtMs);
+	// Recent complete results, keyed by the search query
+	private final SpotifyResultCache<SpotifyArtistData> artistCache = new SpotifyResultCache<>(RESULT_CACHE_SIZE,
+			RESULT_SOFT_TTL_MS, RESULT_HARD_TTL_MS, SpotifyArtistData::getFetchedAtMs);
+	private final SpotifyResultCache<SpotifyTrackData> trackCache = new SpotifyResultCache<>(RESULT_CACHE_SIZE,
+			RESULT_SOFT_TTL_MS, RESULT_HARD_TTL_MS, SpotifyTrackData::getFetchedAtMs);
+	// Whether a result was cached since the last snapshot was written
+	private final AtomicBoolean cacheChanged = new AtomicBoolean();
+	// Writes the caches to a snapshot file, null until snapshots are enabled
+	private volatile SpotifySnapshotStore snapshotStore;
+	private ScheduledExecutorService snapshotScheduler;
+	// Cache shared with other instances behind the in-memory caches, null if there is none
+	private volatile SpotifyRemoteCache remoteCache;
+	// Records the stages of a sample of the searches, set by system properties
+	private volatile SpotifyTracer tracer = SpotifyTracer.fromSystemProperties();
+
+	// Pooled HTTP transport shared by the API calls and the image downloads
+	private final SpotifyHttpTransport transport;
+	// Spreads the requests over the apps and keeps the token of each one
+	private final SpotifyCredentialPool credentialPool;
+	// SpotifyApi object built using the id and the credential pool in front of the shared transport
+	private final SpotifyApi spotifyApi;
+	// The authentication in progress or done, and when its token expires
+	private CompletableFuture<Void> authentication;
+	private volatile long tokenExpiresAtMs;
 
 	/**
-	 * SpotifyRestRequester constructor requests a
-	 * client credentials access token through the proper
-	 * client id and client secret in order to make API
-	 * requests for exactly one hour (which in that case
-	 * a new access token must be obtained).
+	 * SpotifyRestRequester constructor uses the default
+	 * shared transport to make its requests.
 	 */
 	public SpotifyRestRequester() {
-		try {
-			// Use Client Credentials method to obtaining an access token using the
-			// Valid client secret and client id
-			final ClientCredentialsRequest clientCredentialsRequest = spotifyApi.clientCredentials().build();
-			final ClientCredentials clientCredentials = clientCredentialsRequest.execute();
+		this(SpotifyHttpTransport.getDefault());
+	}
 
-			String accessToken = clientCredentials.getAccessToken();
-			
-			// Set access token for further "spotifyApi" object usage
-			spotifyApi.setAccessToken(accessToken);
-		} catch (IOException | SpotifyWebApiException | ParseException e) { // Catches necessary exceptions
-			System.out.println("Error: " + e.getMessage());
+	/**
+	 * SpotifyRestRequester constructor makes its requests through
+	 * a shared transport without saving the access token.
+	 * @param transport is the pooled transport that all API
+	 * requests and image downloads go through
+	 */
+	public SpotifyRestRequester(SpotifyHttpTransport transport) {
+		this(transport, (SpotifyTokenStore) null);
+	}
+
+	/**
+	 * SpotifyRestRequester constructor starts requesting a
+	 * client credentials access token in the background through
+	 * the proper client id and client secret in order to make API
+	 * requests for exactly one hour (which in that case a new
+	 * access token must be obtained). It returns right away. The
+	 * apps are read from the environment by
+	 * SpotifyCredentialPool.fromEnvironment().
+	 * @param transport is the pooled transport that all API
+	 * requests and image downloads go through
+	 * @param tokenStore saves the token so that a restart within
+	 * the hour can skip requesting it, may be null
+	 */
+	public SpotifyRestRequester(SpotifyHttpTransport transport, SpotifyTokenStore tokenStore) {
+		this(transport, SpotifyCredentialPool.fromEnvironment(transport, tokenStore));
+	}
+
+	/**
+	 * SpotifyRestRequester constructor starts requesting the access
+	 * tokens of the apps of a credential pool in the background, and
+	 * spreads its requests over them. It returns right away.
+	 * @param transport is the pooled transport that all API
+	 * requests and image downloads go through
+	 * @param credentialPool holds the apps the requests are sent through
+	 */
+	public SpotifyRestRequester(SpotifyHttpTransport transport, SpotifyCredentialPool credentialPool) {
+		this.transport = transport;
+		this.credentialPool = credentialPool;
+		// Initial build of the SpotifyApi object, whose requests are sent through the pool
+		spotifyApi = new SpotifyApi.Builder()
+				.setClientId(credentialPool.getClientId())
+				.setHttpManager(credentialPool)
+				.build();
+		// Started directly rather than through authenticateAsync(), which a subclass could override
+		authentication = CompletableFuture.runAsync(this::authenticate, requestExecutor);
+	}
+
+	/**
+	 * authenticateAsync() starts getting an access token in the
+	 * background, unless one is already being requested or the
+	 * current one is still valid.
+	 * @return a future that completes once the requester has a token,
+	 * or has given up on getting one
+	 */
+	public synchronized CompletableFuture<Void> authenticateAsync() {
+		if (authentication == null || (authentication.isDone() && !isTokenValid()))
+			authentication = CompletableFuture.runAsync(this::authenticate, requestExecutor);
+		return authentication;
+	}
+
+	/**
+	 * isTokenValid() checks whether the current access token can
+	 * still be used for a while.
+	 * @return true if there is a token that isn't about to expire
+	 */
+	public boolean isTokenValid() {
+		return tokenExpiresAtMs - System.currentTimeMillis() > SpotifyTokenStore.EXPIRY_MARGIN_MS;
+	}
+
+	/**
+	 * awaitAuthentication() waits for the access token before a
+	 * search is made, which only blocks while it is being requested.
+	 */
+	@SuppressWarnings("try")
+	private void awaitAuthentication() {
+		final long start = System.nanoTime();
+		try (SpotifyTracer.Span span = tracer.span("token")) {
+			authenticateAsync().join();
 		}
+		if (logger.isDebugEnabled())
+			logger.debug(SpotifyLog.event("token-wait").with("latencyMs", SpotifyLog.elapsedMs(start)));
+	}
+
+	/**
+	 * invalidateToken() makes the next search check the tokens again,
+	 * after the credential pool dropped the ones that were rejected.
+	 */
+	private void invalidateToken() {
+		tokenExpiresAtMs = 0;
+	}
+
+	/**
+	 * authenticate() makes sure every app of the credential pool has
+	 * a token, using the saved tokens that are still valid and
+	 * requesting new ones otherwise. The SpotifyApi object is given
+	 * one of them, since it needs a token to build requests, and the
+	 * pool puts the token of the app it picks in their place.
+	 */
+	private void authenticate() {
+		final String accessToken = credentialPool.authenticate();
+		if (accessToken != null)
+			spotifyApi.setAccessToken(accessToken);
+		tokenExpiresAtMs = credentialPool.getTokenExpiresAtMs();
 	}
 
 	/**
 	 * searchArtist() uses the input to request up to five artists'
 	 * information such as name, genre, or number of followers. It
 	 * also uses the artists' unique IDs to get the artists that are 
-	 * related to them as well as their top tracks.
+	 * related to them as well as their top tracks. It waits for
+	 * every request to finish before returning.
 	 * @param name is the name of the artist that will be put into
 	 * the search request.
 	 * @return a SpotifyArtistData object which contains all relevant
 	 * data from the search result to be used by the GUI.
 	 */
 	public SpotifyArtistData searchArtist(String name) {
-		try {
-			final String type = ModelObjectType.ARTIST.getType();
-			// Search using name and type with a limit of five results
-			final SearchItemRequest searchArtistsRequest = spotifyApi.searchItem(name, type).limit(5).build();
+		return searchArtist(name, 0, null);
+	}
 
-			final SearchResult searchResult = searchArtistsRequest.execute();
-			
-			// Obtains the IDs of each artist from the initial result
-			String[] searchIDs = new String[searchResult.getArtists().getItems().length];
-			for (int i = 0; i < searchIDs.length; i++) {
-				searchIDs[i] = searchResult.getArtists().getItems()[i].getId();
+	/**
+	 * searchArtist() uses the input to request up to five artists'
+	 * information within a latency budget. The related artists,
+	 * top tracks and images are requested concurrently once the
+	 * search returns, and any of them that haven't arrived when
+	 * the budget runs out are left pending. They are filled in
+	 * later, and the listener is told as each one arrives. A search
+	 * that was made before and completed is answered from the cache,
+	 * and once that answer is stale a new copy is fetched behind it.
+	 * @param name is the name of the artist that will be put into
+	 * the search request.
+	 * @param budgetMs is the overall latency budget in milliseconds,
+	 * 0 to wait for every request, or NAMES_ONLY_BUDGET_MS to return
+	 * with the names alone
+	 * @param listener is told when a pending field arrives, may be null
+	 * @return a SpotifyArtistData object which contains the data
+	 * that arrived within the budget, or null if the search failed.
+	 */
+	public SpotifyArtistData searchArtist(String name, long budgetMs, SpotifyDataListener listener) {
+		return searchArtist(name, budgetMs, listener, DEFAULT_MARKET);
+	}
+
+	/**
+	 * searchArtist() uses the input to request up to five artists'
+	 * information within a latency budget, as the method above does,
+	 * with the top tracks of the artists in the given market. Each
+	 * market is cached on its own.
+	 * @param name is the name of the artist that will be put into
+	 * the search request.
+	 * @param budgetMs is the overall latency budget in milliseconds,
+	 * 0 to wait for every request, or NAMES_ONLY_BUDGET_MS to return
+	 * with the names alone
+	 * @param listener is told when a pending field arrives, may be null
+	 * @param market is the market the top tracks are requested for
+	 * @return a SpotifyArtistData object which contains the data
+	 * that arrived within the budget, or null if the search failed.
+	 */
+	@SuppressWarnings("try")
+	public SpotifyArtistData searchArtist(String name, long budgetMs, SpotifyDataListener listener, CountryCode market) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				SpotifyTracer.Span span = tracer.begin("search artist", name)) {
+			final long start = System.nanoTime();
+			final String key = artistKeyOf(name, market);
+			SpotifyArtistData cached = artistCache.get(key);
+			String cache = "hit";
+			if (cached == null) {
+				cached = getRemoteArtists(key);
+				cache = (cached != null) ? "remote" : "miss";
+			}
+			// A stale result is answered right away while a new copy is fetched behind it
+			if (cached != null && artistCache.claimRefresh(key)) {
+				refreshArtists(name, market, key, cached);
+				cache = "stale";
 			}
+			final SpotifyArtistData artistData = (cached != null) ? cached : searchArtistUncached(name, market, budgetMs, listener, start);
+			logSearch("artist", name, start, cache, artistData != null, (artistData != null) ? artistData.getArtistIds().size() : 0);
+			span.arg("cache", cache);
+			return artistData;
+		}
+	}
+
+	/**
+	 * searchArtistUncached() makes the artist search of the public
+	 * method when its result isn't in the cache.
+	 */
+	private SpotifyArtistData searchArtistUncached(String name, CountryCode market, long budgetMs, SpotifyDataListener listener, long start) {
+		final String key = artistKeyOf(name, market);
+		try {
+			// The names, genres, followers and popularity come with the search result
+			final SpotifyArtistData artistData = fetchArtistPage(name, 0, SEARCH_LIMIT);
+			artistData.setMarket(market);
 			
 			// Uses the IDs of the artists to make additional API requests that retrieves
-			// Data about the related artists and top tracks of each artist
-			ArrayList<ArrayList<Artist>> relatedArtists = new ArrayList<>();
-			ArrayList<ArrayList<Track>> topTracks = new ArrayList<>();
-			final CountryCode countryCode = CountryCode.SE;
-			for (String id : searchIDs) {
-				final GetArtistsRelatedArtistsRequest artistRelatedArtists = spotifyApi.getArtistsRelatedArtists(id).build();
-				final GetArtistsTopTracksRequest artistsTopTracks = spotifyApi.getArtistsTopTracks(id, countryCode).build();
-				final Artist[] artists = artistRelatedArtists.execute();
-				final Track[] tracks = artistsTopTracks.execute();
-				relatedArtists.add(new ArrayList<>(Arrays.asList(artists)));
-				topTracks.add(new ArrayList<>(Arrays.asList(tracks)));
-			}
-
-			// Creates the SpotifyArtistData object using the search results before returning it
-			return new SpotifyArtistData(searchResult, relatedArtists, topTracks);
+			// Data about the related artists and top tracks of each artist, as well as their images
+			List<CompletableFuture<?>> pendingRequests = new ArrayList<>();
+			final AtomicBoolean failed = new AtomicBoolean();
+			if (listener != null)
+				artistData.addListener(listener);
+			for (int i = 0; i < artistData.getArtistIds().size(); i++) {
+				artistData.requestDetails(i);
+				requestArtistDetails(artistData, i, failed, pendingRequests);
+			}
+
+			removeWhenDone(pendingRequests, listener, artistData::removeListener);
+			// Only results whose requests all succeeded are kept for later searches
+			cacheWhenDone(pendingRequests, failed, () -> cacheArtists(key, artistData));
+			awaitBudget(pendingRequests, start, budgetMs);
+			return artistData;
 		} catch (IOException | SpotifyWebApiException | ParseException e) { // Catches necessary exceptions
-			System.out.println("Error: " + e.getMessage());
+			logger.warn(SpotifyLog.event("search").with("type", "artist").with("status", e.getClass().getSimpleName())
+					.with("error", e.getMessage()));
 			return null;
 		}
 	}
 
+	/**
+	 * searchArtistPage() requests one page of the artists matching
+	 * the input. Only the values that come with the search result
+	 * are set; the related artists, top tracks and images are left
+	 * pending until loadArtistDetails() is called for an artist.
+	 * @param name is the name of the artist that will be put into
+	 * the search request.
+	 * @param offset is the index of the first artist of the page
+	 * @param limit is the number of artists in the page, at most 50
+	 * @return a SpotifyArtistData object holding the page, or null
+	 * if the search failed.
+	 */
+	@SuppressWarnings("try")
+	public SpotifyArtistData searchArtistPage(String name, int offset, int limit) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate()) {
+			return fetchArtistPage(name, offset, limit);
+		} catch (IOException | SpotifyWebApiException | ParseException e) { // Catches necessary exceptions
+			logger.warn(SpotifyLog.event("search-page").with("type", "artist").with("offset", offset)
+					.with("status", e.getClass().getSimpleName()).with("error", e.getMessage()));
+			return null;
+		}
+	}
+
+	/**
+	 * loadArtistDetails() requests the related artists, top track
+	 * and image of one artist in the background, unless they have
+	 * already been requested or set, and decodes an image that
+	 * arrived but isn't decoded. The listeners of the artist data
+	 * are told as each one arrives.
+	 * @param artistData holds the artist
+	 * @param index is the index of the artist
+	 */
+	@SuppressWarnings("try")
+	public void loadArtistDetails(SpotifyArtistData artistData, int index) {
+		if ((artistData.isRelatedArtistsPending(index) || artistData.isTopTrackPending(index)
+				|| artistData.isImagePending(index)) && artistData.requestDetails(index)) {
+			try (CloseableThreadContext.Instance context = SpotifyLog.correlate()) {
+				requestArtistDetails(artistData, index, new AtomicBoolean(), new ArrayList<>());
+			}
+		}
+		// An image taken from another result, or evicted since it was shown, is decoded off the calling thread
+		if (!artistData.isImagePending(index) && !artistData.isArtistImageDecoded(index))
+			CompletableFuture.runAsync(() -> artistData.decodeArtistImage(index), requestExecutor);
+	}
+
+	/**
+	 * fetchArtistPage() makes an artist search and reads its result.
+	 */
+	private SpotifyArtistData fetchArtistPage(String name, int offset, int limit) throws IOException, SpotifyWebApiException, ParseException {
+		awaitAuthentication();
+		final String type = ModelObjectType.ARTIST.getType();
+		// Search using name and type, starting at the offset
+		final SearchItemRequest searchArtistsRequest = spotifyApi.searchItem(name, type).offset(offset).limit(limit).build();
+		if (streamingJson) {
+			final String json = callEndpoint(SEARCH_ENDPOINT, searchArtistsRequest::getJson);
+			return SpotifyJsonStreamParser.readArtistSearch(new StringReader(json), limit);
+		}
+		final SearchResult searchResult = callEndpoint(SEARCH_ENDPOINT, searchArtistsRequest::execute);
+		final SpotifyArtistData artistData = new SpotifyArtistData(searchResult.getArtists().getItems());
+		artistData.setTotal(searchResult.getArtists().getTotal());
+		return artistData;
+	}
+
+	/**
+	 * requestArtistDetails() starts the related artists, top tracks
+	 * and image requests of one artist, leaving out the ones another
+	 * result holding the same artist already has. The top tracks are
+	 * requested for the market of the result, and taken from the top
+	 * tracks cache if that artist and market were requested recently.
+	 * @param artistData holds the artist
+	 * @param index is the index of the artist
+	 * @param failed is set if one of the requests fails
+	 * @param pendingRequests is where the started requests are added
+	 */
+	private void requestArtistDetails(SpotifyArtistData artistData, int index, AtomicBoolean failed, List<CompletableFuture<?>> pendingRequests) {
+		// Details another result already has for the same artist aren't requested again
+		artistData.takeKnownDetails(index);
+		final CountryCode market = artistData.getMarket();
+		final String id = artistData.getArtistIds().get(index);
+		final SpotifyMarketTopTracks.MarketTracks cachedTopTracks = topTracksCache.get(topTracksKeyOf(id, market));
+		if (cachedTopTracks != null && artistData.isTopTrackPending(index))
+			artistData.setArtistTopTrack(index, cachedTopTracks.getTrackNames().isEmpty() ? null : cachedTopTracks.getTrackNames().get(0));
+		final GetArtistsRelatedArtistsRequest artistRelatedArtists = spotifyApi.getArtistsRelatedArtists(id).build();
+		final GetArtistsTopTracksRequest artistsTopTracks = spotifyApi.getArtistsTopTracks(id, market).build();
+		final boolean relatedPending = artistData.isRelatedArtistsPending(index);
+		final boolean topTrackPending = artistData.isTopTrackPending(index);
+		// A failed request sets an empty value so that only that field is missing
+		if (streamingJson) {
+			if (relatedPending)
+				pendingRequests.add(fanOut(RELATED_ARTISTS_ENDPOINT, failed,
+						() -> SpotifyJsonStreamParser.readRelatedArtistNames(new StringReader(artistRelatedArtists.getJson())))
+						.thenAccept(names -> artistData.setArtistRelatedArtistNames(index, (names != null) ? names : new ArrayList<>())));
+			if (topTrackPending)
+				pendingRequests.add(fanOut(TOP_TRACKS_ENDPOINT, failed,
+						() -> SpotifyJsonStreamParser.readTopTrackNames(new StringReader(artistsTopTracks.getJson())))
+						.thenAccept(names -> {
+							cacheTopTrackNames(id, market, names);
+							artistData.setArtistTopTrack(index, (names != null && !names.isEmpty()) ? names.get(0) : null);
+						}));
+		} else {
+			if (relatedPending)
+				pendingRequests.add(fanOut(RELATED_ARTISTS_ENDPOINT, failed, artistRelatedArtists::execute)
+						.thenAccept(related -> artistData.setArtistRelatedArtists(index, related)));
+			if (topTrackPending)
+				pendingRequests.add(fanOut(TOP_TRACKS_ENDPOINT, failed, artistsTopTracks::execute)
+						.thenAccept(tracks -> {
+							cacheTopTracks(id, market, tracks);
+							artistData.setArtistTopTracks(index, tracks);
+						}));
+		}
+		if (artistData.isImagePending(index))
+			pendingRequests.add(CompletableFuture.runAsync(() -> artistData.loadArtistImage(index, this::downloadImage), requestExecutor));
+	}
+
 	/**
 	 * searchSong() uses the input to request up to five tracks'
-	 * information such as name, album, or artists involved.
+	 * information such as name, album, or artists involved. It
+	 * waits for every album image to download before returning.
 	 * @param name is the name of the song that will be put into
 	 * the search request.
 	 * @return a SpotifyTrackData object which contains all relevant
 	 * data from the search result to be used by the GUI.
 	 */
 	public SpotifyTrackData searchSong(String name) {
+		return searchSong(name, 0, null);
+	}
+
+	/**
+	 * searchSong() uses the input to request up to five tracks'
+	 * information within a latency budget. Album images that
+	 * haven't downloaded when the budget runs out are left pending
+	 * and the listener is told as each one arrives. A search that
+	 * was made before and completed is answered from the cache,
+	 * and once that answer is stale a new copy is fetched behind it.
+	 * @param name is the name of the song that will be put into
+	 * the search request.
+	 * @param budgetMs is the overall latency budget in milliseconds,
+	 * 0 to wait for every image, or NAMES_ONLY_BUDGET_MS to return
+	 * with the names alone
+	 * @param listener is told when a pending image arrives, may be null
+	 * @return a SpotifyTrackData object which contains the data
+	 * that arrived within the budget, or null if the search failed.
+	 */
+	@SuppressWarnings("try")
+	public SpotifyTrackData searchSong(String name, long budgetMs, SpotifyDataListener listener) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				SpotifyTracer.Span span = tracer.begin("search song", name)) {
+			final long start = System.nanoTime();
+			final String key = SpotifyResultCache.keyOf(name);
+			SpotifyTrackData cached = trackCache.get(key);
+			String cache = "hit";
+			if (cached == null) {
+				cached = getRemoteTracks(key);
+				cache = (cached != null) ? "remote" : "miss";
+			}
+			if (cached != null && trackCache.claimRefresh(key)) {
+				refreshTracks(name, key, cached);
+				cache = "stale";
+			}
+			final SpotifyTrackData trackData = (cached != null) ? cached : searchSongUncached(name, budgetMs, listener, start);
+			logSearch("track", name, start, cache, trackData != null, (trackData != null) ? trackData.getTrackIds().size() : 0);
+			span.arg("cache", cache);
+			return trackData;
+		}
+	}
+
+	/**
+	 * searchSongUncached() makes the track search of the public
+	 * method when its result isn't in the cache.
+	 */
+	private SpotifyTrackData searchSongUncached(String name, long budgetMs, SpotifyDataListener listener, long start) {
+		final String key = SpotifyResultCache.keyOf(name);
 		try {
-			final String type = ModelObjectType.TRACK.getType();
-			// Search using name and type with a limit of five results
-			final SearchItemRequest searchArtistsRequest = spotifyApi.searchItem(name, type).limit(5).build();
+			// Creates the SpotifyTrackData object using the search result and downloads the album images
+			final SpotifyTrackData trackData = fetchTrackPage(name, 0, SEARCH_LIMIT);
+			List<CompletableFuture<?>> pendingRequests = new ArrayList<>();
+			if (listener != null)
+				trackData.addListener(listener);
+			for (int i = 0; i < trackData.getTrackNames().size(); i++) {
+				trackData.requestDetails(i);
+				requestTrackDetails(trackData, i, pendingRequests);
+			}
 
-			final SearchResult searchResult = searchArtistsRequest.execute();
+			removeWhenDone(pendingRequests, listener, trackData::removeListener);
+			cacheWhenDone(pendingRequests, new AtomicBoolean(), () -> cacheTracks(key, trackData));
+			awaitBudget(pendingRequests, start, budgetMs);
+			return trackData;
+		} catch (IOException | SpotifyWebApiException | ParseException e) { // Catches necessary exceptions
+			logger.warn(SpotifyLog.event("search").with("type", "track").with("status", e.getClass().getSimpleName())
+					.with("error", e.getMessage()));
+			return null;
+		}
+	}
 
-			// Creates the SpotifyTrackData object using the search result before returning it
-			return new SpotifyTrackData(searchResult);
+	/**
+	 * searchSongPage() requests one page of the tracks matching the
+	 * input. The album images are left pending until
+	 * loadTrackDetails() is called for a track.
+	 * @param name is the name of the song that will be put into
+	 * the search request.
+	 * @param offset is the index of the first track of the page
+	 * @param limit is the number of tracks in the page, at most 50
+	 * @return a SpotifyTrackData object holding the page, or null
+	 * if the search failed.
+	 */
+	@SuppressWarnings("try")
+	public SpotifyTrackData searchSongPage(String name, int offset, int limit) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate()) {
+			return fetchTrackPage(name, offset, limit);
 		} catch (IOException | SpotifyWebApiException | ParseException e) { // Catches necessary exceptions
-			System.out.println("Error: " + e.getMessage());
+			logger.warn(SpotifyLog.event("search-page").with("type", "track").with("offset", offset)
+					.with("status", e.getClass().getSimpleName()).with("error", e.getMessage()));
 			return null;
 		}
 	}
 
+	/**
+	 * loadTrackDetails() downloads the album image of one track in
+	 * the background, unless it has already been requested or set,
+	 * and decodes one that arrived but isn't decoded. The listeners
+	 * of the track data are told once it can be shown.
+	 * @param trackData holds the track
+	 * @param index is the index of the track
+	 */
+	@SuppressWarnings("try")
+	public void loadTrackDetails(SpotifyTrackData trackData, int index) {
+		if (trackData.isAlbumImagePending(index) && trackData.requestDetails(index)) {
+			try (CloseableThreadContext.Instance context = SpotifyLog.correlate()) {
+				requestTrackDetails(trackData, index, new ArrayList<>());
+			}
+		}
+		// An image taken from another result, or evicted since it was shown, is decoded off the calling thread
+		if (!trackData.isAlbumImagePending(index) && !trackData.isAlbumImageDecoded(index))
+			CompletableFuture.runAsync(() -> trackData.decodeTrackAlbumImage(index), requestExecutor);
+	}
+
+	/**
+	 * fetchTrackPage() makes a track search and reads its result.
+	 */
+	private SpotifyTrackData fetchTrackPage(String name, int offset, int limit) throws IOException, SpotifyWebApiException, ParseException {
+		awaitAuthentication();
+		final String type = ModelObjectType.TRACK.getType();
+		// Search using name and type, starting at the offset
+		final SearchItemRequest searchTracksRequest = spotifyApi.searchItem(name, type).offset(offset).limit(limit).build();
+		if (streamingJson) {
+			final String json = callEndpoint(SEARCH_ENDPOINT, searchTracksRequest::getJson);
+			return SpotifyJsonStreamParser.readTrackSearch(new StringReader(json), limit);
+		}
+		final SearchResult searchResult = callEndpoint(SEARCH_ENDPOINT, searchTracksRequest::execute);
+		final SpotifyTrackData trackData = new SpotifyTrackData(searchResult.getTracks().getItems());
+		trackData.setTotal(searchResult.getTracks().getTotal());
+		return trackData;
+	}
+
+	/**
+	 * requestTrackDetails() starts the album image download of one
+	 * track, unless another result already holds the image.
+	 * @param trackData holds the track
+	 * @param index is the index of the track
+	 * @param pendingRequests is where the started request is added
+	 */
+	private void requestTrackDetails(SpotifyTrackData trackData, int index, List<CompletableFuture<?>> pendingRequests) {
+		// An album image another result already holds isn't downloaded again
+		trackData.takeKnownDetails(index);
+		if (trackData.isAlbumImagePending(index))
+			pendingRequests.add(CompletableFuture.runAsync(() -> trackData.loadTrackAlbumImage(index, this::downloadImage), requestExecutor));
+	}
+
+	/**
+	 * searchAll() requests the artists and tracks matching the
+	 * input, and optionally the albums, in a single search request
+	 * instead of one request per type. The details of the artists
+	 * and tracks are then requested as searchArtist() and
+	 * searchSong() would, within the same latency budget, and each
+	 * type is cached as if it had been searched for on its own. A
+	 * type that is already in the cache is taken from there.
+	 * @param name is the text that will be put into the search request
+	 * @param includeAlbums is true to also request the albums
+	 * @param budgetMs is the overall latency budget in milliseconds,
+	 * 0 to wait for every request, or NAMES_ONLY_BUDGET_MS to return
+	 * with the names alone
+	 * @param artistListener is told when a pending field of an artist arrives, may be null
+	 * @param trackListener is told when a pending field of a track arrives, may be null
+	 * @return a SpotifySearchResults object holding the results of
+	 * each type, or null if the search failed.
+	 */
+	@SuppressWarnings("try")
+	public SpotifySearchResults searchAll(String name, boolean includeAlbums, long budgetMs,
+			SpotifyDataListener artistListener, SpotifyDataListener trackListener) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				SpotifyTracer.Span span = tracer.begin("search all", name)) {
+			final long start = System.nanoTime();
+			final String key = SpotifyResultCache.keyOf(name);
+			final String artistKey = artistKeyOf(name, DEFAULT_MARKET);
+			SpotifyArtistData cachedArtists = artistCache.get(artistKey);
+			SpotifyTrackData cachedTracks = trackCache.get(key);
+			String cache = "hit";
+			if (cachedArtists == null) {
+				cachedArtists = getRemoteArtists(artistKey);
+				cache = "remote";
+			}
+			if (cachedTracks == null) {
+				cachedTracks = getRemoteTracks(key);
+				cache = "remote";
+			}
+			if (cachedArtists != null && artistCache.claimRefresh(artistKey)) {
+				refreshArtists(name, DEFAULT_MARKET, artistKey, cachedArtists);
+				cache = "stale";
+			}
+			if (cachedTracks != null && trackCache.claimRefresh(key)) {
+				refreshTracks(name, key, cachedTracks);
+				cache = "stale";
+			}
+			final boolean hit = cachedArtists != null && cachedTracks != null && !includeAlbums;
+			final SpotifySearchResults results = hit
+					? new SpotifySearchResults(cachedArtists, cachedTracks, new ArrayList<>(), 0)
+					: searchAllUncached(name, includeAlbums, budgetMs, artistListener, trackListener, start, cachedArtists, cachedTracks);
+			logSearch("artist,track", name, start, hit ? cache : "miss", results != null, (results != null)
+					? results.getArtistData().getArtistIds().size() + results.getTrackData().getTrackIds().size() : 0);
+			return results;
+		}
+	}
+
+	/**
+	 * searchAllUncached() makes the combined search of the public
+	 * method when its results aren't all in the cache.
+	 */
+	private SpotifySearchResults searchAllUncached(String name, boolean includeAlbums, long budgetMs,
+			SpotifyDataListener artistListener, SpotifyDataListener trackListener, long start,
+			SpotifyArtistData cachedArtists, SpotifyTrackData cachedTracks) {
+		final String key = SpotifyResultCache.keyOf(name);
+		try {
+			final SpotifySearchResults fetched = fetchCombinedPage(name, 0, SEARCH_LIMIT, includeAlbums);
+			List<CompletableFuture<?>> pendingRequests = new ArrayList<>();
+			// Types already in the cache keep their complete details instead of requesting them again,
+			// And as nothing of theirs is pending, the listeners aren't added to the copy the cache shares
+			final SpotifyArtistData artistData = (cachedArtists != null) ? cachedArtists : fetched.getArtistData();
+			if (cachedArtists == null) {
+				final AtomicBoolean failed = new AtomicBoolean();
+				if (artistListener != null)
+					artistData.addListener(artistListener);
+				List<CompletableFuture<?>> artistRequests = requestAllArtistDetails(artistData, failed);
+				removeWhenDone(artistRequests, artistListener, artistData::removeListener);
+				cacheWhenDone(artistRequests, failed, () -> cacheArtists(artistKeyOf(name, DEFAULT_MARKET), artistData));
+				pendingRequests.addAll(artistRequests);
+			}
+			final SpotifyTrackData trackData = (cachedTracks != null) ? cachedTracks : fetched.getTrackData();
+			if (cachedTracks == null) {
+				if (trackListener != null)
+					trackData.addListener(trackListener);
+				List<CompletableFuture<?>> trackRequests = requestAllTrackDetails(trackData);
+				removeWhenDone(trackRequests, trackListener, trackData::removeListener);
+				cacheWhenDone(trackRequests, new AtomicBoolean(), () -> cacheTracks(key, trackData));
+				pendingRequests.addAll(trackRequests);
+			}
+			awaitBudget(pendingRequests, start, budgetMs);
+			return new SpotifySearchResults(artistData, trackData, fetched.getAlbumNames(), fetched.getAlbumTotal());
+		} catch (IOException | SpotifyWebApiException | ParseException e) { // Catches necessary exceptions
+			logger.warn(SpotifyLog.event("search").with("type", "artist,track").with("status", e.getClass().getSimpleName())
+					.with("error", e.getMessage()));
+			return null;
+		}
+	}
+
+	/**
+	 * fetchCombinedPage() makes a search for artists, tracks and
+	 * optionally albums in one request and reads its result.
+	 */
+	private SpotifySearchResults fetchCombinedPage(String name, int offset, int limit, boolean includeAlbums)
+			throws IOException, SpotifyWebApiException, ParseException {
+		awaitAuthentication();
+		String type = ModelObjectType.ARTIST.getType() + "," + ModelObjectType.TRACK.getType();
+		if (includeAlbums)
+			type += "," + ModelObjectType.ALBUM.getType();
+		// The limit and offset apply to each type on its own
+		final SearchItemRequest searchRequest = spotifyApi.searchItem(name, type).offset(offset).limit(limit).build();
+		if (streamingJson) {
+			final String json = callEndpoint(SEARCH_ENDPOINT, searchRequest::getJson);
+			return SpotifyJsonStreamParser.readCombinedSearch(new StringReader(json), limit);
+		}
+		final SearchResult searchResult = callEndpoint(SEARCH_ENDPOINT, searchRequest::execute);
+		final SpotifyArtistData artistData = new SpotifyArtistData(searchResult.getArtists().getItems());
+		artistData.setTotal(searchResult.getArtists().getTotal());
+		final SpotifyTrackData trackData = new SpotifyTrackData(searchResult.getTracks().getItems());
+		trackData.setTotal(searchResult.getTracks().getTotal());
+		final ArrayList<String> albumNames = new ArrayList<>();
+		int albumTotal = 0;
+		if (searchResult.getAlbums() != null) {
+			for (AlbumSimplified album : searchResult.getAlbums().getItems())
+				albumNames.add(album.getName());
+			albumTotal = searchResult.getAlbums().getTotal();
+		}
+		return new SpotifySearchResults(artistData, trackData, albumNames, albumTotal);
+	}
+
+	/**
+	 * searchMostPopular() requests the most popular artists and tracks
+	 * matching the input, rather than the most relevant ones the other
+	 * searches give. Every page of the search is requested, up to the
+	 * deepest one Spotify returns, with the pages after the first one
+	 * requested concurrently. Each page is offered to a heap of each
+	 * type as it arrives and then dropped, so only the most popular
+	 * results are kept however many pages there are. The details of
+	 * the results are left pending until loadArtistDetails() or
+	 * loadTrackDetails() is called for one, since requesting them for
+	 * every result would hold up the user's next search. The results
+	 * aren't cached, since they aren't those of a normal search.
+	 * @param name is the text that will be put into the search request
+	 * @param count is the number of results of each type to keep
+	 * @return a SpotifySearchResults object holding the results of
+	 * each type from the most to the least popular, or null if the
+	 * search failed.
+	 */
+	@SuppressWarnings("try")
+	public SpotifySearchResults searchMostPopular(String name, int count) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate()) {
+			final long start = System.nanoTime();
+			final SpotifyTopK<SpotifyArtistData> topArtists = new SpotifyTopK<>(count);
+			final SpotifyTopK<SpotifyTrackData> topTracks = new SpotifyTopK<>(count);
+			final SpotifySearchResults firstPage = searchCombinedPage(name, 0);
+			if (firstPage == null) {
+				logSearch("popular", name, start, "miss", false, 0);
+				return null;
+			}
+			offerArtists(topArtists, firstPage.getArtistData(), 0);
+			offerTracks(topTracks, firstPage.getTrackData(), 0);
+			final int depth = Math.min(Math.max(firstPage.getArtistData().getTotal(), firstPage.getTrackData().getTotal()),
+					MAX_SEARCH_RESULTS);
+			List<CompletableFuture<?>> pages = new ArrayList<>();
+			for (int offset = SEARCH_PAGE_LIMIT; offset < depth; offset += SEARCH_PAGE_LIMIT) {
+				final int pageOffset = offset;
+				// A page that failed leaves its results out
+				pages.add(CompletableFuture.supplyAsync(() -> searchCombinedPage(name, pageOffset), requestExecutor)
+						.thenAccept(page -> {
+							if (page != null) {
+								offerArtists(topArtists, page.getArtistData(), pageOffset);
+								offerTracks(topTracks, page.getTrackData(), pageOffset);
+							}
+						}));
+			}
+			CompletableFuture.allOf(pages.toArray(new CompletableFuture<?>[0])).join();
+			// Only the results that made it into the heaps are turned into result data
+			final SpotifyArtistData artistData = new SpotifyArtistData();
+			for (SpotifyArtistData artist : topArtists.drain())
+				artistData.addArtistFrom(artist, 0);
+			artistData.setTotal(artistData.getArtistIds().size());
+			final SpotifyTrackData trackData = new SpotifyTrackData();
+			for (SpotifyTrackData track : topTracks.drain())
+				trackData.addTrackFrom(track, 0);
+			trackData.setTotal(trackData.getTrackIds().size());
+			logger.info(SpotifyLog.event("search").with("type", "popular").with("query", name)
+					.with("cache", "miss").with("status", "ok").with("pages", pages.size() + 1)
+					.with("scanned", topArtists.getOffered() + topTracks.getOffered())
+					.with("results", artistData.getArtistIds().size() + trackData.getTrackIds().size())
+					.with("latencyMs", SpotifyLog.elapsedMs(start)));
+			return new SpotifySearchResults(artistData, trackData, new ArrayList<>(), 0);
+		}
+	}
+
+	/**
+	 * searchCombinedPage() requests one full page of the artists and
+	 * tracks matching the input for searchMostPopular().
+	 * @return the page, or null if the search failed
+	 */
+	private SpotifySearchResults searchCombinedPage(String name, int offset) {
+		try {
+			return fetchCombinedPage(name, offset, SEARCH_PAGE_LIMIT, false);
+		} catch (IOException | SpotifyWebApiException | ParseException e) { // Catches necessary exceptions
+			logger.warn(SpotifyLog.event("search-page").with("type", "artist,track").with("offset", offset)
+					.with("status", e.getClass().getSimpleName()).with("error", e.getMessage()));
+			return null;
+		}
+	}
+
+	/**
+	 * offerArtists() offers the artists of one page to the heap of the
+	 * most popular artists, copying only those it keeps.
+	 * @param topArtists is the heap
+	 * @param page holds the artists
+	 * @param offset is the position of the first artist of the page in the search
+	 */
+	private static void offerArtists(SpotifyTopK<SpotifyArtistData> topArtists, SpotifyArtistData page, int offset) {
+		synchronized (topArtists) {
+			for (int i = 0; i < page.getArtistIds().size(); i++) {
+				final int popularity = page.getArtistPopularityScores().get(i);
+				if (topArtists.accepts(popularity, offset + i)) {
+					final SpotifyArtistData artist = new SpotifyArtistData();
+					artist.addArtistFrom(page, i);
+					topArtists.offer(popularity, offset + i, artist);
+				}
+			}
+		}
+	}
+
+	/**
+	 * offerTracks() offers the tracks of one page to the heap of the
+	 * most popular tracks, copying only those it keeps.
+	 * @param topTracks is the heap
+	 * @param page holds the tracks
+	 * @param offset is the position of the first track of the page in the search
+	 */
+	private static void offerTracks(SpotifyTopK<SpotifyTrackData> topTracks, SpotifyTrackData page, int offset) {
+		synchronized (topTracks) {
+			for (int i = 0; i < page.getTrackIds().size(); i++) {
+				final int popularity = page.getTrackPopularityScores().get(i);
+				if (topTracks.accepts(popularity, offset + i)) {
+					final SpotifyTrackData track = new SpotifyTrackData();
+					track.addTrackFrom(page, i);
+					topTracks.offer(popularity, offset + i, track);
+				}
+			}
+		}
+	}
+
+	/**
+	 * requestAllArtistDetails() starts the related artists, top tracks
+	 * and image requests of every artist of a result.
+	 * @param artistData holds the artists
+	 * @param failed is set if one of the requests fails
+	 * @return the started requests
+	 */
+	private List<CompletableFuture<?>> requestAllArtistDetails(SpotifyArtistData artistData, AtomicBoolean failed) {
+		List<CompletableFuture<?>> requests = new ArrayList<>();
+		for (int i = 0; i < artistData.getArtistIds().size(); i++) {
+			artistData.requestDetails(i);
+			requestArtistDetails(artistData, i, failed, requests);
+		}
+		return requests;
+	}
+
+	/**
+	 * requestAllTrackDetails() starts the album image downloads of
+	 * every track of a result.
+	 * @param trackData holds the tracks
+	 * @return the started requests
+	 */
+	private List<CompletableFuture<?>> requestAllTrackDetails(SpotifyTrackData trackData) {
+		List<CompletableFuture<?>> requests = new ArrayList<>();
+		for (int i = 0; i < trackData.getTrackIds().size(); i++) {
+			trackData.requestDetails(i);
+			requestTrackDetails(trackData, i, requests);
+		}
+		return requests;
+	}
+
+	/**
+	 * lookUpArtists() requests the artists with the given Spotify IDs,
+	 * fifty at a time, with the batches requested concurrently as
+	 * background work. Only the values that come with the artists are
+	 * set; their details are left pending.
+	 * @param artistIds are the IDs of the artists
+	 * @return a SpotifyArtistData object holding the artists that were
+	 * found, leaving out those of a batch that failed
+	 */
+	@SuppressWarnings("try")
+	public SpotifyArtistData lookUpArtists(List<String> artistIds) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				CloseableThreadContext.Instance priority = SpotifyRequestScheduler.prioritize(SpotifyRequestScheduler.Priority.BATCH)) {
+			final long start = System.nanoTime();
+			awaitAuthentication();
+			List<CompletableFuture<Artist[]>> batches = new ArrayList<>();
+			final AtomicBoolean failed = new AtomicBoolean();
+			for (int from = 0; from < artistIds.size(); from += ARTISTS_BATCH_SIZE) {
+				final String[] batch = artistIds.subList(from, Math.min(from + ARTISTS_BATCH_SIZE, artistIds.size())).toArray(new String[0]);
+				final GetSeveralArtistsRequest severalArtists = spotifyApi.getSeveralArtists(batch).build();
+				batches.add(fanOut(ARTISTS_ENDPOINT, failed, severalArtists::execute));
+			}
+			// An ID Spotify doesn't know comes back as null
+			final Artist[] artists = batches.stream().map(CompletableFuture::join).filter(Objects::nonNull)
+					.flatMap(Arrays::stream).filter(Objects::nonNull).toArray(Artist[]::new);
+			final SpotifyArtistData artistData = new SpotifyArtistData(artists);
+			artistData.setTotal(artists.length);
+			logger.info(SpotifyLog.event("lookup").with("type", "artist").with("requested", artistIds.size())
+					.with("results", artists.length).with("status", failed.get() ? "partial" : "ok")
+					.with("latencyMs", SpotifyLog.elapsedMs(start)));
+			return artistData;
+		}
+	}
+
+	/**
+	 * profileSongSearch() requests the tracks matching the input, up
+	 * to the maximum number of tracks, along with their audio
+	 * features. The pages after the first one are requested
+	 * concurrently, and the audio features in batches of a hundred.
+	 * @param name is the name of the song that will be put into
+	 * the search request.
+	 * @param maxTracks is the maximum number of tracks profiled, at most 1000
+	 * @return a SpotifyAudioProfile with one group labeled with the
+	 * input, or null if the search failed.
+	 */
+	@SuppressWarnings("try")
+	public SpotifyAudioProfile profileSongSearch(String name, int maxTracks) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				CloseableThreadContext.Instance priority = SpotifyRequestScheduler.prioritize(SpotifyRequestScheduler.Priority.BATCH)) {
+			return fetchSongSearchProfile(name, maxTracks);
+		}
+	}
+
+	/**
+	 * fetchSongSearchProfile() pages through a song search and
+	 * profiles its tracks for profileSongSearch().
+	 */
+	private SpotifyAudioProfile fetchSongSearchProfile(String name, int maxTracks) {
+		final int firstLimit = Math.min(Math.min(maxTracks, MAX_SEARCH_RESULTS), SEARCH_PAGE_LIMIT);
+		final SpotifyTrackData firstPage = searchSongPage(name, 0, firstLimit);
+		if (firstPage == null)
+			return null;
+		final int total = Math.min(Math.min(firstPage.getTotal(), maxTracks), MAX_SEARCH_RESULTS);
+		List<CompletableFuture<SpotifyTrackData>> pages = new ArrayList<>();
+		pages.add(CompletableFuture.completedFuture(firstPage));
+		for (int offset = firstLimit; offset < total; offset += SEARCH_PAGE_LIMIT) {
+			final int pageOffset = offset;
+			final int limit = Math.min(SEARCH_PAGE_LIMIT, total - offset);
+			pages.add(CompletableFuture.supplyAsync(() -> searchSongPage(name, pageOffset, limit), requestExecutor));
+		}
+		// A page that failed leaves its tracks out of the profile
+		final List<String> trackIds = pages.stream().map(CompletableFuture::join).filter(Objects::nonNull)
+				.flatMap(page -> page.getTrackIds().stream()).collect(Collectors.toList());
+		final Map<String, List<String>> trackIdsByLabel = new LinkedHashMap<>();
+		trackIdsByLabel.put(name, trackIds);
+		return fetchAudioProfile(trackIdsByLabel);
+	}
+
+	/**
+	 * profileTracks() requests the audio features of the tracks of a
+	 * search that was already made.
+	 * @param label is the label of the group of tracks
+	 * @param trackData holds the tracks
+	 * @return a SpotifyAudioProfile with one group
+	 */
+	@SuppressWarnings("try")
+	public SpotifyAudioProfile profileTracks(String label, SpotifyTrackData trackData) {
+		final Map<String, List<String>> trackIdsByLabel = new LinkedHashMap<>();
+		trackIdsByLabel.put(label, trackData.getTrackIds());
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				CloseableThreadContext.Instance priority = SpotifyRequestScheduler.prioritize(SpotifyRequestScheduler.Priority.BATCH)) {
+			return fetchAudioProfile(trackIdsByLabel);
+		}
+	}
+
+	/**
+	 * profileArtistTopTracks() requests the top tracks of each artist
+	 * of a search concurrently, then their audio features in batches
+	 * of a hundred, so that the artists can be compared.
+	 * @param artistData holds the artists
+	 * @return a SpotifyAudioProfile with one group per artist,
+	 * labeled with the artist's name, followed by the artist's ID
+	 * if another artist has the same name
+	 */
+	@SuppressWarnings("try")
+	public SpotifyAudioProfile profileArtistTopTracks(SpotifyArtistData artistData) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				CloseableThreadContext.Instance priority = SpotifyRequestScheduler.prioritize(SpotifyRequestScheduler.Priority.BATCH)) {
+			return fetchArtistTopTracksProfile(artistData);
+		}
+	}
+
+	/**
+	 * fetchArtistTopTracksProfile() requests the top tracks of each
+	 * artist and profiles them for profileArtistTopTracks().
+	 */
+	private SpotifyAudioProfile fetchArtistTopTracksProfile(SpotifyArtistData artistData) {
+		awaitAuthentication();
+		final AtomicBoolean failed = new AtomicBoolean();
+		List<CompletableFuture<Track[]>> topTracks = new ArrayList<>();
+		for (String id : artistData.getArtistIds()) {
+			final GetArtistsTopTracksRequest artistsTopTracks = spotifyApi.getArtistsTopTracks(id, artistData.getMarket()).build();
+			topTracks.add(fanOut(TOP_TRACKS_ENDPOINT, failed, artistsTopTracks::execute));
+		}
+		final Map<String, List<String>> trackIdsByLabel = new LinkedHashMap<>();
+		for (int i = 0; i < topTracks.size(); i++) {
+			final Track[] tracks = topTracks.get(i).join();
+			List<String> trackIds = new ArrayList<>();
+			if (tracks != null) {
+				for (Track track : tracks)
+					trackIds.add(track.getId());
+			}
+			// Artists sharing a name are told apart by their ID, rather than one replacing the other
+			String label = artistData.getArtistNames().get(i);
+			if (trackIdsByLabel.containsKey(label))
+				label += " (" + artistData.getArtistIds().get(i) + ")";
+			trackIdsByLabel.put(label, trackIds);
+		}
+		return fetchAudioProfile(trackIdsByLabel);
+	}
+
+	/**
+	 * fetchAudioProfile() requests the audio features of every track
+	 * of the groups and builds their profile. Each track is requested
+	 * once even if it is in several groups, and the batches are
+	 * requested concurrently. A batch that fails leaves its tracks
+	 * out of the profile.
+	 * @param trackIdsByLabel are the IDs of the tracks of each group
+	 * @return a SpotifyAudioProfile with a group for each label
+	 */
+	private SpotifyAudioProfile fetchAudioProfile(Map<String, List<String>> trackIdsByLabel) {
+		awaitAuthentication();
+		final List<String> trackIds = trackIdsByLabel.values().stream().flatMap(List::stream)
+				.filter(Objects::nonNull).distinct().collect(Collectors.toList());
+		final Map<String, AudioFeatures> features = new ConcurrentHashMap<>();
+		final AtomicBoolean failed = new AtomicBoolean();
+		List<CompletableFuture<?>> pendingRequests = new ArrayList<>();
+		for (int from = 0; from < trackIds.size(); from += AUDIO_FEATURES_BATCH_SIZE) {
+			final String[] batch = trackIds.subList(from, Math.min(from + AUDIO_FEATURES_BATCH_SIZE, trackIds.size())).toArray(new String[0]);
+			final GetAudioFeaturesForSeveralTracksRequest audioFeaturesRequest = spotifyApi.getAudioFeaturesForSeveralTracks(batch).build();
+			pendingRequests.add(fanOut(AUDIO_FEATURES_ENDPOINT, failed, audioFeaturesRequest::execute).thenAccept(batchFeatures -> {
+				// Tracks without audio features come back as null
+				if (batchFeatures != null) {
+					for (AudioFeatures feature : batchFeatures) {
+						if (feature != null && feature.getId() != null)
+							features.put(feature.getId(), feature);
+					}
+				}
+			}));
+		}
+		CompletableFuture.allOf(pendingRequests.toArray(new CompletableFuture<?>[0])).join();
+		final SpotifyAudioProfile profile = new SpotifyAudioProfile();
+		trackIdsByLabel.forEach((label, ids) -> profile.addGroup(label, ids, features));
+		return profile;
+	}
+
+	/**
+	 * compareTopTracks() requests the top tracks of an artist in
+	 * several markets concurrently, so that comparing them costs one
+	 * round trip. Each artist and market pair is cached on its own
+	 * for TOP_TRACKS_TTL_MS, so markets requested recently are taken
+	 * from the cache and only the others are requested.
+	 * @param artistId is the Spotify ID of the artist
+	 * @param markets are the markets to compare
+	 * @return a SpotifyMarketTopTracks holding the top tracks of each
+	 * market, listing the ones whose request failed as missing
+	 */
+	@SuppressWarnings("try")
+	public SpotifyMarketTopTracks compareTopTracks(String artistId, List<CountryCode> markets) {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				SpotifyTracer.Span span = tracer.begin("top tracks", artistId)) {
+			final long start = System.nanoTime();
+			final SpotifyMarketTopTracks topTracks = new SpotifyMarketTopTracks(artistId);
+			final Map<CountryCode, SpotifyMarketTopTracks.MarketTracks> cached = new LinkedHashMap<>();
+			final Map<CountryCode, CompletableFuture<Track[]>> requests = new LinkedHashMap<>();
+			for (CountryCode market : markets) {
+				final SpotifyMarketTopTracks.MarketTracks tracks = topTracksCache.get(topTracksKeyOf(artistId, market));
+				if (tracks != null)
+					cached.put(market, tracks);
+			}
+			if (cached.size() < markets.size()) {
+				awaitAuthentication();
+				final AtomicBoolean failed = new AtomicBoolean();
+				for (CountryCode market : markets) {
+					if (!cached.containsKey(market) && !requests.containsKey(market)) {
+						final GetArtistsTopTracksRequest artistsTopTracks = spotifyApi.getArtistsTopTracks(artistId, market).build();
+						requests.put(market, fanOut(TOP_TRACKS_ENDPOINT, failed, artistsTopTracks::execute));
+					}
+				}
+			}
+			// The markets are added in the order they were asked for
+			for (CountryCode market : markets) {
+				SpotifyMarketTopTracks.MarketTracks tracks = cached.get(market);
+				if (tracks == null && requests.containsKey(market))
+					tracks = cacheTopTracks(artistId, market, requests.get(market).join());
+				if (tracks != null)
+					topTracks.addMarket(tracks);
+				else
+					topTracks.addMissingMarket(market);
+			}
+			logger.info(SpotifyLog.event("top-tracks").with("artist", artistId).with("markets", markets.size())
+					.with("cached", cached.size()).with("requested", requests.size())
+					.with("status", topTracks.getMissingMarkets().isEmpty() ? "ok" : "partial")
+					.with("latencyMs", SpotifyLog.elapsedMs(start)));
+			span.arg("cached", cached.size());
+			return topTracks;
+		}
+	}
+
+	/**
+	 * cacheTopTracks() keeps the top tracks of an artist in a market
+	 * that arrived, so that later requests for the pair are answered
+	 * from the cache.
+	 * @param artistId is the Spotify ID of the artist
+	 * @param market is the market of the top tracks
+	 * @param tracks are the top tracks, or null if the request failed
+	 * @return the cached top tracks, or null if the request failed
+	 */
+	private SpotifyMarketTopTracks.MarketTracks cacheTopTracks(String artistId, CountryCode market, Track[] tracks) {
+		if (tracks == null)
+			return null;
+		List<String> names = new ArrayList<>(tracks.length);
+		for (Track track : tracks)
+			names.add(track.getName());
+		return cacheTopTrackNames(artistId, market, names);
+	}
+
+	/**
+	 * cacheTopTrackNames() keeps the names of the top tracks of an
+	 * artist in a market, as read by the streaming parser, the same
+	 * way cacheTopTracks() keeps the model objects.
+	 * @param artistId is the Spotify ID of the artist
+	 * @param market is the market of the top tracks
+	 * @param trackNames are the names of the top tracks, or null if the request failed
+	 * @return the cached top tracks, or null if the request failed
+	 */
+	private SpotifyMarketTopTracks.MarketTracks cacheTopTrackNames(String artistId, CountryCode market, List<String> trackNames) {
+		if (trackNames == null)
+			return null;
+		final SpotifyMarketTopTracks.MarketTracks marketTracks = new SpotifyMarketTopTracks.MarketTracks(
+				market, SpotifyEntityStore.getDefault().internAll(trackNames), System.currentTimeMillis());
+		topTracksCache.put(topTracksKeyOf(artistId, market), marketTracks);
+		return marketTracks;
+	}
+
+	/**
+	 * topTracksKeyOf() gets the key of an artist and market pair in
+	 * the top tracks cache.
+	 */
+	private static String topTracksKeyOf(String artistId, CountryCode market) {
+		return artistId + "|" + market.getAlpha2();
+	}
+
+	/**
+	 * artistKeyOf() gets the cache key of an artist search whose top
+	 * tracks are from a market. The market is always part of the key,
+	 * so instances or runs with another default market never share a
+	 * result.
+	 * @param name is the input of the search
+	 * @param market is the market of the top tracks
+	 * @return the cache key
+	 */
+	static String artistKeyOf(String name, CountryCode market) {
+		return SpotifyResultCache.keyOf(name) + "|" + market.getAlpha2();
+	}
+
+	/**
+	 * marketOf() reads a market from its two letter code.
+	 * @param code is the code, may be null
+	 * @param fallback is the market used if there is no valid code
+	 * @return the market
+	 */
+	static CountryCode marketOf(String code, CountryCode fallback) {
+		if (code == null || code.isBlank())
+			return fallback;
+		final CountryCode market = CountryCode.getByCode(code.trim(), false);
+		if (market == null) {
+			logger.warn(SpotifyLog.event("market").with("code", code).with("status", "unknown")
+					.with("fallback", fallback.getAlpha2()));
+			return fallback;
+		}
+		return market;
+	}
+
+	/**
+	 * streamDiscography() requests every album and single of an
+	 * artist and hands each distinct track to the listener as soon
+	 * as it arrives. The pages of albums are requested concurrently,
+	 * and as each page arrives its albums are requested twenty at a
+	 * time and their tracks fifty at a time, so tracks start arriving
+	 * after the first few requests. Each page is dropped once its
+	 * tracks have been handed out.
+	 * @param artistId is the Spotify ID of the artist
+	 * @param listener is told about each distinct track, may be null
+	 * @return a future completed with the statistics of the
+	 * discography once every track has arrived
+	 */
+	@SuppressWarnings("try")
+	public CompletableFuture<SpotifyDiscography> streamDiscography(String artistId, SpotifyDiscographyListener listener) {
+		final SpotifyDiscography discography = new SpotifyDiscography(artistId, listener);
+		final AtomicBoolean failed = new AtomicBoolean();
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				CloseableThreadContext.Instance priority = SpotifyRequestScheduler.prioritize(SpotifyRequestScheduler.Priority.BATCH)) {
+			// The first page may be requested by the thread that got the token, so it carries the ID over itself
+			return authenticateAsync().thenCompose(SpotifyLog.wrap(ignored -> requestAlbumPage(artistId, 0, failed)))
+					.thenCompose(firstPage -> streamAlbumPages(artistId, firstPage, discography, failed));
+		}
+	}
+
+	/**
+	 * streamAlbumPages() streams the first page of albums of a
+	 * discography and requests the other pages together.
+	 * @param artistId is the Spotify ID of the artist
+	 * @param firstPage is the first page of albums, may be null if it failed
+	 * @param discography is where the tracks are added
+	 * @param failed is set if one of the requests fails
+	 * @return a future completed with the discography once every track was added
+	 */
+	private CompletableFuture<SpotifyDiscography> streamAlbumPages(String artistId, Paging<AlbumSimplified> firstPage,
+			SpotifyDiscography discography, AtomicBoolean failed) {
+		List<CompletableFuture<?>> pendingRequests = new ArrayList<>();
+		if (firstPage != null) {
+			pendingRequests.add(streamAlbums(firstPage, discography, failed));
+			// The other pages are requested together once the first one gives the number of albums
+			for (int offset = SEARCH_PAGE_LIMIT; offset < firstPage.getTotal(); offset += SEARCH_PAGE_LIMIT) {
+				pendingRequests.add(requestAlbumPage(artistId, offset, failed)
+						.thenCompose(page -> streamAlbums(page, discography, failed)));
+			}
+		}
+		return CompletableFuture.allOf(pendingRequests.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+			discography.setComplete(!failed.get() && firstPage != null);
+			logger.info(SpotifyLog.event("discography").with("artistId", discography.getArtistId())
+					.with("albums", discography.getAlbumCount()).with("tracks", discography.getTrackCount())
+					.with("status", discography.isComplete() ? "ok" : "partial"));
+			return discography;
+		});
+	}
+
+	/**
+	 * requestAlbumPage() starts the request of one page of an artist's albums.
+	 */
+	private CompletableFuture<Paging<AlbumSimplified>> requestAlbumPage(String artistId, int offset, AtomicBoolean failed) {
+		final GetArtistsAlbumsRequest artistsAlbums = spotifyApi.getArtistsAlbums(artistId)
+				.album_type(DISCOGRAPHY_ALBUM_GROUPS).offset(offset).limit(SEARCH_PAGE_LIMIT).build();
+		return fanOut(ARTIST_ALBUMS_ENDPOINT, failed, artistsAlbums::execute);
+	}
+
+	/**
+	 * streamAlbums() requests the albums of a page in batches and
+	 * streams their tracks.
+	 * @param page is the page of albums, may be null if it failed
+	 * @param discography is where the tracks are added
+	 * @param failed is set if one of the requests fails
+	 * @return a future completed once every track of the page was added
+	 */
+	private CompletableFuture<Void> streamAlbums(Paging<AlbumSimplified> page, SpotifyDiscography discography, AtomicBoolean failed) {
+		if (page == null)
+			return CompletableFuture.completedFuture(null);
+		final List<String> albumIds = new ArrayList<>();
+		for (AlbumSimplified album : page.getItems()) {
+			if (album != null)
+				albumIds.add(album.getId());
+		}
+		List<CompletableFuture<?>> pendingRequests = new ArrayList<>();
+		for (int from = 0; from < albumIds.size(); from += ALBUMS_BATCH_SIZE) {
+			final String[] batch = albumIds.subList(from, Math.min(from + ALBUMS_BATCH_SIZE, albumIds.size())).toArray(new String[0]);
+			final GetSeveralAlbumsRequest severalAlbums = spotifyApi.getSeveralAlbums(batch).build();
+			pendingRequests.add(fanOut(ALBUMS_ENDPOINT, failed, severalAlbums::execute)
+					.thenCompose(albums -> streamAlbumTracks(albums, discography, failed)));
+		}
+		return CompletableFuture.allOf(pendingRequests.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * streamAlbumTracks() gathers the track IDs of a batch of albums,
+	 * requesting the rest of the tracks of albums too long to come
+	 * with the album, then requests the tracks in batches to get
+	 * their ISRCs and adds them to the discography.
+	 * @param albums is the batch of albums, may be null if it failed
+	 * @param discography is where the tracks are added
+	 * @param failed is set if one of the requests fails
+	 * @return a future completed once every track of the batch was added
+	 */
+	private CompletableFuture<Void> streamAlbumTracks(Album[] albums, SpotifyDiscography discography, AtomicBoolean failed) {
+		if (albums == null)
+			return CompletableFuture.completedFuture(null);
+		final List<String> trackIds = new ArrayList<>();
+		List<CompletableFuture<Paging<TrackSimplified>>> extraPages = new ArrayList<>();
+		for (Album album : albums) {
+			if (album == null)
+				continue;
+			discography.addAlbum();
+			final Paging<TrackSimplified> tracks = album.getTracks();
+			for (TrackSimplified track : tracks.getItems())
+				trackIds.add(track.getId());
+			for (int offset = tracks.getItems().length; offset < tracks.getTotal(); offset += SEARCH_PAGE_LIMIT) {
+				final GetAlbumsTracksRequest albumsTracks = spotifyApi.getAlbumsTracks(album.getId()).offset(offset).limit(SEARCH_PAGE_LIMIT).build();
+				extraPages.add(fanOut(ALBUM_TRACKS_ENDPOINT, failed, albumsTracks::execute));
+			}
+		}
+		return CompletableFuture.allOf(extraPages.toArray(new CompletableFuture<?>[0])).thenCompose(ignored -> {
+			for (CompletableFuture<Paging<TrackSimplified>> extraPage : extraPages) {
+				final Paging<TrackSimplified> tracks = extraPage.join();
+				if (tracks != null) {
+					for (TrackSimplified track : tracks.getItems())
+						trackIds.add(track.getId());
+				}
+			}
+			List<CompletableFuture<?>> pendingRequests = new ArrayList<>();
+			for (int from = 0; from < trackIds.size(); from += TRACKS_BATCH_SIZE) {
+				final String[] batch = trackIds.subList(from, Math.min(from + TRACKS_BATCH_SIZE, trackIds.size())).toArray(new String[0]);
+				final GetSeveralTracksRequest severalTracks = spotifyApi.getSeveralTracks(batch).build();
+				pendingRequests.add(fanOut(TRACKS_ENDPOINT, failed, severalTracks::execute).thenAccept(tracks -> {
+					if (tracks != null) {
+						for (Track track : tracks)
+							addDiscographyTrack(discography, track);
+					}
+				}));
+			}
+			return CompletableFuture.allOf(pendingRequests.toArray(new CompletableFuture<?>[0]));
+		});
+	}
+
+	/**
+	 * addDiscographyTrack() adds a track to a discography using its
+	 * ISRC, if it has one, to find duplicates.
+	 */
+	private static void addDiscographyTrack(SpotifyDiscography discography, Track track) {
+		if (track == null)
+			return;
+		final String isrc = (track.getExternalIds() != null && track.getExternalIds().getExternalIds() != null)
+				? track.getExternalIds().getExternalIds().get("isrc") : null;
+		final AlbumSimplified album = track.getAlbum();
+		discography.addTrack(isrc, track.getName(), (album != null) ? album.getName() : null,
+				(album != null) ? album.getReleaseDate() : null, (track.getDurationMs() != null) ? track.getDurationMs() : 0);
+	}
+
+	/**
+	 * logSearch() logs the outcome of a search: whether it was answered
+	 * from a cache, how many results it has and how long it took.
+	 * @param type is the type of the search, "artist" or "track"
+	 * @param query is the input of the search
+	 * @param startNanos is when the search started
+	 * @param cache is "hit" if the search was answered from the in-memory
+	 * cache, "remote" if from the remote cache, "stale" if from a stale
+	 * result being refreshed, or "miss"
+	 * @param ok is whether the search succeeded
+	 * @param results is the number of results
+	 */
+	private void logSearch(String type, String query, long startNanos, String cache, boolean ok, int results) {
+		logger.info(SpotifyLog.event("search").with("type", type).with("query", query)
+				.with("cache", cache).with("status", ok ? "ok" : "error")
+				.with("results", results).with("latencyMs", SpotifyLog.elapsedMs(startNanos)));
+	}
+
+	/**
+	 * awaitBudget() waits for the pending requests of a search until
+	 * they are all done or the latency budget of the search runs out.
+	 * Requests still running afterwards keep going in the background.
+	 * @param pendingRequests are the requests to wait for
+	 * @param startNanos is when the search started
+	 * @param budgetMs is the latency budget, 0 to wait for every request,
+	 * or negative not to wait at all
+	 */
+	private void awaitBudget(List<CompletableFuture<?>> pendingRequests, long startNanos, long budgetMs) {
+		if (budgetMs < 0)
+			return;
+		final CompletableFuture<Void> allRequests = CompletableFuture.allOf(pendingRequests.toArray(new CompletableFuture<?>[0]));
+		if (budgetMs <= 0) {
+			allRequests.join();
+			return;
+		}
+		final long remainingMs = budgetMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		try {
+			allRequests.get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) { // Budget ran out, return what has arrived so far
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) { // Failed requests already left their fields empty
+		}
+	}
+
+	/**
+	 * removeWhenDone() removes a listener, which a search added to a
+	 * result before starting the requests of its pending fields, once
+	 * they have all finished. A result is cached and handed to later
+	 * searches once it is complete, so this keeps it from holding on
+	 * to the listeners of earlier searches. As the listener was added
+	 * first, it is told of every field the requests set.
+	 * @param requests are the requests of the result
+	 * @param listener is the listener, may be null
+	 * @param remove removes the listener from the result
+	 */
+	private static void removeWhenDone(List<CompletableFuture<?>> requests, SpotifyDataListener listener,
+			Consumer<SpotifyDataListener> remove) {
+		if (listener != null)
+			CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, e) -> remove.accept(listener));
+	}
+
+	/**
+	 * cacheWhenDone() caches a result once every pending request of
+	 * its search has finished, unless one of them failed.
+	 * @param pendingRequests are the requests of the search
+	 * @param failed is set if a request of the search failed
+	 * @param cache puts the result into its cache
+	 */
+	private void cacheWhenDone(List<CompletableFuture<?>> pendingRequests, AtomicBoolean failed, Runnable cache) {
+		CompletableFuture.allOf(pendingRequests.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, e) -> {
+			if (e == null && !failed.get()) {
+				cache.run();
+				cacheChanged.set(true);
+			}
+		});
+	}
+
+	/**
+	 * cacheArtists() puts a complete artist result into the in-memory
+	 * cache and shares it through the remote cache.
+	 * @param key is the cache key of the search
+	 * @param artistData is the result
+	 */
+	private void cacheArtists(String key, SpotifyArtistData artistData) {
+		artistCache.put(key, artistData);
+		if (remoteCache != null) {
+			try {
+				putRemote("artist:" + key, SpotifySnapshotStore.encodeArtists(artistData), REMOTE_RESULT_TTL_MS);
+			} catch (IOException e) { // Caught if an image can't be encoded, the result stays local
+				logRemoteFailure("put", e);
+			}
+		}
+	}
+
+	/**
+	 * cacheTracks() puts a complete track result into the in-memory
+	 * cache and shares it through the remote cache.
+	 * @param key is the cache key of the search
+	 * @param trackData is the result
+	 */
+	private void cacheTracks(String key, SpotifyTrackData trackData) {
+		trackCache.put(key, trackData);
+		if (remoteCache != null) {
+			try {
+				putRemote("track:" + key, SpotifySnapshotStore.encodeTracks(trackData), REMOTE_RESULT_TTL_MS);
+			} catch (IOException e) { // Caught if an image can't be encoded, the result stays local
+				logRemoteFailure("put", e);
+			}
+		}
+	}
+
+	/**
+	 * refreshArtists() fetches a new copy of a stale artist result
+	 * in the background, with every detail, and swaps it into the
+	 * cache once it is complete. Searches keep getting the stale
+	 * copy until then.
+	 * @param name is the input of the search
+	 * @param market is the market of the top tracks of the result
+	 * @param key is the cache key of the search
+	 * @param stale is the stale result
+	 */
+	@SuppressWarnings("try")
+	private void refreshArtists(String name, CountryCode market, String key, SpotifyArtistData stale) {
+		requestExecutor.execute(() -> {
+			try (CloseableThreadContext.Instance context = SpotifyRequestScheduler.prioritize(SpotifyRequestScheduler.Priority.PREFETCH)) {
+				final long start = System.nanoTime();
+				final SpotifyArtistData artistData = searchArtistUncached(name, market, 0, null, start);
+				// Gives up the claim if the new copy wasn't cached, so a later search tries again
+				artistCache.releaseRefresh(key, stale);
+				logRefresh("artist", name, start, artistData != null);
+			}
+		});
+	}
+
+	/**
+	 * refreshTracks() fetches a new copy of a stale track result in
+	 * the background and swaps it into the cache once it is complete.
+	 * @param name is the input of the search
+	 * @param key is the cache key of the search
+	 * @param stale is the stale result
+	 */
+	@SuppressWarnings("try")
+	private void refreshTracks(String name, String key, SpotifyTrackData stale) {
+		requestExecutor.execute(() -> {
+			try (CloseableThreadContext.Instance context = SpotifyRequestScheduler.prioritize(SpotifyRequestScheduler.Priority.PREFETCH)) {
+				final long start = System.nanoTime();
+				final SpotifyTrackData trackData = searchSongUncached(name, 0, null, start);
+				trackCache.releaseRefresh(key, stale);
+				logRefresh("track", name, start, trackData != null);
+			}
+		});
+	}
+
+	/**
+	 * logRefresh() logs the outcome of the background refresh of a
+	 * stale result.
+	 */
+	private void logRefresh(String type, String query, long startNanos, boolean ok) {
+		logger.info(SpotifyLog.event("refresh").with("type", type).with("query", query)
+				.with("status", ok ? "ok" : "error").with("latencyMs", SpotifyLog.elapsedMs(startNanos)));
+	}
+
+	/**
+	 * getRemoteArtists() gets an artist result another instance
+	 * shared through the remote cache, and keeps it in the
+	 * in-memory cache.
+	 * @param key is the cache key of the search
+	 * @return the result, or null if the remote cache doesn't have it
+	 */
+	private SpotifyArtistData getRemoteArtists(String key) {
+		final byte[] bytes = getRemote("artist:" + key);
+		if (bytes == null)
+			return null;
+		try {
+			final SpotifyArtistData artistData = SpotifySnapshotStore.decodeArtists(bytes);
+			if (artistData == null)
+				return null;
+			artistCache.put(key, artistData);
+			cacheChanged.set(true);
+			// A shared copy that has already expired counts as a miss
+			return artistCache.get(key);
+		} catch (IOException e) { // A damaged result is treated as a miss and replaced once searched
+			logRemoteFailure("get", e);
+			return null;
+		}
+	}
+
+	/**
+	 * getRemoteTracks() gets a track result another instance shared
+	 * through the remote cache, and keeps it in the in-memory cache.
+	 * @param key is the cache key of the search
+	 * @return the result, or null if the remote cache doesn't have it
+	 */
+	private SpotifyTrackData getRemoteTracks(String key) {
+		final byte[] bytes = getRemote("track:" + key);
+		if (bytes == null)
+			return null;
+		try {
+			final SpotifyTrackData trackData = SpotifySnapshotStore.decodeTracks(bytes);
+			if (trackData == null)
+				return null;
+			trackCache.put(key, trackData);
+			cacheChanged.set(true);
+			return trackCache.get(key);
+		} catch (IOException e) { // A damaged result is treated as a miss and replaced once searched
+			logRemoteFailure("get", e);
+			return null;
+		}
+	}
+
+	/**
+	 * downloadImage() downloads an image, taking it from the remote
+	 * cache if another instance downloaded it already and sharing it
+	 * there otherwise.
+	 * @param url is the location of the image
+	 * @return the bytes of the image
+	 * @throws IOException if the download fails
+	 */
+	byte[] downloadImage(String url) throws IOException {
+		try (SpotifyTracer.Span span = tracer.span("image")) {
+			final String key = "image:" + url;
+			final byte[] shared = getRemote(key);
+			if (shared != null) {
+				span.arg("source", "remote").arg("bytes", shared.length);
+				return shared;
+			}
+			final byte[] bytes = transport.download(url);
+			putRemote(key, bytes, REMOTE_IMAGE_TTL_MS);
+			span.arg("source", "network").arg("bytes", bytes.length);
+			return bytes;
+		}
+	}
+
+	/**
+	 * getRemote() gets a value from the remote cache through its
+	 * circuit breaker, so that a node that is down is skipped
+	 * instead of slowing every search. Any failure counts as a miss.
+	 * @param key is the key of the value
+	 * @return the value, or null on a miss or if there is no remote cache
+	 */
+	private byte[] getRemote(String key) {
+		final SpotifyRemoteCache cache = remoteCache;
+		if (cache == null)
+			return null;
+		final SpotifyCircuitBreaker breaker = getCircuitBreaker(REMOTE_CACHE_ENDPOINT);
+		try {
+			breaker.acquire();
+		} catch (IOException e) { // Circuit is open, the node is skipped
+			return null;
+		}
+		try {
+			final byte[] value = cache.get(key);
+			breaker.recordSuccess();
+			return value;
+		} catch (IOException | RuntimeException e) {
+			breaker.recordFailure();
+			logRemoteFailure("get", e);
+			return null;
+		}
+	}
+
+	/**
+	 * putRemote() shares a value through the remote cache in the
+	 * background, so searches never wait on it.
+	 * @param key is the key of the value
+	 * @param value is the value
+	 * @param ttlMs is how long the remote cache keeps the value
+	 */
+	private void putRemote(String key, byte[] value, long ttlMs) {
+		final SpotifyRemoteCache cache = remoteCache;
+		if (cache == null)
+			return;
+		requestExecutor.execute(() -> {
+			final SpotifyCircuitBreaker breaker = getCircuitBreaker(REMOTE_CACHE_ENDPOINT);
+			try {
+				breaker.acquire();
+			} catch (IOException e) { // Circuit is open, the value stays local
+				return;
+			}
+			try {
+				cache.put(key, value, ttlMs);
+				breaker.recordSuccess();
+			} catch (IOException | RuntimeException e) {
+				breaker.recordFailure();
+				logRemoteFailure("put", e);
+			}
+		});
+	}
+
+	/**
+	 * logRemoteFailure() logs a failed request to the remote cache.
+	 */
+	private void logRemoteFailure(String action, Exception e) {
+		logger.warn(SpotifyLog.event("request").with("endpoint", REMOTE_CACHE_ENDPOINT).with("action", action)
+				.with("status", e.getClass().getSimpleName()).with("error", String.valueOf(e.getMessage())));
+	}
+
+	/**
+	 * setRemoteCache() sets the cache shared with other instances,
+	 * such as a SpotifyCacheClient reaching a SpotifyCacheNode. Searches
+	 * missing the in-memory cache are looked up there before Spotify is
+	 * called, and complete results and downloaded images are shared
+	 * there for the other instances.
+	 * @param remoteCache is the shared cache, or null for none
+	 */
+	public void setRemoteCache(SpotifyRemoteCache remoteCache) {
+		this.remoteCache = remoteCache;
+	}
+
+	/**
+	 * fanOut() starts a request on the request executor. A
+	 * request that fails completes with null instead of an
+	 * exception so the other requests of a search are kept.
+	 * @param endpoint is the name of the endpoint being called
+	 * @param failed is set if the request fails
+	 * @param call is the request to make
+	 * @return a future holding the result, or null if the request failed
+	 */
+	private <T> CompletableFuture<T> fanOut(String endpoint, AtomicBoolean failed, Callable<T> call) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return callEndpoint(endpoint, call);
+			} catch (IOException | SpotifyWebApiException | ParseException e) { // Already logged by callEndpoint()
+				failed.set(true);
+				return null;
+			}
+		}, requestExecutor);
+	}
+
+	/**
+	 * callEndpoint() makes a request through the circuit breaker
+	 * and hedger of its endpoint. The request fails fast while the
+	 * circuit is open, and is duplicated if it runs slower than
+	 * the endpoint's recent latencies.
+	 * @param endpoint is the name of the endpoint being called
+	 * @param call is the request to make
+	 * @return the result of the request
+	 */
+	<T> T callEndpoint(String endpoint, Callable<T> call) throws IOException, SpotifyWebApiException, ParseException {
+		try (SpotifyTracer.Span span = tracer.span(endpoint)) {
+			try {
+				final T result = callThroughBreaker(endpoint, call);
+				span.arg("status", "ok");
+				return result;
+			} catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+				span.arg("status", e.getClass().getSimpleName());
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * callThroughBreaker() makes a request through the circuit
+	 * breaker and hedger of its endpoint, for callEndpoint().
+	 */
+	private <T> T callThroughBreaker(String endpoint, Callable<T> call)
+			throws IOException, SpotifyWebApiException, ParseException {
+		final long start = System.nanoTime();
+		final SpotifyCircuitBreaker breaker = getCircuitBreaker(endpoint);
+		try {
+			breaker.acquire();
+		} catch (IOException e) {
+			logRequest(endpoint, start, e);
+			throw e;
+		}
+		try {
+			// Each attempt, including a hedge, holds its own slot of the concurrency limit
+			T result = getHedger(endpoint).call(() -> callLimited(call));
+			breaker.recordSuccess();
+			if (logger.isDebugEnabled())
+				logRequest(endpoint, start, null);
+			return result;
+		} catch (IOException | SpotifyWebApiException | ParseException e) {
+			logRequest(endpoint, start, e);
+			// A rejected token is dropped so the next search requests a new one
+			if (e instanceof UnauthorizedException)
+				invalidateToken();
+			// Only failures of the server or the network count against the circuit
+			if (isServerFailure(e))
+				breaker.recordFailure();
+			else
+				breaker.recordSuccess();
+			throw e;
+		} catch (RuntimeException e) {
+			logRequest(endpoint, start, e);
+			breaker.recordFailure();
+			throw e;
+		} catch (Exception e) {
+			logRequest(endpoint, start, e);
+			breaker.recordFailure();
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * callLimited() makes a single attempt of a request once the
+	 * scheduler gives it a slot of the concurrency limit, by the
+	 * priority of the current thread, and reports its latency or
+	 * failure back so the limit keeps adapting.
+	 * @param call is the request to make
+	 * @return the result of the request
+	 */
+	private <T> T callLimited(Callable<T> call) throws Exception {
+		final SpotifyRequestScheduler.Priority priority = SpotifyRequestScheduler.currentPriority();
+		final long queuedAt = System.nanoTime();
+		requestScheduler.acquire(priority);
+		final long start = System.nanoTime();
+		// The attempt is traced apart from its endpoint, so time spent queued for a slot and hedges show up
+		try (SpotifyTracer.Span span = tracer.span("attempt")) {
+			span.arg("priority", priority.name()).arg("queuedMs", TimeUnit.NANOSECONDS.toMillis(start - queuedAt));
+			T result = call.call();
+			requestScheduler.onSuccess(priority, System.nanoTime() - start);
+			return result;
+		} catch (Exception e) {
+			// Only overload and timeouts say the limit is too high
+			if (isServerFailure(e))
+				requestScheduler.onDropped(priority);
+			else
+				requestScheduler.onIgnored(priority);
+			throw e;
+		}
+	}
+
+	/**
+	 * logRequest() logs a request to an endpoint with its latency and
+	 * status. Requests that succeeded are only logged at debug level.
+	 * @param endpoint is the name of the endpoint that was called
+	 * @param startNanos is when the request started
+	 * @param error is what the request failed with, or null if it succeeded
+	 */
+	private void logRequest(String endpoint, long startNanos, Exception error) {
+		if (error == null) {
+			logger.debug(SpotifyLog.event("request").with("endpoint", endpoint).with("status", "ok")
+					.with("latencyMs", SpotifyLog.elapsedMs(startNanos)).with("limit", concurrencyLimiter.getLimit())
+					.with("priority", SpotifyRequestScheduler.currentPriority().name()));
+		} else {
+			logger.warn(SpotifyLog.event("request").with("endpoint", endpoint).with("status", error.getClass().getSimpleName())
+					.with("latencyMs", SpotifyLog.elapsedMs(startNanos)).with("limit", concurrencyLimiter.getLimit())
+					.with("error", String.valueOf(error.getMessage())));
+		}
+	}
+
+	/**
+	 * isServerFailure() checks whether a failed request points to a
+	 * degraded endpoint rather than a problem with the request itself.
+	 */
+	private boolean isServerFailure(Exception e) {
+		return e instanceof IOException
+				|| e instanceof TooManyRequestsException
+				|| e instanceof InternalServerErrorException
+				|| e instanceof BadGatewayException
+				|| e instanceof ServiceUnavailableException;
+	}
+
+	/**
+	 * getCircuitBreaker() gets the circuit breaker of an endpoint.
+	 * @param endpoint is the name of the endpoint
+	 * @return the circuit breaker, created on first use
+	 */
+	public SpotifyCircuitBreaker getCircuitBreaker(String endpoint) {
+		return circuitBreakers.computeIfAbsent(endpoint,
+				e -> new SpotifyCircuitBreaker(e, CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_MS));
+	}
+
+	/**
+	 * getConcurrencyLimiter() gets the limiter of the API requests in
+	 * flight, whose current limit is also logged with each request.
+	 * @return the concurrency limiter
+	 */
+	public SpotifyConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 * getRequestScheduler() gets the scheduler that orders the API
+	 * requests by priority.
+	 * @return the request scheduler
+	 */
+	public SpotifyRequestScheduler getRequestScheduler() {
+		return requestScheduler;
+	}
+
+	/**
+	 * getHedger() gets the hedger of an endpoint.
+	 * @param endpoint is the name of the endpoint
+	 * @return the hedger, created on first use
+	 */
+	public SpotifyRequestHedger getHedger(String endpoint) {
+		return hedgers.computeIfAbsent(endpoint,
+				e -> new SpotifyRequestHedger(requestExecutor, hedgePercentile, DEFAULT_HEDGE_DELAY_MS));
+	}
+
+	/**
+	 * setStreamingJson() sets whether search, related artists and
+	 * top tracks responses are read with the streaming JSON parser,
+	 * which keeps only the fields the data classes use instead of
+	 * building the library's full model objects.
+	 * @param streamingJson is true to use the streaming parser
+	 */
+	public void setStreamingJson(boolean streamingJson) {
+		this.streamingJson = streamingJson;
+	}
+
+	/**
+	 * setTracer() sets the tracer that records the stages of the
+	 * searches, in place of the one set by system properties.
+	 * @param tracer is the tracer
+	 */
+	public void setTracer(SpotifyTracer tracer) {
+		this.tracer = tracer;
+	}
+
+	/**
+	 * getCredentialPool() gets the apps the requests are spread over,
+	 * such as to check how loaded and rate limited each one is.
+	 * @return the credential pool
+	 */
+	public SpotifyCredentialPool getCredentialPool() {
+		return credentialPool;
+	}
+
+	/**
+	 * setHedgePercentile() sets the latency percentile after which
+	 * a duplicate request is fired, for every endpoint.
+	 * @param percentile is a value between 0 and 1, such as 0.95
+	 */
+	public void setHedgePercentile(double percentile) {
+		hedgePercentile = percentile;
+		for (SpotifyRequestHedger hedger : hedgers.values())
+			hedger.setPercentile(percentile);
+	}
+
+	/**
+	 * enableSnapshots() loads the results saved by a previous run
+	 * from a snapshot file into the caches in the background, then
+	 * saves the caches back to the file on a timer and when the
+	 * program exits.
+	 * @param file is the path of the snapshot file
+	 * @param intervalMs is how often the snapshot is written, in milliseconds
+	 */
+	public synchronized void enableSnapshots(Path file, long intervalMs) {
+		if (snapshotStore != null)
+			return;
+		final SpotifySnapshotStore store = new SpotifySnapshotStore(file);
+		snapshotStore = store;
+		snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "spotify-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// The snapshot is loaded on the snapshot thread so the caller isn't held up
+		snapshotScheduler.execute(() -> {
+			try {
+				store.load(artistCache, trackCache);
+			} catch (IOException e) { // A damaged snapshot is replaced by the next one written
+				logger.warn(SpotifyLog.event("snapshot").with("action", "load").with("file", file.toString())
+						.with("status", "error").with("error", e.getMessage()));
+			}
+		});
+		snapshotScheduler.scheduleWithFixedDelay(this::writeSnapshot, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::writeSnapshot, "spotify-snapshot-shutdown"));
+	}
+
+	/**
+	 * writeSnapshot() writes the caches to the snapshot file if a
+	 * result was cached since the last time it was written.
+	 */
+	public void writeSnapshot() {
+		final SpotifySnapshotStore store = snapshotStore;
+		if (store == null || !cacheChanged.getAndSet(false))
+			return;
+		try {
+			store.write(artistCache.snapshot(), trackCache.snapshot());
+		} catch (IOException e) { // Caught if the file can't be written, tried again next time
+			cacheChanged.set(true);
+			logger.warn(SpotifyLog.event("snapshot").with("action", "write").with("status", "error").with("error", e.getMessage()));
+		}
+	}
+
 }
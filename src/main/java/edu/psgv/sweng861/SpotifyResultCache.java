@@ -0,0 +1,209 @@
+package edu.psgv.sweng861;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * SpotifyResultCache keeps the results of recent searches in
+ * memory so that repeating a search doesn't go back to the
+ * Spotify API. It holds a fixed number of entries and evicts
+ * the least recently used one once it is full.
+ * <p>
+ * A cache can also give its results a soft and a hard expiry,
+ * measured from when each result was fetched. A result past its
+ * soft expiry is still handed out, but is stale: the first caller
+ * to claim its refresh fetches a new copy in the background while
+ * everyone else keeps getting the stale one. A result past its hard
+ * expiry is dropped, so the next search waits for a new copy.
+ * @author Matthew Bollinger
+ */
+public class SpotifyResultCache<V> {
+
+	/**
+	 * Entry holds a result and whether it is being refreshed.
+	 */
+	private static class Entry<V> {
+		final V value;
+		boolean refreshing;
+
+		Entry(V value) {
+			this.value = value;
+		}
+	}
+
+	// Maximum number of results kept
+	private final int maxEntries;
+	// Results by search key, in least to most recently used order
+	private final LinkedHashMap<String, Entry<V>> entries;
+	// How long after being fetched a result is stale and dropped, in milliseconds
+	private final long softTtlMs;
+	private final long hardTtlMs;
+	// Gets when a result was fetched, in milliseconds since the epoch
+	private final ToLongFunction<V> fetchedAtMs;
+
+	/**
+	 * SpotifyResultCache constructor sets the number of results kept,
+	 * which are kept until they are evicted.
+	 * @param maxEntries is the maximum number of results kept
+	 */
+	public SpotifyResultCache(int maxEntries) {
+		// Every result counts as just fetched, so none goes stale
+		this(maxEntries, Long.MAX_VALUE, Long.MAX_VALUE, value -> System.currentTimeMillis());
+	}
+
+	/**
+	 * SpotifyResultCache constructor sets the number of results kept
+	 * and when they go stale and expire.
+	 * @param maxEntries is the maximum number of results kept
+	 * @param softTtlMs is how long after being fetched a result is refreshed
+	 * @param hardTtlMs is how long after being fetched a result is dropped
+	 * @param fetchedAtMs gets when a result was fetched
+	 */
+	public SpotifyResultCache(int maxEntries, long softTtlMs, long hardTtlMs, ToLongFunction<V> fetchedAtMs) {
+		this.maxEntries = maxEntries;
+		this.softTtlMs = softTtlMs;
+		this.hardTtlMs = hardTtlMs;
+		this.fetchedAtMs = fetchedAtMs;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+				return size() > SpotifyResultCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * keyOf() turns a search query into a cache key so that
+	 * queries differing only in case or surrounding spaces match.
+	 * @param query is the search query
+	 * @return the cache key
+	 */
+	public static String keyOf(String query) {
+		return query.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * get() gets the result of a search, even if it is stale.
+	 * @param key is the cache key of the search
+	 * @return the result, or null if it isn't cached or has expired
+	 */
+	public synchronized V get(String key) {
+		final Entry<V> entry = liveEntry(key);
+		return (entry != null) ? entry.value : null;
+	}
+
+	/**
+	 * put() stores the result of a search, replacing a stale one.
+	 * @param key is the cache key of the search
+	 * @param value is the result
+	 */
+	public synchronized void put(String key, V value) {
+		entries.put(key, new Entry<>(value));
+	}
+
+	/**
+	 * remove() removes the result of a search.
+	 * @param key is the cache key of the search
+	 */
+	public synchronized void remove(String key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * isStale() checks whether the result of a search is past its
+	 * soft expiry.
+	 * @param key is the cache key of the search
+	 * @return true if the result is cached and stale
+	 */
+	public synchronized boolean isStale(String key) {
+		final Entry<V> entry = liveEntry(key);
+		return entry != null && ageOf(entry) >= softTtlMs;
+	}
+
+	/**
+	 * claimRefresh() claims the refresh of a stale result, so that
+	 * only one caller fetches a new copy while the others keep using
+	 * the stale one. The claim ends when a new copy is put, or when
+	 * releaseRefresh() is called because the refresh failed.
+	 * @param key is the cache key of the search
+	 * @return true if the result is stale and the caller should
+	 * refresh it, false if it is fresh, missing or already being refreshed
+	 */
+	public synchronized boolean claimRefresh(String key) {
+		final Entry<V> entry = liveEntry(key);
+		if (entry == null || entry.refreshing || ageOf(entry) < softTtlMs)
+			return false;
+		entry.refreshing = true;
+		return true;
+	}
+
+	/**
+	 * releaseRefresh() gives up the claim on the refresh of a result
+	 * whose new copy couldn't be fetched, so that a later search
+	 * tries again. Nothing changes if a new copy was put already.
+	 * @param key is the cache key of the search
+	 * @param stale is the stale result that was being refreshed
+	 */
+	public synchronized void releaseRefresh(String key, V stale) {
+		final Entry<V> entry = entries.get(key);
+		if (entry != null && entry.value == stale)
+			entry.refreshing = false;
+	}
+
+	/**
+	 * snapshot() copies the cached results, from least to most
+	 * recently used, without changing their order. Expired results
+	 * are left out.
+	 * @return a list of the cached keys and results
+	 */
+	public synchronized List<Map.Entry<String, V>> snapshot() {
+		List<Map.Entry<String, V>> copy = new ArrayList<>(entries.size());
+		for (Map.Entry<String, Entry<V>> entry : entries.entrySet()) {
+			if (ageOf(entry.getValue()) < hardTtlMs)
+				copy.add(Map.entry(entry.getKey(), entry.getValue().value));
+		}
+		return copy;
+	}
+
+	/**
+	 * size() gets the number of cached results.
+	 * @return the number of results
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * clear() removes every cached result.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * liveEntry() gets the entry of a key, dropping it if it is past
+	 * its hard expiry.
+	 */
+	private Entry<V> liveEntry(String key) {
+		final Entry<V> entry = entries.get(key);
+		if (entry != null && ageOf(entry) >= hardTtlMs) {
+			entries.remove(key);
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * ageOf() gets how long ago the result of an entry was fetched.
+	 */
+	private long ageOf(Entry<V> entry) {
+		return System.currentTimeMillis() - fetchedAtMs.applyAsLong(entry.value);
+	}
+
+}
@@ -0,0 +1,282 @@
+package edu.psgv.sweng861;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * SpotifyResultListModel is the model of the list of result
+ * names. It only knows the number of results up front; the
+ * results themselves are requested one page at a time, and
+ * only once the list asks for a row of that page, which with
+ * a fixed cell size is only when the row is visible. A bounded
+ * number of pages is kept, the least recently used one being
+ * dropped first, so scrolling through thousands of results
+ * holds only a few pages in memory. The model must be used on
+ * the event dispatch thread.
+ * @author Matthew Bollinger
+ */
+public class SpotifyResultListModel<P> extends AbstractListModel<String> {
+
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = LogManager.getLogger(SpotifyResultListModel.class);
+
+	/**
+	 * PageLoader requests one page of results. It is called
+	 * in the background, never on the event dispatch thread.
+	 */
+	public interface PageLoader<P> {
+
+		/**
+		 * loadPage() requests a page of results.
+		 * @param offset is the index of the first result of the page
+		 * @param limit is the number of results in the page
+		 * @return the page, or null if it couldn't be requested
+		 * @throws Exception if the request fails
+		 */
+		P loadPage(int offset, int limit) throws Exception;
+
+	}
+
+	// Shown in place of a result whose page hasn't arrived yet
+	static final String LOADING_TEXT = "(loading...)";
+
+	// Pages are requested one at a time so fast scrolling doesn't flood the API
+	private static final ExecutorService pageExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "spotify-page");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Number of results in every page but the first
+	private final int pageSize;
+	// Gets the names of the results of a page
+	private final transient Function<P, List<String>> names;
+	// Runs the page requests
+	private final transient Executor executor;
+	// Pages by index, in least to most recently used order
+	private final LinkedHashMap<Integer, P> pages;
+	// Pages being requested
+	private final transient Set<Integer> loadingPages = new HashSet<>();
+
+	// Number of results, and number of results in the first page
+	private int size;
+	private int firstPageSize;
+	// Requests the pages of the current results
+	private transient PageLoader<P> loader;
+	// Changes whenever the results are replaced, so late pages of old results are dropped
+	private int generation;
+	// Number of pages requested from the loader
+	private int pagesRequested;
+
+	/**
+	 * SpotifyResultListModel constructor sets the page size and
+	 * the number of pages kept.
+	 * @param pageSize is the number of results in every page but the first
+	 * @param maxCachedPages is the number of pages kept
+	 * @param names gets the names of the results of a page
+	 */
+	public SpotifyResultListModel(int pageSize, int maxCachedPages, Function<P, List<String>> names) {
+		this(pageSize, maxCachedPages, names, pageExecutor);
+	}
+
+	/**
+	 * SpotifyResultListModel constructor sets the page size, the
+	 * number of pages kept and the executor the pages are requested on.
+	 * @param pageSize is the number of results in every page but the first
+	 * @param maxCachedPages is the number of pages kept
+	 * @param names gets the names of the results of a page
+	 * @param executor runs the page requests
+	 */
+	SpotifyResultListModel(int pageSize, int maxCachedPages, Function<P, List<String>> names, Executor executor) {
+		this.pageSize = pageSize;
+		this.names = names;
+		this.executor = executor;
+		this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, P> eldest) {
+				return size() > maxCachedPages;
+			}
+		};
+	}
+
+	/**
+	 * setResults() replaces the results of the list. The list is
+	 * told once that every old row was removed and once that every
+	 * new row was added, rather than once per row.
+	 * @param size is the number of results
+	 * @param firstPage is the first page of results, already requested
+	 * @param firstPageSize is the number of results in the first page
+	 * @param loader requests the other pages
+	 */
+	public void setResults(int size, P firstPage, int firstPageSize, PageLoader<P> loader) {
+		clear();
+		this.size = size;
+		this.firstPageSize = firstPageSize;
+		this.loader = loader;
+		if (firstPage != null)
+			pages.put(0, firstPage);
+		if (size > 0)
+			fireIntervalAdded(this, 0, size - 1);
+	}
+
+	/**
+	 * clear() removes every result from the list.
+	 */
+	public void clear() {
+		final int oldSize = size;
+		generation++;
+		size = 0;
+		loader = null;
+		pages.clear();
+		loadingPages.clear();
+		if (oldSize > 0)
+			fireIntervalRemoved(this, 0, oldSize - 1);
+	}
+
+	/**
+	 * getSize() gets the number of results.
+	 * @return the number of results
+	 */
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * getElementAt() gets the name of a result. If its page hasn't
+	 * arrived yet, the page is requested and a placeholder is
+	 * returned; the list is told to redraw the rows once it arrives.
+	 * @param index is the index of the result
+	 * @return the name of the result, or a placeholder
+	 */
+	@Override
+	public String getElementAt(int index) {
+		final P page = getPage(index);
+		if (page == null)
+			return LOADING_TEXT;
+		final List<String> pageNames = names.apply(page);
+		final int indexInPage = getIndexInPage(index);
+		// Spotify's totals are estimates, so a page may hold fewer results than expected
+		return (indexInPage < pageNames.size()) ? pageNames.get(indexInPage) : "";
+	}
+
+	/**
+	 * getPage() gets the page holding a result, requesting it if it
+	 * hasn't arrived yet.
+	 * @param index is the index of the result
+	 * @return the page, or null if it hasn't arrived yet
+	 */
+	public P getPage(int index) {
+		final int pageIndex = pageOf(index);
+		final P page = pages.get(pageIndex);
+		if (page == null)
+			requestPage(pageIndex);
+		return page;
+	}
+
+	/**
+	 * getIndexInPage() gets the index of a result within its page.
+	 * @param index is the index of the result
+	 * @return the index of the result in its page
+	 */
+	public int getIndexInPage(int index) {
+		return index - pageOffset(pageOf(index));
+	}
+
+	/**
+	 * getPageOffset() gets the index of the first result of the page
+	 * holding a result.
+	 * @param index is the index of the result
+	 * @return the index of the first result of its page
+	 */
+	public int getPageOffset(int index) {
+		return pageOffset(pageOf(index));
+	}
+
+	/**
+	 * getCachedPageCount() gets the number of pages held in memory.
+	 * @return the number of pages kept
+	 */
+	public int getCachedPageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * getPagesRequested() gets the number of pages requested from
+	 * the loader since the model was created.
+	 * @return the number of pages requested
+	 */
+	public int getPagesRequested() {
+		return pagesRequested;
+	}
+
+	/**
+	 * pageOf() gets the index of the page holding a result.
+	 */
+	private int pageOf(int index) {
+		return (index < firstPageSize) ? 0 : 1 + (index - firstPageSize) / pageSize;
+	}
+
+	/**
+	 * pageOffset() gets the index of the first result of a page.
+	 */
+	private int pageOffset(int pageIndex) {
+		return (pageIndex == 0) ? 0 : firstPageSize + (pageIndex - 1) * pageSize;
+	}
+
+	/**
+	 * requestPage() requests a page in the background unless it is
+	 * already being requested. The page is added on the event dispatch
+	 * thread, and only if the results haven't been replaced since.
+	 */
+	private void requestPage(int pageIndex) {
+		if (loader == null || !loadingPages.add(pageIndex))
+			return;
+		final PageLoader<P> pageLoader = loader;
+		final int pageGeneration = generation;
+		final int offset = pageOffset(pageIndex);
+		final int limit = Math.min((pageIndex == 0) ? firstPageSize : pageSize, size - offset);
+		pagesRequested++;
+		executor.execute(() -> {
+			P page = null;
+			try {
+				page = pageLoader.loadPage(offset, limit);
+			} catch (Exception e) { // The page is requested again the next time one of its rows is drawn
+				logger.warn(SpotifyLog.event("page").with("offset", offset).with("limit", limit)
+						.with("status", "error").with("error", String.valueOf(e.getMessage())));
+			}
+			final P loadedPage = page;
+			SwingUtilities.invokeLater(() -> pageLoaded(pageGeneration, pageIndex, offset, limit, loadedPage));
+		});
+	}
+
+	/**
+	 * pageLoaded() adds a page that arrived and tells the list to
+	 * redraw its rows.
+	 */
+	private void pageLoaded(int pageGeneration, int pageIndex, int offset, int limit, P page) {
+		if (pageGeneration != generation)
+			return;
+		loadingPages.remove(pageIndex);
+		if (page == null)
+			return;
+		pages.put(pageIndex, page);
+		fireContentsChanged(this, offset, offset + limit - 1);
+	}
+
+}
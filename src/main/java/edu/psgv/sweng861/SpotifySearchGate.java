@@ -0,0 +1,50 @@
+package edu.psgv.sweng861;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * SpotifySearchGate numbers the searches made from the window, so
+ * that a search overtaken by a newer one is skipped if it hasn't
+ * been made yet, and what it would show once it returns is dropped.
+ * Searches begin on the event dispatch thread and are shown there,
+ * while the search thread checks whether its search is still the
+ * current one before making it.
+ * @author Matthew Bollinger
+ */
+class SpotifySearchGate {
+
+	// Number of the latest search. It is only changed on the event dispatch thread,
+	// But also read by the search thread
+	private volatile int generation;
+
+	/**
+	 * begin() numbers a new search, which overtakes the ones before it.
+	 * @return the number of the search
+	 */
+	int begin() {
+		return ++generation;
+	}
+
+	/**
+	 * isCurrent() checks whether no search was made after a search.
+	 * @param search is the number of the search
+	 * @return true if the search is the latest one
+	 */
+	boolean isCurrent(int search) {
+		return search == generation;
+	}
+
+	/**
+	 * show() shows the outcome of a search on the event dispatch
+	 * thread, unless another search was made by the time it runs.
+	 * @param search is the number of the search
+	 * @param shower shows the results or the failure of the search
+	 */
+	void show(int search, Runnable shower) {
+		SwingUtilities.invokeLater(() -> {
+			if (isCurrent(search))
+				shower.run();
+		});
+	}
+
+}
@@ -0,0 +1,68 @@
+package edu.psgv.sweng861;
+
+import java.util.ArrayList;
+
+/**
+ * SpotifySearchResults holds the results of a combined search,
+ * which asks for artists, tracks and optionally albums in a
+ * single request. The artists and tracks are the same objects
+ * a search of only that type would give, so either one can be
+ * shown without making another request.
+ * @author Matthew Bollinger
+ */
+public class SpotifySearchResults {
+
+	// Artists and tracks matching the query
+	private final SpotifyArtistData artistData;
+	private final SpotifyTrackData trackData;
+	// Names of the albums matching the query, empty unless albums were requested
+	private final ArrayList<String> albumNames;
+	private final int albumTotal;
+
+	/**
+	 * SpotifySearchResults constructor takes the results of each type.
+	 * @param artistData holds the artists
+	 * @param trackData holds the tracks
+	 * @param albumNames are the names of the albums
+	 * @param albumTotal is the number of albums matching the query
+	 */
+	public SpotifySearchResults(SpotifyArtistData artistData, SpotifyTrackData trackData, ArrayList<String> albumNames, int albumTotal) {
+		this.artistData = artistData;
+		this.trackData = trackData;
+		this.albumNames = albumNames;
+		this.albumTotal = albumTotal;
+	}
+
+	/**
+	 * getArtistData() gets the artists matching the query.
+	 * @return the artist data
+	 */
+	public SpotifyArtistData getArtistData() {
+		return artistData;
+	}
+
+	/**
+	 * getTrackData() gets the tracks matching the query.
+	 * @return the track data
+	 */
+	public SpotifyTrackData getTrackData() {
+		return trackData;
+	}
+
+	/**
+	 * getAlbumNames() gets the names of the albums matching the query.
+	 * @return an ArrayList of the names, empty unless albums were requested
+	 */
+	public ArrayList<String> getAlbumNames() {
+		return albumNames;
+	}
+
+	/**
+	 * getAlbumTotal() gets the number of albums matching the query.
+	 * @return the number of albums, 0 unless albums were requested
+	 */
+	public int getAlbumTotal() {
+		return Math.max(albumTotal, albumNames.size());
+	}
+
+}
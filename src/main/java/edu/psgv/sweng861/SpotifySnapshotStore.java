@@ -0,0 +1,439 @@
+package edu.psgv.sweng861;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * SpotifySnapshotStore writes the cached artist and track
+ * results, including small copies of their images, to a
+ * compact binary file and reads them back on the next start
+ * so that the first searches don't have to wait on the API.
+ * The file starts with a magic number and a format version;
+ * a file of any other version is ignored. Integers are written
+ * as variable-length quantities and strings as UTF-8 with their
+ * length, so a result of five artists takes a few kilobytes
+ * plus its thumbnails.
+ * @author Matthew Bollinger
+ */
+public class SpotifySnapshotStore {
+
+	// Marks the file as a snapshot ("SPSN")
+	static final int MAGIC = 0x5350534E;
+	// Version of the format, bumped whenever the layout changes
+	static final int VERSION = 4;
+	// Images are stored no larger than the picture shown by the GUI
+	static final int THUMBNAIL_SIZE = SpotifyImageStore.DISPLAY_SIZE;
+
+	// Types of the entries in the file
+	private static final int ARTIST_ENTRY = 1;
+	private static final int TRACK_ENTRY = 2;
+
+	// The snapshot file
+	private final Path file;
+
+	/**
+	 * SpotifySnapshotStore constructor sets the file the snapshot
+	 * is written to and read from.
+	 * @param file is the path of the snapshot file
+	 */
+	public SpotifySnapshotStore(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * getFile() gets the path of the snapshot file.
+	 * @return the path of the file
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * write() writes the artist and track results to the snapshot
+	 * file. The snapshot is first written to a temporary file that
+	 * then replaces the old one, so a crash never leaves half a file.
+	 * @param artists are the artist results and their cache keys
+	 * @param tracks are the track results and their cache keys
+	 * @throws IOException if the file can't be written
+	 */
+	public void write(List<Map.Entry<String, SpotifyArtistData>> artists,
+			List<Map.Entry<String, SpotifyTrackData>> tracks) throws IOException {
+		final Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+			Files.createDirectories(directory);
+		final Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				writeVarint(out, VERSION);
+				writeVarint(out, artists.size() + tracks.size());
+				for (Map.Entry<String, SpotifyArtistData> entry : artists) {
+					out.writeByte(ARTIST_ENTRY);
+					writeString(out, entry.getKey());
+					writeArtists(out, entry.getValue());
+				}
+				for (Map.Entry<String, SpotifyTrackData> entry : tracks) {
+					out.writeByte(TRACK_ENTRY);
+					writeString(out, entry.getKey());
+					writeTracks(out, entry.getValue());
+				}
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * load() reads the snapshot file through a memory-mapped buffer
+	 * and puts its results into the caches, oldest first so the
+	 * caches keep the order they were written in.
+	 * @param artists is the cache the artist results are put into
+	 * @param tracks is the cache the track results are put into
+	 * @return true if a snapshot was loaded, false if there is no
+	 * file or it was written in another version of the format
+	 * @throws IOException if the file can't be read or is corrupt
+	 */
+	public boolean load(SpotifyResultCache<SpotifyArtistData> artists, SpotifyResultCache<SpotifyTrackData> tracks) throws IOException {
+		final ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) { // No snapshot has been written yet
+			return false;
+		}
+		try {
+			if (buffer.remaining() < Integer.BYTES || buffer.getInt() != MAGIC || readVarint(buffer) != VERSION)
+				return false;
+			final int entries = readVarint(buffer);
+			for (int i = 0; i < entries; i++) {
+				final int type = buffer.get();
+				final String key = readString(buffer);
+				if (type == ARTIST_ENTRY)
+					artists.put(key, readArtists(buffer));
+				else if (type == TRACK_ENTRY)
+					tracks.put(key, readTracks(buffer));
+				else
+					throw new IOException("Unknown snapshot entry type " + type);
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) { // File was cut short or damaged
+			throw new IOException("Corrupt snapshot " + file, e);
+		}
+		return true;
+	}
+
+	/**
+	 * encodeArtists() encodes an artist result into bytes in the
+	 * layout of a snapshot entry, prefixed by the format version,
+	 * so it can be shared through a SpotifyRemoteCache.
+	 * @param artistData is the artist result
+	 * @return the encoded result
+	 * @throws IOException if an image can't be encoded
+	 */
+	static byte[] encodeArtists(SpotifyArtistData artistData) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			writeVarint(out, VERSION);
+			writeArtists(out, artistData);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * decodeArtists() decodes an artist result encoded by encodeArtists().
+	 * @param bytes are the encoded result
+	 * @return the artist result, or null if it was encoded in another
+	 * version of the format
+	 * @throws IOException if the bytes are corrupt
+	 */
+	static SpotifyArtistData decodeArtists(byte[] bytes) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try {
+			if (readVarint(buffer) != VERSION)
+				return null;
+			return readArtists(buffer);
+		} catch (BufferUnderflowException | IllegalArgumentException e) { // Bytes were cut short or damaged
+			throw new IOException("Corrupt artist result", e);
+		}
+	}
+
+	/**
+	 * encodeTracks() encodes a track result into bytes in the layout
+	 * of a snapshot entry, prefixed by the format version.
+	 * @param trackData is the track result
+	 * @return the encoded result
+	 * @throws IOException if an image can't be encoded
+	 */
+	static byte[] encodeTracks(SpotifyTrackData trackData) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			writeVarint(out, VERSION);
+			writeTracks(out, trackData);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * decodeTracks() decodes a track result encoded by encodeTracks().
+	 * @param bytes are the encoded result
+	 * @return the track result, or null if it was encoded in another
+	 * version of the format
+	 * @throws IOException if the bytes are corrupt
+	 */
+	static SpotifyTrackData decodeTracks(byte[] bytes) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try {
+			if (readVarint(buffer) != VERSION)
+				return null;
+			return readTracks(buffer);
+		} catch (BufferUnderflowException | IllegalArgumentException e) { // Bytes were cut short or damaged
+			throw new IOException("Corrupt track result", e);
+		}
+	}
+
+	/**
+	 * writeArtists() writes every artist of a result.
+	 */
+	private static void writeArtists(DataOutputStream out, SpotifyArtistData artistData) throws IOException {
+		synchronized (artistData) {
+			final int count = artistData.getArtistNames().size();
+			out.writeLong(artistData.getFetchedAtMs());
+			writeString(out, artistData.getMarket().getAlpha2());
+			writeVarint(out, artistData.getTotal());
+			writeVarint(out, count);
+			for (int i = 0; i < count; i++) {
+				writeString(out, artistData.getArtistIds().get(i));
+				writeString(out, artistData.getArtistNames().get(i));
+				writeStrings(out, artistData.getArtistGenres().get(i));
+				writeVarint(out, artistData.getArtistFollowers().get(i));
+				writeVarint(out, artistData.getArtistPopularityScores().get(i));
+				writeString(out, artistData.getArtistImageUrls().get(i));
+				writeStrings(out, artistData.getArtistRelatedArtists().get(i));
+				writeString(out, artistData.getArtistTopTracks().get(i));
+				writeThumbnail(out, artistData.getArtistImageBytes().get(i));
+			}
+		}
+	}
+
+	/**
+	 * readArtists() reads every artist of a result.
+	 */
+	private static SpotifyArtistData readArtists(ByteBuffer buffer) {
+		final SpotifyArtistData artistData = new SpotifyArtistData();
+		artistData.setFetchedAtMs(buffer.getLong());
+		// The market is set first, so the top tracks are learned in the market they are from
+		artistData.setMarket(SpotifyRestRequester.marketOf(readString(buffer), SpotifyRestRequester.DEFAULT_MARKET));
+		artistData.setTotal(readVarint(buffer));
+		final int count = readVarint(buffer);
+		for (int i = 0; i < count; i++) {
+			artistData.addArtist(readString(buffer), readString(buffer), readStrings(buffer),
+					readVarint(buffer), readVarint(buffer), readString(buffer));
+			artistData.setArtistRelatedArtistNames(i, readStrings(buffer));
+			artistData.setArtistTopTrack(i, readString(buffer));
+			artistData.setArtistImageBytes(i, readThumbnail(buffer));
+		}
+		return artistData;
+	}
+
+	/**
+	 * writeTracks() writes every track of a result.
+	 */
+	private static void writeTracks(DataOutputStream out, SpotifyTrackData trackData) throws IOException {
+		synchronized (trackData) {
+			final int count = trackData.getTrackNames().size();
+			out.writeLong(trackData.getFetchedAtMs());
+			writeVarint(out, trackData.getTotal());
+			writeVarint(out, count);
+			for (int i = 0; i < count; i++) {
+				writeString(out, trackData.getTrackIds().get(i));
+				writeString(out, trackData.getTrackNames().get(i));
+				writeString(out, trackData.getTrackAlbums().get(i));
+				writeString(out, trackData.getTrackAlbumReleaseDates().get(i));
+				writeStrings(out, trackData.getTrackArtists().get(i));
+				writeVarint(out, trackData.getTrackLengths().get(i));
+				out.writeBoolean(trackData.getTrackExplicits().get(i).equals("Yes"));
+				writeVarint(out, trackData.getTrackDiscNumbers().get(i));
+				writeVarint(out, trackData.getTrackTrkNumbers().get(i));
+				writeVarint(out, trackData.getTrackPopularityScores().get(i));
+				writeString(out, trackData.getTrackAlbumImageUrls().get(i));
+				writeThumbnail(out, trackData.getTrackAlbumImageBytes().get(i));
+			}
+		}
+	}
+
+	/**
+	 * readTracks() reads every track of a result.
+	 */
+	private static SpotifyTrackData readTracks(ByteBuffer buffer) {
+		final SpotifyTrackData trackData = new SpotifyTrackData();
+		trackData.setFetchedAtMs(buffer.getLong());
+		trackData.setTotal(readVarint(buffer));
+		final int count = readVarint(buffer);
+		for (int i = 0; i < count; i++) {
+			trackData.addTrack(readString(buffer), readString(buffer), readString(buffer), readString(buffer),
+					readStrings(buffer), readVarint(buffer), buffer.get() != 0, readVarint(buffer),
+					readVarint(buffer), readVarint(buffer), readString(buffer));
+			trackData.setTrackAlbumImageBytes(i, readThumbnail(buffer));
+		}
+		return trackData;
+	}
+
+	/**
+	 * writeThumbnail() writes an image as a JPEG scaled down to fit
+	 * the picture shown by the GUI, or a length of 0 if there is none.
+	 * An image that already fits, going by its header, is written as
+	 * it is. The image is decoded on its own rather than through the
+	 * shared image store, so writing doesn't evict the images the GUI
+	 * is showing.
+	 */
+	private static void writeThumbnail(DataOutputStream out, byte[] compressed) throws IOException {
+		boolean fits = false;
+		BufferedImage image = null;
+		try {
+			final Dimension size = (compressed != null) ? SpotifyImageStore.readSize(compressed) : null;
+			fits = size != null && size.width <= THUMBNAIL_SIZE && size.height <= THUMBNAIL_SIZE;
+			if (size != null && !fits)
+				image = SpotifyImageStore.read(compressed, THUMBNAIL_SIZE);
+		} catch (IOException | RuntimeException e) { // Caught if the bytes are damaged, the image is left out
+		}
+		if (fits) {
+			writeVarint(out, compressed.length);
+			out.write(compressed);
+			return;
+		}
+		if (image == null) {
+			writeVarint(out, 0);
+			return;
+		}
+		final double scale = Math.min(1.0, (double) THUMBNAIL_SIZE / Math.max(image.getWidth(), image.getHeight()));
+		final int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		final int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		// JPEG has no alpha channel, so the image is drawn onto a plain RGB one
+		final BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = thumbnail.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(thumbnail, "jpg", bytes);
+		writeVarint(out, bytes.size());
+		bytes.writeTo(out);
+	}
+
+	/**
+	 * readThumbnail() reads the compressed bytes of an image written
+	 * by writeThumbnail(). They are only decoded once the image is shown.
+	 */
+	private static byte[] readThumbnail(ByteBuffer buffer) {
+		final int length = readVarint(buffer);
+		if (length == 0)
+			return null;
+		if (length > buffer.remaining())
+			throw new BufferUnderflowException();
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * writeStrings() writes the number of strings followed by each string.
+	 */
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		writeVarint(out, strings.size());
+		for (String string : strings)
+			writeString(out, string);
+	}
+
+	/**
+	 * readStrings() reads strings written by writeStrings().
+	 */
+	private static ArrayList<String> readStrings(ByteBuffer buffer) {
+		final int count = readVarint(buffer);
+		// Every string takes at least one byte, so a larger count means the file is damaged
+		if (count > buffer.remaining())
+			throw new BufferUnderflowException();
+		final ArrayList<String> strings = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			strings.add(readString(buffer));
+		return strings;
+	}
+
+	/**
+	 * writeString() writes a string as its UTF-8 length plus one
+	 * followed by its bytes, with a length of 0 standing for null.
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			writeVarint(out, 0);
+			return;
+		}
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * readString() reads a string written by writeString().
+	 */
+	private static String readString(ByteBuffer buffer) {
+		final int length = readVarint(buffer) - 1;
+		if (length < 0)
+			return null;
+		if (length > buffer.remaining())
+			throw new BufferUnderflowException();
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * writeVarint() writes a non-negative int seven bits at a time,
+	 * so that small values such as counts take a single byte.
+	 */
+	static void writeVarint(DataOutputStream out, int value) throws IOException {
+		if (value < 0)
+			throw new IllegalArgumentException("Negative value " + value);
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	/**
+	 * readVarint() reads an int written by writeVarint().
+	 */
+	static int readVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed variable-length int");
+	}
+
+}
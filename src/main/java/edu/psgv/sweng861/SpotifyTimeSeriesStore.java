@@ -0,0 +1,472 @@
+package edu.psgv.sweng861;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SpotifyTimeSeriesStore keeps the follower and popularity history
+ * of artists in one file that is mapped into memory and only ever
+ * appended to. Each artist has a series of samples of when they
+ * were taken, the number of followers and the popularity number.
+ * <p>
+ * The file is made of blocks of 4 KB, each holding up to 448
+ * samples of one series. A block stores its first time and number
+ * of followers in full, and every sample as the difference from
+ * them, in columns: first the times, then the followers, then the
+ * popularities. The columns have a fixed width, so a range of times
+ * is found in a block by binary search, and a sample whose
+ * differences don't fit starts a new block. Appending a sample
+ * only touches the pages of memory of its block, which the
+ * operating system writes back to the file on its own or when
+ * flush() is called. The blocks of each series are listed in
+ * memory, rebuilt from the block headers when the file is opened.
+ * @author Matthew Bollinger
+ */
+public class SpotifyTimeSeriesStore implements Closeable {
+
+	// Marks the file as a time series file, and the version of its layout
+	private static final int MAGIC = 0x53505453; // "SPTS"
+	private static final int VERSION = 1;
+
+	// Size of each block, and of the file header in front of the first block
+	static final int BLOCK_SIZE = 4096;
+	// Layout of a block: the series ID, the base time and followers, the number of samples, then the columns
+	private static final int ID_OFFSET = 0;
+	static final int MAX_ID_LENGTH = 31;
+	private static final int BASE_TIME_OFFSET = 32;
+	private static final int BASE_FOLLOWERS_OFFSET = 40;
+	private static final int COUNT_OFFSET = 48;
+	private static final int HEADER_SIZE = 64;
+	// Samples in a block: 4 bytes of time, 4 of followers and 1 of popularity each
+	static final int BLOCK_CAPACITY = (BLOCK_SIZE - HEADER_SIZE) / 9;
+	private static final int TIMES_OFFSET = HEADER_SIZE;
+	private static final int FOLLOWERS_OFFSET = TIMES_OFFSET + 4 * BLOCK_CAPACITY;
+	private static final int POPULARITIES_OFFSET = FOLLOWERS_OFFSET + 4 * BLOCK_CAPACITY;
+	// Number of blocks mapped at a time as the file grows (4 MB)
+	static final int DEFAULT_SEGMENT_BLOCKS = 1024;
+
+	/**
+	 * Samples holds samples of one series in time order.
+	 */
+	public static class Samples {
+		private long[] times;
+		private long[] followers;
+		private int[] popularities;
+		private int size;
+
+		Samples(int capacity) {
+			times = new long[capacity];
+			followers = new long[capacity];
+			popularities = new int[capacity];
+		}
+
+		/**
+		 * add() adds a sample to the end.
+		 */
+		void add(long time, long followerCount, int popularity) {
+			if (size == times.length) {
+				final int capacity = Math.max(16, size * 2);
+				times = Arrays.copyOf(times, capacity);
+				followers = Arrays.copyOf(followers, capacity);
+				popularities = Arrays.copyOf(popularities, capacity);
+			}
+			times[size] = time;
+			followers[size] = followerCount;
+			popularities[size] = popularity;
+			size++;
+		}
+
+		/**
+		 * size() gets the number of samples.
+		 * @return the number of samples
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * getTime() gets when a sample was taken.
+		 * @param index is the index of the sample
+		 * @return the time in milliseconds since the epoch
+		 */
+		public long getTime(int index) {
+			return times[index];
+		}
+
+		/**
+		 * getFollowers() gets the number of followers of a sample.
+		 * @param index is the index of the sample
+		 * @return the number of followers
+		 */
+		public long getFollowers(int index) {
+			return followers[index];
+		}
+
+		/**
+		 * getPopularity() gets the popularity number of a sample.
+		 * @param index is the index of the sample
+		 * @return the popularity number (0..100)
+		 */
+		public int getPopularity(int index) {
+			return popularities[index];
+		}
+	}
+
+	/**
+	 * Series lists the blocks of one series in time order.
+	 */
+	private static class Series {
+		int[] blocks = new int[1];
+		int blockCount;
+		long lastTime = Long.MIN_VALUE;
+
+		void addBlock(int block) {
+			if (blockCount == blocks.length)
+				blocks = Arrays.copyOf(blocks, blockCount * 2);
+			blocks[blockCount++] = block;
+		}
+
+		int lastBlock() {
+			return blocks[blockCount - 1];
+		}
+	}
+
+	private final Path file;
+	private final FileChannel channel;
+	private final int segmentBlocks;
+	// The mapped parts of the file, each holding the same number of blocks
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	// Series by their ID
+	private final Map<String, Series> series = new HashMap<>();
+	// Number of blocks in use, the next one to be taken
+	private int blockCount;
+	private boolean closed;
+
+	/**
+	 * SpotifyTimeSeriesStore constructor opens a time series file,
+	 * creating it if it doesn't exist.
+	 * @param file is the path of the file
+	 * @throws IOException if the file can't be opened or isn't a time series file
+	 */
+	public SpotifyTimeSeriesStore(Path file) throws IOException {
+		this(file, DEFAULT_SEGMENT_BLOCKS);
+	}
+
+	/**
+	 * SpotifyTimeSeriesStore constructor opens a time series file
+	 * and sets how many blocks are mapped at a time.
+	 * @param file is the path of the file
+	 * @param segmentBlocks is the number of blocks mapped at a time
+	 * @throws IOException if the file can't be opened or isn't a time series file
+	 */
+	SpotifyTimeSeriesStore(Path file, int segmentBlocks) throws IOException {
+		this.file = file;
+		this.segmentBlocks = segmentBlocks;
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			open();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * open() writes the header of a new file, or checks the header of
+	 * an existing one and lists the blocks of each series.
+	 */
+	private void open() throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(12);
+		if (channel.size() == 0) {
+			header.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_SIZE).flip();
+			channel.write(header, 0);
+			return;
+		}
+		channel.read(header, 0);
+		header.flip();
+		if (header.remaining() < 12 || header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != BLOCK_SIZE)
+			throw new IOException("Not a time series file: " + file);
+		// Blocks are taken in order, so the first one without a series ID ends the used ones
+		final long blocksInFile = (channel.size() - BLOCK_SIZE) / BLOCK_SIZE;
+		while (blockCount < blocksInFile) {
+			map(blockCount);
+			final ByteBuffer segment = segmentOf(blockCount);
+			final int base = offsetOf(blockCount);
+			final int idLength = segment.get(base + ID_OFFSET);
+			if (idLength == 0)
+				break;
+			final String id = readId(segment, base, idLength);
+			final Series entry = series.computeIfAbsent(id, key -> new Series());
+			entry.addBlock(blockCount);
+			final int count = segment.getInt(base + COUNT_OFFSET);
+			if (count > 0)
+				entry.lastTime = segment.getLong(base + BASE_TIME_OFFSET)
+						+ segment.getInt(base + TIMES_OFFSET + 4 * (count - 1));
+			blockCount++;
+		}
+	}
+
+	/**
+	 * append() adds a sample to the end of a series, creating the
+	 * series if it is new.
+	 * @param id is the ID of the series, such as a Spotify artist ID
+	 * @param time is when the sample was taken, in milliseconds since the epoch
+	 * @param followers is the number of followers
+	 * @param popularity is the popularity number (0..100)
+	 * @throws IOException if the file can't grow
+	 * @throws IllegalArgumentException if the sample is older than the
+	 * last one of the series, or the ID or popularity is out of range
+	 */
+	public synchronized void append(String id, long time, long followers, int popularity) throws IOException {
+		checkOpen();
+		if (popularity < 0 || popularity > 100)
+			throw new IllegalArgumentException("Bad popularity " + popularity);
+		Series entry = series.get(id);
+		if (entry != null && time < entry.lastTime)
+			throw new IllegalArgumentException("Sample at " + time + " is older than the last one of " + id);
+		if (entry == null) {
+			final byte[] idBytes = id.getBytes(StandardCharsets.US_ASCII);
+			if (idBytes.length == 0 || idBytes.length > MAX_ID_LENGTH)
+				throw new IllegalArgumentException("Bad series ID " + id);
+			entry = new Series();
+			series.put(id, entry);
+		}
+		int block = (entry.blockCount > 0) ? entry.lastBlock() : -1;
+		ByteBuffer segment = (block >= 0) ? segmentOf(block) : null;
+		int base = (block >= 0) ? offsetOf(block) : 0;
+		final int count = (block >= 0) ? segment.getInt(base + COUNT_OFFSET) : 0;
+		// A new block is started once the last one is full or the sample is too far from its base
+		if (block < 0 || count == BLOCK_CAPACITY
+				|| !fitsInt(time - segment.getLong(base + BASE_TIME_OFFSET))
+				|| !fitsInt(followers - segment.getLong(base + BASE_FOLLOWERS_OFFSET))) {
+			block = newBlock(id, time, followers);
+			entry.addBlock(block);
+			segment = segmentOf(block);
+			base = offsetOf(block);
+		}
+		final int index = segment.getInt(base + COUNT_OFFSET);
+		segment.putInt(base + TIMES_OFFSET + 4 * index, (int) (time - segment.getLong(base + BASE_TIME_OFFSET)));
+		segment.putInt(base + FOLLOWERS_OFFSET + 4 * index, (int) (followers - segment.getLong(base + BASE_FOLLOWERS_OFFSET)));
+		segment.put(base + POPULARITIES_OFFSET + index, (byte) popularity);
+		// The count is written last, so a sample cut off by a crash is never read
+		segment.putInt(base + COUNT_OFFSET, index + 1);
+		entry.lastTime = time;
+	}
+
+	/**
+	 * query() gets the samples of a series taken within a range of time.
+	 * @param id is the ID of the series
+	 * @param fromTime is the start of the range, inclusive
+	 * @param toTime is the end of the range, exclusive
+	 * @return the samples in time order, empty if there are none
+	 */
+	public synchronized Samples query(String id, long fromTime, long toTime) {
+		checkOpen();
+		final Samples samples = new Samples(16);
+		final Series entry = series.get(id);
+		if (entry == null)
+			return samples;
+		for (int i = 0; i < entry.blockCount; i++) {
+			final int block = entry.blocks[i];
+			final ByteBuffer segment = segmentOf(block);
+			final int base = offsetOf(block);
+			final int count = segment.getInt(base + COUNT_OFFSET);
+			final long baseTime = segment.getLong(base + BASE_TIME_OFFSET);
+			if (count == 0 || baseTime >= toTime)
+				continue;
+			if (baseTime + segment.getInt(base + TIMES_OFFSET + 4 * (count - 1)) < fromTime)
+				continue;
+			final long baseFollowers = segment.getLong(base + BASE_FOLLOWERS_OFFSET);
+			for (int j = firstAtOrAfter(segment, base, count, fromTime - baseTime); j < count; j++) {
+				final long time = baseTime + segment.getInt(base + TIMES_OFFSET + 4 * j);
+				if (time >= toTime)
+					break;
+				samples.add(time, baseFollowers + segment.getInt(base + FOLLOWERS_OFFSET + 4 * j),
+						segment.get(base + POPULARITIES_OFFSET + j));
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * downsample() gets the samples of a series within a range of time
+	 * reduced to at most one per bucket of time, for drawing a chart.
+	 * Each bucket has the time it starts at and the values of the last
+	 * sample taken within it.
+	 * @param id is the ID of the series
+	 * @param fromTime is the start of the range, inclusive
+	 * @param toTime is the end of the range, exclusive
+	 * @param bucketMs is the length of each bucket in milliseconds
+	 * @return one sample for each bucket that has any, in time order
+	 */
+	public synchronized Samples downsample(String id, long fromTime, long toTime, long bucketMs) {
+		if (bucketMs <= 0)
+			throw new IllegalArgumentException("Bad bucket length " + bucketMs);
+		final Samples samples = query(id, fromTime, toTime);
+		final Samples buckets = new Samples(16);
+		for (int i = 0; i < samples.size(); i++) {
+			final long bucket = fromTime + (samples.getTime(i) - fromTime) / bucketMs * bucketMs;
+			// Only the last sample of each bucket is kept
+			if (i + 1 < samples.size() && samples.getTime(i + 1) < bucket + bucketMs)
+				continue;
+			buckets.add(bucket, samples.getFollowers(i), samples.getPopularity(i));
+		}
+		return buckets;
+	}
+
+	/**
+	 * getSeriesIds() gets the IDs of every series in the file.
+	 * @return a list of the IDs
+	 */
+	public synchronized List<String> getSeriesIds() {
+		return new ArrayList<>(series.keySet());
+	}
+
+	/**
+	 * getSampleCount() gets the number of samples of a series.
+	 * @param id is the ID of the series
+	 * @return the number of samples, 0 if there is no such series
+	 */
+	public synchronized int getSampleCount(String id) {
+		checkOpen();
+		final Series entry = series.get(id);
+		if (entry == null)
+			return 0;
+		int count = 0;
+		for (int i = 0; i < entry.blockCount; i++)
+			count += segmentOf(entry.blocks[i]).getInt(offsetOf(entry.blocks[i]) + COUNT_OFFSET);
+		return count;
+	}
+
+	/**
+	 * getBlockCount() gets the number of blocks in use.
+	 * @return the number of blocks
+	 */
+	public synchronized int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * flush() writes the appended samples back to the file.
+	 */
+	public synchronized void flush() {
+		checkOpen();
+		for (MappedByteBuffer segment : segments)
+			segment.force();
+	}
+
+	/**
+	 * close() writes the appended samples back to the file and
+	 * closes it.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		flush();
+		closed = true;
+		segments.clear();
+		channel.close();
+	}
+
+	/**
+	 * newBlock() takes the next block for a series and writes its header.
+	 */
+	private int newBlock(String id, long baseTime, long baseFollowers) throws IOException {
+		final int block = blockCount;
+		map(block);
+		final ByteBuffer segment = segmentOf(block);
+		final int base = offsetOf(block);
+		segment.putLong(base + BASE_TIME_OFFSET, baseTime);
+		segment.putLong(base + BASE_FOLLOWERS_OFFSET, baseFollowers);
+		segment.putInt(base + COUNT_OFFSET, 0);
+		final byte[] idBytes = id.getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < idBytes.length; i++)
+			segment.put(base + ID_OFFSET + 1 + i, idBytes[i]);
+		// The ID length is written last, since it marks the block as in use
+		segment.put(base + ID_OFFSET, (byte) idBytes.length);
+		blockCount++;
+		return block;
+	}
+
+	/**
+	 * map() maps the part of the file holding a block, growing the
+	 * file if it doesn't reach that far yet.
+	 */
+	private void map(int block) throws IOException {
+		while (segments.size() <= block / segmentBlocks) {
+			final long position = BLOCK_SIZE + (long) segments.size() * segmentBlocks * BLOCK_SIZE;
+			segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) segmentBlocks * BLOCK_SIZE));
+		}
+	}
+
+	/**
+	 * segmentOf() gets the mapped part of the file holding a block.
+	 */
+	private MappedByteBuffer segmentOf(int block) {
+		return segments.get(block / segmentBlocks);
+	}
+
+	/**
+	 * offsetOf() gets where a block starts within its segment.
+	 */
+	private int offsetOf(int block) {
+		return (block % segmentBlocks) * BLOCK_SIZE;
+	}
+
+	/**
+	 * firstAtOrAfter() finds the first sample of a block taken at or
+	 * after a time, by binary search of its times.
+	 */
+	private static int firstAtOrAfter(ByteBuffer segment, int base, int count, long timeOffset) {
+		int low = 0, high = count;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (segment.getInt(base + TIMES_OFFSET + 4 * middle) < timeOffset)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * readId() reads the series ID of a block.
+	 */
+	private static String readId(ByteBuffer segment, int base, int length) {
+		final byte[] idBytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			idBytes[i] = segment.get(base + ID_OFFSET + 1 + i);
+		return new String(idBytes, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * fitsInt() checks whether a difference can be stored in a column.
+	 */
+	private static boolean fitsInt(long value) {
+		return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * checkOpen() makes sure the store hasn't been closed.
+	 */
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("Time series store is closed");
+	}
+
+}
@@ -0,0 +1,218 @@
+package edu.psgv.sweng861;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * SpotifyTokenStore saves the client credentials access token
+ * between runs so that a restart within the hour the token is
+ * valid for doesn't need to request a new one. The token is
+ * encrypted with AES-GCM under a key derived from the client
+ * id and secret, so it can only be read back by a program that
+ * could have requested it anyway, and the file is readable by
+ * its owner only where the file system supports it.
+ * @author Matthew Bollinger
+ */
+public class SpotifyTokenStore {
+
+	// Version of the file layout, bumped whenever it changes
+	static final int VERSION = 1;
+	// Tokens that expire within this margin are not used
+	static final long EXPIRY_MARGIN_MS = 60_000;
+
+	// Sizes of the AES-GCM nonce and authentication tag
+	private static final int NONCE_BYTES = 12;
+	private static final int TAG_BITS = 128;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	// The token file
+	private final Path file;
+
+	/**
+	 * Token is an access token and the time it expires at.
+	 */
+	public static class Token {
+
+		private final String accessToken;
+		private final long expiresAtMs;
+
+		/**
+		 * Token constructor sets the access token and its expiry.
+		 * @param accessToken is the access token
+		 * @param expiresAtMs is when it expires, in epoch milliseconds
+		 */
+		public Token(String accessToken, long expiresAtMs) {
+			this.accessToken = accessToken;
+			this.expiresAtMs = expiresAtMs;
+		}
+
+		/**
+		 * getAccessToken() gets the access token.
+		 * @return the access token
+		 */
+		public String getAccessToken() {
+			return accessToken;
+		}
+
+		/**
+		 * getExpiresAtMs() gets when the token expires.
+		 * @return the expiry in epoch milliseconds
+		 */
+		public long getExpiresAtMs() {
+			return expiresAtMs;
+		}
+
+		/**
+		 * isValid() checks whether the token is still valid for at
+		 * least the expiry margin.
+		 * @param nowMs is the current time in epoch milliseconds
+		 * @return true if the token can still be used
+		 */
+		public boolean isValid(long nowMs) {
+			return expiresAtMs - nowMs > EXPIRY_MARGIN_MS;
+		}
+
+	}
+
+	/**
+	 * SpotifyTokenStore constructor sets the file the token is
+	 * saved to and read from.
+	 * @param file is the path of the token file
+	 */
+	public SpotifyTokenStore(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * getFile() gets the path of the token file.
+	 * @return the path of the file
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * forClient() gets the store of the token of another app, kept in
+	 * a file next to this one, for a pool of several apps.
+	 * @param index is the position of the app in the pool
+	 * @return the store of the app's token
+	 */
+	public SpotifyTokenStore forClient(int index) {
+		return new SpotifyTokenStore(file.resolveSibling(file.getFileName() + "." + index));
+	}
+
+	/**
+	 * save() encrypts a token and writes it to the token file.
+	 * @param token is the token to save
+	 * @param clientId is the client id the token was requested with
+	 * @param clientSecret is the client secret the token was requested with
+	 * @throws IOException if the file can't be written
+	 */
+	public void save(Token token, String clientId, String clientSecret) throws IOException {
+		final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(plain)) {
+			out.writeLong(token.getExpiresAtMs());
+			out.writeUTF(token.getAccessToken());
+		}
+		final byte[] nonce = new byte[NONCE_BYTES];
+		random.nextBytes(nonce);
+		final byte[] sealed;
+		try {
+			final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, deriveKey(clientId, clientSecret), new GCMParameterSpec(TAG_BITS, nonce));
+			sealed = cipher.doFinal(plain.toByteArray());
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Unable to encrypt the token", e);
+		}
+
+		final Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+			Files.createDirectories(directory);
+		final Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			restrictToOwner(tempFile);
+			Files.write(tempFile, ByteBuffer.allocate(1 + NONCE_BYTES + sealed.length)
+					.put((byte) VERSION).put(nonce).put(sealed).array());
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * load() reads and decrypts the saved token.
+	 * @param clientId is the client id the token must have been requested with
+	 * @param clientSecret is the client secret the token must have been requested with
+	 * @return the token, or null if there is none, it was saved under other
+	 * credentials or in another version, or it is damaged
+	 * @throws IOException if the file can't be read
+	 */
+	public Token load(String clientId, String clientSecret) throws IOException {
+		final byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(file);
+		} catch (NoSuchFileException e) { // No token has been saved yet
+			return null;
+		}
+		if (bytes.length <= 1 + NONCE_BYTES || bytes[0] != VERSION)
+			return null;
+		try {
+			final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.DECRYPT_MODE, deriveKey(clientId, clientSecret), new GCMParameterSpec(TAG_BITS, bytes, 1, NONCE_BYTES));
+			final ByteBuffer plain = ByteBuffer.wrap(cipher.doFinal(bytes, 1 + NONCE_BYTES, bytes.length - 1 - NONCE_BYTES));
+			final long expiresAtMs = plain.getLong();
+			final byte[] accessToken = new byte[plain.getShort() & 0xFFFF];
+			plain.get(accessToken);
+			return new Token(new String(accessToken, StandardCharsets.UTF_8), expiresAtMs);
+		} catch (GeneralSecurityException | RuntimeException e) { // Other credentials or a damaged file
+			return null;
+		}
+	}
+
+	/**
+	 * clear() deletes the saved token, such as after it was rejected.
+	 * @throws IOException if the file can't be deleted
+	 */
+	public void clear() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * deriveKey() derives the AES key the token is encrypted with
+	 * from the client id and secret.
+	 */
+	private static SecretKeySpec deriveKey(String clientId, String clientSecret) throws GeneralSecurityException {
+		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update("spotify-token-store:".getBytes(StandardCharsets.UTF_8));
+		digest.update(String.valueOf(clientId).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(String.valueOf(clientSecret).getBytes(StandardCharsets.UTF_8));
+		return new SecretKeySpec(digest.digest(), "AES");
+	}
+
+	/**
+	 * restrictToOwner() makes a file readable and writable by its
+	 * owner only, on file systems that have POSIX permissions.
+	 */
+	private static void restrictToOwner(Path path) throws IOException {
+		if (Files.getFileStore(path).supportsFileAttributeView("posix"))
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+	}
+
+}
@@ -0,0 +1,190 @@
+package edu.psgv.sweng861;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SpotifyTopK keeps the most popular of the results offered to it,
+ * up to a fixed number, however many results are offered. It is
+ * used to find the most popular results of a search among all of
+ * its pages, which Spotify sorts by relevance rather than popularity.
+ * <p>
+ * The results are kept in a binary heap with the least popular one
+ * at the root, so a result that isn't more popular than it is turned
+ * away after one comparison. The heap is laid out in arrays of the
+ * raw popularity numbers and positions of the results rather than
+ * in objects, and results that are equally popular are ranked by
+ * their position in the search, the more relevant one first.
+ * @author Matthew Bollinger
+ */
+public class SpotifyTopK<T> {
+
+	// Maximum number of results kept
+	private final int capacity;
+	// Popularity, position in the search and value of each kept result,
+	// In heap order with the least popular result at index 0
+	private final int[] popularities;
+	private final int[] positions;
+	private final Object[] values;
+	// Number of results kept
+	private int size;
+	// Number of results offered, for monitoring
+	private long offered;
+
+	/**
+	 * SpotifyTopK constructor sets the number of results kept.
+	 * @param capacity is the maximum number of results kept
+	 */
+	public SpotifyTopK(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Bad capacity " + capacity);
+		this.capacity = capacity;
+		this.popularities = new int[capacity];
+		this.positions = new int[capacity];
+		this.values = new Object[capacity];
+	}
+
+	/**
+	 * accepts() checks whether a result would be kept if it were
+	 * offered, so that its value is only made if it will be.
+	 * @param popularity is the popularity number of the result
+	 * @param position is the position of the result in the search
+	 * @return true if the result is among the most popular so far
+	 */
+	public synchronized boolean accepts(int popularity, int position) {
+		return size < capacity || isBefore(popularity, position, popularities[0], positions[0]);
+	}
+
+	/**
+	 * offer() keeps a result if it is among the most popular so far,
+	 * dropping the least popular one kept if there is no room.
+	 * @param popularity is the popularity number of the result
+	 * @param position is the position of the result in the search
+	 * @param value is the result
+	 * @return true if the result was kept
+	 */
+	public synchronized boolean offer(int popularity, int position, T value) {
+		offered++;
+		if (size < capacity) {
+			set(size, popularity, position, value);
+			siftUp(size++);
+			return true;
+		}
+		if (!isBefore(popularity, position, popularities[0], positions[0]))
+			return false;
+		set(0, popularity, position, value);
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * drain() takes every kept result out, from the most to the
+	 * least popular, leaving the heap empty.
+	 * @return a list of the results
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized List<T> drain() {
+		final Object[] sorted = new Object[size];
+		// The root is always the least popular result left, so the list fills from its end
+		while (size > 0) {
+			sorted[size - 1] = values[0];
+			size--;
+			set(0, popularities[size], positions[size], values[size]);
+			values[size] = null;
+			siftDown(0);
+		}
+		final List<T> results = new ArrayList<>(sorted.length);
+		for (Object value : sorted)
+			results.add((T) value);
+		return results;
+	}
+
+	/**
+	 * size() gets the number of kept results.
+	 * @return the number of results
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * getOffered() gets the number of results offered so far.
+	 * @return the number of results
+	 */
+	public synchronized long getOffered() {
+		return offered;
+	}
+
+	/**
+	 * getMinPopularity() gets the popularity a result must beat to
+	 * be kept once the heap is full.
+	 * @return the popularity of the least popular kept result, or -1
+	 * while there is still room
+	 */
+	public synchronized int getMinPopularity() {
+		return (size < capacity) ? -1 : popularities[0];
+	}
+
+	/**
+	 * isBefore() checks whether one result ranks before another: it
+	 * is more popular, or as popular and earlier in the search.
+	 */
+	private static boolean isBefore(int popularity, int position, int otherPopularity, int otherPosition) {
+		return popularity > otherPopularity || (popularity == otherPopularity && position < otherPosition);
+	}
+
+	/**
+	 * siftUp() moves a result up the heap past the results it ranks after.
+	 */
+	private void siftUp(int index) {
+		while (index > 0) {
+			final int parent = (index - 1) / 2;
+			if (!isBefore(popularities[parent], positions[parent], popularities[index], positions[index]))
+				return;
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	/**
+	 * siftDown() moves a result down the heap past the results that
+	 * rank after it.
+	 */
+	private void siftDown(int index) {
+		while (true) {
+			final int left = 2 * index + 1;
+			if (left >= size)
+				return;
+			// Picks the child that ranks last, which belongs closest to the root
+			int child = left;
+			final int right = left + 1;
+			if (right < size && isBefore(popularities[left], positions[left], popularities[right], positions[right]))
+				child = right;
+			if (!isBefore(popularities[index], positions[index], popularities[child], positions[child]))
+				return;
+			swap(index, child);
+			index = child;
+		}
+	}
+
+	/**
+	 * set() puts a result at an index of the heap arrays.
+	 */
+	private void set(int index, int popularity, int position, Object value) {
+		popularities[index] = popularity;
+		positions[index] = position;
+		values[index] = value;
+	}
+
+	/**
+	 * swap() exchanges the results at two indexes of the heap arrays.
+	 */
+	private void swap(int a, int b) {
+		final int popularity = popularities[a];
+		final int position = positions[a];
+		final Object value = values[a];
+		set(a, popularities[b], positions[b], values[b]);
+		set(b, popularity, position, value);
+	}
+
+}
@@ -0,0 +1,286 @@
+package edu.psgv.sweng861;
+
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpotifyTracer records a timeline of the stages of a sample of
+ * searches, such as waiting for the token, each request to an
+ * endpoint and each image download, and writes each one to a file
+ * in the Chrome trace event format that chrome://tracing and
+ * Perfetto open. The timeline shows which stages ran on which
+ * threads, how they overlapped, and which of them the search
+ * waited for.
+ * <p>
+ * A traced search is found by the correlation ID of the thread, so
+ * stages running on the request threads join the timeline of the
+ * search that started them. A search that isn't sampled costs one
+ * lookup per stage. The timeline is written a while after the
+ * search returns, so the details still arriving in the background
+ * are part of it.
+ * @author Matthew Bollinger
+ */
+public class SpotifyTracer {
+
+	private static final Logger logger = LogManager.getLogger(SpotifyTracer.class);
+
+	// How long after a search returns its stages are still recorded
+	static final long DEFAULT_LINGER_MS = 10_000;
+	// Most stages recorded for one search, so a runaway search can't use up memory
+	private static final int MAX_SPANS = 10_000;
+
+	// Writes the timelines once their searches are over
+	private static final ScheduledExecutorService traceWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "spotify-trace");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// Returned for the stages of searches that aren't traced
+	private static final Span NOT_TRACED = new Span(null, null);
+
+	/**
+	 * Span is one stage of a traced search, recorded once closed.
+	 */
+	public static class Span implements AutoCloseable {
+		private final Trace trace;
+		private final String name;
+		private final long startNanos;
+		private final Thread thread;
+		private long endNanos;
+		private Map<String, Object> args;
+
+		Span(Trace trace, String name) {
+			this.trace = trace;
+			this.name = name;
+			this.startNanos = (trace != null) ? System.nanoTime() : 0;
+			this.thread = (trace != null) ? Thread.currentThread() : null;
+		}
+
+		/**
+		 * arg() adds a value shown with the stage in the timeline.
+		 * @param key is the name of the value
+		 * @param value is the value
+		 * @return this span
+		 */
+		public Span arg(String key, Object value) {
+			if (trace != null) {
+				if (args == null)
+					args = new LinkedHashMap<>();
+				args.put(key, value);
+			}
+			return this;
+		}
+
+		/**
+		 * isTraced() checks whether the stage is being recorded, so
+		 * that values only needed by the timeline can be skipped.
+		 * @return true if the search is traced
+		 */
+		public boolean isTraced() {
+			return trace != null;
+		}
+
+		/**
+		 * close() ends the stage and records it.
+		 */
+		@Override
+		public void close() {
+			if (trace == null)
+				return;
+			endNanos = System.nanoTime();
+			trace.add(this);
+		}
+	}
+
+	/**
+	 * Trace holds the recorded stages of one search.
+	 */
+	private static class Trace {
+		final String id;
+		final String name;
+		final long startNanos = System.nanoTime();
+		final long startMs = System.currentTimeMillis();
+		final List<Span> spans = new ArrayList<>();
+
+		Trace(String id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		synchronized void add(Span span) {
+			if (spans.size() < MAX_SPANS)
+				spans.add(span);
+		}
+
+		synchronized List<Span> copySpans() {
+			return new ArrayList<>(spans);
+		}
+	}
+
+	// Share of searches traced (0..1), where the timelines go, and how long they are kept open
+	private final double sampleRate;
+	private final Path directory;
+	private final long lingerMs;
+	// Searches being traced by their correlation ID
+	private final Map<String, Trace> traces = new ConcurrentHashMap<>();
+
+	/**
+	 * SpotifyTracer constructor sets how many searches are traced
+	 * and where their timelines are written.
+	 * @param sampleRate is the share of searches traced (0..1)
+	 * @param directory is the directory the timelines are written to
+	 * @param lingerMs is how long after a search returns its stages are still recorded
+	 */
+	public SpotifyTracer(double sampleRate, Path directory, long lingerMs) {
+		this.sampleRate = sampleRate;
+		this.directory = directory;
+		this.lingerMs = lingerMs;
+	}
+
+	/**
+	 * fromSystemProperties() creates a tracer set by the
+	 * spotify.trace.sample property, the share of searches traced,
+	 * and the spotify.trace.dir property, where the timelines go.
+	 * @return the tracer, which traces nothing if the share isn't set
+	 */
+	public static SpotifyTracer fromSystemProperties() {
+		final double sampleRate = Double.parseDouble(System.getProperty("spotify.trace.sample", "0"));
+		final Path directory = Paths.get(System.getProperty("spotify.trace.dir",
+				System.getProperty("user.home") + "/.spotify-rest-api/traces"));
+		return new SpotifyTracer(sampleRate, directory, DEFAULT_LINGER_MS);
+	}
+
+	/**
+	 * begin() starts the stage of a whole search, tracing the search
+	 * if it is picked for the sample. A search started by a search
+	 * already being traced is a stage of it instead. The thread must
+	 * have a correlation ID.
+	 * @param name is the name of the search, such as "search artist"
+	 * @param query is the text searched for
+	 * @return the span to close once the search returns
+	 */
+	public Span begin(String name, String query) {
+		final String id = SpotifyLog.getCorrelationId();
+		if (id == null || sampleRate <= 0)
+			return NOT_TRACED;
+		final Trace existing = traces.get(id);
+		if (existing != null)
+			return new Span(existing, name).arg("query", query);
+		if (ThreadLocalRandom.current().nextDouble() >= sampleRate)
+			return NOT_TRACED;
+		final Trace trace = new Trace(id, name);
+		traces.put(id, trace);
+		traceWriter.schedule(() -> finish(trace), lingerMs, TimeUnit.MILLISECONDS);
+		return new Span(trace, name).arg("query", query).arg("correlationId", id);
+	}
+
+	/**
+	 * span() starts a stage of the search the current thread is
+	 * working on.
+	 * @param name is the name of the stage, such as the endpoint called
+	 * @return the span to close once the stage is done, which records
+	 * nothing if the search isn't traced
+	 */
+	public Span span(String name) {
+		if (traces.isEmpty())
+			return NOT_TRACED;
+		final String id = SpotifyLog.getCorrelationId();
+		final Trace trace = (id != null) ? traces.get(id) : null;
+		return (trace != null) ? new Span(trace, name) : NOT_TRACED;
+	}
+
+	/**
+	 * finish() stops tracing a search and writes its timeline.
+	 */
+	private void finish(Trace trace) {
+		traces.remove(trace.id);
+		final List<Span> spans = trace.copySpans();
+		spans.sort(Comparator.comparingLong(span -> span.startNanos));
+		final Path file = directory.resolve("trace-" + trace.startMs + "-" + trace.id + ".json");
+		try {
+			Files.createDirectories(directory);
+			// Written next to the file and moved into place, so a half-written timeline is never opened
+			final Path partial = directory.resolve(file.getFileName() + ".tmp");
+			try (Writer writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+				write(trace, spans, writer);
+			}
+			Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+			logger.info(SpotifyLog.event("trace").with("correlationId", trace.id).with("spans", spans.size())
+					.with("file", file.toString()));
+		} catch (IOException e) {
+			logger.warn(SpotifyLog.event("trace").with("correlationId", trace.id).with("status", "error")
+					.with("error", e.getMessage()));
+		}
+	}
+
+	/**
+	 * write() writes the stages of a search as trace events: one
+	 * complete event for each stage, with its start and length in
+	 * microseconds from the start of the search, and one event naming
+	 * each thread.
+	 */
+	private static void write(Trace trace, List<Span> spans, Writer out) throws IOException {
+		final JsonWriter json = new JsonWriter(out);
+		json.beginObject();
+		json.name("displayTimeUnit").value("ms");
+		json.name("otherData").beginObject().name("correlationId").value(trace.id)
+				.name("search").value(trace.name).name("startMs").value(trace.startMs).endObject();
+		json.name("traceEvents").beginArray();
+		json.beginObject().name("name").value("process_name").name("ph").value("M").name("pid").value(1)
+				.name("args").beginObject().name("name").value("spotify " + trace.name).endObject().endObject();
+		final Map<Long, String> threadNames = new LinkedHashMap<>();
+		for (Span span : spans)
+			threadNames.putIfAbsent(span.thread.threadId(), span.thread.getName());
+		for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+			json.beginObject().name("name").value("thread_name").name("ph").value("M").name("pid").value(1)
+					.name("tid").value(thread.getKey()).name("args").beginObject().name("name").value(thread.getValue())
+					.endObject().endObject();
+		}
+		for (Span span : spans) {
+			json.beginObject();
+			json.name("name").value(span.name);
+			json.name("cat").value("spotify");
+			json.name("ph").value("X");
+			json.name("ts").value((span.startNanos - trace.startNanos) / 1000.0);
+			json.name("dur").value((span.endNanos - span.startNanos) / 1000.0);
+			json.name("pid").value(1);
+			json.name("tid").value(span.thread.threadId());
+			if (span.args != null) {
+				json.name("args").beginObject();
+				for (Map.Entry<String, Object> arg : span.args.entrySet()) {
+					json.name(arg.getKey());
+					if (arg.getValue() instanceof Number)
+						json.value((Number) arg.getValue());
+					else
+						json.value(String.valueOf(arg.getValue()));
+				}
+				json.endObject();
+			}
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+		json.flush();
+	}
+
+}
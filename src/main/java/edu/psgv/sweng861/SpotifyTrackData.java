@@ -1,15 +1,19 @@
 package edu.psgv.sweng861;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import se.michaelthelin.spotify.model_objects.special.SearchResult;
 import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Track;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.net.URL;
-
-import javax.imageio.IIOException;
-import javax.imageio.ImageIO;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.ImageIcon;
 
 /**
  * SpotifyTrackData stores the data from the API requests
@@ -19,10 +23,17 @@ import java.util.ArrayList;
  * image, the artists that are involved in the track, the
  * length of the track, whether the track is explicit or not,
  * the disc number, the track number, and the popularity of
- * the track.
+ * the track. The album images may still be pending when the
+ * object is handed to the GUI, in which case listeners are
+ * told as each of them arrives. The values of a track are the
+ * ones held by the shared SpotifyEntityStore, so a track kept by
+ * several results, and the album image shared by the tracks of
+ * an album, are only stored once.
  * @author Matthew Bollinger
  */
 public class SpotifyTrackData {
+
+	private static final Logger logger = LogManager.getLogger(SpotifyTrackData.class);
 	
 	// Max number to be inserted into array list
 	private int maxInserts = 5;
@@ -45,20 +56,72 @@ public class SpotifyTrackData {
 	private ArrayList<Integer> trackTrkNumbers = new ArrayList<>();
 	// Contains the simplified popularity of each track
 	private ArrayList<String> trackPopularities = new ArrayList<>();
-	// Contains the image of each album that a track belongs to
-	private ArrayList<BufferedImage> trackAlbumImages = new ArrayList<>(); 
+	// Contains the popularity number (0..100) of each track
+	private ArrayList<Integer> trackPopularityScores = new ArrayList<>();
+	// Contains the compressed bytes of the image of each album that a track belongs to, decoded through the shared image store
+	private ArrayList<byte[]> trackAlbumImageBytes = new ArrayList<>();
+	// Contains the URL of the image of each album that a track belongs to
+	private ArrayList<String> trackAlbumImageUrls = new ArrayList<>();
+	// Contains the Spotify ID of each track
+	private ArrayList<String> trackIds = new ArrayList<>();
+	// Contains the one copy of each track, shared with every other result holding it
+	private final ArrayList<SpotifyEntityStore.TrackEntity> trackEntities = new ArrayList<>();
+
+	// Whether the album image of each track is still pending
+	private final BitSet albumImagePending = new BitSet();
+
+	// Whether the album image of each track has been requested
+	private final BitSet detailsRequested = new BitSet();
+	// Total number of results of the search, of which these are one page
+	private int total;
+	// When the result was fetched from Spotify, used to tell how stale a cached copy is
+	private volatile long fetchedAtMs = System.currentTimeMillis();
+
+	// Listeners told when a pending album image arrives
+	private final List<SpotifyDataListener> listeners = new CopyOnWriteArrayList<>();
 
 	/**
 	 * SpotifyTrackData() constructor takes one argument and
+	 * downloads the album images through the default shared transport.
+	 * @param data is a SearchResult and is obtained from SpotifyRestRequester
+	 */
+	public SpotifyTrackData(SearchResult data) {
+		this(data, SpotifyHttpTransport.getDefault());
+	}
+
+	/**
+	 * SpotifyTrackData() constructor takes two arguments and
 	 * sets the number of maximum number of tracks to get 
 	 * information about. Afterwards, it sets the various values
 	 * of each track in different ArrayLists and double ArrayLists.
 	 * @param data is a SearchResult and is obtained from SpotifyRestRequester
 	 * in order to get the data to be put into the ArrayLists.
+	 * @param transport is the pooled transport used to download the images
 	 */
-	public SpotifyTrackData(SearchResult data) {
+	public SpotifyTrackData(SearchResult data, SpotifyHttpTransport transport) {
 		setMaxInserts(data);
-		setTrackValues(data);
+		setTrackValues(data.getTracks().getItems());
+		setTrackAlbumImages(transport);
+	}
+
+	/**
+	 * SpotifyTrackData() constructor takes the tracks themselves
+	 * and sets the values that come with them. The album images
+	 * are left pending until they are loaded.
+	 * @param tracks are the tracks to store
+	 */
+	public SpotifyTrackData(Track[] tracks) {
+		maxInserts = tracks.length;
+		setTrackValues(tracks);
+	}
+
+	/**
+	 * SpotifyTrackData() constructor creates an empty object that
+	 * tracks are added to one at a time, such as by the streaming
+	 * JSON parser.
+	 */
+	SpotifyTrackData() {
+		maxInserts = 0;
 	}
 
 	/**
@@ -71,55 +134,100 @@ public class SpotifyTrackData {
 		int size = data.getTracks().getTotal();
 		// Max number of tracks that will be used is five
 		maxInserts = (size >= 5) ? 5 : size;
+		total = size;
 	}
 
 	/**
 	 * setTrackValues() sets the various values of each track
-	 * into multiple ArrayLists as well as double ArrayLists.
+	 * into multiple ArrayLists as well as double ArrayLists and
+	 * marks the album images as pending.
 	 * @param data
 	 */
-	private void setTrackValues(SearchResult data) {
-		setTrackNames(data);
-		setTrackAlbums(data);
-		setTrackAlbumReleaseDates(data);
-		setTrackArtists(data);
-		setTrackLengths(data);
-		setTrackExplicits(data);
-		setTrackDiscNumbers(data);
-		setTrackTrkNumbers(data);
-		setTrackPopularities(data);
-		setTrackAlbumImages(data);
+	private void setTrackValues(Track[] data) {
+		for (int i = 0; i < maxInserts; i++) {
+			Track track = data[i];
+			// Get the names of the artists that are involved in the track
+			ArrayList<String> singleTrackArtists = new ArrayList<>();
+			for (ArtistSimplified a : track.getArtists()) {
+				singleTrackArtists.add(a.getName());
+			}
+			// The image that best fits the picture is used, if there is one
+			String imageUrl = SpotifyImageStore.urlOf(track.getAlbum().getImages());
+			addTrack(track.getId(), track.getName(), track.getAlbum().getName(), track.getAlbum().getReleaseDate(),
+					singleTrackArtists, track.getDurationMs(), track.getIsExplicit(), track.getDiscNumber(),
+					track.getTrackNumber(), track.getPopularity(), imageUrl);
+		}
 	}
 
 	/**
-	 * setTrackNames() sets the names of the tracks
-	 * using the getName() method from the Track class.
-	 * @param data
+	 * addTrack() adds the values of one track to the end of
+	 * each ArrayList and marks its album image as pending. The
+	 * values kept are the ones of the one copy of the track in
+	 * the entity store.
+	 * @param id is the Spotify ID of the track
+	 * @param name is the name of the track
+	 * @param album is the name of the album the track belongs to
+	 * @param releaseDate is the release date of the album
+	 * @param artists are the names of the artists involved in the track
+	 * @param lengthMs is the length of the track in milliseconds
+	 * @param isExplicit is whether the track is explicit
+	 * @param discNumber is the disc number of the track
+	 * @param trackNumber is the track number of the track
+	 * @param popularity is the popularity number (0..100) of the track
+	 * @param imageUrl is the URL of the first image of the album, or null
 	 */
-	private void setTrackNames(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			trackNames.add(data.getTracks().getItems()[i].getName());
-		}
+	synchronized void addTrack(String id, String name, String album, String releaseDate, ArrayList<String> artists,
+			int lengthMs, boolean isExplicit, int discNumber, int trackNumber, int popularity, String imageUrl) {
+		int index = trackNames.size();
+		final SpotifyEntityStore.TrackEntity track = SpotifyEntityStore.getDefault().track(id, name, album, releaseDate,
+				artists, imageUrl);
+		trackEntities.add(track);
+		trackIds.add(track.getId());
+		trackNames.add(track.getName());
+		trackAlbums.add(track.getAlbum());
+		trackAlbumReleaseDates.add(track.getReleaseDate());
+		trackArtists.add(track.getArtists());
+		trackLengths.add(lengthMs);
+		// Adds "Yes" to the ArrayList if the track is explicit, "No" otherwise
+		trackExplicits.add((isExplicit) ? "Yes" : "No");
+		trackDiscNumbers.add(discNumber);
+		trackTrkNumbers.add(trackNumber);
+		trackPopularities.add(simplifyPopularity(popularity));
+		trackPopularityScores.add(popularity);
+		trackAlbumImageUrls.add(track.getImageUrl());
+		trackAlbumImageBytes.add(null);
+		albumImagePending.set(index);
+		maxInserts = Math.max(maxInserts, trackNames.size());
 	}
 
 	/**
-	 * getTrackNames() gets the names of the tracks.
-	 * @return an ArrayList of the names of the tracks
+	 * addTrackFrom() adds the values that came with one track of
+	 * another result, leaving its album image pending.
+	 * @param source is the result holding the track
+	 * @param index is the index of the track in the source
 	 */
-	public ArrayList<String> getTrackNames() {
-		return trackNames;
+	void addTrackFrom(SpotifyTrackData source, int index) {
+		addTrack(source.trackIds.get(index), source.trackNames.get(index), source.trackAlbums.get(index),
+				source.trackAlbumReleaseDates.get(index), source.trackArtists.get(index),
+				source.trackLengths.get(index), source.trackExplicits.get(index).equals("Yes"),
+				source.trackDiscNumbers.get(index), source.trackTrkNumbers.get(index),
+				source.trackPopularityScores.get(index), source.trackAlbumImageUrls.get(index));
 	}
 
 	/**
-	 * setTrackAlbums() sets the name of the album that
-	 * each track belongs to using the getAlbum().getName()
-	 * methods from the Track class.
-	 * @param data
+	 * getTrackIds() gets the Spotify IDs of the tracks.
+	 * @return an ArrayList of the IDs of the tracks
 	 */
-	private void setTrackAlbums(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			trackAlbums.add(data.getTracks().getItems()[i].getAlbum().getName());
-		}
+	public ArrayList<String> getTrackIds() {
+		return trackIds;
+	}
+
+	/**
+	 * getTrackNames() gets the names of the tracks.
+	 * @return an ArrayList of the names of the tracks
+	 */
+	public ArrayList<String> getTrackNames() {
+		return trackNames;
 	}
 
 	/**
@@ -131,18 +239,6 @@ public class SpotifyTrackData {
 		return trackAlbums;
 	}
 
-	/**
-	 * setTrackAlbumReleaseDates() sets the release date of
-	 * the album that each track belongs to using the 
-	 * getAlbum().getReleaseDate() methods from the Track class.
-	 * @param data
-	 */
-	private void setTrackAlbumReleaseDates(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			trackAlbumReleaseDates.add(data.getTracks().getItems()[i].getAlbum().getReleaseDate());
-		}
-	}
-
 	/**
 	 * getTrackAlbumReleaseDates() gets the release date of
 	 * the album that each track belongs to.
@@ -152,24 +248,6 @@ public class SpotifyTrackData {
 		return trackAlbumReleaseDates;
 	}
 
-	/**
-	 * setTrackArtists() sets the names of the artists involved 
-	 * in each track using the getArtists() method from the Track class.
-	 * @param data
-	 */
-	private void setTrackArtists(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			// Get an array of ArtistSimplified objects that represents the
-			// artists that are involved in a track
-			ArtistSimplified[] artists = data.getTracks().getItems()[i].getArtists();
-			ArrayList<String> singleTrackArtists = new ArrayList<>();
-			// Copies the array into an ArrayList
-			for (ArtistSimplified a : artists) {
-				singleTrackArtists.add(a.getName());
-			}
-			trackArtists.add(singleTrackArtists);
-		}
-	}
 	
 	/**
 	 * getTrackArtists() gets the names of the artists involved
@@ -180,17 +258,6 @@ public class SpotifyTrackData {
 		return trackArtists;
 	}
 
-	/**
-	 * setTrackLengths() sets the length of each track using
-	 * the getDurationMs() method from the Track class.
-	 * @param data
-	 */
-	private void setTrackLengths(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			trackLengths.add(data.getTracks().getItems()[i].getDurationMs());
-		}
-	}
-
 	/**
 	 * getTrackLengths() gets the length of each track.
 	 * @return an ArrayList of ints that represent the length of each track.
@@ -199,19 +266,6 @@ public class SpotifyTrackData {
 		return trackLengths;
 	}
 
-	/**
-	 * setTrackExplicits() sets whether each track is explicit or not
-	 * using the getIsExplicit() method from the Track class.
-	 * @param data
-	 */
-	private void setTrackExplicits(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			// Adds "Yes" to the ArrayList if the track is explicit, "No" otherwise
-			boolean isExplicit = data.getTracks().getItems()[i].getIsExplicit();
-			trackExplicits.add((isExplicit) ? "Yes" : "No");
-		}
-	}
-
 	/**
 	 * getTrackExplicits() gets whether each track is explicit or not.
 	 * @return an ArrayList of strings declaring yes or not to each song being explicit
@@ -220,17 +274,6 @@ public class SpotifyTrackData {
 		return trackExplicits;
 	}
 
-	/**
-	 * setTrackDiscNumbers() sets the disc number of each track
-	 * using the getDiscNumber() method from the Track class.
-	 * @param data
-	 */
-	private void setTrackDiscNumbers(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			trackDiscNumbers.add(data.getTracks().getItems()[i].getDiscNumber());
-		}
-	}
-
 	/**
 	 * getTrackDiscNumbers() gets the disc number of each track.
 	 * @return an ArrayList of the disc number of each track
@@ -239,17 +282,6 @@ public class SpotifyTrackData {
 		return trackDiscNumbers;
 	}
 
-	/**
-	 * setTrackTrkNumbers() sets the track number of each track
-	 * using the getTrackNumber() method from the Track class.
-	 * @param data
-	 */
-	private void setTrackTrkNumbers(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			trackTrkNumbers.add(data.getTracks().getItems()[i].getTrackNumber());
-		}
-	}
-
 	/**
 	 * getTrackTrkNumbers() gets the track number of each track.
 	 * @return an ArrayList of the track number of each track
@@ -258,33 +290,29 @@ public class SpotifyTrackData {
 		return trackTrkNumbers;
 	}
 	
+	
 	/**
-	 * setTrackPopularities() sets the popularity of each track
-	 * based on the number obtained from the getPopularity() method
-	 * from the Track class. The popularity number is used to
-	 * specify one of five different strings that simplifies
-	 * the number to something more readable by a user.
-	 * @param data
+	 * simplifyPopularity() turns the popularity number obtained
+	 * from the getPopularity() method of the Track class into
+	 * one of five different strings that is more readable by a user.
+	 * @param pop is the popularity number (0..100)
+	 * @return the simplified popularity
 	 */
-	private void setTrackPopularities(SearchResult data) {
-		for (int i = 0; i < maxInserts; i++) {
-			// Obtains the popularity number (0..100)
-			int pop = data.getTracks().getItems()[i].getPopularity();
-			// Uses popularity number to split into five different
-			// Possible popularity ratings
-			if (pop <= 20)
-				trackPopularities.add("Not popular");
-			else if (pop <= 40)
-				trackPopularities.add("Not very popular");
-			else if (pop <= 60)
-				trackPopularities.add("Somewhat popular");
-			else if (pop <= 80)
-				trackPopularities.add("Popular");
-			else
-				trackPopularities.add("Very popular");
-		}
+	static String simplifyPopularity(int pop) {
+		// Uses popularity number to split into five different
+		// Possible popularity ratings
+		if (pop <= 20)
+			return "Not popular";
+		else if (pop <= 40)
+			return "Not very popular";
+		else if (pop <= 60)
+			return "Somewhat popular";
+		else if (pop <= 80)
+			return "Popular";
+		else
+			return "Very popular";
 	}
-	
+
 	/**
 	 * getTrackPopularities() gets the popularity of each track.
 	 * @return an ArrayList of the popularity of each track
@@ -294,35 +322,274 @@ public class SpotifyTrackData {
 	}
 
 	/**
-	 * setTrackAlbumImages() sets the image of the album that each 
-	 * track belongs to into an ArrayList of BufferedImage objects.
-	 * @param data
+	 * getTrackPopularityScores() gets the popularity number of each track.
+	 * @return an ArrayList of the popularity numbers (0..100)
+	 */
+	public ArrayList<Integer> getTrackPopularityScores() {
+		return trackPopularityScores;
+	}
+
+	/**
+	 * getTrackAlbumImageUrls() gets the URL of the image of the
+	 * album that each track belongs to.
+	 * @return an ArrayList of URLs, with null for an album without an image
 	 */
-	private void setTrackAlbumImages(SearchResult data) {
+	public ArrayList<String> getTrackAlbumImageUrls() {
+		return trackAlbumImageUrls;
+	}
+
+	/**
+	 * setTrackAlbumImages() downloads the image of the album that
+	 * each track belongs to through the pooled connections of the
+	 * shared transport.
+	 * @param transport
+	 */
+	private void setTrackAlbumImages(SpotifyHttpTransport transport) {
 		for (int i = 0; i < maxInserts; i++) {
-			try {
-				if (data.getTracks().getItems()[i].getAlbum().getImages().length != 0) {
-					// Convert the URL into a BufferedImage using the ImageIO read method
-					URL imageUrl = new URL(data.getTracks().getItems()[i].getAlbum().getImages()[0].getUrl());
-					BufferedImage image = ImageIO.read(imageUrl);
-					trackAlbumImages.add(image);
-				} else
-					trackAlbumImages.add(null); // Adds null to the ArrayList if there is no album image
-			} catch (IIOException e) { // Caught if the image is of an unsupported format
-				trackAlbumImages.add(null);
-			} catch (IOException e) { // Caught if the image URL is an invalid one
-				e.printStackTrace();
+			loadTrackAlbumImage(i, transport);
+		}
+	}
+
+	/**
+	 * loadTrackAlbumImage() downloads the album image of one track
+	 * and keeps its compressed bytes, unless another result holds
+	 * the image already. The image is decoded for the picture before
+	 * listeners are told that the track has changed, so the GUI can
+	 * show it right away.
+	 * @param index is the index of the track
+	 * @param downloader fetches the image, through the pooled transport or a shared cache
+	 */
+	void loadTrackAlbumImage(int index, SpotifyDownloader downloader) {
+		final long start = System.nanoTime();
+		final SpotifyEntityStore entities = SpotifyEntityStore.getDefault();
+		final String url = trackAlbumImageUrls.get(index);
+		final byte[] held = entities.getImage(url);
+		if (held != null) {
+			SpotifyImageStore.getDefault().icon(held);
+			setTrackAlbumImageBytes(index, held);
+			return;
+		}
+		byte[] bytes = null;
+		try {
+			if (url != null) {
+				bytes = downloader.download(url);
+				if (logger.isDebugEnabled())
+					logger.debug(SpotifyLog.event("image").with("index", index).with("bytes", bytes.length)
+							.with("status", "ok").with("latencyMs", SpotifyLog.elapsedMs(start)));
 			}
+			// An image of an unsupported format is treated as no image
+			if (!SpotifyImageStore.isSupported(bytes))
+				bytes = null;
+			// The one copy of the image is kept, shared with the other results holding it
+			bytes = entities.image(url, bytes);
+		} catch (IOException e) { // Caught if the image URL is an invalid one
+			logger.warn(SpotifyLog.event("image").with("index", index).with("url", url)
+					.with("status", "error").with("latencyMs", SpotifyLog.elapsedMs(start)).with("error", e.getMessage()));
+		}
+		SpotifyImageStore.getDefault().icon(bytes);
+		// Null is stored if there is no album image
+		setTrackAlbumImageBytes(index, bytes);
+	}
+
+	/**
+	 * setTrackAlbumImageBytes() sets the compressed album image of
+	 * one track. Listeners are told that the track has changed.
+	 * @param index is the index of the track
+	 * @param bytes are the JPEG or PNG bytes, or null if the album has none
+	 */
+	void setTrackAlbumImageBytes(int index, byte[] bytes) {
+		synchronized (this) {
+			trackAlbumImageBytes.set(index, bytes);
+			albumImagePending.clear(index);
 		}
+		notifyListeners(index);
 	}
 
 	/**
-	 * getTrackAlbumImages() gets the image of the album that each
-	 * track belongs to.
+	 * getTrackAlbumImageBytes() gets the compressed image of the
+	 * album that each track belongs to.
+	 * @return an ArrayList of JPEG or PNG bytes, with null for a
+	 * track whose album has no image
+	 */
+	public ArrayList<byte[]> getTrackAlbumImageBytes() {
+		return trackAlbumImageBytes;
+	}
+
+	/**
+	 * getTrackAlbumImage() gets the decoded album image of one track
+	 * through the shared image store, which decodes it if it isn't cached.
+	 * @param index is the index of the track
+	 * @return the image, or null if the album has none
+	 */
+	public BufferedImage getTrackAlbumImage(int index) {
+		return SpotifyImageStore.getDefault().decode(trackAlbumImageBytes.get(index));
+	}
+
+	/**
+	 * getTrackAlbumIcon() gets the album image of one track scaled to
+	 * the picture, if the shared image store has decoded it already. It
+	 * never decodes, so it can be called on the event dispatch thread.
+	 * @param index is the index of the track
+	 * @return the icon, or null if the album has no image or it isn't
+	 * decoded
+	 */
+	public ImageIcon getTrackAlbumIcon(int index) {
+		return SpotifyImageStore.getDefault().getIcon(getTrackAlbumImageBytes(index));
+	}
+
+	/**
+	 * isAlbumImageDecoded() gets whether the album image of a track
+	 * can be shown without decoding it first.
+	 * @param index is the index of the track
+	 * @return true if the album has no image or its icon is decoded
+	 */
+	public boolean isAlbumImageDecoded(int index) {
+		final byte[] bytes = getTrackAlbumImageBytes(index);
+		return bytes == null || SpotifyImageStore.getDefault().getIcon(bytes) != null;
+	}
+
+	/**
+	 * decodeTrackAlbumImage() decodes the album image of one track
+	 * into the shared image store, such as after it was evicted from
+	 * there. Listeners are told that the track has changed once it
+	 * can be shown.
+	 * @param index is the index of the track
+	 */
+	void decodeTrackAlbumImage(int index) {
+		if (SpotifyImageStore.getDefault().icon(getTrackAlbumImageBytes(index)) != null)
+			notifyListeners(index);
+	}
+
+	/**
+	 * getTrackAlbumImageBytes() gets the compressed album image of one track.
+	 */
+	private synchronized byte[] getTrackAlbumImageBytes(int index) {
+		return trackAlbumImageBytes.get(index);
+	}
+
+	/**
+	 * getTrackAlbumImages() gets the decoded image of the album that
+	 * each track belongs to. The images are decoded through the shared
+	 * image store when this is called, so the list shouldn't be kept.
 	 * @return an ArrayList of BufferedImage objects
 	 */
 	public ArrayList<BufferedImage> getTrackAlbumImages() {
-		return trackAlbumImages;
+		ArrayList<BufferedImage> images = new ArrayList<>();
+		for (int i = 0; i < trackAlbumImageBytes.size(); i++)
+			images.add(getTrackAlbumImage(i));
+		return images;
+	}
+
+	/**
+	 * isAlbumImagePending() gets whether the album image of a
+	 * track hasn't arrived yet.
+	 * @param index is the index of the track
+	 * @return true if the album image is still pending
+	 */
+	public synchronized boolean isAlbumImagePending(int index) {
+		return albumImagePending.get(index);
+	}
+
+	/**
+	 * isComplete() gets whether no album image is pending.
+	 * @return true if every album image has arrived
+	 */
+	public synchronized boolean isComplete() {
+		return albumImagePending.isEmpty();
+	}
+
+	/**
+	 * takeKnownDetails() sets the album image of a track if it is
+	 * still pending and another result holds it, so that it needn't
+	 * be downloaded.
+	 * @param index is the index of the track
+	 */
+	void takeKnownDetails(int index) {
+		final byte[] image = SpotifyEntityStore.getDefault().getImage(trackAlbumImageUrls.get(index));
+		if (image != null && isAlbumImagePending(index))
+			setTrackAlbumImageBytes(index, image);
+	}
+
+	/**
+	 * requestDetails() marks the album image of a track as
+	 * requested, so that it is only requested once.
+	 * @param index is the index of the track
+	 * @return true if it hadn't been requested before
+	 */
+	synchronized boolean requestDetails(int index) {
+		if (detailsRequested.get(index))
+			return false;
+		detailsRequested.set(index);
+		return true;
+	}
+
+	/**
+	 * getTotal() gets the total number of results of the search,
+	 * which may be more than the tracks held by this object.
+	 * @return the total number of results
+	 */
+	public synchronized int getTotal() {
+		return Math.max(total, trackNames.size());
+	}
+
+	/**
+	 * setTotal() sets the total number of results of the search.
+	 * @param total is the total number of results
+	 */
+	synchronized void setTotal(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * getFetchedAtMs() gets when the tracks were fetched from Spotify.
+	 * @return the time in milliseconds since the epoch
+	 */
+	public long getFetchedAtMs() {
+		return fetchedAtMs;
+	}
+
+	/**
+	 * setFetchedAtMs() sets when the tracks were fetched from Spotify,
+	 * such as when they are read back from a snapshot.
+	 * @param fetchedAtMs is the time in milliseconds since the epoch
+	 */
+	void setFetchedAtMs(long fetchedAtMs) {
+		this.fetchedAtMs = fetchedAtMs;
+	}
+
+	/**
+	 * addListener() adds a listener that is told each time a
+	 * pending album image arrives.
+	 * @param listener is the listener to add
+	 */
+	public void addListener(SpotifyDataListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * removeListener() removes a listener added before.
+	 * @param listener is the listener to remove
+	 */
+	public void removeListener(SpotifyDataListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * getListenerCount() gets the number of listeners added and
+	 * not removed yet.
+	 * @return the number of listeners
+	 */
+	int getListenerCount() {
+		return listeners.size();
+	}
+
+	/**
+	 * notifyListeners() tells every listener that a track changed.
+	 * @param index is the index of the track
+	 */
+	private void notifyListeners(int index) {
+		for (SpotifyDataListener listener : listeners)
+			listener.dataChanged(index);
 	}
 
 }
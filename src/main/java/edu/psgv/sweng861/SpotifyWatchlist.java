@@ -0,0 +1,181 @@
+package edu.psgv.sweng861;
+
+import org.apache.logging.log4j.CloseableThreadContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * SpotifyWatchlist follows the number of followers and popularity
+ * of a list of artists over time. On a fixed interval it requests
+ * every watched artist by ID, fifty to a request, and appends a
+ * sample of each one to its series in a SpotifyTimeSeriesStore,
+ * where the history can be read back by range or downsampled for
+ * a chart.
+ * @author Matthew Bollinger
+ */
+public class SpotifyWatchlist implements Closeable {
+
+	private static final Logger logger = LogManager.getLogger(SpotifyWatchlist.class);
+
+	// How often the watched artists are requested when no interval is given
+	public static final long DEFAULT_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+	// Requests the artists with the given IDs
+	private final Function<List<String>, SpotifyArtistData> lookup;
+	// Where the samples are appended
+	private final SpotifyTimeSeriesStore store;
+	// IDs of the watched artists, in the order they were added
+	private final Set<String> watched = new LinkedHashSet<>();
+	// Polls the watched artists on the interval, once started
+	private ScheduledExecutorService pollScheduler;
+
+	/**
+	 * SpotifyWatchlist constructor takes the requester the artists
+	 * are requested through and the store their samples go to.
+	 * @param requester requests the artists
+	 * @param store is where the samples are appended
+	 */
+	public SpotifyWatchlist(SpotifyRestRequester requester, SpotifyTimeSeriesStore store) {
+		this(requester::lookUpArtists, store);
+	}
+
+	/**
+	 * SpotifyWatchlist constructor takes how the artists are requested
+	 * and the store their samples go to.
+	 * @param lookup requests the artists with the given IDs
+	 * @param store is where the samples are appended
+	 */
+	SpotifyWatchlist(Function<List<String>, SpotifyArtistData> lookup, SpotifyTimeSeriesStore store) {
+		this.lookup = lookup;
+		this.store = store;
+	}
+
+	/**
+	 * main() polls the artists listed in a file until the process is
+	 * stopped. The file has one Spotify artist ID on each line.
+	 * @param args are the file of artist IDs, the time series file,
+	 * and how often to poll in minutes, which is optional
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: SpotifyWatchlist <artist ID file> <time series file> [interval minutes]");
+			return;
+		}
+		final long intervalMs = (args.length > 2) ? TimeUnit.MINUTES.toMillis(Long.parseLong(args[2])) : DEFAULT_INTERVAL_MS;
+		final SpotifyTimeSeriesStore store = new SpotifyTimeSeriesStore(Paths.get(args[1]));
+		final SpotifyWatchlist watchlist = new SpotifyWatchlist(new SpotifyRestRequester(), store);
+		for (String line : Files.readAllLines(Paths.get(args[0]))) {
+			if (!line.isBlank())
+				watchlist.watch(line.trim());
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				watchlist.close();
+				store.close();
+			} catch (IOException e) { // The samples already written back are kept
+			}
+		}, "spotify-watchlist-shutdown"));
+		watchlist.start(intervalMs);
+	}
+
+	/**
+	 * watch() adds an artist to the watchlist.
+	 * @param artistId is the Spotify ID of the artist
+	 */
+	public synchronized void watch(String artistId) {
+		watched.add(artistId);
+	}
+
+	/**
+	 * unwatch() removes an artist from the watchlist. Its samples
+	 * are kept.
+	 * @param artistId is the Spotify ID of the artist
+	 */
+	public synchronized void unwatch(String artistId) {
+		watched.remove(artistId);
+	}
+
+	/**
+	 * getWatched() gets the IDs of the watched artists.
+	 * @return a list of the IDs
+	 */
+	public synchronized List<String> getWatched() {
+		return new ArrayList<>(watched);
+	}
+
+	/**
+	 * start() polls the watched artists right away and then on a
+	 * fixed interval, until close() is called.
+	 * @param intervalMs is how often to poll, in milliseconds
+	 */
+	public synchronized void start(long intervalMs) {
+		if (pollScheduler != null)
+			return;
+		// Not a daemon thread, so a watchlist run from main() keeps the process alive
+		pollScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "spotify-watchlist"));
+		pollScheduler.scheduleWithFixedDelay(() -> {
+			try {
+				poll();
+			} catch (RuntimeException e) { // A failed poll mustn't stop the ones after it
+				logger.warn(SpotifyLog.event("watchlist").with("status", "error").with("error", e.getMessage()));
+			}
+		}, 0, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * poll() requests every watched artist once and appends a sample
+	 * of each one that was found, then writes the samples back to
+	 * the file.
+	 * @return the number of samples appended
+	 */
+	@SuppressWarnings("try")
+	public int poll() {
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate()) {
+			final long start = System.nanoTime();
+			final List<String> artistIds = getWatched();
+			if (artistIds.isEmpty())
+				return 0;
+			final SpotifyArtistData artists = lookup.apply(artistIds);
+			final long now = System.currentTimeMillis();
+			int appended = 0;
+			try {
+				for (int i = 0; i < artists.getArtistIds().size(); i++) {
+					store.append(artists.getArtistIds().get(i), now, artists.getArtistFollowers().get(i),
+							artists.getArtistPopularityScores().get(i));
+					appended++;
+				}
+				store.flush();
+			} catch (IOException | RuntimeException e) { // The next poll tries again
+				logger.warn(SpotifyLog.event("watchlist").with("status", "error").with("error", e.getMessage()));
+			}
+			logger.info(SpotifyLog.event("watchlist").with("watched", artistIds.size()).with("appended", appended)
+					.with("latencyMs", SpotifyLog.elapsedMs(start)));
+			return appended;
+		}
+	}
+
+	/**
+	 * close() stops polling. The store is left open.
+	 */
+	@Override
+	public synchronized void close() {
+		if (pollScheduler != null) {
+			pollScheduler.shutdownNow();
+			pollScheduler = null;
+		}
+	}
+
+}
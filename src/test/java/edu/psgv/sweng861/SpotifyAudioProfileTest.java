@@ -0,0 +1,142 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import se.michaelthelin.spotify.model_objects.specification.AudioFeatures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * SpotifyAudioProfileTest contains the unit tests of the
+ * SpotifyAudioProfile class. Profiles are built from a recorded
+ * audio features response and from made up features.
+ * @author Matthew Bollinger
+ */
+class SpotifyAudioProfileTest {
+
+	/**
+	 * readFeatures() reads the recorded audio features by track ID.
+	 */
+	private Map<String, AudioFeatures> readFeatures() throws IOException {
+		final String json;
+		try (InputStream in = getClass().getResourceAsStream("/audio-features.json")) {
+			json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		Map<String, AudioFeatures> features = new HashMap<>();
+		for (AudioFeatures feature : new AudioFeatures.JsonUtil().createModelObjectArray(json, "audio_features")) {
+			if (feature != null)
+				features.put(feature.getId(), feature);
+		}
+		return features;
+	}
+
+	/**
+	 * Tests that groups built from a response have the aggregates of
+	 * their tracks, and that tracks without features are left out.
+	 */
+	@Test
+	public void testGroupsFromResponse() throws IOException {
+		SpotifyAudioProfile profile = new SpotifyAudioProfile();
+		Map<String, AudioFeatures> features = readFeatures();
+		profile.addGroup("Radiohead", List.of("70LcF31zb1H0PyJoS1Sx1r", "2CVV8PtUYYsux8XOzWkCP0", "missing"), features);
+		profile.addGroup("Muse", List.of("6b2oQwSGFkzsMtQruIWm2p"), features);
+
+		assertEquals(List.of("Radiohead", "Muse"), profile.getLabels());
+		assertEquals(2, profile.getTrackCount("Radiohead"));
+		assertEquals(3, profile.getTrackCount(null));
+		assertEquals(1, profile.getMissingTracks());
+
+		DoubleSummaryStatistics tempo = profile.getTempoStatistics("Radiohead");
+		assertEquals(91.841, tempo.getMin(), 0.001);
+		assertEquals(145.2, tempo.getMax(), 0.001);
+		assertEquals((0.43 + 0.88) / 2, profile.getEnergyStatistics("Radiohead").getAverage(), 0.001);
+
+		int[] keys = profile.getKeyDistribution(null);
+		assertEquals(2, keys[7]);
+		assertEquals(1, keys[2]);
+		assertEquals("G", profile.getMostCommonKey(null));
+		assertArrayEquals(new int[] { 0, 0, 0, 0, 1, 0, 1, 0, 1, 0 }, profile.getEnergyDistribution(null));
+		assertArrayEquals(new int[] { 0, 0, 0, 0, 1, 1, 0, 1, 0, 0, 0, 0 }, profile.getTempoDistribution(null));
+	}
+
+	/**
+	 * Tests that the parallel aggregates of a large group match the
+	 * ones computed one track at a time.
+	 */
+	@Test
+	public void testParallelAggregatesMatchSequential() {
+		final int size = 100_000;
+		Random random = new Random(861);
+		double[] tempo = new double[size];
+		double[] energy = new double[size];
+		int[] key = new int[size];
+		for (int i = 0; i < size; i++) {
+			tempo[i] = 60 + random.nextDouble() * 200;
+			energy[i] = random.nextDouble();
+			key[i] = random.nextInt(13) - 1;
+		}
+		SpotifyAudioProfile profile = new SpotifyAudioProfile();
+		profile.addGroup("query", tempo, energy, key);
+
+		int[] expectedKeys = new int[SpotifyAudioProfile.KEY_COUNT];
+		int[] expectedTempo = new int[SpotifyAudioProfile.TEMPO_BUCKETS];
+		int unknownKeys = 0;
+		for (int i = 0; i < size; i++) {
+			if (key[i] >= 0)
+				expectedKeys[key[i]]++;
+			else
+				unknownKeys++;
+			expectedTempo[Math.min((int) (tempo[i] / SpotifyAudioProfile.TEMPO_BUCKET_BPM), SpotifyAudioProfile.TEMPO_BUCKETS - 1)]++;
+		}
+		assertArrayEquals(expectedKeys, profile.getKeyDistribution("query"));
+		assertEquals(size - unknownKeys, Arrays.stream(profile.getKeyDistribution("query")).sum());
+		assertArrayEquals(expectedTempo, profile.getTempoDistribution("query"));
+		assertEquals(size, Arrays.stream(profile.getEnergyDistribution("query")).sum());
+		assertEquals(Arrays.stream(tempo).max().getAsDouble(), profile.getTempoStatistics("query").getMax());
+		assertEquals(Arrays.stream(energy).sum() / size, profile.getEnergyStatistics("query").getAverage(), 1e-9);
+	}
+
+	/**
+	 * Tests that an empty group has empty aggregates and that an
+	 * unknown label is rejected.
+	 */
+	@Test
+	public void testEmptyAndUnknownGroups() {
+		SpotifyAudioProfile profile = new SpotifyAudioProfile();
+		profile.addGroup("nothing", List.of(), new HashMap<>());
+		assertEquals(0, profile.getTrackCount("nothing"));
+		assertEquals(0, profile.getTempoStatistics("nothing").getCount());
+		assertNull(profile.getMostCommonKey("nothing"));
+		assertThrows(IllegalArgumentException.class, () -> profile.getTrackCount("other"));
+	}
+
+	/**
+	 * Tests that a second group with the same label is rejected
+	 * rather than merged into the first, and that changing the labels
+	 * handed out leaves the groups as they are.
+	 */
+	@Test
+	public void testLabelsUniqueAndCopied() {
+		SpotifyAudioProfile profile = new SpotifyAudioProfile();
+		profile.addGroup("Nirvana", new double[] { 120 }, new double[] { 0.9 }, new int[] { 4 });
+		assertThrows(IllegalArgumentException.class,
+				() -> profile.addGroup("Nirvana", new double[] { 80, 90 }, new double[] { 0.2, 0.3 }, new int[] { 0, 0 }));
+		assertThrows(IllegalArgumentException.class, () -> profile.addGroup("Nirvana", List.of("missing"), new HashMap<>()));
+		assertEquals(0, profile.getMissingTracks());
+		assertEquals(1, profile.getTrackCount("Nirvana"));
+
+		profile.getLabels().add(0, "Other");
+		assertEquals(List.of("Nirvana"), profile.getLabels());
+		assertEquals("E", profile.getMostCommonKey("Nirvana"));
+	}
+
+}
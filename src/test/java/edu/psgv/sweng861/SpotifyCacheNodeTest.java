@@ -0,0 +1,158 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpotifyCacheNodeTest contains the unit tests of the
+ * SpotifyCacheNode and SpotifyCacheClient classes, and of
+ * results shared between instances through a SpotifyRemoteCache.
+ * The node listens on a free local port and the instances search
+ * a fake API, so no other process has to be running.
+ * @author Matthew Bollinger
+ */
+class SpotifyCacheNodeTest {
+
+	/**
+	 * Tests that values put through one client are read back
+	 * through another, over connections that are reused.
+	 */
+	@Test
+	public void testGetAndPut() throws IOException {
+		try (SpotifyCacheNode node = new SpotifyCacheNode(0, 1024 * 1024);
+				SpotifyCacheClient writer = new SpotifyCacheClient("localhost", node.getPort(), 2000);
+				SpotifyCacheClient reader = new SpotifyCacheClient("localhost", node.getPort(), 2000)) {
+			assertNull(reader.get("artist:radiohead"));
+			writer.put("artist:radiohead", new byte[] { 1, 2, 3 }, 60_000);
+			writer.put("empty", new byte[0], 60_000);
+			assertArrayEquals(new byte[] { 1, 2, 3 }, reader.get("artist:radiohead"));
+			assertArrayEquals(new byte[0], reader.get("empty"));
+			// A value put again replaces the old one
+			writer.put("artist:radiohead", new byte[] { 4 }, 60_000);
+			assertArrayEquals(new byte[] { 4 }, reader.get("artist:radiohead"));
+			assertEquals(2, node.getEntryCount());
+			assertEquals(1, node.getBytes());
+		}
+	}
+
+	/**
+	 * Tests that a value is dropped once its time to live has passed.
+	 */
+	@Test
+	public void testExpiry() throws IOException, InterruptedException {
+		try (SpotifyCacheNode node = new SpotifyCacheNode(0, 1024 * 1024);
+				SpotifyCacheClient client = new SpotifyCacheClient("localhost", node.getPort(), 2000)) {
+			client.put("short", new byte[] { 1 }, 50);
+			client.put("long", new byte[] { 2 }, 60_000);
+			Thread.sleep(100);
+			assertNull(client.get("short"));
+			assertArrayEquals(new byte[] { 2 }, client.get("long"));
+			assertEquals(1, node.getEntryCount());
+		}
+	}
+
+	/**
+	 * Tests that the node stays within its byte budget, evicting the
+	 * least recently used value first.
+	 */
+	@Test
+	public void testBudgetEvictsLeastRecentlyUsed() throws IOException {
+		try (SpotifyCacheNode node = new SpotifyCacheNode(0, 300);
+				SpotifyCacheClient client = new SpotifyCacheClient("localhost", node.getPort(), 2000)) {
+			for (int i = 0; i < 10; i++) {
+				client.put("value" + i, new byte[100], 60_000);
+				// Keeps the first value the most recently used
+				assertNotNull(client.get("value0"));
+				assertTrue(node.getBytes() <= 300);
+			}
+			assertEquals(3, node.getEntryCount());
+			assertNull(client.get("value1"));
+			assertNotNull(client.get("value9"));
+			// A value larger than the whole budget isn't kept
+			client.put("large", new byte[400], 60_000);
+			assertNull(client.get("large"));
+		}
+	}
+
+	/**
+	 * Tests that a client fails fast once its node is gone, so that
+	 * the requester can treat it as a miss.
+	 */
+	@Test
+	public void testNodeDown() throws IOException {
+		final SpotifyCacheNode node = new SpotifyCacheNode(0, 1024);
+		final int port = node.getPort();
+		try (SpotifyCacheClient client = new SpotifyCacheClient("localhost", port, 2000)) {
+			client.put("key", new byte[] { 1 }, 60_000);
+			node.close();
+			assertThrows(IOException.class, () -> client.get("key"));
+		}
+	}
+
+	/**
+	 * waitForPuts() waits until a number of values were put in the
+	 * shared cache, which the requester does in the background.
+	 */
+	private static void waitForPuts(SpotifyInProcessCache cache, int puts) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (cache.getPutCount() < puts) {
+			assertTrue(System.nanoTime() < deadline, "Results weren't shared");
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Tests that a search one instance misses is answered from what
+	 * another instance put in the shared cache, without any request
+	 * to Spotify.
+	 */
+	@Test
+	public void testResultsSharedBetweenInstances() throws InterruptedException {
+		SpotifyFakeApi api = new SpotifyFakeApi();
+		SpotifyInProcessCache shared = new SpotifyInProcessCache();
+		SpotifyRestRequester first = api.requester();
+		SpotifyRestRequester second = api.requester();
+		first.setRemoteCache(shared);
+		second.setRemoteCache(shared);
+		SpotifyArtistData artists = second.searchArtist("radiohead", 0, null);
+		SpotifyTrackData tracks = second.searchSong("creep", 0, null);
+		waitForPuts(shared, 2);
+		assertEquals(2, api.getCallCount(SpotifyRestRequester.SEARCH_ENDPOINT));
+		final int relatedRequests = api.getCallCount(SpotifyRestRequester.RELATED_ARTISTS_ENDPOINT);
+		final int topTracksRequests = api.getCallCount(SpotifyRestRequester.TOP_TRACKS_ENDPOINT);
+
+		SpotifyArtistData sharedArtists = first.searchArtist("radiohead", 0, null);
+		SpotifyTrackData sharedTracks = first.searchSong("creep", 0, null);
+		assertEquals(2, api.getCallCount(SpotifyRestRequester.SEARCH_ENDPOINT));
+		assertEquals(relatedRequests, api.getCallCount(SpotifyRestRequester.RELATED_ARTISTS_ENDPOINT));
+		assertEquals(topTracksRequests, api.getCallCount(SpotifyRestRequester.TOP_TRACKS_ENDPOINT));
+		assertEquals(2, shared.getHitCount());
+		assertEquals(artists.getArtistIds(), sharedArtists.getArtistIds());
+		assertEquals(artists.getArtistNames(), sharedArtists.getArtistNames());
+		assertEquals(artists.getArtistRelatedArtists(), sharedArtists.getArtistRelatedArtists());
+		assertEquals(artists.getArtistTopTracks(), sharedArtists.getArtistTopTracks());
+		assertTrue(sharedArtists.isComplete());
+		assertEquals(tracks.getTrackIds(), sharedTracks.getTrackIds());
+		assertEquals(tracks.getTrackArtists(), sharedTracks.getTrackArtists());
+		assertTrue(sharedTracks.isComplete());
+	}
+
+	/**
+	 * Tests that shared bytes of another format version are ignored
+	 * and damaged ones rejected.
+	 */
+	@Test
+	public void testSharedBytesOfOtherVersion() throws IOException {
+		SpotifyTrackData tracks = SpotifyTestData.tracks();
+		byte[] encoded = SpotifySnapshotStore.encodeTracks(tracks);
+		encoded[0] = (byte) (SpotifySnapshotStore.VERSION + 1);
+		assertNull(SpotifySnapshotStore.decodeTracks(encoded));
+		byte[] cut = new byte[10];
+		System.arraycopy(SpotifySnapshotStore.encodeTracks(tracks), 0, cut, 0, cut.length);
+		assertThrows(IOException.class, () -> SpotifySnapshotStore.decodeTracks(cut));
+	}
+
+}
@@ -0,0 +1,125 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * SpotifyConcurrencyLimiterTest contains the unit tests of the
+ * SpotifyConcurrencyLimiter class. Requests are simulated by
+ * reporting made-up latencies, so no request is sent.
+ * @author Matthew Bollinger
+ */
+class SpotifyConcurrencyLimiterTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * runBatch() fills every slot of the limit, then finishes each
+	 * request with the same latency.
+	 */
+	private static void runBatch(SpotifyConcurrencyLimiter limiter, long latencyNanos) throws InterruptedIOException {
+		final int slots = limiter.getLimit();
+		for (int i = 0; i < slots; i++)
+			limiter.acquire();
+		for (int i = 0; i < slots; i++)
+			limiter.onSuccess(latencyNanos);
+	}
+
+	/**
+	 * Tests that the limit grows while latency stays flat and the
+	 * requests use the whole limit, up to its maximum.
+	 */
+	@Test
+	public void testGrowsWhileLatencyIsFlat() throws InterruptedIOException {
+		SpotifyConcurrencyLimiter limiter = new SpotifyConcurrencyLimiter(4, 2, 32);
+		for (int i = 0; i < 3; i++)
+			runBatch(limiter, 100 * MS);
+		assertTrue(limiter.getLimit() > 4);
+		for (int i = 0; i < 20; i++)
+			runBatch(limiter, 100 * MS);
+		assertEquals(32, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(100, limiter.getLatencyMs(), 0.01);
+	}
+
+	/**
+	 * Tests that the limit shrinks once latency rises well above the
+	 * long-term average, but not below its minimum.
+	 */
+	@Test
+	public void testShrinksWhenLatencyRises() throws InterruptedIOException {
+		SpotifyConcurrencyLimiter limiter = new SpotifyConcurrencyLimiter(32, 2, 32);
+		runBatch(limiter, 100 * MS);
+		assertEquals(32, limiter.getLimit());
+		runBatch(limiter, 400 * MS);
+		final int slower = limiter.getLimit();
+		assertTrue(slower < 32);
+		for (int i = 0; i < 5; i++)
+			runBatch(limiter, 2000 * MS);
+		assertTrue(limiter.getLimit() < slower);
+		assertEquals(2000, limiter.getLastLatencyMs(), 0.01);
+	}
+
+	/**
+	 * Tests that overload cuts the limit at once, and that requests
+	 * whose outcome says nothing about the load leave it as it was.
+	 */
+	@Test
+	public void testDropsCutLimit() throws InterruptedIOException {
+		SpotifyConcurrencyLimiter limiter = new SpotifyConcurrencyLimiter(20, 2, 32);
+		limiter.acquire();
+		limiter.onIgnored();
+		assertEquals(20, limiter.getLimit());
+		limiter.acquire();
+		limiter.onDropped();
+		assertEquals(15, limiter.getLimit());
+		for (int i = 0; i < 20; i++) {
+			limiter.acquire();
+			limiter.onDropped();
+		}
+		assertEquals(2, limiter.getLimit());
+		assertEquals(21, limiter.getDrops());
+	}
+
+	/**
+	 * Tests that a limit the requests don't come close to using
+	 * doesn't grow.
+	 */
+	@Test
+	public void testIdleLimitDoesNotGrow() throws InterruptedIOException {
+		SpotifyConcurrencyLimiter limiter = new SpotifyConcurrencyLimiter(16, 2, 64);
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire();
+			limiter.onSuccess(100 * MS);
+		}
+		assertEquals(16, limiter.getLimit());
+	}
+
+	/**
+	 * Tests that a request waits while the limit is full and goes
+	 * once a slot is freed.
+	 */
+	@Test
+	public void testAcquireWaitsForSlot() throws Exception {
+		SpotifyConcurrencyLimiter limiter = new SpotifyConcurrencyLimiter(2, 2, 2);
+		limiter.acquire();
+		limiter.acquire();
+		CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+			try {
+				limiter.acquire();
+			} catch (InterruptedIOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		assertThrows(TimeoutException.class, () -> waiting.get(100, TimeUnit.MILLISECONDS));
+		limiter.onSuccess(10 * MS);
+		waiting.get(5, TimeUnit.SECONDS);
+		assertEquals(2, limiter.getInFlight());
+	}
+
+}
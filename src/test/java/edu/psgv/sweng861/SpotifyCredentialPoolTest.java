@@ -0,0 +1,160 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.message.BasicHeader;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SpotifyCredentialPoolTest contains the unit tests of the
+ * SpotifyCredentialPool class. A fake transport hands out a token
+ * named after each app and answers requests by the token they carry.
+ * @author Matthew Bollinger
+ */
+class SpotifyCredentialPoolTest {
+
+	private static final URI SEARCH = URI.create("https://api.spotify.com/v1/search?q=adele");
+	private static final Header[] HEADERS = { new BasicHeader(HttpHeaders.AUTHORIZATION, "Bearer library-token") };
+
+	/**
+	 * FakeTransport gives each app the token "token-<client id>", and
+	 * answers requests with the token they were sent with.
+	 */
+	private static class FakeTransport implements IHttpManager {
+		final List<String> tokensUsed = new ArrayList<>();
+		final Set<String> throttled = new HashSet<>();
+		final Set<String> rejected = new HashSet<>();
+		final Set<String> failingClients = new HashSet<>();
+
+		@Override
+		public synchronized String get(URI uri, Header[] headers) throws TooManyRequestsException, UnauthorizedException {
+			final List<String> authorizations = new ArrayList<>();
+			for (Header header : headers) {
+				if (header.getName().equals(HttpHeaders.AUTHORIZATION))
+					authorizations.add(header.getValue());
+			}
+			assertEquals(1, authorizations.size());
+			final String token = authorizations.get(0).substring("Bearer ".length());
+			tokensUsed.add(token);
+			if (throttled.contains(token))
+				throw new TooManyRequestsException("rate limited", 2);
+			if (rejected.contains(token))
+				throw new UnauthorizedException("invalid token");
+			return token;
+		}
+
+		@Override
+		public synchronized String post(URI uri, Header[] headers, HttpEntity body) throws BadRequestException {
+			final String basic = headers[0].getValue().substring("Basic ".length());
+			final String clientId = new String(Base64.getDecoder().decode(basic), StandardCharsets.UTF_8).split(":")[0];
+			if (failingClients.contains(clientId))
+				throw new BadRequestException("invalid client");
+			return "{\"access_token\":\"token-" + clientId + "\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+		}
+
+		@Override
+		public String put(URI uri, Header[] headers, HttpEntity body) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String delete(URI uri, Header[] headers, HttpEntity body) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * poolOf() creates a pool of the given apps on the fake transport.
+	 */
+	private static SpotifyCredentialPool poolOf(FakeTransport transport, String... clientIds) {
+		SpotifyCredentialPool pool = new SpotifyCredentialPool(transport, null);
+		for (String clientId : clientIds)
+			pool.addCredential(clientId, "secret");
+		return pool;
+	}
+
+	/**
+	 * Tests that requests are sent with each app's own token, and are
+	 * spread evenly over apps that are equally loaded.
+	 */
+	@Test
+	public void testSpreadsRequests() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		SpotifyCredentialPool pool = poolOf(transport, "appA", "appB");
+		assertNotNull(pool.authenticate());
+		for (int i = 0; i < 6; i++)
+			pool.get(SEARCH, HEADERS);
+		assertEquals(3, transport.tokensUsed.stream().filter("token-appA"::equals).count());
+		assertEquals(3, transport.tokensUsed.stream().filter("token-appB"::equals).count());
+		for (SpotifyCredentialPool.Credential credential : pool.getCredentials()) {
+			assertEquals(3, credential.getRequestCount());
+			assertEquals(0, credential.getInFlight());
+		}
+	}
+
+	/**
+	 * Tests that a request answered with 429 is sent again through
+	 * another app, that the app is left out afterwards, and that once
+	 * every app is rate limited the request fails.
+	 */
+	@Test
+	public void testFailsOverWhenThrottled() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		SpotifyCredentialPool pool = poolOf(transport, "appA", "appB");
+		transport.throttled.add("token-appA");
+		for (int i = 0; i < 4; i++)
+			assertEquals("token-appB", pool.get(SEARCH, HEADERS));
+		// Only the first request went through appA before it was left out
+		assertEquals(1, transport.tokensUsed.stream().filter("token-appA"::equals).count());
+		SpotifyCredentialPool.Credential appA = pool.getCredentials().get(0);
+		assertTrue(appA.isThrottled());
+		assertEquals(1, appA.getThrottleCount());
+
+		transport.throttled.add("token-appB");
+		TooManyRequestsException e = assertThrows(TooManyRequestsException.class, () -> pool.get(SEARCH, HEADERS));
+		assertEquals(2, e.getRetryAfter());
+		assertThrows(TooManyRequestsException.class, () -> pool.get(SEARCH, HEADERS));
+	}
+
+	/**
+	 * Tests that an app whose token can't be requested is only used
+	 * once no other app is left, and that a rejected token is dropped
+	 * and requested again.
+	 */
+	@Test
+	public void testSkipsUnhealthyAndRejected() throws Exception {
+		FakeTransport transport = new FakeTransport();
+		transport.failingClients.add("appA");
+		SpotifyCredentialPool pool = poolOf(transport, "appA", "appB");
+		assertEquals("token-appB", pool.authenticate());
+		assertFalse(pool.getCredentials().get(0).isHealthy());
+		for (int i = 0; i < 3; i++)
+			assertEquals("token-appB", pool.get(SEARCH, HEADERS));
+
+		// Once appB's token is rejected, appA is tried again as the last app left
+		transport.rejected.add("token-appB");
+		assertThrows(UnauthorizedException.class, () -> pool.get(SEARCH, HEADERS));
+		transport.rejected.clear();
+		assertEquals("token-appB", pool.get(SEARCH, HEADERS));
+		transport.failingClients.clear();
+		transport.rejected.add("token-appB");
+		assertEquals("token-appA", pool.get(SEARCH, HEADERS));
+		assertTrue(pool.getCredentials().get(0).isHealthy());
+	}
+
+}
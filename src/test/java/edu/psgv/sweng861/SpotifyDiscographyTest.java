@@ -0,0 +1,70 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * SpotifyDiscographyTest contains the unit tests of the
+ * SpotifyDiscography class. Tracks are added as they would be
+ * by the requests of a discography.
+ * @author Matthew Bollinger
+ */
+class SpotifyDiscographyTest {
+
+	/**
+	 * Tests that a track released again is dropped whether it
+	 * matches by ISRC or by name, and that the listener is only
+	 * told about distinct tracks.
+	 */
+	@Test
+	public void testDuplicatesAreDropped() {
+		List<String> found = new ArrayList<>();
+		SpotifyDiscography discography = new SpotifyDiscography("4Z8W4fKeB5YxbusRsdQVPb",
+				(name, album, releaseDate, durationMs) -> found.add(name + " / " + album));
+		discography.addAlbum();
+		discography.addAlbum();
+		assertTrue(discography.addTrack("GBAYE9200070", "Creep", "Pablo Honey", "1993-02-22", 238_640));
+		assertTrue(discography.addTrack("GBAYE9700090", "Karma Police", "OK Computer", "1997-05-21", 264_066));
+		// Same recording on another album
+		assertFalse(discography.addTrack("gbaye9200070", "Creep - Live", "Creep EP", "1993-09-01", 238_000));
+		// Same song without an ISRC
+		assertFalse(discography.addTrack(null, " karma police ", "OK Computer OKNOTOK", "2017-06-23", 264_066));
+		assertTrue(discography.addTrack(null, "Lift", "OK Computer OKNOTOK", "2017-06-23", 248_000));
+
+		assertEquals(List.of("Creep / Pablo Honey", "Karma Police / OK Computer", "Lift / OK Computer OKNOTOK"), found);
+		assertEquals(3, discography.getTrackCount());
+		assertEquals(2, discography.getDuplicateCount());
+		assertEquals(2, discography.getAlbumCount());
+		assertEquals(238_640 + 264_066 + 248_000, discography.getTotalDurationMs());
+		assertEquals(Map.of(1993, 1, 1997, 1, 2017, 1), discography.getReleaseTimeline());
+		assertEquals("1993-02-22", discography.getFirstReleaseDate());
+		assertEquals("2017-06-23", discography.getLastReleaseDate());
+	}
+
+	/**
+	 * Tests that tracks added from many threads at once are each
+	 * counted exactly once.
+	 */
+	@Test
+	public void testConcurrentTracksAreCountedOnce() {
+		AtomicInteger found = new AtomicInteger();
+		SpotifyDiscography discography = new SpotifyDiscography("id", (name, album, releaseDate, durationMs) -> found.incrementAndGet());
+		CompletableFuture.allOf(IntStream.range(0, 8).mapToObj(thread -> CompletableFuture.runAsync(() -> {
+			for (int i = 0; i < 1000; i++)
+				discography.addTrack("ISRC" + i, "Track " + i, "Album", (2000 + i % 20) + "", 1000);
+		})).toArray(CompletableFuture<?>[]::new)).join();
+		assertEquals(1000, discography.getTrackCount());
+		assertEquals(1000, found.get());
+		assertEquals(7000, discography.getDuplicateCount());
+		assertEquals(1_000_000, discography.getTotalDurationMs());
+		assertEquals(20, discography.getReleaseTimeline().size());
+	}
+
+}
@@ -0,0 +1,105 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.awt.EventQueue;
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.LongStream;
+
+/**
+ * SpotifyEdtWatchdogTest contains the unit tests of the
+ * SpotifyEdtWatchdog class. Events are posted to the event queue
+ * with invokeAndWait(), which works without a display.
+ * @author Matthew Bollinger
+ */
+class SpotifyEdtWatchdogTest {
+
+	/**
+	 * blockingWork() stands in for blocking work put on the event
+	 * dispatch thread, so it can be found in the captured stack.
+	 */
+	private static void blockingWork(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Tests that quick events are only counted in the histogram, and
+	 * that an event running past the threshold is reported once with
+	 * the stack of the code it is stuck in.
+	 */
+	@Test
+	public void testReportsStall() throws InterruptedException, InvocationTargetException {
+		SpotifyEdtWatchdog watchdog = SpotifyEdtWatchdog.install(50);
+		try {
+			for (int i = 0; i < 10; i++)
+				EventQueue.invokeAndWait(() -> { });
+			assertEquals(0, watchdog.getStallCount());
+			EventQueue.invokeAndWait(() -> blockingWork(300));
+			// invokeAndWait() returns before the event is recorded, which is done once the next one is handled
+			EventQueue.invokeAndWait(() -> { });
+			assertTrue(watchdog.getDispatchCount() >= 11);
+			assertEquals(1, watchdog.getStallCount());
+			assertTrue(Arrays.stream(watchdog.getLastStallStack())
+					.anyMatch(frame -> frame.getMethodName().equals("blockingWork")));
+			assertEquals(watchdog.getDispatchCount(), LongStream.of(watchdog.getHistogram()).sum());
+			assertTrue(watchdog.getMaxMs() >= 300);
+			assertTrue(watchdog.getPercentileMs(0.5) < 256);
+			assertTrue(watchdog.getPercentileMs(1.0) >= 256);
+		} finally {
+			watchdog.uninstall();
+		}
+	}
+
+	/**
+	 * Tests that an event running a nested loop, as a modal dialog
+	 * does, isn't reported as stalled while the loop waits for events,
+	 * before or after handling one.
+	 */
+	@Test
+	public void testIdleNestedLoop() throws InterruptedException, InvocationTargetException {
+		SpotifyEdtWatchdog watchdog = SpotifyEdtWatchdog.install(50);
+		try {
+			CountDownLatch handled = new CountDownLatch(1);
+			EventQueue.invokeAndWait(() -> {
+				SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+				Thread user = new Thread(() -> {
+					blockingWork(200);
+					EventQueue.invokeLater(handled::countDown);
+					blockingWork(200);
+					loop.exit();
+				});
+				user.start();
+				loop.enter();
+			});
+			assertEquals(0, handled.getCount());
+			EventQueue.invokeAndWait(() -> { });
+			assertEquals(0, watchdog.getStallCount());
+		} finally {
+			watchdog.uninstall();
+		}
+	}
+
+	/**
+	 * Tests that events fall into buckets that double in size.
+	 */
+	@Test
+	public void testBuckets() {
+		assertEquals(0, SpotifyEdtWatchdog.bucketOf(0));
+		assertEquals(1, SpotifyEdtWatchdog.bucketOf(1));
+		assertEquals(2, SpotifyEdtWatchdog.bucketOf(3));
+		assertEquals(7, SpotifyEdtWatchdog.bucketOf(100));
+		assertEquals(128, SpotifyEdtWatchdog.getBucketBoundMs(7));
+		assertEquals(SpotifyEdtWatchdog.BUCKETS - 1, SpotifyEdtWatchdog.bucketOf(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, SpotifyEdtWatchdog.getBucketBoundMs(SpotifyEdtWatchdog.BUCKETS - 1));
+	}
+
+}
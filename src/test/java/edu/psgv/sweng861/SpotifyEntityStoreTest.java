@@ -0,0 +1,169 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.neovisionaries.i18n.CountryCode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/**
+ * SpotifyEntityStoreTest contains the unit tests of the
+ * SpotifyEntityStore class. The results share the default store
+ * with the other tests, so each test makes up its own IDs.
+ * @author Matthew Bollinger
+ */
+class SpotifyEntityStoreTest {
+
+	/**
+	 * newId() makes up a Spotify ID no other test uses.
+	 */
+	private static String newId() {
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * copyOf() makes a string equal to another but not the same one,
+	 * as a result parsed from another response would hold.
+	 */
+	private static String copyOf(String value) {
+		return new String(value.toCharArray());
+	}
+
+	/**
+	 * Tests that two results holding the same artist or track keep
+	 * the same copy of its values, and that names are shared between
+	 * the artists and the credits of the tracks.
+	 */
+	@Test
+	public void testSharesValues() {
+		String id = newId();
+		SpotifyArtistData first = new SpotifyArtistData();
+		SpotifyArtistData second = new SpotifyArtistData();
+		first.addArtist(id, copyOf("Radiohead"), new ArrayList<>(List.of(copyOf("art rock"))), 100, 80, null);
+		second.addArtist(copyOf(id), copyOf("Radiohead"), new ArrayList<>(List.of(copyOf("art rock"))), 101, 81, null);
+		assertSame(first.getArtistNames().get(0), second.getArtistNames().get(0));
+		assertSame(first.getArtistGenres().get(0), second.getArtistGenres().get(0));
+		assertSame(first.getArtistIds().get(0), second.getArtistIds().get(0));
+		// Values that belong to each result are kept apart
+		assertEquals(101, second.getArtistFollowers().get(0));
+
+		String trackId = newId();
+		SpotifyTrackData tracks = new SpotifyTrackData();
+		SpotifyTrackData otherTracks = new SpotifyTrackData();
+		tracks.addTrack(trackId, copyOf("Creep"), copyOf("Pablo Honey"), copyOf("1993-02-22"),
+				new ArrayList<>(List.of(copyOf("Radiohead"))), 238_640, false, 1, 2, 70, null);
+		otherTracks.addTrack(newId(), copyOf("Anyone Can Play Guitar"), copyOf("Pablo Honey"), copyOf("1993-02-22"),
+				new ArrayList<>(List.of(copyOf("Radiohead"))), 217_000, false, 1, 3, 50, null);
+		assertSame(tracks.getTrackAlbums().get(0), otherTracks.getTrackAlbums().get(0));
+		assertSame(first.getArtistNames().get(0), tracks.getTrackArtists().get(0).get(0));
+	}
+
+	/**
+	 * Tests that a result takes over the related artists and top track
+	 * another result learned recently, but not ones that are too old.
+	 */
+	@Test
+	public void testTakesKnownDetails() {
+		String id = newId();
+		SpotifyArtistData first = new SpotifyArtistData();
+		first.addArtist(id, "Portishead", new ArrayList<>(), 100, 70, null);
+		first.setArtistRelatedArtistNames(0, new ArrayList<>(List.of("Massive Attack", "Tricky")));
+		first.setArtistTopTrack(0, "Glory Box");
+
+		SpotifyArtistData second = new SpotifyArtistData();
+		second.addArtist(id, "Portishead", new ArrayList<>(), 100, 70, null);
+		assertTrue(second.isRelatedArtistsPending(0));
+		second.takeKnownDetails(0);
+		assertFalse(second.isRelatedArtistsPending(0));
+		assertFalse(second.isTopTrackPending(0));
+		assertSame(first.getArtistRelatedArtists().get(0), second.getArtistRelatedArtists().get(0));
+		assertEquals("Glory Box", second.getArtistTopTracks().get(0));
+		// There is no image to take over
+		assertTrue(second.isImagePending(0));
+
+		String oldId = newId();
+		SpotifyArtistData old = new SpotifyArtistData();
+		old.setFetchedAtMs(System.currentTimeMillis() - SpotifyEntityStore.DETAILS_TTL_MS - 1);
+		old.addArtist(oldId, "Bj\u00f6rk", new ArrayList<>(), 100, 70, null);
+		old.setArtistTopTrack(0, "Army of Me");
+		SpotifyArtistData fresh = new SpotifyArtistData();
+		fresh.addArtist(oldId, "Bj\u00f6rk", new ArrayList<>(), 100, 70, null);
+		fresh.takeKnownDetails(0);
+		assertTrue(fresh.isTopTrackPending(0));
+	}
+
+	/**
+	 * Tests that a top track is only taken over by results in the
+	 * market it was learned in.
+	 */
+	@Test
+	public void testTopTrackKeptPerMarket() {
+		String id = newId();
+		SpotifyArtistData swedish = new SpotifyArtistData();
+		swedish.addArtist(id, "Robyn", new ArrayList<>(), 100, 70, null);
+		swedish.setArtistTopTrack(0, "Dancing On My Own");
+
+		SpotifyArtistData american = new SpotifyArtistData();
+		american.setMarket(CountryCode.US);
+		american.addArtist(id, "Robyn", new ArrayList<>(), 100, 70, null);
+		american.takeKnownDetails(0);
+		assertTrue(american.isTopTrackPending(0));
+
+		SpotifyArtistData alsoSwedish = new SpotifyArtistData();
+		alsoSwedish.addArtist(id, "Robyn", new ArrayList<>(), 100, 70, null);
+		alsoSwedish.takeKnownDetails(0);
+		assertEquals("Dancing On My Own", alsoSwedish.getArtistTopTracks().get(0));
+	}
+
+	/**
+	 * Tests that an album image is downloaded once for every track of
+	 * the album in every result, and then shared.
+	 */
+	@Test
+	public void testSharesImages() throws IOException {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", png);
+		String url = "https://i.scdn.co/image/" + newId();
+		AtomicInteger downloads = new AtomicInteger();
+		SpotifyDownloader downloader = imageUrl -> {
+			downloads.incrementAndGet();
+			return png.toByteArray();
+		};
+		SpotifyTrackData first = new SpotifyTrackData();
+		SpotifyTrackData second = new SpotifyTrackData();
+		first.addTrack(newId(), "Airbag", "OK Computer", "1997", new ArrayList<>(), 1000, false, 1, 1, 50, url);
+		second.addTrack(newId(), "Lucky", "OK Computer", "1997", new ArrayList<>(), 1000, false, 1, 11, 50, url);
+		first.loadTrackAlbumImage(0, downloader);
+		second.takeKnownDetails(0);
+		assertFalse(second.isAlbumImagePending(0));
+		second.loadTrackAlbumImage(0, downloader);
+		assertEquals(1, downloads.get());
+		assertSame(first.getTrackAlbumImageBytes().get(0), second.getTrackAlbumImageBytes().get(0));
+	}
+
+	/**
+	 * Tests that an artist no result refers to any more is dropped.
+	 */
+	@Test
+	public void testDropsUnreferenced() throws InterruptedException {
+		SpotifyEntityStore store = new SpotifyEntityStore();
+		SpotifyEntityStore.ArtistEntity kept = store.artist("kept", "Kept", List.of(), null);
+		store.artist("dropped", "Dropped", List.of(), null);
+		for (int i = 0; i < 50 && store.getArtistCount() > 1; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(1, store.getArtistCount());
+		assertSame(kept, store.artist("kept", "Kept", List.of(), null));
+	}
+
+}
@@ -0,0 +1,136 @@
+package edu.psgv.sweng861;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.exceptions.detailed.NotFoundException;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpotifyFakeApi is an IHttpManager that stands in for the Spotify
+ * Web API, which lets tests run a requester without the network.
+ * It hands out a token and answers searches, related artists and
+ * top tracks with the recorded responses of the test resources,
+ * with their images left out so that nothing is downloaded. The
+ * IDs of each fake are told apart from those of the others, so the
+ * details one test's results learn aren't taken over by another's.
+ * It counts the requests of each endpoint, and the related artists
+ * and top tracks requests can be held back until released.
+ * @author Matthew Bollinger
+ */
+class SpotifyFakeApi implements IHttpManager {
+
+	// Recorded responses without their images
+	private static final String SEARCH = withoutImages(SpotifyTestData.readResource("search-combined.json"));
+	private static final String RELATED_ARTISTS = withoutImages(SpotifyTestData.readResource("related-artists.json"));
+	private static final String TOP_TRACKS = withoutImages(SpotifyTestData.readResource("top-tracks.json"));
+	// How long a held request waits at most, so that a failing test doesn't hang
+	private static final long MAX_HOLD_SECONDS = 10;
+	// Numbers the fakes, to tell their IDs apart
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	// The search response with the IDs of this fake
+	private final String search = SEARCH.replaceAll("\"id\"\\s*:\\s*\"", "$0" + instances.incrementAndGet() + "-");
+
+	private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+	// The related artists and top tracks requests wait for this while it is set
+	private volatile CountDownLatch held;
+
+	/**
+	 * withoutImages() empties the images arrays of a response.
+	 */
+	private static String withoutImages(String json) {
+		return json.replaceAll("\"images\"\\s*:\\s*\\[[^\\]]*\\]", "\"images\": []");
+	}
+
+	/**
+	 * requester() creates a requester whose API requests go to this
+	 * fake, through an app of a credential pool.
+	 * @return the requester
+	 */
+	SpotifyRestRequester requester() {
+		SpotifyCredentialPool pool = new SpotifyCredentialPool(this, null);
+		pool.addCredential("app", "secret");
+		return new SpotifyRestRequester(SpotifyHttpTransport.getDefault(), pool);
+	}
+
+	/**
+	 * hold() makes the related artists and top tracks requests
+	 * wait until release() is called.
+	 */
+	void hold() {
+		held = new CountDownLatch(1);
+	}
+
+	/**
+	 * release() answers the requests held back and the ones that
+	 * come after.
+	 */
+	void release() {
+		final CountDownLatch latch = held;
+		held = null;
+		if (latch != null)
+			latch.countDown();
+	}
+
+	/**
+	 * getCallCount() gets the number of requests made to an endpoint.
+	 * @param endpoint is one of the endpoint names of the requester
+	 * @return the number of requests
+	 */
+	int getCallCount(String endpoint) {
+		final AtomicInteger count = calls.get(endpoint);
+		return (count != null) ? count.get() : 0;
+	}
+
+	@Override
+	public String get(URI uri, Header[] headers) throws NotFoundException {
+		final String path = uri.getPath();
+		final String endpoint;
+		final String response;
+		if (path.endsWith("/search")) {
+			endpoint = SpotifyRestRequester.SEARCH_ENDPOINT;
+			response = search;
+		} else if (path.endsWith("/related-artists")) {
+			endpoint = SpotifyRestRequester.RELATED_ARTISTS_ENDPOINT;
+			response = RELATED_ARTISTS;
+		} else if (path.endsWith("/top-tracks")) {
+			endpoint = SpotifyRestRequester.TOP_TRACKS_ENDPOINT;
+			response = TOP_TRACKS;
+		} else {
+			throw new NotFoundException(path);
+		}
+		calls.computeIfAbsent(endpoint, name -> new AtomicInteger()).incrementAndGet();
+		final CountDownLatch latch = held;
+		if (latch != null && !endpoint.equals(SpotifyRestRequester.SEARCH_ENDPOINT)) {
+			try {
+				latch.await(MAX_HOLD_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return response;
+	}
+
+	@Override
+	public String post(URI uri, Header[] headers, HttpEntity body) {
+		return "{\"access_token\":\"token\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+	}
+
+	@Override
+	public String put(URI uri, Header[] headers, HttpEntity body) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String delete(URI uri, Header[] headers, HttpEntity body) {
+		throw new UnsupportedOperationException();
+	}
+
+}
@@ -0,0 +1,145 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.core5.http.Header;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.BadGatewayException;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+import se.michaelthelin.spotify.exceptions.detailed.ForbiddenException;
+import se.michaelthelin.spotify.exceptions.detailed.InternalServerErrorException;
+import se.michaelthelin.spotify.exceptions.detailed.NotFoundException;
+import se.michaelthelin.spotify.exceptions.detailed.ServiceUnavailableException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpotifyHttpTransportTest contains the unit tests of the
+ * SpotifyHttpTransport class. A local HTTP server answers each
+ * path with the status, headers and body the path names, so no
+ * request leaves the machine.
+ * @author Matthew Bollinger
+ */
+class SpotifyHttpTransportTest {
+
+	private HttpServer server;
+	private SpotifyHttpTransport transport;
+	// The ports of the connections the server was sent requests on, and the number of requests
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger requests = new AtomicInteger();
+
+	/**
+	 * startServer() starts a server whose paths are named after the
+	 * status they answer with, such as /429, and a transport to it.
+	 */
+	@BeforeEach
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			requests.incrementAndGet();
+			final String[] parts = exchange.getRequestURI().getPath().substring(1).split("/");
+			final int status = Integer.parseInt(parts[0]);
+			if (parts.length > 1)
+				exchange.getResponseHeaders().add("Retry-After", parts[1].replace('_', ' '));
+			final byte[] body = (status == 200) ? "{\"ok\":true}".getBytes(StandardCharsets.UTF_8)
+					: ("{\"error\":{\"status\":" + status + ",\"message\":\"failed with " + status + "\"}}")
+							.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		transport = new SpotifyHttpTransport.Builder().setHttp2Enabled(false).setKeepAliveMs(200).build();
+	}
+
+	@AfterEach
+	public void stopServer() {
+		transport.close();
+		server.stop(0);
+	}
+
+	/**
+	 * get() sends a GET request to a path of the server.
+	 */
+	private String get(String path) throws Exception {
+		return transport.get(URI.create("http://localhost:" + server.getAddress().getPort() + path), new Header[0]);
+	}
+
+	/**
+	 * Tests that each error status is turned into the exception the
+	 * Spotify library throws for it, with the message of the body,
+	 * and that a successful response hands back its body.
+	 */
+	@Test
+	public void testStatusMappedToException() throws Exception {
+		assertEquals("{\"ok\":true}", get("/200"));
+		Map<Integer, Class<? extends SpotifyWebApiException>> expected = Map.of(
+				400, BadRequestException.class,
+				401, UnauthorizedException.class,
+				403, ForbiddenException.class,
+				404, NotFoundException.class,
+				429, TooManyRequestsException.class,
+				500, InternalServerErrorException.class,
+				502, BadGatewayException.class,
+				503, ServiceUnavailableException.class);
+		for (Map.Entry<Integer, Class<? extends SpotifyWebApiException>> status : expected.entrySet()) {
+			SpotifyWebApiException e = assertThrows(status.getValue(), () -> get("/" + status.getKey()));
+			assertEquals("failed with " + status.getKey(), e.getMessage());
+		}
+		// Every request was sent once
+		assertEquals(expected.size() + 1, requests.get());
+	}
+
+	/**
+	 * Tests that a Retry-After header in seconds is kept on a too
+	 * many requests exception, and that one given as a date, which
+	 * isn't a number of seconds, is left out. The exception is thrown
+	 * as soon as the response arrives, without the request being sent
+	 * again after waiting, so the credential pool can use another app.
+	 */
+	@Test
+	public void testRetryAfter() {
+		final long start = System.nanoTime();
+		TooManyRequestsException seconds = assertThrows(TooManyRequestsException.class, () -> get("/429/7"));
+		assertEquals(7, seconds.getRetryAfter());
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(7), "Waited for the Retry-After");
+		assertEquals(1, requests.get());
+		TooManyRequestsException date = assertThrows(TooManyRequestsException.class,
+				() -> get("/429/Wed,_21_Oct_2015_07:28:00_GMT"));
+		assertEquals(0, date.getRetryAfter());
+		TooManyRequestsException none = assertThrows(TooManyRequestsException.class, () -> get("/429"));
+		assertEquals(0, none.getRetryAfter());
+		assertEquals(3, requests.get());
+	}
+
+	/**
+	 * Tests that a connection that keeps being used stays open past
+	 * the keep-alive period, which only limits how long it may idle.
+	 */
+	@Test
+	public void testBusyConnectionOutlivesKeepAlive() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			assertEquals("{\"ok\":true}", get("/200"));
+			Thread.sleep(50);
+		}
+		assertEquals(1, clientPorts.size());
+	}
+
+}
@@ -0,0 +1,141 @@
+package edu.psgv.sweng861;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * SpotifyImageDecodeBenchmark compares decoding artwork in full
+ * with ImageIO.read(), as the images were decoded before, with the
+ * subsampled decoding of SpotifyImageStore, and with decoding the
+ * 320x320 rendition that SpotifyImageStore.urlOf() picks instead.
+ * The artwork is made up to look like the JPEGs Spotify serves:
+ * smooth gradients, shapes and grain, compressed at a quality of
+ * 0.9. It isn't run with the unit tests; run its main() method to
+ * print the CPU time and the bytes allocated by each decode.
+ * @author Matthew Bollinger
+ */
+public class SpotifyImageDecodeBenchmark {
+
+	// Number of decodes measured, after as many to warm up
+	private static final int ITERATIONS = 200;
+
+	/**
+	 * Decoder decodes the bytes of an image.
+	 */
+	private interface Decoder {
+		BufferedImage decode(byte[] compressed) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException {
+		final int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : ITERATIONS;
+		final byte[][] artwork = new byte[8][];
+		final byte[][] renditions = new byte[artwork.length][];
+		for (int i = 0; i < artwork.length; i++) {
+			artwork[i] = makeArtwork(640, new Random(i));
+			renditions[i] = makeArtwork(320, new Random(i));
+		}
+		long compressedBytes = 0;
+		for (byte[] bytes : artwork)
+			compressedBytes += bytes.length;
+		System.out.printf("%d artworks of 640x640, %d KB of JPEG each on average%n", artwork.length,
+				compressedBytes / artwork.length / 1024);
+
+		final Decoder full = compressed -> ImageIO.read(new ByteArrayInputStream(compressed));
+		final Decoder subsampled = compressed -> SpotifyImageStore.read(compressed, SpotifyImageStore.DISPLAY_SIZE);
+		final double[] fullResult = measure("ImageIO.read (full)", full, artwork, iterations);
+		final double[] subsampledResult = measure("SpotifyImageStore (252)", subsampled, artwork, iterations);
+		final double[] renditionResult = measure("SpotifyImageStore (320)", subsampled, renditions, iterations);
+		System.out.printf("Subsampled: CPU %.1fx less, allocation %.1fx less%n", fullResult[0] / subsampledResult[0],
+				fullResult[1] / subsampledResult[1]);
+		System.out.printf("Rendition:  CPU %.1fx less, allocation %.1fx less%n", fullResult[0] / renditionResult[0],
+				fullResult[1] / renditionResult[1]);
+	}
+
+	/**
+	 * measure() warms a decoder up, then decodes the artwork over and
+	 * over and prints the CPU time and bytes allocated per decode.
+	 * @return the CPU microseconds and the bytes allocated per decode
+	 */
+	private static double[] measure(String name, Decoder decoder, byte[][] artwork, int iterations) throws IOException {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().threadId();
+		for (int i = 0; i < iterations; i++)
+			decoder.decode(artwork[i % artwork.length]);
+		final long startCpu = threads.getCurrentThreadCpuTime();
+		final long startAllocated = threads.getThreadAllocatedBytes(threadId);
+		BufferedImage image = null;
+		for (int i = 0; i < iterations; i++)
+			image = decoder.decode(artwork[i % artwork.length]);
+		final double cpuMicros = (threads.getCurrentThreadCpuTime() - startCpu) / 1000.0 / iterations;
+		final double allocated = (double) (threads.getThreadAllocatedBytes(threadId) - startAllocated) / iterations;
+		System.out.printf("%-24s %8.0f us CPU %8.0f KB allocated  -> %dx%d, %d KB of pixels%n", name, cpuMicros,
+				allocated / 1024, image.getWidth(), image.getHeight(), SpotifyImageStore.sizeOf(image) / 1024);
+		return new double[] { cpuMicros, allocated };
+	}
+
+	/**
+	 * makeArtwork() draws a square image that compresses like a photo
+	 * and encodes it as a JPEG.
+	 */
+	private static byte[] makeArtwork(int size, Random random) throws IOException {
+		final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = image.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			graphics.setPaint(new GradientPaint(0, 0, new Color(random.nextInt()), size, size, new Color(random.nextInt())));
+			graphics.fillRect(0, 0, size, size);
+			for (int i = 0; i < 40; i++) {
+				graphics.setColor(new Color(random.nextInt(), true));
+				final int x = random.nextInt(size);
+				final int y = random.nextInt(size);
+				final int diameter = 20 + random.nextInt(size / 3);
+				graphics.fillOval(x - diameter / 2, y - diameter / 2, diameter, diameter);
+			}
+		} finally {
+			graphics.dispose();
+		}
+		// Grain, so the JPEG has as much detail to decode as a photo
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				final int rgb = image.getRGB(x, y);
+				final int noise = random.nextInt(25) - 12;
+				image.setRGB(x, y, clamp((rgb >> 16 & 0xFF) + noise) << 16 | clamp((rgb >> 8 & 0xFF) + noise) << 8
+						| clamp((rgb & 0xFF) + noise));
+			}
+		}
+		final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+			final ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(0.9f);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * clamp() keeps a color component between 0 and 255.
+	 */
+	private static int clamp(int value) {
+		return Math.max(0, Math.min(255, value));
+	}
+
+}
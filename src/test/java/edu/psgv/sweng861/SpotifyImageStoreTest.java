@@ -0,0 +1,199 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import se.michaelthelin.spotify.model_objects.specification.Image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * SpotifyImageStoreTest contains the unit tests of the
+ * SpotifyImageStore class.
+ * @author Matthew Bollinger
+ */
+class SpotifyImageStoreTest {
+
+	// Bytes of pixels of a decoded 100x100 image
+	private static final long IMAGE_BYTES = decodedSize(100, 100);
+
+	/**
+	 * encode() compresses a blank image into PNG bytes.
+	 */
+	private static byte[] encode(int width, int height) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", bytes);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * encodeJpeg() compresses an image with some detail into JPEG bytes.
+	 */
+	private static byte[] encodeJpeg(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x ^ y) & 0xFF));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", bytes);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * decodedSize() gets the bytes of pixels of a decoded blank image.
+	 */
+	private static long decodedSize(int width, int height) {
+		try {
+			return SpotifyImageStore.sizeOf(SpotifyImageStore.read(encode(width, height), 0));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Tests that a decoded image is cached and handed out again.
+	 */
+	@Test
+	public void testDecodeIsCached() throws IOException {
+		SpotifyImageStore store = new SpotifyImageStore(10 * IMAGE_BYTES);
+		byte[] compressed = encode(100, 100);
+		BufferedImage image = store.decode(compressed);
+		assertEquals(100, image.getWidth());
+		assertSame(image, store.decode(compressed));
+		assertEquals(IMAGE_BYTES, store.getDecodedBytes());
+		assertTrue(compressed.length < IMAGE_BYTES);
+	}
+
+	/**
+	 * Tests that the decoded images stay within the byte budget,
+	 * evicting the least recently used one first.
+	 */
+	@Test
+	public void testBudgetEvictsLeastRecentlyUsed() throws IOException {
+		SpotifyImageStore store = new SpotifyImageStore(3 * IMAGE_BYTES);
+		byte[][] images = new byte[10][];
+		for (int i = 0; i < images.length; i++) {
+			images[i] = encode(100, 100);
+			store.decode(images[i]);
+			// Keeps the first image the most recently used
+			store.decode(images[0]);
+			assertTrue(store.getDecodedBytes() <= 3 * IMAGE_BYTES);
+		}
+		assertEquals(3, store.getDecodedCount());
+		BufferedImage first = store.decode(images[0]);
+		assertSame(first, store.decode(images[0]));
+
+		store.setMaxDecodedBytes(IMAGE_BYTES);
+		assertEquals(1, store.getDecodedCount());
+		// An image larger than the whole budget is decoded but not kept
+		assertNotNull(store.decode(encode(200, 200)));
+		assertEquals(IMAGE_BYTES, store.getDecodedBytes());
+	}
+
+	/**
+	 * Tests that large artwork is decoded no larger than needed for
+	 * the picture it is shown in, straight into an integer RGB raster,
+	 * and that smaller or oddly shaped images keep both sides at least
+	 * the size of the picture.
+	 */
+	@Test
+	public void testDecodesAtDisplaySize() throws IOException {
+		SpotifyImageStore store = new SpotifyImageStore(64L * 1024 * 1024);
+		BufferedImage artwork = store.decode(encodeJpeg(640, 640));
+		assertEquals(320, artwork.getWidth());
+		assertEquals(320, artwork.getHeight());
+		assertEquals(BufferedImage.TYPE_INT_RGB, artwork.getType());
+		BufferedImage wide = store.decode(encodeJpeg(1000, 300));
+		assertEquals(1000, wide.getWidth());
+		assertEquals(300, wide.getHeight());
+		BufferedImage large = store.decode(encodeJpeg(1600, 1200));
+		assertEquals(400, large.getWidth());
+		assertEquals(300, large.getHeight());
+		// Decoding in full keeps every pixel
+		assertEquals(640, SpotifyImageStore.read(encodeJpeg(640, 640), 0).getWidth());
+		// Readers kept by the thread decode the next images of another format too
+		assertEquals(100, store.decode(encode(100, 100)).getWidth());
+		assertEquals(320, store.decode(encodeJpeg(640, 640)).getWidth());
+	}
+
+	/**
+	 * Tests that a store for the GUI scales its images to exactly the
+	 * picture, and that getIcon() only hands out icons already decoded.
+	 */
+	@Test
+	public void testIconsScaledToPicture() throws IOException {
+		SpotifyImageStore store = new SpotifyImageStore(64L * 1024 * 1024, SpotifyImageStore.DISPLAY_SIZE, true);
+		byte[] artwork = encodeJpeg(640, 480);
+		assertNull(store.getIcon(artwork));
+		assertEquals(0, store.getDecodedCount());
+		ImageIcon icon = store.icon(artwork);
+		assertEquals(SpotifyImageStore.DISPLAY_SIZE, icon.getIconWidth());
+		assertEquals(SpotifyImageStore.DISPLAY_SIZE, icon.getIconHeight());
+		assertEquals(BufferedImage.TYPE_INT_RGB, ((BufferedImage) icon.getImage()).getType());
+		assertSame(icon, store.getIcon(artwork));
+		assertSame(icon.getImage(), store.decode(artwork));
+		// A small image is scaled up to the picture too
+		assertEquals(SpotifyImageStore.DISPLAY_SIZE, store.icon(encode(64, 64)).getIconWidth());
+		assertNull(store.getIcon(null));
+		assertNull(store.icon(null));
+	}
+
+	/**
+	 * Tests that the smallest rendition covering the picture is picked,
+	 * and the largest one if none covers it.
+	 */
+	@Test
+	public void testPicksRendition() {
+		Image[] images = {
+				new Image.Builder().setUrl("640").setWidth(640).setHeight(640).build(),
+				new Image.Builder().setUrl("320").setWidth(320).setHeight(320).build(),
+				new Image.Builder().setUrl("160").setWidth(160).setHeight(160).build() };
+		assertEquals("320", SpotifyImageStore.urlOf(images));
+		assertEquals("160", SpotifyImageStore.urlOf(new Image[] { images[2], new Image.Builder().setUrl("64").setWidth(64).setHeight(64).build() }));
+		// A rendition of unknown size is only used if there is nothing better
+		assertEquals("640", SpotifyImageStore.urlOf(new Image[] { new Image.Builder().setUrl("unknown").build(), images[0] }));
+		assertEquals("unknown", SpotifyImageStore.urlOf(new Image[] { new Image.Builder().setUrl("unknown").build() }));
+		assertNull(SpotifyImageStore.urlOf(new Image[0]));
+		// A wide rendition must cover the picture on its shorter side
+		assertFalse(SpotifyImageStore.isBetterRendition(1000, 200, 300, 300));
+	}
+
+	/**
+	 * Tests that bytes of an unknown format are rejected.
+	 */
+	@Test
+	public void testUnsupportedBytes() throws IOException {
+		SpotifyImageStore store = new SpotifyImageStore(IMAGE_BYTES);
+		byte[] text = "not an image".getBytes();
+		assertFalse(SpotifyImageStore.isSupported(text));
+		assertFalse(SpotifyImageStore.isSupported(null));
+		assertTrue(SpotifyImageStore.isSupported(encode(1, 1)));
+		assertNull(store.decode(text));
+		assertNull(store.decode(null));
+		// Damaged bytes of a known format aren't decoded either
+		byte[] cut = new byte[200];
+		System.arraycopy(encodeJpeg(640, 640), 0, cut, 0, cut.length);
+		assertNull(store.decode(cut));
+		assertEquals(0, store.getDecodedCount());
+	}
+
+	/**
+	 * Tests that reading damaged bytes fails with the error of the
+	 * reader, and that the next image of the thread is still read.
+	 */
+	@Test
+	public void testDamagedBytesReportReadError() throws IOException {
+		byte[] cut = new byte[200];
+		System.arraycopy(encodeJpeg(640, 640), 0, cut, 0, cut.length);
+		assertThrows(IOException.class, () -> SpotifyImageStore.read(cut, 0));
+		assertEquals(640, SpotifyImageStore.read(encodeJpeg(640, 640), 0).getWidth());
+	}
+
+}
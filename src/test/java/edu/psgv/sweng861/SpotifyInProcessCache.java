@@ -0,0 +1,87 @@
+package edu.psgv.sweng861;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpotifyInProcessCache is a SpotifyRemoteCache that keeps its
+ * values in a map of the current process. Several requesters
+ * given the same instance share it as they would share a cache
+ * node, which lets tests run the two tiers without a socket. It
+ * counts its lookups so tests can check where a result came from.
+ * @author Matthew Bollinger
+ */
+class SpotifyInProcessCache implements SpotifyRemoteCache {
+
+	/**
+	 * Entry holds a value and when it expires.
+	 */
+	private static class Entry {
+		final byte[] value;
+		final long expiresAtMs;
+
+		Entry(byte[] value, long expiresAtMs) {
+			this.value = value;
+			this.expiresAtMs = expiresAtMs;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicInteger gets = new AtomicInteger();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger puts = new AtomicInteger();
+
+	@Override
+	public byte[] get(String key) {
+		gets.incrementAndGet();
+		final Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (entry.expiresAtMs <= System.currentTimeMillis()) {
+			entries.remove(key, entry);
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.value.clone();
+	}
+
+	@Override
+	public void put(String key, byte[] value, long ttlMs) {
+		puts.incrementAndGet();
+		entries.put(key, new Entry(value.clone(), System.currentTimeMillis() + ttlMs));
+	}
+
+	/**
+	 * getGetCount() gets the number of lookups made.
+	 * @return the number of lookups
+	 */
+	public int getGetCount() {
+		return gets.get();
+	}
+
+	/**
+	 * getHitCount() gets the number of lookups that found a value.
+	 * @return the number of hits
+	 */
+	public int getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * getPutCount() gets the number of values put.
+	 * @return the number of puts
+	 */
+	public int getPutCount() {
+		return puts.get();
+	}
+
+	/**
+	 * size() gets the number of values kept, including expired ones
+	 * that haven't been looked up since.
+	 * @return the number of values
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+}
@@ -0,0 +1,135 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import se.michaelthelin.spotify.model_objects.special.SearchResult;
+import se.michaelthelin.spotify.model_objects.specification.Artist;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SpotifyJsonStreamParserTest contains the unit tests of the
+ * SpotifyJsonStreamParser class. These tests read recorded
+ * responses with both the streaming parser and the library's
+ * model objects and make sure the data classes end up with
+ * identical values.
+ * @author Matthew Bollinger
+ */
+class SpotifyJsonStreamParserTest {
+
+	/**
+	 * Tests that an artist search read by the streaming parser matches
+	 * the same search read through the library's model objects.
+	 */
+	@Test
+	public void testArtistSearchMatchesModelPath() throws IOException {
+		String json = SpotifyTestData.readResource("search-artists.json");
+		SearchResult searchResult = new SearchResult.JsonUtil().createModelObject(json);
+		SpotifyArtistData expected = new SpotifyArtistData(searchResult.getArtists().getItems());
+		SpotifyArtistData actual = SpotifyJsonStreamParser.readArtistSearch(new StringReader(json), 5);
+
+		assertEquals(expected.getArtistIds(), actual.getArtistIds());
+		assertEquals(expected.getArtistNames(), actual.getArtistNames());
+		assertEquals(expected.getArtistGenres(), actual.getArtistGenres());
+		assertEquals(expected.getArtistFollowers(), actual.getArtistFollowers());
+		assertEquals(expected.getArtistPopularities(), actual.getArtistPopularities());
+		assertEquals(expected.getArtistImageUrls(), actual.getArtistImageUrls());
+		assertEquals(searchResult.getArtists().getTotal(), actual.getTotal());
+		assertTrue(actual.isTopTrackPending(0));
+	}
+
+	/**
+	 * Tests that a track search read by the streaming parser matches
+	 * the same search read through the library's model objects.
+	 */
+	@Test
+	public void testTrackSearchMatchesModelPath() throws IOException {
+		String json = SpotifyTestData.readResource("search-tracks.json");
+		SearchResult searchResult = new SearchResult.JsonUtil().createModelObject(json);
+		SpotifyTrackData expected = new SpotifyTrackData(searchResult.getTracks().getItems());
+		SpotifyTrackData actual = SpotifyJsonStreamParser.readTrackSearch(new StringReader(json), 5);
+
+		assertEquals(expected.getTrackIds(), actual.getTrackIds());
+		assertEquals(expected.getTrackNames(), actual.getTrackNames());
+		assertEquals(expected.getTrackAlbums(), actual.getTrackAlbums());
+		assertEquals(expected.getTrackAlbumReleaseDates(), actual.getTrackAlbumReleaseDates());
+		assertEquals(expected.getTrackArtists(), actual.getTrackArtists());
+		assertEquals(expected.getTrackLengths(), actual.getTrackLengths());
+		assertEquals(expected.getTrackExplicits(), actual.getTrackExplicits());
+		assertEquals(expected.getTrackDiscNumbers(), actual.getTrackDiscNumbers());
+		assertEquals(expected.getTrackTrkNumbers(), actual.getTrackTrkNumbers());
+		assertEquals(expected.getTrackPopularities(), actual.getTrackPopularities());
+		assertEquals(expected.getTrackAlbumImageUrls(), actual.getTrackAlbumImageUrls());
+		assertEquals(searchResult.getTracks().getTotal(), actual.getTotal());
+	}
+
+	/**
+	 * Tests that the related artists and top tracks read by the streaming
+	 * parser match the ones read through the library's model objects.
+	 */
+	@Test
+	public void testFanOutResponsesMatchModelPath() throws IOException {
+		String relatedJson = SpotifyTestData.readResource("related-artists.json");
+		String topTracksJson = SpotifyTestData.readResource("top-tracks.json");
+		Artist[] related = new Artist.JsonUtil().createModelObjectArray(relatedJson, "artists");
+		Track[] topTracks = new Track.JsonUtil().createModelObjectArray(topTracksJson, "tracks");
+
+		String searchJson = SpotifyTestData.readResource("search-artists.json");
+		SpotifyArtistData expected = SpotifyJsonStreamParser.readArtistSearch(new StringReader(searchJson), 5);
+		SpotifyArtistData actual = SpotifyJsonStreamParser.readArtistSearch(new StringReader(searchJson), 5);
+		expected.setArtistRelatedArtists(0, related);
+		expected.setArtistTopTracks(0, topTracks);
+		actual.setArtistRelatedArtistNames(0, SpotifyJsonStreamParser.readRelatedArtistNames(new StringReader(relatedJson)));
+		List<String> topTrackNames = SpotifyJsonStreamParser.readTopTrackNames(new StringReader(topTracksJson));
+		actual.setArtistTopTrack(0, topTrackNames.get(0));
+
+		assertEquals(Arrays.stream(topTracks).map(Track::getName).toList(), topTrackNames);
+		assertEquals(expected.getArtistRelatedArtists(), actual.getArtistRelatedArtists());
+		assertEquals(expected.getArtistTopTracks(), actual.getArtistTopTracks());
+		assertFalse(actual.isRelatedArtistsPending(0));
+	}
+
+	/**
+	 * Tests that a combined search read by the streaming parser fills
+	 * both data classes as the model objects of the same response do.
+	 */
+	@Test
+	public void testCombinedSearchMatchesModelPath() throws IOException {
+		String json = SpotifyTestData.readResource("search-combined.json");
+		SearchResult searchResult = new SearchResult.JsonUtil().createModelObject(json);
+		SpotifySearchResults actual = SpotifyJsonStreamParser.readCombinedSearch(new StringReader(json), 5);
+
+		SpotifyArtistData expectedArtists = new SpotifyArtistData(searchResult.getArtists().getItems());
+		assertEquals(expectedArtists.getArtistIds(), actual.getArtistData().getArtistIds());
+		assertEquals(expectedArtists.getArtistNames(), actual.getArtistData().getArtistNames());
+		assertEquals(searchResult.getArtists().getTotal(), actual.getArtistData().getTotal());
+		SpotifyTrackData expectedTracks = new SpotifyTrackData(searchResult.getTracks().getItems());
+		assertEquals(expectedTracks.getTrackIds(), actual.getTrackData().getTrackIds());
+		assertEquals(expectedTracks.getTrackNames(), actual.getTrackData().getTrackNames());
+		assertEquals(expectedTracks.getTrackAlbumImageUrls(), actual.getTrackData().getTrackAlbumImageUrls());
+		assertEquals(searchResult.getTracks().getTotal(), actual.getTrackData().getTotal());
+		assertEquals(searchResult.getAlbums().getItems()[1].getName(), actual.getAlbumNames().get(1));
+		assertEquals(2, actual.getAlbumTotal());
+
+		// A response without albums leaves them empty
+		SpotifySearchResults artistsOnly = SpotifyJsonStreamParser.readCombinedSearch(new StringReader(SpotifyTestData.readResource("search-artists.json")), 5);
+		assertEquals(5, artistsOnly.getArtistData().getArtistNames().size());
+		assertTrue(artistsOnly.getTrackData().getTrackNames().isEmpty());
+		assertTrue(artistsOnly.getAlbumNames().isEmpty());
+	}
+
+	/**
+	 * Tests that no more than the requested number of results are kept.
+	 */
+	@Test
+	public void testMaxResults() throws IOException {
+		SpotifyTrackData trackData = SpotifyJsonStreamParser.readTrackSearch(new StringReader(SpotifyTestData.readResource("search-tracks.json")), 2);
+		assertEquals(2, trackData.getTrackNames().size());
+	}
+
+}
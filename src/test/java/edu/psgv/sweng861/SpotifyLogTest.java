@@ -0,0 +1,77 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import org.apache.logging.log4j.CloseableThreadContext;
+import org.apache.logging.log4j.message.StringMapMessage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SpotifyLogTest contains the unit tests of the SpotifyLog
+ * class. They check that the correlation ID of a search follows
+ * it onto the threads it fans out to.
+ * @author Matthew Bollinger
+ */
+class SpotifyLogTest {
+
+	/**
+	 * Tests that tasks run with the correlation ID of the thread that
+	 * submitted them, and that the pool thread doesn't keep it.
+	 */
+	@Test
+	@SuppressWarnings("try")
+	public void testCorrelationIdFollowsTasks() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			Executor executor = SpotifyLog.propagating(pool);
+			final String id;
+			final CompletableFuture<String> seen;
+			try (CloseableThreadContext.Instance context = SpotifyLog.correlate()) {
+				id = SpotifyLog.getCorrelationId();
+				assertNotNull(id);
+				seen = CompletableFuture.supplyAsync(SpotifyLog::getCorrelationId, executor);
+			}
+			assertNull(SpotifyLog.getCorrelationId());
+			assertEquals(id, seen.get());
+			// The pool thread has no ID once the task is done
+			assertNull(CompletableFuture.supplyAsync(SpotifyLog::getCorrelationId, pool).get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a nested search keeps the ID of the search it is part of.
+	 */
+	@Test
+	@SuppressWarnings("try")
+	public void testNestedSearchKeepsId() {
+		try (CloseableThreadContext.Instance outer = SpotifyLog.correlate()) {
+			final String id = SpotifyLog.getCorrelationId();
+			try (CloseableThreadContext.Instance inner = SpotifyLog.correlate()) {
+				assertEquals(id, SpotifyLog.getCorrelationId());
+			}
+			assertEquals(id, SpotifyLog.getCorrelationId());
+			assertEquals(id, SpotifyLog.<String, String>wrap(value -> SpotifyLog.getCorrelationId()).apply(null));
+		}
+		assertNull(SpotifyLog.getCorrelationId());
+	}
+
+	/**
+	 * Tests that an event formats its fields as key and value pairs.
+	 */
+	@Test
+	public void testEventFields() {
+		StringMapMessage message = SpotifyLog.event("request").with("endpoint", "search").with("latencyMs", 12L);
+		assertEquals("search", message.get("endpoint"));
+		assertEquals("12", message.get("latencyMs"));
+		// Fields are written sorted by key
+		assertEquals("endpoint=\"search\" event=\"request\" latencyMs=\"12\"", message.getFormattedMessage());
+	}
+
+}
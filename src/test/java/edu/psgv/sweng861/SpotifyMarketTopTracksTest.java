@@ -0,0 +1,119 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import com.neovisionaries.i18n.CountryCode;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SpotifyMarketTopTracksTest contains the unit tests of the
+ * SpotifyMarketTopTracks class and of comparing the top tracks of
+ * an artist across markets. A fake transport answers the top
+ * tracks requests with a list named after the market.
+ * @author Matthew Bollinger
+ */
+class SpotifyMarketTopTracksTest {
+
+	/**
+	 * FakeTransport hands out a token and answers each top tracks
+	 * request with two tracks, the second one named after the market.
+	 */
+	private static class FakeTransport implements IHttpManager {
+		final List<String> marketsRequested = new ArrayList<>();
+		final Set<String> failingMarkets = new HashSet<>();
+
+		@Override
+		public synchronized String get(URI uri, Header[] headers) throws BadRequestException {
+			final String market = uri.getQuery().replaceAll(".*country=([A-Z]{2}).*", "$1");
+			marketsRequested.add(market);
+			if (failingMarkets.contains(market))
+				throw new BadRequestException("invalid market");
+			return "{\"tracks\":[{\"name\":\"Hello\"},{\"name\":\"Hit in " + market + "\"}]}";
+		}
+
+		@Override
+		public String post(URI uri, Header[] headers, HttpEntity body) {
+			return "{\"access_token\":\"token\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+		}
+
+		@Override
+		public String put(URI uri, Header[] headers, HttpEntity body) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String delete(URI uri, Header[] headers, HttpEntity body) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * requesterOn() creates a requester whose API requests go to the
+	 * fake transport.
+	 */
+	private static SpotifyRestRequester requesterOn(FakeTransport transport) {
+		SpotifyCredentialPool pool = new SpotifyCredentialPool(transport, null);
+		pool.addCredential("app", "secret");
+		return new SpotifyRestRequester(SpotifyHttpTransport.getDefault(), pool);
+	}
+
+	/**
+	 * Tests that the markets of a comparison are told apart, and that
+	 * the tracks shared by every market are found.
+	 */
+	@Test
+	public void testComparesMarkets() {
+		SpotifyMarketTopTracks topTracks = new SpotifyMarketTopTracks("4dpARuHxo51G3z768sgnrY");
+		topTracks.addMarket(new SpotifyMarketTopTracks.MarketTracks(CountryCode.GB, List.of("Hello", "Skyfall", "Easy On Me"), 1));
+		topTracks.addMarket(new SpotifyMarketTopTracks.MarketTracks(CountryCode.US, List.of("Easy On Me", "Hello"), 2));
+		topTracks.addMissingMarket(CountryCode.JP);
+		assertEquals(List.of(CountryCode.GB, CountryCode.US), topTracks.getMarkets());
+		assertEquals("Easy On Me", topTracks.getTopTrack(CountryCode.US));
+		assertNull(topTracks.getTopTrack(CountryCode.JP));
+		assertEquals(List.of("Hello", "Easy On Me"), topTracks.getSharedTracks());
+		assertEquals(List.of(CountryCode.GB), topTracks.getMarketsOf("Skyfall"));
+		assertEquals(Set.of(CountryCode.JP), topTracks.getMissingMarkets());
+		assertEquals(2, topTracks.getMarketTracks(CountryCode.US).getFetchedAtMs());
+	}
+
+	/**
+	 * Tests that each market is requested once, that a repeated
+	 * comparison is answered from the cache by artist and market, and
+	 * that a market whose request failed is missing and requested again.
+	 */
+	@Test
+	public void testCachesEachMarket() {
+		FakeTransport transport = new FakeTransport();
+		transport.failingMarkets.add("JP");
+		SpotifyRestRequester requester = requesterOn(transport);
+		SpotifyMarketTopTracks first = requester.compareTopTracks("artist",
+				List.of(CountryCode.SE, CountryCode.US, CountryCode.JP));
+		assertEquals("Hit in US", first.getTopTracks(CountryCode.US).get(1));
+		assertEquals(List.of("Hello"), first.getSharedTracks());
+		assertEquals(Set.of(CountryCode.JP), first.getMissingMarkets());
+		assertEquals(3, transport.marketsRequested.size());
+
+		transport.failingMarkets.clear();
+		SpotifyMarketTopTracks second = requester.compareTopTracks("artist",
+				List.of(CountryCode.US, CountryCode.JP, CountryCode.SE));
+		assertEquals(List.of(CountryCode.US, CountryCode.JP, CountryCode.SE), second.getMarkets());
+		assertEquals(first.getMarketTracks(CountryCode.SE).getFetchedAtMs(),
+				second.getMarketTracks(CountryCode.SE).getFetchedAtMs());
+		// Only the market that failed was requested again
+		assertEquals(4, transport.marketsRequested.size());
+		assertEquals(2, transport.marketsRequested.stream().filter("JP"::equals).count());
+		requester.compareTopTracks("other artist", List.of(CountryCode.SE));
+		assertEquals(5, transport.marketsRequested.size());
+	}
+
+}
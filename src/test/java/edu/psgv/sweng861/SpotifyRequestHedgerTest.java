@@ -0,0 +1,94 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpotifyRequestHedgerTest contains the unit tests of the
+ * SpotifyRequestHedger and SpotifyCircuitBreaker classes.
+ * These tests make sure a slow call is hedged, a failed
+ * attempt is covered by the other one and a failing
+ * endpoint fails fast.
+ * @author Matthew Bollinger
+ */
+class SpotifyRequestHedgerTest {
+
+	ExecutorService executor;
+	SpotifyRequestHedger hedger;
+
+	/**
+	 * Initializes a hedger that fires a duplicate after 50 ms
+	 */
+	@BeforeEach
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+		hedger = new SpotifyRequestHedger(executor, 0.95, 50);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Tests that a slow first attempt is hedged and the faster
+	 * duplicate's result is returned.
+	 */
+	@Test
+	public void testSlowCallIsHedged() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		long start = System.currentTimeMillis();
+		String result = hedger.call(() -> {
+			if (attempts.getAndIncrement() == 0)
+				Thread.sleep(2_000);
+			return "done";
+		});
+		assertEquals("done", result);
+		assertEquals(1, hedger.getHedgesFired());
+		assertTrue(System.currentTimeMillis() - start < 1_500);
+	}
+
+	/**
+	 * Tests that a failing slow attempt doesn't fail the call
+	 * when its duplicate succeeds.
+	 */
+	@Test
+	public void testFailedAttemptIsCovered() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		String result = hedger.call(() -> {
+			if (attempts.getAndIncrement() == 0) {
+				Thread.sleep(200);
+				throw new IOException("first attempt failed");
+			}
+			return "done";
+		});
+		assertEquals("done", result);
+	}
+
+	/**
+	 * Tests that the circuit opens after the failure threshold and
+	 * closes again once a trial call succeeds.
+	 */
+	@Test
+	public void testCircuitBreakerOpensAndCloses() throws Exception {
+		SpotifyCircuitBreaker breaker = new SpotifyCircuitBreaker("test", 2, 100);
+		breaker.acquire();
+		breaker.recordFailure();
+		breaker.acquire();
+		breaker.recordFailure();
+		assertEquals(SpotifyCircuitBreaker.State.OPEN, breaker.getState());
+		assertThrows(SpotifyCircuitBreaker.CircuitOpenException.class, breaker::acquire);
+		Thread.sleep(150);
+		breaker.acquire();
+		breaker.recordSuccess();
+		assertEquals(SpotifyCircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+}
@@ -0,0 +1,150 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import org.apache.logging.log4j.CloseableThreadContext;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import edu.psgv.sweng861.SpotifyRequestScheduler.Priority;
+
+/**
+ * SpotifyRequestSchedulerTest contains the unit tests of the
+ * SpotifyRequestScheduler class. Requests are simulated by
+ * threads that take a slot and record the order they got it in.
+ * @author Matthew Bollinger
+ */
+class SpotifyRequestSchedulerTest {
+
+	/**
+	 * waitForQueue() waits until a number of requests of a class are queued.
+	 */
+	private static void waitForQueue(SpotifyRequestScheduler scheduler, Priority priority, int length) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (scheduler.getQueueLength(priority) < length) {
+			assertTrue(System.nanoTime() < deadline, "Requests weren't queued");
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * waitForGrants() waits until a number of queued requests got a slot.
+	 */
+	private static void waitForGrants(List<Priority> order, int granted) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (order.size() < granted) {
+			assertTrue(System.nanoTime() < deadline, "Slot wasn't handed out");
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * queue() starts a thread that waits for a slot and records its
+	 * class once it gets one.
+	 */
+	private static CompletableFuture<Void> queue(ExecutorService executor, SpotifyRequestScheduler scheduler,
+			Priority priority, List<Priority> order) {
+		return CompletableFuture.runAsync(() -> {
+			try {
+				scheduler.acquire(priority);
+			} catch (InterruptedIOException e) {
+				throw new RuntimeException(e);
+			}
+			order.add(priority);
+		}, executor);
+	}
+
+	/**
+	 * Tests that background requests leave part of the limit free,
+	 * so an interactive request starts without waiting.
+	 */
+	@Test
+	public void testBackgroundLeavesRoomForInteractive() throws InterruptedIOException {
+		SpotifyRequestScheduler scheduler = new SpotifyRequestScheduler(new SpotifyConcurrencyLimiter(8, 8, 8));
+		for (int i = 0; i < 6; i++)
+			scheduler.acquire(Priority.BATCH);
+		assertEquals(6, scheduler.getInFlight(Priority.BATCH));
+		// Each of these would have to wait if the background took the whole limit
+		scheduler.acquire(Priority.INTERACTIVE);
+		scheduler.acquire(Priority.INTERACTIVE);
+		assertEquals(2, scheduler.getInFlight(Priority.INTERACTIVE));
+		scheduler.onSuccess(Priority.INTERACTIVE, 1_000_000);
+		scheduler.onIgnored(Priority.BATCH);
+		assertEquals(5, scheduler.getInFlight(Priority.BATCH));
+		assertEquals(1, scheduler.getInFlight(Priority.INTERACTIVE));
+	}
+
+	/**
+	 * Tests that a queued interactive request pre-empts background
+	 * requests queued before it, and that the background classes then
+	 * share the slots three to one.
+	 */
+	@Test
+	public void testInteractiveFirstThenWeightedFairQueuing() throws Exception {
+		SpotifyRequestScheduler scheduler = new SpotifyRequestScheduler(new SpotifyConcurrencyLimiter(4, 4, 4));
+		for (int i = 0; i < 4; i++)
+			scheduler.acquire(Priority.INTERACTIVE);
+		List<Priority> order = Collections.synchronizedList(new ArrayList<>());
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			List<CompletableFuture<Void>> waiting = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+				waiting.add(queue(executor, scheduler, Priority.BATCH, order));
+			waitForQueue(scheduler, Priority.BATCH, 8);
+			for (int i = 0; i < 6; i++)
+				waiting.add(queue(executor, scheduler, Priority.PREFETCH, order));
+			waitForQueue(scheduler, Priority.PREFETCH, 6);
+			waiting.add(queue(executor, scheduler, Priority.INTERACTIVE, order));
+			waitForQueue(scheduler, Priority.INTERACTIVE, 1);
+
+			// Frees one slot at a time, each of them finishing the request that was given the last one
+			scheduler.onSuccess(Priority.INTERACTIVE, 1_000_000);
+			for (int i = 1; i < 15; i++) {
+				waitForGrants(order, i);
+				scheduler.onSuccess(order.get(i - 1), 1_000_000);
+			}
+			CompletableFuture.allOf(waiting.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(Priority.INTERACTIVE, order.get(0));
+		// The batch requests were queued first, but prefetch gets three slots to each of theirs
+		long prefetchInFirstEight = order.subList(1, 9).stream().filter(p -> p == Priority.PREFETCH).count();
+		assertEquals(6, prefetchInFirstEight);
+		assertEquals(15, order.size());
+	}
+
+	/**
+	 * Tests that the priority of a thread is carried over to the tasks
+	 * it hands to a propagating executor.
+	 */
+	@Test
+	@SuppressWarnings("try")
+	public void testPriorityPropagates() throws Exception {
+		assertEquals(Priority.INTERACTIVE, SpotifyRequestScheduler.currentPriority());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			try (CloseableThreadContext.Instance priority = SpotifyRequestScheduler.prioritize(Priority.BATCH)) {
+				assertEquals(Priority.BATCH, SpotifyRequestScheduler.currentPriority());
+				CompletableFuture<Priority> seen = CompletableFuture.supplyAsync(SpotifyRequestScheduler::currentPriority,
+						SpotifyLog.propagating(executor));
+				assertEquals(Priority.BATCH, seen.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(Priority.INTERACTIVE, SpotifyRequestScheduler.currentPriority());
+			// The thread of the executor gets its own priority back once the task is done
+			assertEquals(Priority.INTERACTIVE, CompletableFuture.supplyAsync(SpotifyRequestScheduler::currentPriority,
+					executor).get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JList;
+import javax.swing.SwingUtilities;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SpotifyRestApiProjectTest contains the unit tests of how the
+ * window drops what no longer applies: the outcome of a search a
+ * newer one overtook, and the refresh of a result that isn't the
+ * one selected. They run on the event dispatch thread without
+ * showing the window.
+ * @author Matthew Bollinger
+ */
+class SpotifyRestApiProjectTest {
+
+	/**
+	 * Tests that only the latest search is shown, including when a
+	 * new search is made after its results were handed to the event
+	 * dispatch thread but before they are shown.
+	 */
+	@Test
+	public void testOvertakenSearchesDropped() throws InterruptedException, InvocationTargetException {
+		SpotifySearchGate searches = new SpotifySearchGate();
+		List<String> shown = Collections.synchronizedList(new ArrayList<>());
+		final int first = searches.begin();
+		final int second = searches.begin();
+		assertFalse(searches.isCurrent(first));
+		assertTrue(searches.isCurrent(second));
+		searches.show(first, () -> shown.add("results of first"));
+		searches.show(first, () -> shown.add("failure of first"));
+		searches.show(second, () -> shown.add("results of second"));
+		SwingUtilities.invokeAndWait(() -> { });
+		assertEquals(List.of("results of second"), shown);
+
+		// A search made while the results are queued drops them
+		SwingUtilities.invokeAndWait(() -> {
+			final int third = searches.begin();
+			searches.show(third, () -> shown.add("results of third"));
+			searches.begin();
+		});
+		SwingUtilities.invokeAndWait(() -> { });
+		assertEquals(List.of("results of second"), shown);
+	}
+
+	/**
+	 * Tests that a result is only redrawn if it is the one selected
+	 * and the list shows the model it belongs to.
+	 */
+	@Test
+	public void testOnlySelectedResultRefreshed() throws InterruptedException, InvocationTargetException {
+		DefaultListModel<String> artists = new DefaultListModel<>();
+		DefaultListModel<String> tracks = new DefaultListModel<>();
+		for (String name : List.of("Adele", "Avicii", "ABBA")) {
+			artists.addElement(name);
+			tracks.addElement(name + " song");
+		}
+		List<String> redrawn = Collections.synchronizedList(new ArrayList<>());
+		List<JList<String>> list = new ArrayList<>();
+		SwingUtilities.invokeAndWait(() -> {
+			list.add(new JList<>(artists));
+			list.get(0).setSelectedIndex(1);
+		});
+		SpotifyRestApiProject.refreshResult(list.get(0), artists, 1, index -> redrawn.add("artist " + index));
+		SpotifyRestApiProject.refreshResult(list.get(0), artists, 2, index -> redrawn.add("artist " + index));
+		SpotifyRestApiProject.refreshResult(list.get(0), tracks, 1, index -> redrawn.add("track " + index));
+		SwingUtilities.invokeAndWait(() -> { });
+		assertEquals(List.of("artist 1"), redrawn);
+
+		// Once the list shows the tracks, the artists are no longer redrawn
+		SwingUtilities.invokeAndWait(() -> {
+			list.get(0).setModel(tracks);
+			list.get(0).setSelectedIndex(1);
+		});
+		SpotifyRestApiProject.refreshResult(list.get(0), artists, 1, index -> redrawn.add("artist " + index));
+		SpotifyRestApiProject.refreshResult(list.get(0), tracks, 1, index -> redrawn.add("track " + index));
+		SwingUtilities.invokeAndWait(() -> { });
+		assertEquals(List.of("artist 1", "track 1"), redrawn);
+	}
+
+}
@@ -0,0 +1,203 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * SpotifyRestRequesterTest contains the unit tests of the searches
+ * of the SpotifyRestRequester class. A fake API answers them with
+ * the recorded responses of the test resources.
+ * @author Matthew Bollinger
+ */
+class SpotifyRestRequesterTest {
+
+	/**
+	 * waitUntil() waits until a condition holds, which the requester
+	 * makes true in the background.
+	 */
+	private static void waitUntil(BooleanSupplier condition, String message) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, message);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Tests that a search only listens to its results while their
+	 * details are pending, and leaves the results taken from the
+	 * cache, which other searches share, without its listener.
+	 */
+	@Test
+	public void testListensOnlyWhilePending() throws InterruptedException {
+		SpotifyFakeApi api = new SpotifyFakeApi();
+		SpotifyRestRequester requester = api.requester();
+		SpotifyInProcessCache shared = new SpotifyInProcessCache();
+		requester.setRemoteCache(shared);
+		SpotifyTrackData tracks = requester.searchSong("avid", 0, index -> { });
+		waitUntil(() -> shared.getPutCount() == 1, "Tracks weren't cached");
+		waitUntil(() -> tracks.getListenerCount() == 0, "Listener wasn't removed");
+
+		// The tracks come from the cache, the artists' details are held back
+		api.hold();
+		SpotifySearchResults results = requester.searchAll("avid", false, SpotifyRestRequester.NAMES_ONLY_BUDGET_MS,
+				index -> { }, index -> { });
+		assertSame(tracks, results.getTrackData());
+		assertEquals(0, tracks.getListenerCount());
+		SpotifyArtistData artists = results.getArtistData();
+		assertEquals(1, artists.getListenerCount());
+
+		api.release();
+		waitUntil(() -> artists.getListenerCount() == 0, "Listener wasn't removed");
+		waitUntil(() -> shared.getPutCount() == 2, "Artists weren't cached");
+		assertSame(artists, requester.searchAll("avid", false, 0, index -> { }, index -> { }).getArtistData());
+		assertEquals(0, artists.getListenerCount());
+	}
+
+	/**
+	 * Tests that a search waits for the details until its budget runs
+	 * out and no longer, and returns with the ones that haven't
+	 * arrived marked as pending.
+	 */
+	@Test
+	public void testReturnsAtBudget() {
+		SpotifyFakeApi api = new SpotifyFakeApi();
+		SpotifyRestRequester requester = api.requester();
+		api.hold();
+		try {
+			final long start = System.nanoTime();
+			SpotifyArtistData artists = requester.searchArtist("budget", 300, null);
+			final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertTrue(elapsedMs >= 300, "Returned before the budget ran out");
+			assertTrue(elapsedMs < 5_000, "Waited for the held requests");
+			assertEquals(5, artists.getArtistNames().size());
+			for (int i = 0; i < artists.getArtistIds().size(); i++) {
+				assertTrue(artists.isRelatedArtistsPending(i));
+				assertTrue(artists.isTopTrackPending(i));
+			}
+			assertFalse(artists.isComplete());
+		} finally {
+			api.release();
+		}
+	}
+
+	/**
+	 * Tests that a search left with the names alone returns after the
+	 * search request, without waiting for any details.
+	 */
+	@Test
+	public void testNamesOnlyBudget() {
+		SpotifyFakeApi api = new SpotifyFakeApi();
+		SpotifyRestRequester requester = api.requester();
+		api.hold();
+		try {
+			SpotifyArtistData artists = requester.searchArtist("names", SpotifyRestRequester.NAMES_ONLY_BUDGET_MS, null);
+			assertEquals(1, api.getCallCount(SpotifyRestRequester.SEARCH_ENDPOINT));
+			assertEquals(5, artists.getArtistNames().size());
+			assertEquals(37, artists.getTotal());
+			for (int i = 0; i < artists.getArtistIds().size(); i++) {
+				assertNotNull(artists.getArtistNames().get(i));
+				assertTrue(artists.isRelatedArtistsPending(i));
+				assertTrue(artists.isTopTrackPending(i));
+			}
+		} finally {
+			api.release();
+		}
+	}
+
+	/**
+	 * Tests that the listener of a search is told once for each field
+	 * that arrives after it returned, and that nothing is left pending
+	 * once every request has finished.
+	 */
+	@Test
+	public void testListenerToldOncePerLateField() throws InterruptedException {
+		SpotifyFakeApi api = new SpotifyFakeApi();
+		SpotifyRestRequester requester = api.requester();
+		Map<Integer, AtomicInteger> changes = new ConcurrentHashMap<>();
+		api.hold();
+		SpotifyArtistData artists = requester.searchArtist("late", SpotifyRestRequester.NAMES_ONLY_BUDGET_MS,
+				index -> changes.computeIfAbsent(index, i -> new AtomicInteger()).incrementAndGet());
+		api.release();
+		waitUntil(() -> artists.getListenerCount() == 0, "Requests didn't finish");
+
+		// The related artists, the top track and the image of each artist
+		assertEquals(artists.getArtistIds().size(), changes.size());
+		for (int i = 0; i < artists.getArtistIds().size(); i++) {
+			assertEquals(3, changes.get(i).get());
+			assertFalse(artists.isRelatedArtistsPending(i));
+			assertFalse(artists.isTopTrackPending(i));
+			assertFalse(artists.isImagePending(i));
+			assertFalse(artists.getArtistRelatedArtists().get(i).isEmpty());
+			assertNotNull(artists.getArtistTopTracks().get(i));
+		}
+		assertTrue(artists.isComplete());
+	}
+
+	/**
+	 * Tests that the most popular search requests no details for its
+	 * results, and that selecting one requests the details of that
+	 * result alone.
+	 */
+	@Test
+	public void testMostPopularDetailsLoadedOnSelection() throws InterruptedException {
+		SpotifyFakeApi api = new SpotifyFakeApi();
+		SpotifyRestRequester requester = api.requester();
+		SpotifySearchResults results = requester.searchMostPopular("popular", 10);
+		SpotifyArtistData artists = results.getArtistData();
+		SpotifyTrackData tracks = results.getTrackData();
+		assertFalse(artists.getArtistIds().isEmpty());
+		assertFalse(tracks.getTrackIds().isEmpty());
+		assertEquals(0, api.getCallCount(SpotifyRestRequester.RELATED_ARTISTS_ENDPOINT));
+		assertEquals(0, api.getCallCount(SpotifyRestRequester.TOP_TRACKS_ENDPOINT));
+		for (int i = 0; i < artists.getArtistIds().size(); i++) {
+			assertTrue(artists.isRelatedArtistsPending(i));
+			assertTrue(artists.isTopTrackPending(i));
+		}
+		for (int i = 0; i < tracks.getTrackIds().size(); i++)
+			assertTrue(tracks.isAlbumImagePending(i));
+
+		requester.loadArtistDetails(artists, 0);
+		waitUntil(() -> !artists.isRelatedArtistsPending(0) && !artists.isTopTrackPending(0), "Details weren't loaded");
+		assertEquals(1, api.getCallCount(SpotifyRestRequester.RELATED_ARTISTS_ENDPOINT));
+		assertEquals(1, api.getCallCount(SpotifyRestRequester.TOP_TRACKS_ENDPOINT));
+		for (int i = 1; i < artists.getArtistIds().size(); i++)
+			assertTrue(artists.isRelatedArtistsPending(i));
+	}
+
+	/**
+	 * Tests that the top tracks an artist search requests are cached
+	 * in full, whether they are read with the streaming parser or the
+	 * library's model objects, so a comparison of the same market is
+	 * answered without requesting them again.
+	 */
+	@Test
+	public void testTopTracksCachedOnBothPaths() {
+		List<String> names = Arrays.stream(new Track.JsonUtil().createModelObjectArray(
+				SpotifyTestData.readResource("top-tracks.json"), "tracks")).map(Track::getName).toList();
+		for (boolean streaming : new boolean[] { false, true }) {
+			SpotifyFakeApi api = new SpotifyFakeApi();
+			SpotifyRestRequester requester = api.requester();
+			requester.setStreamingJson(streaming);
+			SpotifyArtistData artists = requester.searchArtist("top tracks", 0, null);
+			assertEquals(names.get(0), artists.getArtistTopTracks().get(0));
+			final int requested = api.getCallCount(SpotifyRestRequester.TOP_TRACKS_ENDPOINT);
+
+			SpotifyMarketTopTracks topTracks = requester.compareTopTracks(artists.getArtistIds().get(0),
+					List.of(SpotifyRestRequester.DEFAULT_MARKET));
+			assertEquals(requested, api.getCallCount(SpotifyRestRequester.TOP_TRACKS_ENDPOINT), "Requested again");
+			assertEquals(names, topTracks.getTopTracks(SpotifyRestRequester.DEFAULT_MARKET));
+		}
+	}
+
+}
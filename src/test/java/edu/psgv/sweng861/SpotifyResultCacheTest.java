@@ -0,0 +1,126 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpotifyResultCacheTest contains the unit tests of the
+ * SpotifyResultCache class.
+ * @author Matthew Bollinger
+ */
+class SpotifyResultCacheTest {
+
+	/**
+	 * Tests that the cache evicts the least recently used result.
+	 */
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		SpotifyResultCache<String> cache = new SpotifyResultCache<>(2);
+		cache.put(SpotifyResultCache.keyOf(" Radiohead "), "a");
+		cache.put("creep", "b");
+		assertEquals("a", cache.get("radiohead"));
+		cache.put("muse", "c");
+		assertNull(cache.get("creep"));
+		assertEquals(2, cache.size());
+	}
+
+	/**
+	 * Tests that a stale result is still handed out while exactly one
+	 * caller claims its refresh, and that an expired one is dropped.
+	 * Each value of the cache is the time it was fetched.
+	 */
+	@Test
+	public void testSoftAndHardExpiry() {
+		SpotifyResultCache<Long> cache = new SpotifyResultCache<>(10, 1000, 5000, Long::longValue);
+		long now = System.currentTimeMillis();
+		Long stale = now - 2000;
+		cache.put("fresh", now);
+		cache.put("stale", stale);
+		cache.put("expired", now - 6000);
+
+		assertEquals(now, cache.get("fresh"));
+		assertFalse(cache.isStale("fresh"));
+		assertFalse(cache.claimRefresh("fresh"));
+
+		assertEquals(stale, cache.get("stale"));
+		assertTrue(cache.isStale("stale"));
+		assertTrue(cache.claimRefresh("stale"));
+		// Only the first caller refreshes, the others keep the stale copy
+		assertFalse(cache.claimRefresh("stale"));
+		assertEquals(stale, cache.get("stale"));
+		// A failed refresh gives up its claim so a later search tries again
+		cache.releaseRefresh("stale", stale);
+		assertTrue(cache.claimRefresh("stale"));
+		// The new copy replaces the stale one and ends the claim
+		cache.put("stale", now);
+		cache.releaseRefresh("stale", stale);
+		assertFalse(cache.isStale("stale"));
+		assertFalse(cache.claimRefresh("stale"));
+
+		assertEquals(2, cache.snapshot().size());
+		assertNull(cache.get("expired"));
+		assertFalse(cache.claimRefresh("expired"));
+		assertEquals(2, cache.size());
+	}
+
+	/**
+	 * Tests that callers racing for the refresh of a stale result are
+	 * granted one refresh between them, that each stale result is
+	 * refreshed on its own, and that giving up the claim lets exactly
+	 * one later caller refresh it again.
+	 */
+	@Test
+	public void testOneRefreshPerStaleResult() throws InterruptedException {
+		SpotifyResultCache<Long> cache = new SpotifyResultCache<>(10, 1000, 60_000, Long::longValue);
+		Long stale = System.currentTimeMillis() - 2000;
+		cache.put("radiohead", stale);
+		cache.put("creep", stale);
+
+		final int callers = 16;
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			AtomicInteger granted = new AtomicInteger();
+			List<CompletableFuture<Void>> claims = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				claims.add(CompletableFuture.runAsync(() -> {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					if (cache.claimRefresh("radiohead"))
+						granted.incrementAndGet();
+				}, executor));
+			}
+			start.countDown();
+			CompletableFuture.allOf(claims.toArray(new CompletableFuture<?>[0])).join();
+			assertEquals(1, granted.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		// The other stale result has a refresh of its own
+		assertTrue(cache.claimRefresh("creep"));
+		assertFalse(cache.claimRefresh("creep"));
+
+		// A failed refresh re-arms the claim for one later caller
+		cache.releaseRefresh("radiohead", stale);
+		assertTrue(cache.claimRefresh("radiohead"));
+		assertFalse(cache.claimRefresh("radiohead"));
+		// Releasing the claim of a copy that was since replaced changes nothing
+		Long refreshed = System.currentTimeMillis();
+		cache.put("creep", refreshed);
+		cache.releaseRefresh("creep", stale);
+		assertFalse(cache.claimRefresh("creep"));
+		assertEquals(refreshed, cache.get("creep"));
+	}
+
+}
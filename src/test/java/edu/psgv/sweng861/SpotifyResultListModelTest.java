@@ -0,0 +1,156 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * SpotifyResultListModelTest contains the unit tests of the
+ * SpotifyResultListModel class. Pages are "requested" from a
+ * loader that makes up names, and the model is used on the
+ * event dispatch thread as it would be by the GUI.
+ * @author Matthew Bollinger
+ */
+class SpotifyResultListModelTest {
+
+	private static final int SIZE = 10_000;
+
+	/**
+	 * makePage() makes up a page of names.
+	 */
+	private static List<String> makePage(int offset, int limit) {
+		List<String> names = new ArrayList<>(limit);
+		for (int i = 0; i < limit; i++)
+			names.add("Result " + (offset + i));
+		return names;
+	}
+
+	/**
+	 * ListDataCounter counts the events fired by the model.
+	 */
+	private static class ListDataCounter implements ListDataListener {
+		int added, removed, changed;
+		ListDataEvent lastAdded;
+
+		@Override
+		public void intervalAdded(ListDataEvent e) {
+			added++;
+			lastAdded = e;
+		}
+
+		@Override
+		public void intervalRemoved(ListDataEvent e) {
+			removed++;
+		}
+
+		@Override
+		public void contentsChanged(ListDataEvent e) {
+			changed++;
+		}
+	}
+
+	/**
+	 * Tests that replacing the results fires a single event for the
+	 * removed rows and a single one for the added rows.
+	 */
+	@Test
+	public void testSetResultsFiresBulkEvents() throws Exception {
+		SwingUtilities.invokeAndWait(() -> {
+			SpotifyResultListModel<List<String>> model = new SpotifyResultListModel<>(50, 4, page -> page, Runnable::run);
+			ListDataCounter counter = new ListDataCounter();
+			model.addListDataListener(counter);
+			model.setResults(SIZE, makePage(0, 5), 5, SpotifyResultListModelTest::makePage);
+			model.setResults(SIZE, makePage(0, 5), 5, SpotifyResultListModelTest::makePage);
+			assertEquals(2, counter.added);
+			assertEquals(1, counter.removed);
+			assertEquals(0, counter.lastAdded.getIndex0());
+			assertEquals(SIZE - 1, counter.lastAdded.getIndex1());
+			assertEquals(0, model.getPagesRequested());
+		});
+	}
+
+	/**
+	 * Tests that only the page of a row that is read gets requested,
+	 * and that the rows are redrawn once it arrives.
+	 */
+	@Test
+	public void testOnlyRequestedPagesAreLoaded() throws Exception {
+		AtomicInteger loads = new AtomicInteger();
+		List<SpotifyResultListModel<List<String>>> holder = new ArrayList<>();
+		ListDataCounter counter = new ListDataCounter();
+		SwingUtilities.invokeAndWait(() -> {
+			SpotifyResultListModel<List<String>> model = new SpotifyResultListModel<>(50, 4, page -> page, Runnable::run);
+			model.setResults(SIZE, makePage(0, 5), 5, (offset, limit) -> {
+				loads.incrementAndGet();
+				assertEquals(5 + 99 * 50, offset);
+				assertEquals(50, limit);
+				return makePage(offset, limit);
+			});
+			model.addListDataListener(counter);
+			assertEquals("Result 3", model.getElementAt(3));
+			assertEquals(SpotifyResultListModel.LOADING_TEXT, model.getElementAt(5000));
+			assertEquals(SpotifyResultListModel.LOADING_TEXT, model.getElementAt(5001));
+			holder.add(model);
+		});
+		// Lets the page that was posted to the event dispatch thread be added
+		SwingUtilities.invokeAndWait(() -> {
+			SpotifyResultListModel<List<String>> model = holder.get(0);
+			assertEquals("Result 5000", model.getElementAt(5000));
+			assertEquals(5000 - 4955, model.getIndexInPage(5000));
+			assertEquals(1, loads.get());
+			assertEquals(1, counter.changed);
+		});
+	}
+
+	/**
+	 * Tests that scrolling through every row keeps no more than the
+	 * maximum number of pages in memory.
+	 */
+	@Test
+	public void testCachedPagesAreBounded() throws Exception {
+		List<SpotifyResultListModel<List<String>>> holder = new ArrayList<>();
+		SwingUtilities.invokeAndWait(() -> {
+			SpotifyResultListModel<List<String>> model = new SpotifyResultListModel<>(50, 4, page -> page, Runnable::run);
+			model.setResults(SIZE, null, 50, SpotifyResultListModelTest::makePage);
+			for (int i = 0; i < SIZE; i += 50)
+				model.getElementAt(i);
+			holder.add(model);
+		});
+		SwingUtilities.invokeAndWait(() -> {
+			SpotifyResultListModel<List<String>> model = holder.get(0);
+			assertEquals(SIZE / 50, model.getPagesRequested());
+			assertEquals(4, model.getCachedPageCount());
+			assertEquals("Result 9999", model.getElementAt(9999));
+		});
+	}
+
+	/**
+	 * Tests that a page of old results arriving after the results
+	 * were replaced is dropped.
+	 */
+	@Test
+	public void testStalePagesAreDropped() throws Exception {
+		List<SpotifyResultListModel<List<String>>> holder = new ArrayList<>();
+		SwingUtilities.invokeAndWait(() -> {
+			SpotifyResultListModel<List<String>> model = new SpotifyResultListModel<>(50, 4, page -> page, Runnable::run);
+			model.setResults(SIZE, null, 50, SpotifyResultListModelTest::makePage);
+			model.getElementAt(100);
+			model.setResults(10, null, 50, (offset, limit) -> makePage(offset + 1000, limit));
+			holder.add(model);
+		});
+		SwingUtilities.invokeAndWait(() -> {
+			SpotifyResultListModel<List<String>> model = holder.get(0);
+			assertEquals(0, model.getCachedPageCount());
+			assertEquals(SpotifyResultListModel.LOADING_TEXT, model.getElementAt(0));
+		});
+		SwingUtilities.invokeAndWait(() -> assertEquals("Result 1000", holder.get(0).getElementAt(0)));
+	}
+
+}
@@ -0,0 +1,148 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.neovisionaries.i18n.CountryCode;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * SpotifySnapshotStoreTest contains the unit tests of the
+ * SpotifySnapshotStore class. These tests write results built
+ * from recorded responses to a snapshot file and make sure
+ * they read back the same.
+ * @author Matthew Bollinger
+ */
+class SpotifySnapshotStoreTest {
+
+	@TempDir
+	Path tempDir;
+
+	/**
+	 * encode() compresses an image into PNG bytes.
+	 */
+	private static byte[] encode(BufferedImage image) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", bytes);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Tests that artist and track results, including their related
+	 * artists, top tracks and images, survive a write and a load.
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		SpotifyArtistData artists = SpotifyTestData.artists();
+		artists.setMarket(CountryCode.US);
+		for (int i = 0; i < artists.getArtistIds().size(); i++) {
+			artists.setArtistTopTrack(i, (i == 0) ? null : "Track " + i);
+			artists.setArtistImageBytes(i, (i == 0) ? encode(new BufferedImage(640, 480, BufferedImage.TYPE_INT_ARGB)) : null);
+		}
+		artists.setFetchedAtMs(1_700_000_000_000L);
+		SpotifyTrackData tracks = SpotifyTestData.tracks();
+		byte[] smallImage = encode(new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB));
+		for (int i = 0; i < tracks.getTrackIds().size(); i++)
+			tracks.setTrackAlbumImageBytes(i, smallImage);
+
+		SpotifySnapshotStore store = new SpotifySnapshotStore(tempDir.resolve("snapshot.bin"));
+		store.write(List.of(Map.entry("radiohead", artists)), List.of(Map.entry("creep", tracks)));
+
+		SpotifyResultCache<SpotifyArtistData> artistCache = new SpotifyResultCache<>(10);
+		SpotifyResultCache<SpotifyTrackData> trackCache = new SpotifyResultCache<>(10);
+		assertTrue(store.load(artistCache, trackCache));
+
+		SpotifyArtistData loadedArtists = artistCache.get("radiohead");
+		assertEquals(artists.getArtistIds(), loadedArtists.getArtistIds());
+		assertEquals(artists.getArtistNames(), loadedArtists.getArtistNames());
+		assertEquals(artists.getArtistGenres(), loadedArtists.getArtistGenres());
+		assertEquals(artists.getArtistFollowers(), loadedArtists.getArtistFollowers());
+		assertEquals(artists.getArtistPopularityScores(), loadedArtists.getArtistPopularityScores());
+		assertEquals(artists.getArtistImageUrls(), loadedArtists.getArtistImageUrls());
+		assertEquals(artists.getArtistRelatedArtists(), loadedArtists.getArtistRelatedArtists());
+		assertEquals(artists.getArtistTopTracks(), loadedArtists.getArtistTopTracks());
+		// The top tracks keep the market they are from, whatever the default market of the reader
+		assertEquals(CountryCode.US, loadedArtists.getMarket());
+		assertTrue(loadedArtists.isComplete());
+		// The age of a result survives, so a stale one is still refreshed after a restart
+		assertEquals(artists.getFetchedAtMs(), loadedArtists.getFetchedAtMs());
+		// Images are scaled down to fit the picture shown by the GUI
+		BufferedImage thumbnail = SpotifyImageStore.read(loadedArtists.getArtistImageBytes().get(0), 0);
+		assertEquals(SpotifySnapshotStore.THUMBNAIL_SIZE, thumbnail.getWidth());
+		assertEquals(189, thumbnail.getHeight());
+		assertNull(loadedArtists.getArtistImageBytes().get(1));
+
+		SpotifyTrackData loadedTracks = trackCache.get("creep");
+		assertEquals(tracks.getTrackIds(), loadedTracks.getTrackIds());
+		assertEquals(tracks.getTrackNames(), loadedTracks.getTrackNames());
+		assertEquals(tracks.getTrackAlbums(), loadedTracks.getTrackAlbums());
+		assertEquals(tracks.getTrackAlbumReleaseDates(), loadedTracks.getTrackAlbumReleaseDates());
+		assertEquals(tracks.getTrackArtists(), loadedTracks.getTrackArtists());
+		assertEquals(tracks.getTrackLengths(), loadedTracks.getTrackLengths());
+		assertEquals(tracks.getTrackExplicits(), loadedTracks.getTrackExplicits());
+		assertEquals(tracks.getTrackDiscNumbers(), loadedTracks.getTrackDiscNumbers());
+		assertEquals(tracks.getTrackTrkNumbers(), loadedTracks.getTrackTrkNumbers());
+		assertEquals(tracks.getTrackPopularityScores(), loadedTracks.getTrackPopularityScores());
+		assertEquals(tracks.getTrackAlbumImageUrls(), loadedTracks.getTrackAlbumImageUrls());
+		// An image that already fits is kept as it was
+		assertArrayEquals(smallImage, loadedTracks.getTrackAlbumImageBytes().get(0));
+		assertEquals(64, SpotifyImageStore.read(loadedTracks.getTrackAlbumImageBytes().get(0), 0).getWidth());
+		assertEquals(tracks.getFetchedAtMs(), loadedTracks.getFetchedAtMs());
+		assertTrue(loadedTracks.isComplete());
+	}
+
+	/**
+	 * Tests that a missing file or one of another format version is ignored.
+	 */
+	@Test
+	public void testIgnoresMissingOrOtherVersion() throws IOException {
+		Path file = tempDir.resolve("snapshot.bin");
+		SpotifySnapshotStore store = new SpotifySnapshotStore(file);
+		SpotifyResultCache<SpotifyArtistData> artistCache = new SpotifyResultCache<>(10);
+		SpotifyResultCache<SpotifyTrackData> trackCache = new SpotifyResultCache<>(10);
+		assertFalse(store.load(artistCache, trackCache));
+
+		Files.write(file, new byte[] { 0x53, 0x50, 0x53, 0x4E, (byte) (SpotifySnapshotStore.VERSION + 1), 0 });
+		assertFalse(store.load(artistCache, trackCache));
+		assertEquals(0, artistCache.size());
+	}
+
+	/**
+	 * Tests that writing the thumbnails leaves the decoded images of
+	 * the shared image store alone, and that damaged bytes are left out.
+	 */
+	@Test
+	public void testWriteLeavesDecodedImages() throws IOException {
+		SpotifyImageStore shown = SpotifyImageStore.getDefault();
+		SpotifyImageStore store = new SpotifyImageStore(SpotifyImageStore.DEFAULT_MAX_DECODED_BYTES);
+		SpotifyImageStore.setDefault(store);
+		try {
+			SpotifyTrackData tracks = SpotifyTestData.tracks();
+			for (int i = 0; i < tracks.getTrackIds().size(); i++)
+				tracks.setTrackAlbumImageBytes(i, (i == 0) ? new byte[] { (byte) 0xFF, (byte) 0xD8, 1, 2 }
+						: encode(new BufferedImage(640, 640, BufferedImage.TYPE_INT_RGB)));
+			SpotifySnapshotStore snapshot = new SpotifySnapshotStore(tempDir.resolve("snapshot.bin"));
+			snapshot.write(List.of(), List.of(Map.entry("creep", tracks)));
+			assertEquals(0, store.getDecodedCount());
+
+			SpotifyResultCache<SpotifyTrackData> trackCache = new SpotifyResultCache<>(10);
+			assertTrue(snapshot.load(new SpotifyResultCache<>(10), trackCache));
+			assertNull(trackCache.get("creep").getTrackAlbumImageBytes().get(0));
+			assertEquals(SpotifySnapshotStore.THUMBNAIL_SIZE,
+					SpotifyImageStore.read(trackCache.get("creep").getTrackAlbumImageBytes().get(1), 0).getWidth());
+		} finally {
+			SpotifyImageStore.setDefault(shown);
+		}
+	}
+
+}
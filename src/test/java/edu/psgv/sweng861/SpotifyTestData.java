@@ -0,0 +1,58 @@
+package edu.psgv.sweng861;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SpotifyTestData reads the recorded responses of the test
+ * resources, and builds the results the tests start from out of
+ * them.
+ * @author Matthew Bollinger
+ */
+class SpotifyTestData {
+
+	private SpotifyTestData() {
+	}
+
+	/**
+	 * readResource() reads a recorded response from the test resources.
+	 * @param name is the name of the resource
+	 * @return the response
+	 */
+	static String readResource(String name) {
+		try (InputStream in = SpotifyTestData.class.getResourceAsStream("/" + name)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * artists() reads the recorded artist search with the streaming
+	 * parser and gives every artist the recorded related artists.
+	 * The top tracks and images are left for the test to set.
+	 * @return the artists
+	 * @throws IOException if the response can't be read
+	 */
+	static SpotifyArtistData artists() throws IOException {
+		final SpotifyArtistData artists = SpotifyJsonStreamParser.readArtistSearch(new StringReader(readResource("search-artists.json")), 5);
+		final String relatedJson = readResource("related-artists.json");
+		for (int i = 0; i < artists.getArtistIds().size(); i++)
+			artists.setArtistRelatedArtistNames(i, SpotifyJsonStreamParser.readRelatedArtistNames(new StringReader(relatedJson)));
+		return artists;
+	}
+
+	/**
+	 * tracks() reads the recorded track search with the streaming
+	 * parser. The album images are left for the test to set.
+	 * @return the tracks
+	 * @throws IOException if the response can't be read
+	 */
+	static SpotifyTrackData tracks() throws IOException {
+		return SpotifyJsonStreamParser.readTrackSearch(new StringReader(readResource("search-tracks.json")), 5);
+	}
+
+}
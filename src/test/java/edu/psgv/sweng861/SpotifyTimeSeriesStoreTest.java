@@ -0,0 +1,137 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SpotifyTimeSeriesStoreTest contains the unit tests of the
+ * SpotifyTimeSeriesStore and SpotifyWatchlist classes. The
+ * watchlist is given made-up artists instead of requesting them.
+ * @author Matthew Bollinger
+ */
+class SpotifyTimeSeriesStoreTest {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long START = 1_700_000_000_000L;
+
+	@TempDir
+	Path tempDir;
+
+	/**
+	 * Tests that samples are read back by range, across blocks and
+	 * after the file is opened again.
+	 */
+	@Test
+	public void testAppendAndQuery() throws IOException {
+		Path file = tempDir.resolve("series.bin");
+		final int samples = SpotifyTimeSeriesStore.BLOCK_CAPACITY * 2 + 10;
+		try (SpotifyTimeSeriesStore store = new SpotifyTimeSeriesStore(file, 2)) {
+			for (int i = 0; i < samples; i++) {
+				store.append("artistA", START + i * HOUR, 1_000_000 + i * 10, i % 101);
+				store.append("artistB", START + i * HOUR, 5, 50);
+			}
+			assertEquals(6, store.getBlockCount());
+			assertEquals(samples, store.getSampleCount("artistA"));
+			SpotifyTimeSeriesStore.Samples range = store.query("artistA", START + 100 * HOUR, START + 500 * HOUR);
+			assertEquals(400, range.size());
+			assertEquals(START + 100 * HOUR, range.getTime(0));
+			assertEquals(1_000_000 + 100 * 10, range.getFollowers(0));
+			assertEquals(100, range.getPopularity(0));
+			assertEquals(START + 499 * HOUR, range.getTime(399));
+			assertEquals(0, store.query("artistA", 0, START).size());
+			assertEquals(0, store.query("unknown", 0, Long.MAX_VALUE).size());
+		}
+		try (SpotifyTimeSeriesStore store = new SpotifyTimeSeriesStore(file, 2)) {
+			assertEquals(List.of("artistA", "artistB"), store.getSeriesIds().stream().sorted().toList());
+			assertEquals(samples, store.query("artistA", 0, Long.MAX_VALUE).size());
+			// Appending goes on where the file left off
+			store.append("artistA", START + samples * HOUR, 42, 1);
+			assertEquals(samples + 1, store.getSampleCount("artistA"));
+			assertEquals(42, store.query("artistA", START + samples * HOUR, Long.MAX_VALUE).getFollowers(0));
+			assertThrows(IllegalArgumentException.class, () -> store.append("artistA", START, 0, 0));
+		}
+	}
+
+	/**
+	 * Tests that a jump in followers too large for a column starts a
+	 * new block without losing the values.
+	 */
+	@Test
+	public void testLargeDeltasStartNewBlock() throws IOException {
+		try (SpotifyTimeSeriesStore store = new SpotifyTimeSeriesStore(tempDir.resolve("series.bin"))) {
+			store.append("artist", START, 10, 0);
+			store.append("artist", START + HOUR, 10L + Integer.MAX_VALUE + 1, 0);
+			store.append("artist", START + 2 * HOUR, 5, 0);
+			assertEquals(3, store.getBlockCount());
+			SpotifyTimeSeriesStore.Samples all = store.query("artist", 0, Long.MAX_VALUE);
+			assertEquals(10L + Integer.MAX_VALUE + 1, all.getFollowers(1));
+			assertEquals(5, all.getFollowers(2));
+		}
+	}
+
+	/**
+	 * Tests that downsampling keeps the last sample of each bucket.
+	 */
+	@Test
+	public void testDownsample() throws IOException {
+		try (SpotifyTimeSeriesStore store = new SpotifyTimeSeriesStore(tempDir.resolve("series.bin"))) {
+			for (int i = 0; i < 48; i++)
+				store.append("artist", START + i * HOUR, i, 50);
+			SpotifyTimeSeriesStore.Samples days = store.downsample("artist", START, START + 48 * HOUR, 24 * HOUR);
+			assertEquals(2, days.size());
+			assertEquals(START, days.getTime(0));
+			assertEquals(23, days.getFollowers(0));
+			assertEquals(START + 24 * HOUR, days.getTime(1));
+			assertEquals(47, days.getFollowers(1));
+		}
+	}
+
+	/**
+	 * Tests that a file of another format isn't opened.
+	 */
+	@Test
+	public void testRejectsOtherFile() throws IOException {
+		Path file = tempDir.resolve("other.bin");
+		Files.write(file, "not a time series".getBytes());
+		assertThrows(IOException.class, () -> new SpotifyTimeSeriesStore(file));
+	}
+
+	/**
+	 * Tests that a poll of the watchlist appends a sample of every
+	 * artist found, in batches given to the lookup.
+	 */
+	@Test
+	public void testWatchlistPoll() throws IOException {
+		List<List<String>> lookups = new ArrayList<>();
+		try (SpotifyTimeSeriesStore store = new SpotifyTimeSeriesStore(tempDir.resolve("series.bin"));
+				SpotifyWatchlist watchlist = new SpotifyWatchlist(ids -> {
+					lookups.add(ids);
+					SpotifyArtistData artists = new SpotifyArtistData();
+					// The last ID isn't found
+					for (String id : ids.subList(0, ids.size() - 1))
+						artists.addArtist(id, id, new ArrayList<>(), 1000, 60, null);
+					return artists;
+				}, store)) {
+			watchlist.watch("a");
+			watchlist.watch("b");
+			watchlist.watch("missing");
+			assertEquals(2, watchlist.poll());
+			assertEquals(2, watchlist.poll());
+			watchlist.unwatch("b");
+			assertEquals(List.of("a", "missing"), watchlist.getWatched());
+			assertEquals(2, lookups.size());
+			assertEquals(2, store.getSampleCount("a"));
+			assertEquals(0, store.getSampleCount("missing"));
+			assertEquals(1000, store.query("b", 0, Long.MAX_VALUE).getFollowers(0));
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * SpotifyTokenStoreTest contains the unit tests of the
+ * SpotifyTokenStore class.
+ * @author Matthew Bollinger
+ */
+class SpotifyTokenStoreTest {
+
+	@TempDir
+	Path tempDir;
+
+	/**
+	 * Tests that a saved token reads back under the same credentials
+	 * and isn't written to the file in plain text.
+	 */
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		Path file = tempDir.resolve("token.bin");
+		SpotifyTokenStore store = new SpotifyTokenStore(file);
+		long expiresAt = System.currentTimeMillis() + 3_600_000;
+		store.save(new SpotifyTokenStore.Token("BQD-access-token", expiresAt), "id", "secret");
+
+		SpotifyTokenStore.Token token = store.load("id", "secret");
+		assertEquals("BQD-access-token", token.getAccessToken());
+		assertEquals(expiresAt, token.getExpiresAtMs());
+		assertTrue(token.isValid(System.currentTimeMillis()));
+		assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("BQD-access-token"));
+		if (Files.getFileStore(file).supportsFileAttributeView("posix"))
+			assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+	}
+
+	/**
+	 * Tests that a token saved under other credentials, a missing file
+	 * and a damaged file all read back as no token.
+	 */
+	@Test
+	public void testLoadRejectsOtherCredentialsAndDamage() throws IOException {
+		Path file = tempDir.resolve("token.bin");
+		SpotifyTokenStore store = new SpotifyTokenStore(file);
+		assertNull(store.load("id", "secret"));
+
+		store.save(new SpotifyTokenStore.Token("token", System.currentTimeMillis() + 3_600_000), "id", "secret");
+		assertNull(store.load("id", "other-secret"));
+
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(file, bytes);
+		assertNull(store.load("id", "secret"));
+
+		store.clear();
+		assertFalse(Files.exists(file));
+	}
+
+	/**
+	 * Tests that a token about to expire isn't treated as valid.
+	 */
+	@Test
+	public void testTokenExpiryMargin() {
+		long now = System.currentTimeMillis();
+		assertFalse(new SpotifyTokenStore.Token("token", now + SpotifyTokenStore.EXPIRY_MARGIN_MS - 1).isValid(now));
+		assertTrue(new SpotifyTokenStore.Token("token", now + SpotifyTokenStore.EXPIRY_MARGIN_MS + 1000).isValid(now));
+	}
+
+}
@@ -0,0 +1,75 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * SpotifyTopKTest contains the unit tests of the SpotifyTopK class.
+ * @author Matthew Bollinger
+ */
+class SpotifyTopKTest {
+
+	/**
+	 * Tests that only the most popular results are kept, from the
+	 * most to the least popular, and that equally popular results
+	 * are ranked by their position in the search.
+	 */
+	@Test
+	public void testKeepsMostPopular() {
+		SpotifyTopK<String> top = new SpotifyTopK<>(3);
+		assertTrue(top.offer(40, 0, "a"));
+		assertTrue(top.offer(90, 1, "b"));
+		assertEquals(-1, top.getMinPopularity());
+		assertTrue(top.offer(70, 2, "c"));
+		assertEquals(40, top.getMinPopularity());
+		assertTrue(top.accepts(41, 3));
+		assertFalse(top.accepts(40, 3));
+		assertFalse(top.offer(10, 3, "d"));
+		assertTrue(top.offer(70, 4, "e"));
+		// As popular as a kept result but further down the search
+		assertFalse(top.offer(70, 5, "f"));
+		assertEquals(3, top.size());
+		assertEquals(6, top.getOffered());
+		assertEquals(List.of("b", "c", "e"), top.drain());
+		assertEquals(0, top.size());
+		assertEquals(List.of(), top.drain());
+	}
+
+	/**
+	 * Tests that the kept results match sorting every result, for
+	 * many results offered in a random order.
+	 */
+	@Test
+	public void testMatchesFullSort() {
+		final Random random = new Random(42);
+		final int[][] results = new int[1000][];
+		for (int i = 0; i < results.length; i++)
+			results[i] = new int[] { random.nextInt(101), i };
+		SpotifyTopK<Integer> top = new SpotifyTopK<>(50);
+		List<int[]> shuffled = new ArrayList<>(Arrays.asList(results));
+		Collections.shuffle(shuffled, random);
+		for (int[] result : shuffled)
+			top.offer(result[0], result[1], result[1]);
+		final List<Integer> expected = Arrays.stream(results)
+				.sorted(Comparator.<int[]>comparingInt(result -> -result[0]).thenComparingInt(result -> result[1]))
+				.limit(50).map(result -> result[1]).collect(Collectors.toList());
+		assertEquals(expected, top.drain());
+	}
+
+	/**
+	 * Tests that a heap must keep at least one result.
+	 */
+	@Test
+	public void testBadCapacity() {
+		assertThrows(IllegalArgumentException.class, () -> new SpotifyTopK<String>(0));
+	}
+
+}
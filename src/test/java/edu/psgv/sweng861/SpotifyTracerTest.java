@@ -0,0 +1,112 @@
+package edu.psgv.sweng861;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.logging.log4j.CloseableThreadContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * SpotifyTracerTest contains the unit tests of the SpotifyTracer
+ * class. The stages are made up, and the timelines are written to a
+ * temporary directory.
+ * @author Matthew Bollinger
+ */
+class SpotifyTracerTest {
+
+	@TempDir
+	Path tempDir;
+
+	/**
+	 * waitForTraces() waits until the given number of timelines are written.
+	 */
+	private List<Path> waitForTraces(int count) throws IOException, InterruptedException {
+		for (int i = 0; i < 200; i++) {
+			try (Stream<Path> files = Files.list(tempDir)) {
+				List<Path> traces = files.filter(file -> file.getFileName().toString().endsWith(".json")).toList();
+				if (traces.size() >= count)
+					return traces;
+			}
+			Thread.sleep(10);
+		}
+		return List.of();
+	}
+
+	/**
+	 * Tests that the stages of a traced search, including one run on
+	 * another thread, are written as trace events of that search.
+	 */
+	@Test
+	@SuppressWarnings("try")
+	public void testWritesTrace() throws IOException, InterruptedException {
+		SpotifyTracer tracer = new SpotifyTracer(1, tempDir, 200);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		String id;
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				SpotifyTracer.Span search = tracer.begin("search artist", "adele")) {
+			id = SpotifyLog.getCorrelationId();
+			assertTrue(search.isTraced());
+			try (SpotifyTracer.Span token = tracer.span("token")) {
+				assertTrue(token.isTraced());
+			}
+			CompletableFuture.runAsync(() -> {
+				try (SpotifyTracer.Span request = tracer.span("search")) {
+					request.arg("status", "ok");
+				}
+			}, SpotifyLog.propagating(executor)).join();
+		} finally {
+			executor.shutdown();
+		}
+		List<Path> traces = waitForTraces(1);
+		assertEquals(1, traces.size());
+		assertTrue(traces.get(0).getFileName().toString().endsWith(id + ".json"));
+		JsonObject trace = JsonParser.parseString(Files.readString(traces.get(0))).getAsJsonObject();
+		JsonArray events = trace.getAsJsonArray("traceEvents");
+		List<JsonObject> spans = events.asList().stream().map(JsonElement::getAsJsonObject)
+				.filter(event -> event.get("ph").getAsString().equals("X")).toList();
+		assertEquals(List.of("search artist", "token", "search"),
+				spans.stream().map(span -> span.get("name").getAsString()).toList());
+		assertEquals("adele", spans.get(0).getAsJsonObject("args").get("query").getAsString());
+		assertEquals("ok", spans.get(2).getAsJsonObject("args").get("status").getAsString());
+		assertNotEquals(spans.get(0).get("tid").getAsLong(), spans.get(2).get("tid").getAsLong());
+		// The search spans every stage inside it
+		double end = spans.get(0).get("ts").getAsDouble() + spans.get(0).get("dur").getAsDouble();
+		assertTrue(spans.get(1).get("ts").getAsDouble() + spans.get(1).get("dur").getAsDouble() <= end);
+		assertTrue(events.asList().stream().map(JsonElement::getAsJsonObject)
+				.anyMatch(event -> event.get("name").getAsString().equals("thread_name")));
+	}
+
+	/**
+	 * Tests that nothing is recorded for searches left out of the
+	 * sample, or for stages outside of a search.
+	 */
+	@Test
+	@SuppressWarnings("try")
+	public void testUntracedSearch() throws IOException, InterruptedException {
+		SpotifyTracer tracer = new SpotifyTracer(0, tempDir, 0);
+		try (CloseableThreadContext.Instance context = SpotifyLog.correlate();
+				SpotifyTracer.Span search = tracer.begin("search song", "hello")) {
+			assertFalse(search.isTraced());
+			assertFalse(tracer.span("token").isTraced());
+		}
+		assertFalse(new SpotifyTracer(1, tempDir, 0).span("image").isTraced());
+		Thread.sleep(50);
+		try (Stream<Path> files = Files.list(tempDir)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+}